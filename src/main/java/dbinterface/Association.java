@@ -0,0 +1,101 @@
+package dbinterface;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A relationship between one Record class and another, declared by overriding
+ * Record.getAssociations(). Loaded for a whole list of records at once with Query.include().
+ */
+public abstract class Association {
+  protected final String name;
+  protected final Class<? extends Record> target;
+  protected final String foreignKey;
+
+  /**
+   * @param name Name to include() and getRelated() it by
+   * @param target Record class on the other end
+   * @param foreignKey Column holding the other record's id
+   */
+  protected Association(String name, Class<? extends Record> target, String foreignKey) {
+    this.name = name;
+    this.target = target;
+    this.foreignKey = foreignKey;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Class<? extends Record> getTarget() {
+    return target;
+  }
+
+  public String getForeignKey() {
+    return foreignKey;
+  }
+
+  /**
+   * Load the related records for every owner and attach them with Record.setRelated().
+   *
+   * @param database DB to load from
+   * @param owners Records to load for, all of the class that declared this association
+   * @throws SQLException
+   */
+  public abstract void load(DBInterface database, List<? extends Record> owners) throws SQLException;
+
+  /**
+   * Load every record of the target class where column is one of the values.
+   * Uses one query per DBInterface.MAX_VARIABLES values.
+   *
+   * @param database DB to load from
+   * @param column Column to match against
+   * @param values Values to look for
+   * @return The matching records, ordered by id
+   * @throws SQLException
+   */
+  protected ArrayList<Record> loadWhereIn(DBInterface database, String column, Collection<Integer> values) throws SQLException {
+    ArrayList<Record> found = new ArrayList<>();
+    Integer[] all = values.toArray(new Integer[values.size()]);
+    for(int start = 0; start < all.length; start += DBInterface.MAX_VARIABLES) {
+      int length = Math.min(DBInterface.MAX_VARIABLES, all.length - start);
+      Object[] chunk = new Object[length];
+      System.arraycopy(all, start, chunk, 0, length);
+      ArrayList<? extends Record> rows = new Query(database).in(target)
+          .where(column + " IN (" + DBInterface.createInsert(length) + ")", chunk)
+          .orderBy(DBInterface.COLUMN_ID)
+          .all(target);
+      found.addAll(rows);
+    }
+    return found;
+  }
+
+  /**
+   * Get a column of a record as an id, null if it isn't set or wasn't loaded.
+   *
+   * @param record Record to read from
+   * @param column Column to read
+   * @return the value as an Integer
+   */
+  protected static Integer idValue(Record record, String column) {
+    Object value;
+    RecordMetadata meta = RecordMetadata.of(record.getClass());
+    int position = meta.indexOf(column);
+    if(DBInterface.COLUMN_ID.equals(column)) {
+      value = record.getID();
+    } else if(position >= 0 && meta.getMapper() != null) {
+      if(record.getUnloaded() != null && record.getUnloaded().get(position)) {
+        return null;
+      }
+      value = meta.valueOf(record, position);
+    } else {
+      value = record.getValues().get(column);
+    }
+    if(value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,43 @@
+package dbinterface;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The owner holds the id of one target record, eg. an Order belongs to a Customer
+ * through order.customer_id. getRelated() returns the target record, or null.
+ */
+public class BelongsTo extends Association {
+
+  /**
+   * @param name Name to include() and getRelated() it by
+   * @param target Record class that is pointed to
+   * @param foreignKey Column on the owner holding the target's id
+   */
+  public BelongsTo(String name, Class<? extends Record> target, String foreignKey) {
+    super(name, target, foreignKey);
+  }
+
+  @Override
+  public void load(DBInterface database, List<? extends Record> owners) throws SQLException {
+    LinkedHashSet<Integer> ids = new LinkedHashSet<>();
+    Integer[] keys = new Integer[owners.size()];
+    for(int i = 0; i < keys.length; i++) {
+      keys[i] = idValue(owners.get(i), foreignKey);
+      if(keys[i] != null) {
+        ids.add(keys[i]);
+      }
+    }
+    HashMap<Integer, Record> byId = new HashMap<>();
+    if(!ids.isEmpty()) {
+      for(Record rec : loadWhereIn(database, DBInterface.COLUMN_ID, ids)) {
+        byId.put(rec.getID(), rec);
+      }
+    }
+    for(int i = 0; i < keys.length; i++) {
+      owners.get(i).setRelated(name, keys[i] == null ? null : byId.get(keys[i]));
+    }
+  }
+}
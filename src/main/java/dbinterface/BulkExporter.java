@@ -0,0 +1,148 @@
+package dbinterface;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Streams the result of a Query to a CSV or TSV file, one row at a time,
+ * so memory use doesn't depend on the size of the result.
+ * The output can be read back in with BulkLoader. BLOB values can't be written as text, so
+ * a row with one stops the export.
+ */
+public class BulkExporter {
+  private final Query query;
+  private char delimiter = ',';
+  private boolean header = true;
+  private Charset charset = StandardCharsets.UTF_8;
+
+  /**
+   * @param query Query to export the result of
+   */
+  public BulkExporter(Query query) {
+    this.query = query;
+  }
+
+  /**
+   * Set the field separator, ',' by default.
+   *
+   * @param delimiter separator
+   * @return this (for convenience)
+   */
+  public BulkExporter delimiter(char delimiter) {
+    this.delimiter = delimiter;
+    return this;
+  }
+
+  /**
+   * Write tab separated values.
+   *
+   * @return this (for convenience)
+   */
+  public BulkExporter tsv() {
+    return delimiter('\t');
+  }
+
+  /**
+   * Whether to write the column names as the first line, true by default.
+   *
+   * @param header true to write a header
+   * @return this (for convenience)
+   */
+  public BulkExporter header(boolean header) {
+    this.header = header;
+    return this;
+  }
+
+  public BulkExporter charset(Charset charset) {
+    this.charset = charset;
+    return this;
+  }
+
+  /**
+   * Export to a file, replacing it if it exists.
+   *
+   * @param file File to write
+   * @return Number of rows written
+   * @throws IOException
+   * @throws SQLException
+   */
+  public long export(Path file) throws IOException, SQLException {
+    Writer writer = Files.newBufferedWriter(file, charset);
+    try {
+      return export(writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Export to a writer. The writer is flushed but not closed.
+   *
+   * @param writer Destination
+   * @return Number of rows written
+   * @throws IOException
+   * @throws SQLException
+   */
+  public long export(Writer writer) throws IOException, SQLException {
+    ResultSet rs = query.allCursor();
+    long rows = 0;
+    try {
+      ResultSetMetaData meta = rs.getMetaData();
+      int width = meta.getColumnCount();
+      if(header) {
+        for(int i = 1; i <= width; i++) {
+          if(i > 1) writer.write(delimiter);
+          writeField(writer, meta.getColumnLabel(i));
+        }
+        writer.write('\n');
+      }
+      while(rs.next()) {
+        for(int i = 1; i <= width; i++) {
+          if(i > 1) writer.write(delimiter);
+          if(meta.getColumnType(i) == Types.BLOB) {
+            throw new SQLException("Can't export BLOB value of " + meta.getColumnLabel(i) + " in row " + (rows + 1));
+          }
+          writeField(writer, rs.getString(i));
+        }
+        writer.write('\n');
+        rows++;
+      }
+    } finally {
+      rs.close();
+    }
+    writer.flush();
+    return rows;
+  }
+
+  private void writeField(Writer writer, String value) throws IOException {
+    if(value == null) {
+      return;
+    }
+    boolean quote = value.isEmpty();
+    for(int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == delimiter || c == '"' || c == '\n' || c == '\r';
+    }
+    if(!quote) {
+      writer.write(value);
+      return;
+    }
+    writer.write('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if(c == '"') {
+        writer.write('"');
+      }
+      writer.write(c);
+    }
+    writer.write('"');
+  }
+}
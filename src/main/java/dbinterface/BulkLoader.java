@@ -0,0 +1,382 @@
+package dbinterface;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Streams a CSV or TSV file into a table without building Records.
+ * Rows are parsed straight into reused multi-row INSERT statements and committed in chunks,
+ * so memory use doesn't grow with the size of the file.
+ *
+ * Quoted fields ("a, b", "say ""hi""", line breaks) are supported. Empty unquoted fields are NULL.
+ * Every line needs a field for each column, and the columns have to be in the table.
+ */
+public class BulkLoader {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final DBInterface database;
+  private final String table;
+  private char delimiter = ',';
+  private boolean header = true;
+  private String[] columns = null;
+  private int chunkSize = 50000;
+  private Charset charset = StandardCharsets.UTF_8;
+  private Progress progress = null;
+
+  /**
+   * Called after each chunk is committed.
+   */
+  public interface Progress {
+    void loaded(long rows);
+  }
+
+  /**
+   * @param database DB to load into
+   * @param table Table to insert rows into
+   */
+  public BulkLoader(DBInterface database, String table) {
+    this.database = database;
+    this.table = table;
+  }
+
+  /**
+   * @param database DB to load into
+   * @param cl Record class whose table to insert rows into
+   */
+  public BulkLoader(DBInterface database, Class<? extends Record> cl) {
+    this(database, Record.getTableName(cl));
+  }
+
+  /**
+   * Set the field separator, ',' by default.
+   *
+   * @param delimiter separator
+   * @return this (for convenience)
+   */
+  public BulkLoader delimiter(char delimiter) {
+    this.delimiter = delimiter;
+    return this;
+  }
+
+  /**
+   * Read tab separated values.
+   *
+   * @return this (for convenience)
+   */
+  public BulkLoader tsv() {
+    return delimiter('\t');
+  }
+
+  /**
+   * Whether the first line holds the column names, true by default.
+   * If columns() is also set, the header line is skipped.
+   *
+   * @param header true if the first line is a header
+   * @return this (for convenience)
+   */
+  public BulkLoader header(boolean header) {
+    this.header = header;
+    return this;
+  }
+
+  /**
+   * Columns the fields of each line go into, in order.
+   *
+   * @param columns column names
+   * @return this (for convenience)
+   */
+  public BulkLoader columns(String... columns) {
+    this.columns = columns;
+    return this;
+  }
+
+  /**
+   * Number of rows per transaction. Commits happen after the first INSERT that reaches it,
+   * so a chunk can be up to one statement (999 values) bigger.
+   *
+   * @param rows rows per commit
+   * @return this (for convenience)
+   */
+  public BulkLoader chunkSize(int rows) {
+    this.chunkSize = rows;
+    return this;
+  }
+
+  public BulkLoader charset(Charset charset) {
+    this.charset = charset;
+    return this;
+  }
+
+  public BulkLoader progress(Progress progress) {
+    this.progress = progress;
+    return this;
+  }
+
+  /**
+   * Load a file.
+   *
+   * @param file CSV/TSV file
+   * @return Number of rows inserted
+   * @throws IOException
+   * @throws SQLException
+   */
+  public long load(Path file) throws IOException, SQLException {
+    Reader reader = Files.newBufferedReader(file, charset);
+    try {
+      return load(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Load from a reader. The reader isn't closed.
+   *
+   * @param reader Source of CSV/TSV text
+   * @return Number of rows inserted
+   * @throws IOException
+   * @throws SQLException
+   */
+  public long load(Reader reader) throws IOException, SQLException {
+    Parser parser = new Parser(reader, delimiter);
+    String[] cols = columns;
+    if(header) {
+      String[] names = parser.next();
+      if(names == null) {
+        return 0;
+      }
+      if(cols == null) {
+        cols = names;
+      }
+    }
+    if(cols == null) {
+      throw new IllegalStateException("No columns to load into, set columns() or use a header line");
+    }
+    checkColumns(cols);
+    int perStatement = Math.max(1, DBInterface.MAX_VARIABLES / cols.length);
+    perStatement = Math.min(perStatement, chunkSize);
+
+    Connection connection = database.getConnection();
+    boolean autoCommit = connection.getAutoCommit();
+    // Through the DBInterface, which a ResidentDBInterface serializes against its checkpoints
+    database.disableCommit();
+    PreparedStatement stmt = null;
+    long rows = 0;
+    long sinceCommit = 0;
+    try {
+      stmt = connection.prepareStatement(insertSql(cols, perStatement));
+      ArrayList<String[]> pending = new ArrayList<>(perStatement);
+      String[] fields;
+      while((fields = parser.next()) != null) {
+        if(fields.length == 1 && fields[0] == null && cols.length > 1) {
+          continue; // Blank line
+        }
+        if(fields.length != cols.length) {
+          throw new IOException("Line " + parser.line() + " has " + fields.length + " fields, expected "
+              + cols.length);
+        }
+        pending.add(fields);
+        if(pending.size() == perStatement) {
+          execute(stmt, pending, cols.length);
+          rows += pending.size();
+          sinceCommit += pending.size();
+          pending.clear();
+          if(sinceCommit >= chunkSize) {
+            commitChunk(connection, autoCommit, rows);
+            sinceCommit = 0;
+          }
+        }
+      }
+      if(!pending.isEmpty()) {
+        PreparedStatement last = connection.prepareStatement(insertSql(cols, pending.size()));
+        execute(last, pending, cols.length);
+        last.close();
+        rows += pending.size();
+        sinceCommit += pending.size();
+      }
+      if(sinceCommit > 0) {
+        commitChunk(connection, autoCommit, rows);
+      }
+    } catch(SQLException | IOException | RuntimeException e) {
+      if(autoCommit) {
+        connection.rollback();
+        database.rolledBack();
+      }
+      throw e;
+    } finally {
+      if(stmt != null) {
+        stmt.close();
+      }
+      connection.setAutoCommit(autoCommit);
+    }
+    return rows;
+  }
+
+  /**
+   * Column names go into the INSERT as they are, so they have to be the table's.
+   */
+  private void checkColumns(String[] cols) throws SQLException {
+    HashSet<String> existing = new HashSet<>();
+    ResultSet rs = database.rawQuery("PRAGMA table_info(" + table + ")", null);
+    while(rs.next()) {
+      existing.add(rs.getString("name").toLowerCase());
+    }
+    rs.close();
+    if(existing.isEmpty()) {
+      throw new SQLException("No table " + table);
+    }
+    ArrayList<String> missing = new ArrayList<>();
+    for(String column : cols) {
+      if(column == null || !existing.contains(column.toLowerCase())) {
+        missing.add(String.valueOf(column));
+      }
+    }
+    if(!missing.isEmpty()) {
+      throw new SQLException("Table " + table + " has no column(s) " + String.join(", ", missing));
+    }
+  }
+
+  private void commitChunk(Connection connection, boolean autoCommit, long rows) throws SQLException {
+    // If the caller has their own transaction open, the load just becomes part of it.
+    if(autoCommit) {
+      connection.commit();
+      database.committed();
+    }
+    if(progress != null) {
+      progress.loaded(rows);
+    }
+  }
+
+  private void execute(PreparedStatement stmt, ArrayList<String[]> rows, int width) throws SQLException {
+    int pos = 1;
+    for(String[] fields : rows) {
+      for(int i = 0; i < width; i++) {
+        String value = fields[i];
+        if(value == null) {
+          stmt.setNull(pos, Types.NULL);
+        } else {
+          stmt.setString(pos, value);
+        }
+        pos++;
+      }
+    }
+    stmt.executeUpdate();
+  }
+
+  private String insertSql(String[] cols, int rows) {
+    String row = "(" + DBInterface.createInsert(cols.length) + ")";
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+        .append(" (").append(String.join(", ", cols)).append(") VALUES ");
+    for(int i = 0; i < rows; i++) {
+      if(i > 0) sql.append(", ");
+      sql.append(row);
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Splits delimited text into records, reading through its own buffer.
+   */
+  static class Parser {
+    private final Reader reader;
+    private final char delimiter;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private int lines = 0;
+    private int recordLine = 0;
+    private final StringBuilder field = new StringBuilder();
+    private final ArrayList<String> fields = new ArrayList<>();
+
+    Parser(Reader reader, char delimiter) {
+      this.reader = reader;
+      this.delimiter = delimiter;
+    }
+
+    private int read() throws IOException {
+      if(pos == limit) {
+        limit = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        if(limit <= 0) {
+          limit = 0;
+          return -1;
+        }
+      }
+      char c = buffer[pos++];
+      if(c == '\n') {
+        lines++;
+      }
+      return c;
+    }
+
+    /**
+     * @return Line number the last record started on, from 1
+     */
+    int line() {
+      return recordLine;
+    }
+
+    /**
+     * @return Fields of the next record, null at the end of the input.
+     */
+    String[] next() throws IOException {
+      fields.clear();
+      field.setLength(0);
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      recordLine = lines + 1;
+      int c = read();
+      if(c == -1) {
+        return null;
+      }
+      while(true) {
+        if(quoted) {
+          if(c == -1) {
+            throw new IOException("Unterminated quoted field");
+          } else if(c == '"') {
+            c = read();
+            if(c == '"') {
+              field.append('"');
+            } else {
+              quoted = false;
+              continue;
+            }
+          } else {
+            field.append((char) c);
+          }
+        } else if(c == delimiter) {
+          endField(wasQuoted);
+          wasQuoted = false;
+        } else if(c == '\n' || c == -1) {
+          endField(wasQuoted);
+          break;
+        } else if(c == '\r') {
+          // Part of \r\n, the \n ends the record.
+        } else if(c == '"' && field.length() == 0) {
+          quoted = true;
+          wasQuoted = true;
+        } else {
+          field.append((char) c);
+        }
+        c = read();
+      }
+      return fields.toArray(new String[fields.size()]);
+    }
+
+    private void endField(boolean wasQuoted) {
+      fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+      field.setLength(0);
+    }
+  }
+}
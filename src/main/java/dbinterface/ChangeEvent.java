@@ -0,0 +1,40 @@
+package dbinterface;
+
+/**
+ * A row that was inserted, updated or deleted, published by a ChangeFeed once its transaction commits.
+ */
+public class ChangeEvent {
+  public enum Operation {
+    INSERT, UPDATE, DELETE
+  }
+
+  private final String table;
+  private final Operation operation;
+  private final long rowid;
+
+  ChangeEvent(String table, Operation operation, long rowid) {
+    this.table = table;
+    this.operation = operation;
+    this.rowid = rowid;
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public Operation getOperation() {
+    return operation;
+  }
+
+  /**
+   * @return rowid of the row, the same as its id for Record tables
+   */
+  public long getRowid() {
+    return rowid;
+  }
+
+  @Override
+  public String toString() {
+    return operation + " " + table + " " + rowid;
+  }
+}
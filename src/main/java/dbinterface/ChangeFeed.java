@@ -0,0 +1,240 @@
+package dbinterface;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+import org.sqlite.Function;
+
+/**
+ * Publishes the rows changed in a database, so caches and indexes can react instead of polling.
+ *
+ * Changes to watched tables are captured by temporary triggers as they happen, held until the
+ * transaction (or single statement) commits, then published as one batch. Rolled back changes are
+ * never published. Subscribers get batches through java.util.concurrent.Flow with backpressure:
+ * each subscriber has a buffer of maxBuffer batches, and a commit waits if a buffer is full.
+ *
+ * Get the feed with dbi.changes(). Only changes made through the DBInterface it belongs to are seen.
+ */
+public class ChangeFeed implements Flow.Publisher<List<ChangeEvent>> {
+  private static final String CAPTURE = "dbinterface_capture";
+  private static final ChangeEvent.Operation[] OPERATIONS = ChangeEvent.Operation.values();
+
+  private final LinkedHashSet<String> tables = new LinkedHashSet<>();
+  private final SubmissionPublisher<List<ChangeEvent>> all;
+  private final ConcurrentHashMap<String, SubmissionPublisher<List<ChangeEvent>>> byTable = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, CopyOnWriteArrayList<Listener>> listeners = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final int maxBuffer;
+  private ArrayList<ChangeEvent> pending = new ArrayList<>();
+  private DBInterface database = null;
+
+  /**
+   * Gets a table's batches on the thread that committed them, before subscribers do.
+   */
+  interface Listener {
+    void committed(List<ChangeEvent> batch);
+
+    void closed();
+  }
+
+  /**
+   * Deliver on the common ForkJoinPool with the default buffer size.
+   */
+  public ChangeFeed() {
+    this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+  }
+
+  /**
+   * @param executor Runs subscribers' onNext
+   * @param maxBuffer Batches each subscriber can fall behind by before commits wait for it
+   */
+  public ChangeFeed(Executor executor, int maxBuffer) {
+    this.executor = executor;
+    this.maxBuffer = maxBuffer;
+    this.all = new SubmissionPublisher<>(executor, maxBuffer);
+  }
+
+  /**
+   * Capture changes to a table.
+   *
+   * @param table Table to watch
+   * @return this (for convenience)
+   * @throws SQLException
+   */
+  public synchronized ChangeFeed watch(String table) throws SQLException {
+    if(tables.add(table) && database != null && !database.isClosed()) {
+      install(database.getConnection(), table);
+    }
+    return this;
+  }
+
+  /**
+   * Capture changes to a Record class's table.
+   *
+   * @param cl Record class to watch
+   * @return this (for convenience)
+   * @throws SQLException
+   */
+  public ChangeFeed watch(Class<? extends Record> cl) throws SQLException {
+    return watch(Record.getTableName(cl));
+  }
+
+  /**
+   * Get batches of changes from every watched table.
+   */
+  @Override
+  public void subscribe(Flow.Subscriber<? super List<ChangeEvent>> subscriber) {
+    all.subscribe(subscriber);
+  }
+
+  /**
+   * Get batches of changes from one table, which is watched if it wasn't already.
+   *
+   * @param table Table to get changes from
+   * @param subscriber Receives lists of changes
+   * @throws SQLException if the table can't be watched
+   */
+  public void subscribe(String table, Flow.Subscriber<? super List<ChangeEvent>> subscriber) throws SQLException {
+    watch(table);
+    byTable.computeIfAbsent(table.toLowerCase(), t -> new SubmissionPublisher<>(executor, maxBuffer)).subscribe(subscriber);
+  }
+
+  /**
+   * Call a listener with each batch of changes to a table, which is watched if it wasn't already.
+   * It runs on the committing thread, while the connection has no transaction open.
+   */
+  void listen(String table, Listener listener) throws SQLException {
+    watch(table);
+    listeners.computeIfAbsent(table.toLowerCase(), t -> new CopyOnWriteArrayList<>()).add(listener);
+  }
+
+  void unlisten(String table, Listener listener) {
+    CopyOnWriteArrayList<Listener> tableListeners = listeners.get(table.toLowerCase());
+    if(tableListeners != null) {
+      tableListeners.remove(listener);
+    }
+  }
+
+  /**
+   * Complete every subscription. Changes after this aren't published.
+   */
+  public void close() {
+    all.close();
+    for(SubmissionPublisher<List<ChangeEvent>> publisher : byTable.values()) {
+      publisher.close();
+    }
+    for(CopyOnWriteArrayList<Listener> tableListeners : listeners.values()) {
+      for(Listener listener : tableListeners) {
+        listener.closed();
+      }
+      tableListeners.clear();
+    }
+  }
+
+  /**
+   * Add the capture function and triggers to a newly opened connection.
+   * Tables that don't exist yet are skipped.
+   */
+  synchronized void attach(DBInterface database) throws SQLException {
+    this.database = database;
+    discard();
+    Connection connection = database.getConnection();
+    Function.create(connection, CAPTURE, new Capture());
+    for(String table : tables) {
+      ResultSet rs = database.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?", new Object[] {table});
+      boolean exists = rs.getInt(1) > 0;
+      rs.close();
+      if(exists) {
+        install(connection, table);
+      }
+    }
+  }
+
+  private static void install(Connection connection, String table) throws SQLException {
+    String[] when = new String[] {"INSERT", "UPDATE", "DELETE"};
+    java.sql.Statement stmt = connection.createStatement();
+    try {
+      for(int i = 0; i < when.length; i++) {
+        String row = i == 2 ? "old" : "new";
+        stmt.executeUpdate("CREATE TEMP TRIGGER IF NOT EXISTS " + CAPTURE + "_" + table + "_" + when[i].toLowerCase()
+            + " AFTER " + when[i] + " ON main." + table
+            + " BEGIN SELECT " + CAPTURE + "('" + table + "', " + i + ", " + row + ".rowid); END");
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * The current transaction committed, publish what it changed.
+   */
+  void committed() {
+    ArrayList<ChangeEvent> batch;
+    synchronized(this) {
+      if(pending.isEmpty()) {
+        return;
+      }
+      batch = pending;
+      pending = new ArrayList<>();
+    }
+    List<ChangeEvent> events = Collections.unmodifiableList(batch);
+    if(all.hasSubscribers()) {
+      all.submit(events);
+    }
+    if(byTable.isEmpty() && listeners.isEmpty()) {
+      return;
+    }
+    LinkedHashMap<String, ArrayList<ChangeEvent>> grouped = new LinkedHashMap<>();
+    for(ChangeEvent event : batch) {
+      grouped.computeIfAbsent(event.getTable().toLowerCase(), t -> new ArrayList<>()).add(event);
+    }
+    for(Map.Entry<String, ArrayList<ChangeEvent>> group : grouped.entrySet()) {
+      List<ChangeEvent> tableEvents = Collections.unmodifiableList(group.getValue());
+      CopyOnWriteArrayList<Listener> tableListeners = listeners.get(group.getKey());
+      if(tableListeners != null) {
+        for(Listener listener : tableListeners) {
+          listener.committed(tableEvents);
+        }
+      }
+      SubmissionPublisher<List<ChangeEvent>> publisher = byTable.get(group.getKey());
+      if(publisher != null && publisher.hasSubscribers()) {
+        publisher.submit(tableEvents);
+      }
+    }
+  }
+
+  /**
+   * The current transaction rolled back, forget what it changed.
+   */
+  synchronized void discard() {
+    pending.clear();
+  }
+
+  private synchronized void captured(String table, int operation, long rowid) {
+    pending.add(new ChangeEvent(table, OPERATIONS[operation], rowid));
+  }
+
+  /**
+   * Called by the triggers for every changed row.
+   */
+  private class Capture extends Function {
+    @Override
+    protected void xFunc() throws SQLException {
+      captured(value_text(0), value_int(1), value_long(2));
+      result();
+    }
+  }
+}
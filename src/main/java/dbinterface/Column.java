@@ -0,0 +1,21 @@
+package dbinterface;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a Record subclass as a column. MapperProcessor generates a RecordMapper
+ * for the class at compile time, so setValues(), insertValues() and fastValues() don't have
+ * to be written by hand.
+ * Fields must not be private, static or final.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Column {
+  /**
+   * @return Name of the column, defaults to the field name in lower case.
+   */
+  String value() default "";
+}
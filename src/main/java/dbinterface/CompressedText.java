@@ -0,0 +1,316 @@
+package dbinterface;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A text column stored compressed, for large JSON or text that would otherwise bloat the file,
+ * the page cache and backups.
+ *
+ * Use it as a Record field with @Column, or with CompressedText.read() and bind() by hand. Values are
+ * stored as a BLOB: one header byte saying how the rest is encoded, then the UTF-8 text, deflated if
+ * it's at least MIN_LENGTH bytes and deflating makes it smaller. Loading a record keeps the stored
+ * bytes and only inflates them the first time getText() is called, and saving an unchanged value
+ * writes the stored bytes back without recompressing. Plain TEXT values are read as they are, so a
+ * column can be switched over without rewriting it.
+ *
+ * Compressed columns can't be searched or compared in SQL. How well each column compresses, and
+ * what it costs, is kept in getStats().
+ */
+public final class CompressedText {
+  /**
+   * Text shorter than this many bytes is stored without compressing.
+   */
+  public static final int MIN_LENGTH = 128;
+  static final byte PLAIN = 0;
+  static final byte DEFLATE = 1;
+
+  private static final ConcurrentHashMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+  private final Stats stats;
+  private String text;
+  private byte[] stored;
+
+  private CompressedText(String text, byte[] stored, Stats stats) {
+    this.text = text;
+    this.stored = stored;
+    this.stats = stats;
+  }
+
+  /**
+   * @param text Value to save, compressed when it's bound
+   * @return a new value, or null if text is null
+   */
+  public static CompressedText of(String text) {
+    return text == null ? null : new CompressedText(text, null, null);
+  }
+
+  /**
+   * Read a stored value without inflating it. Used from setValues() and by generated mappers.
+   *
+   * @param rs ResultSet on the row
+   * @param column Index of the column
+   * @param table Table the column is in, for getStats()
+   * @param name Name of the column, for getStats()
+   * @return the value, null if it's NULL
+   * @throws SQLException
+   */
+  public static CompressedText read(ResultSet rs, int column, String table, String name) throws SQLException {
+    Object value = rs.getObject(column);
+    if(value == null) {
+      return null;
+    } else if(value instanceof byte[]) {
+      return new CompressedText(null, (byte[]) value, statsFor(table, name));
+    }
+    // Not converted yet, the column still holds plain text.
+    return new CompressedText(value.toString(), null, null);
+  }
+
+  /**
+   * Same as read(rs, index, table, name), by column name.
+   */
+  public static CompressedText read(ResultSet rs, String table, String name) throws SQLException {
+    return read(rs, rs.findColumn(name), table, name);
+  }
+
+  /**
+   * Bind a value to a ?, compressing it if it hasn't been already. Used by generated mappers.
+   *
+   * @param stmt Statement to bind to
+   * @param pos Index of the ?
+   * @param value Value to bind, null for NULL
+   * @param table Table the column is in, for getStats(), null to not count it
+   * @param name Name of the column, for getStats()
+   * @throws SQLException
+   */
+  public static void bind(PreparedStatement stmt, int pos, CompressedText value, String table, String name) throws SQLException {
+    if(value == null) {
+      stmt.setNull(pos, Types.BLOB);
+    } else {
+      stmt.setBytes(pos, value.encoded(table == null ? null : statsFor(table, name)));
+    }
+  }
+
+  /**
+   * @return The text, inflated the first time it's asked for
+   */
+  public synchronized String getText() {
+    if(text == null) {
+      long start = System.nanoTime();
+      text = decode(stored);
+      if(stats != null) {
+        stats.decompressed(System.nanoTime() - start);
+      }
+    }
+    return text;
+  }
+
+  /**
+   * @return Bytes the value takes in the database, including the header, -1 if it hasn't been saved
+   */
+  public synchronized int getStoredLength() {
+    return stored == null ? -1 : stored.length;
+  }
+
+  /**
+   * @return If getText() has inflated the value yet, or it never needed to
+   */
+  public synchronized boolean isDecoded() {
+    return text != null;
+  }
+
+  private synchronized byte[] encoded(Stats stats) {
+    if(stored == null) {
+      long start = System.nanoTime();
+      byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+      stored = encode(raw);
+      if(stats != null) {
+        stats.compressed(raw.length, stored.length, System.nanoTime() - start);
+      }
+    }
+    return stored;
+  }
+
+  static byte[] encode(byte[] raw) {
+    if(raw.length >= MIN_LENGTH) {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(raw);
+      deflater.finish();
+      byte[] out = new byte[raw.length];
+      out[0] = DEFLATE;
+      int length = 1;
+      while(!deflater.finished() && length < out.length) {
+        length += deflater.deflate(out, length, out.length - length);
+      }
+      boolean smaller = deflater.finished();
+      deflater.end();
+      if(smaller) {
+        return Arrays.copyOf(out, length);
+      }
+    }
+    byte[] out = new byte[raw.length + 1];
+    out[0] = PLAIN;
+    System.arraycopy(raw, 0, out, 1, raw.length);
+    return out;
+  }
+
+  static String decode(byte[] stored) {
+    if(stored.length == 0) {
+      return "";
+    }
+    if(stored[0] == PLAIN) {
+      return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+    } else if(stored[0] != DEFLATE) {
+      throw new IllegalStateException("Unknown compressed text header " + stored[0]);
+    }
+    Inflater inflater = new Inflater(true);
+    inflater.setInput(stored, 1, stored.length - 1);
+    byte[] out = new byte[Math.max(64, stored.length * 4)];
+    int length = 0;
+    try {
+      while(!inflater.finished()) {
+        if(length == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        int inflated = inflater.inflate(out, length, out.length - length);
+        if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalStateException("Compressed text is truncated");
+        }
+        length += inflated;
+      }
+    } catch(DataFormatException dfe) {
+      throw new IllegalStateException("Compressed text is corrupt", dfe);
+    } finally {
+      inflater.end();
+    }
+    return new String(out, 0, length, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof CompressedText && getText().equals(((CompressedText) other).getText());
+  }
+
+  @Override
+  public int hashCode() {
+    return getText().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return getText();
+  }
+
+  /**
+   * @param table Table the column is in
+   * @param column Compressed column
+   * @return Stats for the column, created if there are none yet
+   */
+  public static Stats statsFor(String table, String column) {
+    return STATS.computeIfAbsent(table + "." + column, Stats::new);
+  }
+
+  /**
+   * @return Stats for every compressed column used since startup, by table.column
+   */
+  public static TreeMap<String, Stats> getStats() {
+    return new TreeMap<>(STATS);
+  }
+
+  /**
+   * Forget the stats collected so far.
+   */
+  public static void resetStats() {
+    STATS.clear();
+  }
+
+  /**
+   * How well one column compresses and how long it takes.
+   */
+  public static class Stats {
+    private final String column;
+    private final LongAdder values = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressions = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    Stats(String column) {
+      this.column = column;
+    }
+
+    void compressed(long raw, long stored, long nanos) {
+      values.increment();
+      rawBytes.add(raw);
+      storedBytes.add(stored);
+      compressNanos.add(nanos);
+    }
+
+    void decompressed(long nanos) {
+      decompressions.increment();
+      decompressNanos.add(nanos);
+    }
+
+    /**
+     * @return table.column
+     */
+    public String getColumn() {
+      return column;
+    }
+
+    /**
+     * @return Number of values compressed
+     */
+    public long getValues() {
+      return values.sum();
+    }
+
+    public long getRawBytes() {
+      return rawBytes.sum();
+    }
+
+    public long getStoredBytes() {
+      return storedBytes.sum();
+    }
+
+    /**
+     * @return Raw bytes over stored bytes, eg. 4.0 means a quarter of the size, 0 if nothing was compressed
+     */
+    public double getRatio() {
+      long stored = storedBytes.sum();
+      return stored == 0 ? 0 : (double) rawBytes.sum() / stored;
+    }
+
+    public long getCompressNanos() {
+      return compressNanos.sum();
+    }
+
+    /**
+     * @return Number of values inflated by getText()
+     */
+    public long getDecompressions() {
+      return decompressions.sum();
+    }
+
+    public long getDecompressNanos() {
+      return decompressNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d values, %.1fx, %.1fms compressing, %d inflated in %.1fms", column, getValues(),
+          getRatio(), getCompressNanos() / 1e6, getDecompressions(), getDecompressNanos() / 1e6);
+    }
+  }
+}
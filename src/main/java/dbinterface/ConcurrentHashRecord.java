@@ -0,0 +1,380 @@
+package dbinterface;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe version of HashRecord.
+ * Readers never block, writers only contend on the entry they are changing.
+ * Dirty entries can be flushed by hand or by a background thread on an interval. A flush writes
+ * in one transaction, and entries are only marked saved once it commits. The background thread
+ * flushes on a connection of its own to the database's file, so it never joins a transaction
+ * the application has open.
+ */
+public class ConcurrentHashRecord {
+  private final ConcurrentHashMap<String, StoredValue> values = new ConcurrentHashMap<>();
+  private final AtomicInteger dirtyCount = new AtomicInteger();
+  private final String tableName;
+  private volatile long lastFlush = System.currentTimeMillis();
+  private volatile SQLException lastFlushError = null;
+
+  private ScheduledExecutorService flusher = null;
+  private ScheduledFuture<?> flushTask = null;
+  // The background flusher's own connection to the file, open while it's running
+  private File flushLocation = null;
+  private DBInterface flushDatabase = null;
+
+  /**
+   * Create an empty ConcurrentHashRecord
+   *
+   * @param tableName Name of table to save to
+   */
+  public ConcurrentHashRecord(String tableName) {
+    this.tableName = tableName;
+  }
+
+  /**
+   * Load from the set table into the map
+   *
+   * @param dbi DBInterface to query with
+   * @throws SQLException
+   */
+  public void load(DBInterface dbi) throws SQLException {
+    ResultSet rs = new Query(dbi).from(tableName).allCursor();
+    load(rs);
+    rs.close();
+  }
+
+  /**
+   * Load values from ResultSet. Values that have unsaved changes are kept, and are
+   * flushed as updates since their row exists.
+   *
+   * @param rs ResultSet with values
+   * @throws SQLException
+   */
+  public void load(ResultSet rs) throws SQLException {
+    while(rs.next()) {
+      StoredValue loaded = new StoredValue(rs.getString("value"), true, false, false);
+      values.merge(rs.getString("key"), loaded, (current, fresh) -> current.dirty ? current.withPersisted(true) : fresh);
+    }
+  }
+
+  /**
+   * Insert a value into the map.
+   * Is not put into the DB until flush() is called or the background flush runs.
+   *
+   * @param key Key to store with
+   * @param value Value to store
+   */
+  public void put(String key, String value) {
+    values.compute(key, (k, current) -> {
+      if(current == null || !current.dirty) {
+        dirtyCount.incrementAndGet();
+        return new StoredValue(value, current != null && current.persisted, true, false);
+      }
+      return new StoredValue(value, current.persisted, true, false, current.changedAt);
+    });
+  }
+
+  /**
+   * Removes the key/value pair from the map.
+   * Does not remove from the DB until the record is flushed.
+   *
+   * @param key Key to remove
+   * @return If a value was removed.
+   */
+  public boolean remove(String key) {
+    boolean[] removed = new boolean[1];
+    values.computeIfPresent(key, (k, current) -> {
+      if(current.removed) {
+        return current;
+      }
+      removed[0] = true;
+      if(!current.persisted) {
+        if(current.dirty) dirtyCount.decrementAndGet();
+        return null;
+      }
+      if(!current.dirty) {
+        dirtyCount.incrementAndGet();
+        return new StoredValue(null, true, true, true);
+      }
+      return new StoredValue(null, true, true, true, current.changedAt);
+    });
+    return removed[0];
+  }
+
+  /**
+   * Get a value from the map, never blocks.
+   * null if the value is non-existent or removed
+   *
+   * @param key Key of value to get
+   * @return The corresponding value of the key, otherwise null.
+   */
+  public String get(String key) {
+    StoredValue stv = values.get(key);
+    if(stv != null && !stv.removed) {
+      return stv.value;
+    }
+    return null;
+  }
+
+  /**
+   * Check if there is a value in the map for a given key
+   *
+   * @param key Key to check
+   * @return true if there is a value for the key, false otherwise
+   */
+  public boolean has(String key) {
+    StoredValue stv = values.get(key);
+    return stv != null && !stv.removed;
+  }
+
+  /**
+   * Check if there are unflushed changes in the map
+   *
+   * @return true if all changes have been saved, false otherwise.
+   */
+  public boolean isSaved() {
+    return dirtyCount.get() == 0;
+  }
+
+  /**
+   * Number of entries with changes that have not been written to the DB.
+   *
+   * @return count of dirty entries
+   */
+  public int getDirtyCount() {
+    return dirtyCount.get();
+  }
+
+  /**
+   * How far behind the database is, in milliseconds since the oldest unflushed change.
+   *
+   * @return 0 if there is nothing to flush, otherwise the age of the oldest change.
+   */
+  public long getFlushLag() {
+    long oldest = Long.MAX_VALUE;
+    for(StoredValue stv : values.values()) {
+      if(stv.dirty && stv.changedAt < oldest) {
+        oldest = stv.changedAt;
+      }
+    }
+    if(oldest == Long.MAX_VALUE) {
+      return 0;
+    }
+    return Math.max(0, System.currentTimeMillis() - oldest);
+  }
+
+  /**
+   * Time the last flush finished, as System.currentTimeMillis()
+   *
+   * @return time of last completed flush
+   */
+  public long getLastFlush() {
+    return lastFlush;
+  }
+
+  /**
+   * The error thrown by the last background flush, null if it succeeded.
+   *
+   * @return the exception or null
+   */
+  public SQLException getLastFlushError() {
+    return lastFlushError;
+  }
+
+  /**
+   * Write all dirty entries to the database, in one transaction, or as part of the one already
+   * open on dbi. Entries changed while the flush is running stay dirty for the next flush, and
+   * if it fails they all do.
+   *
+   * @param dbi DBInterface to use.
+   * @return Number of entries written
+   * @throws SQLException
+   */
+  public synchronized int flush(DBInterface dbi) throws SQLException {
+    ArrayList<String> keys = new ArrayList<>();
+    ArrayList<StoredValue> written = new ArrayList<>();
+    if(dirtyCount.get() > 0) {
+      dbi.transaction(db -> {
+        for(Map.Entry<String, StoredValue> entry : values.entrySet()) {
+          StoredValue stv = entry.getValue();
+          if(stv.dirty) {
+            write(db, entry.getKey(), stv);
+            keys.add(entry.getKey());
+            written.add(stv);
+          }
+        }
+      });
+    }
+    for(int i = 0; i < keys.size(); i++) {
+      markWritten(keys.get(i), written.get(i));
+    }
+    lastFlush = System.currentTimeMillis();
+    return written.size();
+  }
+
+  private void write(DBInterface dbi, String key, StoredValue stv) throws SQLException {
+    if(stv.removed) {
+      new Query(dbi).from(tableName).where("key=?", key).drop();
+    } else {
+      HashMap<String, Object> row = new HashMap<>();
+      row.put("value", stv.value);
+      if(stv.persisted) {
+        new Query(dbi).from(tableName).where("key=?", key).update(row);
+      } else {
+        row.put("key", key);
+        new Query(dbi).from(tableName).insert(row);
+      }
+    }
+  }
+
+  /**
+   * Once stv has been committed, mark its entry saved unless it's changed since.
+   */
+  private void markWritten(String key, StoredValue stv) {
+    if(stv.removed) {
+      values.compute(key, (k, current) -> {
+        if(current == stv) {
+          dirtyCount.decrementAndGet();
+          return null;
+        }
+        // Put back during the flush, the row has to be inserted again.
+        return current == null ? null : current.withPersisted(false);
+      });
+    } else {
+      values.compute(key, (k, current) -> {
+        if(current == stv) {
+          dirtyCount.decrementAndGet();
+          return new StoredValue(stv.value, true, false, false);
+        }
+        if(current == null) {
+          // Removed during the flush, the row we just wrote has to go next time.
+          dirtyCount.incrementAndGet();
+          return new StoredValue(null, true, true, true);
+        }
+        return current.withPersisted(true);
+      });
+    }
+  }
+
+  /**
+   * Same as flush(), for people used to HashRecord.
+   *
+   * @param dbi DBInterface to use.
+   * @throws SQLException
+   */
+  public void save(DBInterface dbi) throws SQLException {
+    flush(dbi);
+  }
+
+  /**
+   * Start flushing dirty entries on a background thread, on a connection of its own to dbi's file.
+   * Restarts the flusher if it is already running.
+   *
+   * @param dbi DBInterface to flush to, in a file
+   * @param interval Time between flushes
+   * @param unit Unit of interval
+   * @throws IllegalArgumentException if the database is in memory
+   */
+  public synchronized void startFlushing(DBInterface dbi, long interval, TimeUnit unit) {
+    if(dbi.getLocation() == null) {
+      throw new IllegalArgumentException("Background flushing needs a database in a file");
+    }
+    stopFlushing();
+    flushLocation = dbi.getLocation();
+    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "ConcurrentHashRecord-" + tableName);
+      t.setDaemon(true);
+      return t;
+    });
+    flushTask = flusher.scheduleWithFixedDelay(this::flushInBackground, interval, interval, unit);
+  }
+
+  private synchronized void flushInBackground() {
+    if(flusher == null) {
+      return;
+    }
+    try {
+      if(flushDatabase == null) {
+        flushDatabase = new DBInterface(flushLocation).open();
+      }
+      flush(flushDatabase);
+      lastFlushError = null;
+    } catch(SQLException sqe) {
+      lastFlushError = sqe;
+    }
+  }
+
+  /**
+   * Stop the background flusher, if it is running. Does not flush remaining changes.
+   */
+  public synchronized void stopFlushing() {
+    if(flusher != null) {
+      flushTask.cancel(false);
+      flusher.shutdown();
+      flusher = null;
+      flushTask = null;
+    }
+    if(flushDatabase != null) {
+      flushDatabase.close();
+      flushDatabase = null;
+    }
+  }
+
+  /**
+   * Check whether the background flusher is running
+   *
+   * @return true if flushing in the background
+   */
+  public synchronized boolean isFlushing() {
+    return flusher != null;
+  }
+
+  /**
+   * Create a table for this record to save into. Does nothing if it already exists.
+   * @param dbi DBI to create table in
+   * @throws SQLException
+   */
+  public void createTable(DBInterface dbi) throws SQLException {
+    dbi.runSql("CREATE TABLE IF NOT EXISTS " + tableName + " (key varchar(50), value text);");
+  }
+
+  private static class StoredValue {
+    final String value;
+    final boolean persisted;
+    final boolean dirty;
+    final boolean removed;
+    final long changedAt;
+
+    StoredValue(String value, boolean persisted, boolean dirty, boolean removed) {
+      this(value, persisted, dirty, removed, System.currentTimeMillis());
+    }
+
+    StoredValue(String value, boolean persisted, boolean dirty, boolean removed, long changedAt) {
+      this.value = value;
+      this.persisted = persisted;
+      this.dirty = dirty;
+      this.removed = removed;
+      this.changedAt = changedAt;
+    }
+
+    StoredValue withPersisted(boolean persisted) {
+      return new StoredValue(value, persisted, dirty, removed, changedAt);
+    }
+
+    public String toString() {
+      return value + (dirty ? " (dirty)" : "");
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package dbinterface;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Row counts kept up to date by triggers, so counting a large table doesn't scan it.
+ *
+ * create() adds a row to the dbinterface_counts table holding the number of rows in a table, or
+ * the number that match a predicate, and triggers that adjust it as rows are inserted, updated
+ * and deleted. Query.count() then reads the count instead of running count(*) when the query has
+ * no arguments and its where() is exactly the predicate, or is empty for the whole table.
+ * Counts change in the same transaction as the rows, so a rollback undoes both.
+ *
+ * Every write to the table also updates the count, which is one extra row lookup for a predicate.
+ */
+public class CounterCache {
+  static final String TABLE = "dbinterface_counts";
+  private static final String TRIGGER = "dbinterface_count_";
+
+  /**
+   * Counter ids by table and predicate, per connection, read the first time one is looked up.
+   */
+  private static final Map<Connection, HashMap<String, Long>> COUNTERS = Collections.synchronizedMap(
+      new WeakHashMap<Connection, HashMap<String, Long>>());
+
+  private CounterCache() {
+  }
+
+  /**
+   * Count every row of a table. Run it from a migration, eg.
+   * dbi.migration(3, db -> CounterCache.create(db, Book.class))
+   *
+   * @param database DB to create it in
+   * @param cl Record class to count
+   * @throws SQLException
+   */
+  public static void create(DBInterface database, Class<? extends Record> cl) throws SQLException {
+    create(database, cl, "");
+  }
+
+  /**
+   * Count the rows of a table that match a predicate. It can only use the table's own columns and
+   * can't have ?s, eg. "published = 1".
+   *
+   * @param database DB to create it in
+   * @param cl Record class to count
+   * @param predicate Content for 'WHERE ...', or "" for every row
+   * @throws SQLException
+   */
+  public static void create(DBInterface database, Class<? extends Record> cl, String predicate) throws SQLException {
+    String table = Record.getTableName(cl);
+    database.runSql("CREATE TABLE IF NOT EXISTS " + TABLE + " (" + DBInterface.COLUMN_ID + " INTEGER PRIMARY KEY,"
+        + " tbl TEXT NOT NULL, predicate TEXT NOT NULL, count INTEGER NOT NULL, UNIQUE (tbl, predicate))");
+    HashMap<String, Object> values = new HashMap<>();
+    values.put("tbl", table);
+    values.put("predicate", predicate);
+    values.put("count", 0);
+    long id = database.insert(TABLE, values);
+    String name = TRIGGER + id;
+    String update = "UPDATE " + TABLE + " SET count = count ";
+    String where = " WHERE " + DBInterface.COLUMN_ID + " = " + id + "; END";
+    if(predicate.isEmpty()) {
+      database.runSql("CREATE TRIGGER " + name + "_ai AFTER INSERT ON " + table + " BEGIN " + update + "+ 1" + where);
+      database.runSql("CREATE TRIGGER " + name + "_ad AFTER DELETE ON " + table + " BEGIN " + update + "- 1" + where);
+    } else {
+      // Test the predicate against the row itself, so it doesn't need rewriting to use new. and old.
+      String matches = "(SELECT count(*) FROM " + table + " WHERE rowid = %s.rowid AND (" + predicate + "))";
+      String before = update + "- " + String.format(matches, "old") + where;
+      String after = update + "+ " + String.format(matches, "new") + where;
+      database.runSql("CREATE TRIGGER " + name + "_bd BEFORE DELETE ON " + table + " BEGIN " + before);
+      database.runSql("CREATE TRIGGER " + name + "_bu BEFORE UPDATE ON " + table + " BEGIN " + before);
+      database.runSql("CREATE TRIGGER " + name + "_au AFTER UPDATE ON " + table + " BEGIN " + after);
+      database.runSql("CREATE TRIGGER " + name + "_ai AFTER INSERT ON " + table + " BEGIN " + after);
+    }
+    forget(database);
+    rebuild(database, cl, predicate);
+  }
+
+  /**
+   * Recount a table's rows, eg. after changing them with the triggers dropped.
+   *
+   * @param database DB the counter is in
+   * @param cl Record class counted
+   * @param predicate Predicate it was created with, "" for every row
+   * @throws SQLException
+   */
+  public static void rebuild(DBInterface database, Class<? extends Record> cl, String predicate) throws SQLException {
+    String table = Record.getTableName(cl);
+    Long id = idOf(database, table, predicate);
+    if(id == null) {
+      throw new IllegalStateException("No counter on " + table + (predicate.isEmpty() ? "" : " WHERE " + predicate));
+    }
+    database.runSql("UPDATE " + TABLE + " SET count = (SELECT count(*) FROM " + table
+        + (predicate.isEmpty() ? "" : " WHERE " + predicate) + ") WHERE " + DBInterface.COLUMN_ID + " = " + id);
+  }
+
+  /**
+   * Remove a counter and its triggers. Drop counters before their table, or a new table with the
+   * same name would use the stale count.
+   *
+   * @param database DB the counter is in
+   * @param cl Record class counted
+   * @param predicate Predicate it was created with, "" for every row
+   * @throws SQLException
+   */
+  public static void drop(DBInterface database, Class<? extends Record> cl, String predicate) throws SQLException {
+    Long id = idOf(database, Record.getTableName(cl), predicate);
+    if(id == null) {
+      return;
+    }
+    for(String trigger : new String[] {"_ai", "_ad", "_bd", "_bu", "_au"}) {
+      database.runSql("DROP TRIGGER IF EXISTS " + TRIGGER + id + trigger);
+    }
+    database.delete(TABLE, DBInterface.COLUMN_ID + " = ?", new Object[] {id});
+    forget(database);
+  }
+
+  /**
+   * @param database DB to look in
+   * @param table Table counted
+   * @param predicate Predicate it was created with, "" for every row
+   * @return The maintained count, null if there's no counter for it
+   * @throws SQLException
+   */
+  public static Long get(DBInterface database, String table, String predicate) throws SQLException {
+    Long id = idOf(database, table, predicate == null ? "" : predicate);
+    if(id == null) {
+      return null;
+    }
+    ResultSet rs = database.rawQuery("SELECT count FROM " + TABLE + " WHERE " + DBInterface.COLUMN_ID + " = ?",
+        new Object[] {id});
+    try {
+      return rs.next() ? rs.getLong(1) : null;
+    } finally {
+      rs.close();
+    }
+  }
+
+  private static Long idOf(DBInterface database, String table, String predicate) throws SQLException {
+    Connection connection = database.getConnection();
+    if(connection == null) {
+      return null;
+    }
+    HashMap<String, Long> counters = COUNTERS.get(connection);
+    if(counters == null) {
+      counters = load(database);
+      COUNTERS.put(connection, counters);
+    }
+    return counters.get(table.toLowerCase() + "\u0000" + predicate);
+  }
+
+  /**
+   * Read the counters whose triggers still exist, so one left behind by a dropped table is ignored.
+   */
+  private static HashMap<String, Long> load(DBInterface database) throws SQLException {
+    HashMap<String, Long> counters = new HashMap<>();
+    ResultSet exists = database.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+        new Object[] {TABLE});
+    boolean found = exists.next() && exists.getInt(1) > 0;
+    exists.close();
+    if(!found) {
+      return counters;
+    }
+    ResultSet rs = database.rawQuery("SELECT c." + DBInterface.COLUMN_ID + ", c.tbl, c.predicate FROM " + TABLE + " c"
+        + " JOIN sqlite_master t ON t.type = 'trigger' AND t.name = '" + TRIGGER + "' || c." + DBInterface.COLUMN_ID
+        + " || '_ai' AND t.tbl_name = c.tbl COLLATE NOCASE", null);
+    while(rs.next()) {
+      counters.put(rs.getString(2).toLowerCase() + "\u0000" + rs.getString(3), rs.getLong(1));
+    }
+    rs.close();
+    return counters;
+  }
+
+  private static void forget(DBInterface database) {
+    Connection connection = database.getConnection();
+    if(connection != null) {
+      COUNTERS.remove(connection);
+    }
+  }
+}
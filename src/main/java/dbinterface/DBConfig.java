@@ -0,0 +1,240 @@
+package dbinterface;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+
+/**
+ * Sqlite settings to apply when a DBInterface is opened.
+ * Anything left unset keeps Sqlite's default.
+ */
+public class DBConfig {
+  public enum JournalMode { DELETE, TRUNCATE, PERSIST, MEMORY, WAL, OFF }
+  public enum Synchronous { OFF, NORMAL, FULL }
+  public enum TempStore { DEFAULT, FILE, MEMORY }
+  public enum AutoVacuum { NONE, FULL, INCREMENTAL }
+
+  /**
+   * Pragmas that are read back by report(), in the order they are applied.
+   */
+  public static final String[] PRAGMAS = new String[]{
+      "page_size", "auto_vacuum", "journal_mode", "synchronous", "cache_size", "mmap_size", "temp_store", "busy_timeout", "query_only"
+  };
+
+  private String name = "custom";
+  private Integer pageSize = null;
+  private AutoVacuum autoVacuum = null;
+  private JournalMode journalMode = null;
+  private Synchronous synchronous = null;
+  private Integer cacheSize = null;
+  private Long mmapSize = null;
+  private TempStore tempStore = null;
+  private Integer busyTimeout = null;
+  private boolean readOnly = false;
+
+  /**
+   * Safe against power loss. WAL journal with a full sync on every commit.
+   *
+   * @return new config
+   */
+  public static DBConfig durable() {
+    return new DBConfig().named("durable")
+        .pageSize(4096)
+        .journalMode(JournalMode.WAL)
+        .synchronous(Synchronous.FULL)
+        .busyTimeout(5000);
+  }
+
+  /**
+   * WAL journal that only syncs at checkpoints, a bigger cache and memory mapped reads.
+   * Can lose the last few commits on power loss, but never corrupts.
+   *
+   * @return new config
+   */
+  public static DBConfig balanced() {
+    return new DBConfig().named("balanced")
+        .pageSize(4096)
+        .journalMode(JournalMode.WAL)
+        .synchronous(Synchronous.NORMAL)
+        .cacheSize(-16 * 1024)
+        .mmapSize(64L * 1024 * 1024)
+        .tempStore(TempStore.MEMORY)
+        .busyTimeout(5000);
+  }
+
+  /**
+   * For filling a database from scratch. No syncing and the journal is kept in memory,
+   * so a crash part way through can leave the file corrupt.
+   *
+   * @return new config
+   */
+  public static DBConfig bulkLoad() {
+    return new DBConfig().named("bulk-load")
+        .pageSize(4096)
+        .journalMode(JournalMode.MEMORY)
+        .synchronous(Synchronous.OFF)
+        .cacheSize(-64 * 1024)
+        .tempStore(TempStore.MEMORY)
+        .busyTimeout(5000);
+  }
+
+  /**
+   * Large cache and memory map for scanning, writes are refused once the database is open.
+   *
+   * @return new config
+   */
+  public static DBConfig readOnlyAnalytics() {
+    return new DBConfig().named("read-only-analytics")
+        .cacheSize(-64 * 1024)
+        .mmapSize(256L * 1024 * 1024)
+        .tempStore(TempStore.MEMORY)
+        .busyTimeout(5000)
+        .readOnly(true);
+  }
+
+  public DBConfig named(String name) {
+    this.name = name;
+    return this;
+  }
+
+  /**
+   * Only has an effect on a new database, before any tables are created.
+   *
+   * @param bytes page size, a power of two between 512 and 65536
+   * @return this (for convenience)
+   */
+  public DBConfig pageSize(int bytes) {
+    pageSize = bytes;
+    return this;
+  }
+
+  /**
+   * Like pageSize(), only has an effect before any tables are created. INCREMENTAL lets
+   * Maintenance hand free pages back to the file system a few at a time.
+   *
+   * @param mode auto-vacuum mode
+   * @return this (for convenience)
+   */
+  public DBConfig autoVacuum(AutoVacuum mode) {
+    autoVacuum = mode;
+    return this;
+  }
+
+  public DBConfig journalMode(JournalMode mode) {
+    journalMode = mode;
+    return this;
+  }
+
+  public DBConfig synchronous(Synchronous level) {
+    synchronous = level;
+    return this;
+  }
+
+  /**
+   * @param size Positive for a number of pages, negative for a number of KiB.
+   * @return this (for convenience)
+   */
+  public DBConfig cacheSize(int size) {
+    cacheSize = size;
+    return this;
+  }
+
+  public DBConfig mmapSize(long bytes) {
+    mmapSize = bytes;
+    return this;
+  }
+
+  public DBConfig tempStore(TempStore store) {
+    tempStore = store;
+    return this;
+  }
+
+  public DBConfig busyTimeout(int millis) {
+    busyTimeout = millis;
+    return this;
+  }
+
+  /**
+   * Refuse writes after the database has been opened and upgraded.
+   *
+   * @param readOnly true to refuse writes
+   * @return this (for convenience)
+   */
+  public DBConfig readOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+    return this;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * Apply the settings that should be in place before the database is used.
+   *
+   * @param connection Newly opened connection
+   * @throws SQLException
+   */
+  void applyOnOpen(Connection connection) throws SQLException {
+    Statement stmt = connection.createStatement();
+    // page_size has to come before the journal mode, it can't change once in WAL.
+    if(pageSize != null) stmt.execute("PRAGMA page_size = " + pageSize);
+    if(autoVacuum != null) stmt.execute("PRAGMA auto_vacuum = " + autoVacuum.name());
+    if(journalMode != null) stmt.execute("PRAGMA journal_mode = " + journalMode.name());
+    if(synchronous != null) stmt.execute("PRAGMA synchronous = " + synchronous.name());
+    if(cacheSize != null) stmt.execute("PRAGMA cache_size = " + cacheSize);
+    if(mmapSize != null) stmt.execute("PRAGMA mmap_size = " + mmapSize);
+    if(tempStore != null) stmt.execute("PRAGMA temp_store = " + tempStore.name());
+    if(busyTimeout != null) stmt.execute("PRAGMA busy_timeout = " + busyTimeout);
+    stmt.close();
+  }
+
+  /**
+   * Apply the settings that have to wait until the database has been upgraded.
+   *
+   * @param connection Open connection
+   * @throws SQLException
+   */
+  void applyAfterUpgrade(Connection connection) throws SQLException {
+    if(readOnly) {
+      Statement stmt = connection.createStatement();
+      stmt.execute("PRAGMA query_only = 1");
+      stmt.close();
+    }
+  }
+
+  /**
+   * Read the current value of every setting this class controls.
+   *
+   * @param connection Open connection
+   * @return pragma name to current value
+   * @throws SQLException
+   */
+  static LinkedHashMap<String, String> report(Connection connection) throws SQLException {
+    LinkedHashMap<String, String> settings = new LinkedHashMap<>();
+    Statement stmt = connection.createStatement();
+    for(String pragma : PRAGMAS) {
+      // Some pragmas return nothing at all, eg. mmap_size for in-memory databases.
+      String value = null;
+      if(stmt.execute("PRAGMA " + pragma)) {
+        ResultSet rs = stmt.getResultSet();
+        value = rs.next() ? rs.getString(1) : null;
+        rs.close();
+      }
+      settings.put(pragma, value);
+    }
+    stmt.close();
+    return settings;
+  }
+
+  @Override
+  public String toString() {
+    return "DBConfig " + name;
+  }
+}
@@ -1,6 +1,11 @@
 package dbinterface;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -8,8 +13,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Data Access Layer to the Sqlite Database
@@ -21,7 +32,16 @@ public class DBInterface {
   public static final int DATABASE_VERSION = 0;
   public static final int DEFAULT_ID = -1;
   public static final int ALL = -1;
+  /**
+   * Most ?s Sqlite allows in one statement.
+   */
+  public static final int MAX_VARIABLES = 999;
   private File dbLocation;
+  private DBConfig config = null;
+  private volatile IndexAdvisor advisor = null;
+  private volatile ChangeFeed changes = null;
+  private final Migrations migrations = new Migrations();
+  private long openNanos = 0;
 
   private Connection connection;
   private Statement runningStatement;
@@ -41,6 +61,74 @@ public class DBInterface {
     dbLocation = location;
   }
 
+  /**
+   * Create a new in-memory database with the given settings.
+   *
+   * @param config Settings to apply on open, eg. DBConfig.balanced()
+   */
+  public DBInterface(DBConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Create a DB that sits on the HDD with the given settings.
+   *
+   * @param location File to save the DB to.
+   * @param config Settings to apply on open, eg. DBConfig.balanced()
+   */
+  public DBInterface(File location, DBConfig config) {
+    dbLocation = location;
+    this.config = config;
+  }
+
+  /**
+   * Change the settings used next time the database is opened.
+   *
+   * @param config Settings to apply, null for Sqlite's defaults
+   * @return this (for convenience)
+   */
+  public DBInterface config(DBConfig config) {
+    this.config = config;
+    return this;
+  }
+
+  public DBConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Record the queries run through query() so the advisor can recommend indexes.
+   *
+   * @param advisor Advisor to report to, null to stop
+   * @return this (for convenience)
+   */
+  public DBInterface advisor(IndexAdvisor advisor) {
+    this.advisor = advisor;
+    return this;
+  }
+
+  public IndexAdvisor getAdvisor() {
+    return advisor;
+  }
+
+  /**
+   * Feed of the rows changed through this DBInterface, published after each commit.
+   * Nothing is captured until a table is watched, eg. dbi.changes().watch(Book.class)
+   *
+   * @return the feed, created on first use
+   * @throws SQLException if the database is open and capture can't be added to it
+   */
+  public synchronized ChangeFeed changes() throws SQLException {
+    if(changes == null) {
+      ChangeFeed feed = new ChangeFeed();
+      if(connection != null) {
+        feed.attach(this);
+      }
+      changes = feed;
+    }
+    return changes;
+  }
+
   public DBInterface globalize() {
     globalDatabase = this;
     return this;
@@ -58,6 +146,7 @@ public class DBInterface {
    * @throws SQLException
    */
   public DBInterface open() throws SQLException {
+    long start = System.nanoTime();
     close();
     String location = "jdbc:sqlite:";
     if(dbLocation == null) {
@@ -66,11 +155,76 @@ public class DBInterface {
       location += dbLocation.getAbsolutePath();
     }
     connection = DriverManager.getConnection(location);
+    connected();
+    if(config != null) {
+      config.applyOnOpen(connection);
+    }
 
     upgrade();
+    if(config != null) {
+      config.applyAfterUpgrade(connection);
+    }
+    if(changes != null) {
+      changes.attach(this);
+    }
+    openNanos = System.nanoTime() - start;
     return this;
   }
 
+  /**
+   * Called by open() once the connection is made, before settings are applied and migrations run.
+   *
+   * @throws SQLException
+   */
+  void connected() throws SQLException {
+  }
+
+  /**
+   * How long the last open() took, including running migrations.
+   *
+   * @return nanoseconds
+   */
+  public long getOpenNanos() {
+    return openNanos;
+  }
+
+  /**
+   * Register a migration step, run by open() if the database is older than version.
+   * Steps run in version order, each in its own transaction.
+   *
+   * @param version Version the database is at after this step, greater than zero.
+   * @param step Changes to make, eg. db -> db.runSql("CREATE TABLE ...")
+   * @return this (for convenience)
+   */
+  public DBInterface migration(int version, Work step) {
+    migrations.add(version, step);
+    return this;
+  }
+
+  public Migrations getMigrations() {
+    return migrations;
+  }
+
+  /**
+   * Schema version of the open database.
+   *
+   * @return version stored in the meta table
+   */
+  public int getVersion() {
+    return migrations.getVersion();
+  }
+
+  /**
+   * Read back the settings the database is actually using, to check a DBConfig took effect.
+   * Some settings don't apply to in-memory databases, eg. journal_mode is always 'memory'.
+   *
+   * @return pragma name to current value
+   * @throws SQLException
+   */
+  public LinkedHashMap<String, String> getSettings() throws SQLException {
+    return DBConfig.report(connection);
+  }
+
   /**
    * Disable auto-commit on the database. Could speed up importing
    *
@@ -80,14 +234,83 @@ public class DBInterface {
     connection.setAutoCommit(false);
   }
 
+  /**
+   * Run work in a single transaction. Commits if it finishes, rolls back if it throws.
+   * If commit is already disabled the work just becomes part of the open transaction.
+   *
+   * @param work What to run
+   * @throws SQLException
+   */
+  public void transaction(Work work) throws SQLException {
+    if(!connection.getAutoCommit()) {
+      work.run(this);
+      return;
+    }
+    connection.setAutoCommit(false);
+    try {
+      work.run(this);
+      StatementEvents.Commit event = StatementEvents.commit();
+      connection.commit();
+      event.commit();
+    } catch(SQLException | RuntimeException e) {
+      connection.rollback();
+      rolledBack();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+    committed();
+  }
+
   /**
    * Re-enable autocommit and commit any uncommitted changes.
    *
    * @throws SQLException
    */
   public void commit() throws SQLException {
+    StatementEvents.Commit event = StatementEvents.commit();
     connection.commit();
+    event.commit();
     connection.setAutoCommit(true);
+    committed();
+  }
+
+  /**
+   * Publish the changes of a transaction that just committed.
+   */
+  void committed() {
+    ChangeFeed feed = changes;
+    if(feed != null) {
+      feed.committed();
+    }
+  }
+
+  /**
+   * Forget the changes of a transaction that just rolled back.
+   */
+  void rolledBack() {
+    ChangeFeed feed = changes;
+    if(feed != null) {
+      feed.discard();
+    }
+  }
+
+  /**
+   * Before a write, drop anything captured by an earlier statement that failed on its own.
+   */
+  private void writing() throws SQLException {
+    if(changes != null && connection.getAutoCommit()) {
+      changes.discard();
+    }
+  }
+
+  /**
+   * After a write, publish it if it committed by itself.
+   */
+  private void written() throws SQLException {
+    if(changes != null && connection.getAutoCommit()) {
+      changes.committed();
+    }
   }
 
   /**
@@ -104,6 +327,17 @@ public class DBInterface {
     }
   }
 
+  Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * @return The database file, null if in memory
+   */
+  File getLocation() {
+    return dbLocation;
+  }
+
   /**
    * Checks if there is a connection to the DB.
    *
@@ -113,24 +347,83 @@ public class DBInterface {
     return connection == null;
   }
 
-  private PreparedStatement prepare(String sql, Object[] whereargs, int start) throws SQLException {
+  /**
+   * Bind a value to a ?, using the setter for its type. null and unknown types are left unbound (NULL).
+   * byte[], ByteBuffer, InputStream and LazyBlob are bound as BLOBs and Reader as TEXT. The driver
+   * can't stream a value into a statement, so streams are read to the end (and closed) here.
+   * An InList that prepare() didn't write out as ?s is put in its temporary table and bound as its list id.
+   */
+  static void bind(PreparedStatement stmt, int pos, Object val) throws SQLException {
+    if(val instanceof InList) {
+      stmt.setLong(pos, ((InList) val).fill(stmt.getConnection()));
+      return;
+    } else if(val instanceof byte[]) {
+      stmt.setBytes(pos, (byte[]) val);
+      return;
+    } else if(val instanceof ByteBuffer) {
+      LazyBlob.bind(stmt, pos, LazyBlob.of((ByteBuffer) val));
+      return;
+    } else if(val instanceof InputStream) {
+      LazyBlob.bind(stmt, pos, LazyBlob.of((InputStream) val));
+      return;
+    } else if(val instanceof LazyBlob) {
+      LazyBlob.bind(stmt, pos, (LazyBlob) val);
+      return;
+    } else if(val instanceof CompressedText) {
+      CompressedText.bind(stmt, pos, (CompressedText) val, null, null);
+      return;
+    } else if(val instanceof Reader) {
+      StringWriter text = new StringWriter();
+      try(Reader reader = (Reader) val) {
+        reader.transferTo(text);
+      } catch(IOException ioe) {
+        throw new SQLException("Can't read text stream", ioe);
+      }
+      stmt.setString(pos, text.toString());
+      return;
+    }
+    if(val instanceof Integer) {
+      stmt.setInt(pos, (Integer) val);
+    } else if(val instanceof String) {
+      stmt.setString(pos, (String) val);
+    } else if(val instanceof Float) {
+      stmt.setFloat(pos, (Float) val);
+    } else if(val instanceof Long) {
+      stmt.setLong(pos, (Long) val);
+    } else if(val instanceof Boolean) {
+      stmt.setBoolean(pos, (Boolean) val);
+    } else if(val instanceof Double) {
+      stmt.setDouble(pos, (Double) val);
+    }
+  }
+
+  /**
+   * Same as bind(), for a value going into a column, so compressed columns are counted in their stats.
+   */
+  private static void bindColumn(PreparedStatement stmt, int pos, Object val, String table, String column) throws SQLException {
+    if(val instanceof CompressedText) {
+      CompressedText.bind(stmt, pos, (CompressedText) val, table, column);
+    } else if(val instanceof Deferred) {
+      Deferred.bind(stmt, pos, (Deferred<?>) val);
+    } else {
+      bind(stmt, pos, val);
+    }
+  }
+
+  private PreparedStatement prepareStatement(String sql) throws SQLException {
+    StatementEvents.Prepare event = StatementEvents.prepare();
     PreparedStatement stmt = connection.prepareStatement(sql);
-    if(whereargs != null) {
-      for(Object arg : whereargs) {
-        if(arg instanceof Integer) {
-          stmt.setInt(start, (Integer) arg);
-        } else if(arg instanceof String) {
-          stmt.setString(start, (String) arg);
-        } else if(arg instanceof Float) {
-          stmt.setFloat(start, (Float) arg);
-        } else if(arg instanceof Long) {
-          stmt.setLong(start, (Long) arg);
-        } else if(arg instanceof Boolean) {
-          stmt.setBoolean(start, (Boolean) arg);
-        } else if(arg instanceof Double) {
-          stmt.setDouble(start, (Double) arg);
-        }
+    event.done(sql);
+    return stmt;
+  }
 
+  private PreparedStatement prepare(String sql, Object[] whereargs, int start) throws SQLException {
+    InList.Expanded bound = InList.expand(sql, whereargs, start);
+    InList.createTable(connection, bound.args);
+    PreparedStatement stmt = prepareStatement(bound.sql);
+    if(bound.args != null) {
+      for(Object arg : bound.args) {
+        bind(stmt, start, arg);
         start++;
       }
     }
@@ -162,11 +455,18 @@ public class DBInterface {
     if(whereargs != null) {
       stmt = prepare(sql, whereargs, 1);
     } else {
-      stmt = connection.prepareStatement(sql);
+      stmt = prepareStatement(sql);
     }
     runningStatement = stmt;
+    IndexAdvisor watching = advisor;
+    long start = watching == null ? 0 : System.nanoTime();
+    StatementEvents.Execute event = StatementEvents.execute();
     ResultSet res = stmt.executeQuery();
+    event.done(sql, stmt, -1);
     runningStatement = null;
+    if(watching != null) {
+      watching.observe(this, sql, whereargs, table, where, orderBy, System.nanoTime() - start);
+    }
     return res;
   }
 
@@ -198,35 +498,26 @@ public class DBInterface {
     if(whereargs != null) {
       stmt = prepare(sql, whereargs, keys.length + 1);
     } else {
-      stmt = connection.prepareStatement(sql);
+      stmt = prepareStatement(sql);
     }
     runningStatement = stmt;
     int pos = 1;
     for(String key : keys) {
-      Object val = values.get(key);
-      if(val instanceof Integer) {
-        stmt.setInt(pos, (Integer) val);
-      } else if(val instanceof String) {
-        stmt.setString(pos, (String) val);
-      } else if(val instanceof Float) {
-        stmt.setFloat(pos, (Float) val);
-      } else if(val instanceof Long) {
-        stmt.setLong(pos, (Long) val);
-      } else if(val instanceof Boolean) {
-        stmt.setBoolean(pos, (Boolean) val);
-      } else if(val instanceof Double) {
-        stmt.setDouble(pos, (Double) val);
-      }
-
+      bindColumn(stmt, pos, values.get(key), table, key);
       pos++;
     }
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
     int res = stmt.executeUpdate();
+    event.done(sql, stmt, res);
     runningStatement = null;
     stmt.close();
+    InList.released(connection, whereargs);
+    written();
     return res;
   }
 
-  private String createInsert(int length) {
+  static String createInsert(int length) {
     String[] qmarks = new String[length];
     for(int i = 0; i < length; i++) {
       qmarks[i] = "?";
@@ -244,41 +535,278 @@ public class DBInterface {
    */
   public int insert(String table, HashMap<String, Object> values) throws SQLException {
     values.remove(COLUMN_ID);
+    return insertRow(table, values, true);
+  }
+
+  /**
+   * Insert a row with an id chosen by the caller, rather than letting Sqlite pick one.
+   *
+   * @param table  Table to insert into
+   * @param values Values to insert
+   * @param id     ID to give the row
+   * @return id
+   * @throws SQLException
+   */
+  int insert(String table, HashMap<String, Object> values, int id) throws SQLException {
+    HashMap<String, Object> withId = new HashMap<>(values);
+    withId.put(COLUMN_ID, id);
+    insertRow(table, withId, false);
+    return id;
+  }
+
+  private int insertRow(String table, HashMap<String, Object> values, boolean readId) throws SQLException {
     String[] keys = values.keySet().toArray(new String[values.size()]);
     String sql = "INSERT INTO " + table + " ("
         + String.join(", ", keys)
         + ") VALUES (" + createInsert(keys.length) + ");";
 
-    PreparedStatement stmt = connection.prepareStatement(sql);
+    PreparedStatement stmt = prepareStatement(sql);
     runningStatement = stmt;
     int pos = 1;
     for(String key : keys) {
-      Object val = values.get(key);
-      if(val instanceof Integer) {
-        stmt.setInt(pos, (Integer) val);
-      } else if(val instanceof String) {
-        stmt.setString(pos, (String) val);
-      } else if(val instanceof Float) {
-        stmt.setFloat(pos, (Float) val);
-      } else if(val instanceof Long) {
-        stmt.setLong(pos, (Long) val);
-      } else if(val instanceof Boolean) {
-        stmt.setBoolean(pos, (Boolean) val);
-      } else if(val instanceof Double) {
-        stmt.setDouble(pos, (Double) val);
-      }
-
+      bindColumn(stmt, pos, values.get(key), table, key);
       pos++;
     }
-    stmt.executeUpdate();
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
+    event.done(sql, stmt, stmt.executeUpdate());
+    runningStatement = null;
+    int id = DEFAULT_ID;
+    if(readId) {
+      ResultSet rs = stmt.getGeneratedKeys();
+      id = rs.getInt("last_insert_rowid()");
+      rs.close();
+    }
+    stmt.close();
+    written();
+    return id;
+  }
+
+  /**
+   * Insert a record into its table, using the SQL in its RecordMetadata if it has a generated
+   * RecordMapper, otherwise from the keys in Record.getValues().
+   *
+   * @param record Record to insert
+   * @return ID of row inserted.
+   * @throws SQLException
+   */
+  @SuppressWarnings("unchecked")
+  public int insert(Record record) throws SQLException {
+    RecordMetadata meta = RecordMetadata.of(record.getClass());
+    requireColumns(meta, record);
+    if(meta.getInsertSql() == null) {
+      return insert(meta.getTableName(), record.getValues());
+    }
+    meta.verify(this);
+    PreparedStatement stmt = prepareStatement(meta.getInsertSql());
+    runningStatement = stmt;
+    meta.bind(record, stmt, 1);
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
+    event.done(meta.getInsertSql(), stmt, stmt.executeUpdate());
     runningStatement = null;
     ResultSet rs = stmt.getGeneratedKeys();
     int id = rs.getInt("last_insert_rowid()");
     rs.close();
     stmt.close();
+    written();
+    return id;
+  }
+
+  /**
+   * Insert a record with an id chosen by the caller, rather than letting Sqlite pick one.
+   *
+   * @param record Record to insert
+   * @param id ID to give the row
+   * @return id
+   * @throws SQLException
+   */
+  int insert(Record record, int id) throws SQLException {
+    RecordMetadata meta = RecordMetadata.of(record.getClass());
+    requireColumns(meta, record);
+    if(meta.getInsertWithIdSql() == null) {
+      return insert(meta.getTableName(), record.getValues(), id);
+    }
+    meta.verify(this);
+    PreparedStatement stmt = prepareStatement(meta.getInsertWithIdSql());
+    runningStatement = stmt;
+    stmt.setInt(1, id);
+    meta.bind(record, stmt, 2);
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
+    event.done(meta.getInsertWithIdSql(), stmt, stmt.executeUpdate());
+    runningStatement = null;
+    stmt.close();
+    written();
     return id;
   }
 
+  /**
+   * Update a saved record's row, using the SQL in its RecordMetadata if it has a generated
+   * RecordMapper, otherwise from the keys in Record.getValues().
+   * A record loaded with only some of its columns only writes those, see Record.isLoaded().
+   * A LazyBlob that's still the one stored in the record's row isn't written, so it isn't read.
+   *
+   * @param record Record to update
+   * @return Number of rows updated (Should be 1), 0 if there's nothing to write
+   * @throws SQLException
+   */
+  public int update(Record record) throws SQLException {
+    RecordMetadata meta = RecordMetadata.of(record.getClass());
+    if(meta.getUpdateSql() == null) {
+      HashMap<String, Object> values = record.getValues();
+      values.entrySet().removeIf(e -> e.getValue() instanceof LazyBlob
+          && ((LazyBlob) e.getValue()).isAt(this, meta.getTableName(), e.getKey(), record.getID()));
+      return values.isEmpty() ? 0 : new Query(this).in(record.getClass()).update(record.getID(), values);
+    }
+    meta.verify(this);
+    if(record.getUnloaded() != null || meta.hasBlobs()) {
+      return updateLoaded(meta, record);
+    }
+    PreparedStatement stmt = prepareStatement(meta.getUpdateSql());
+    runningStatement = stmt;
+    meta.bind(record, stmt, 1);
+    stmt.setInt(meta.getColumnCount() + 1, record.getID());
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
+    int res = stmt.executeUpdate();
+    event.done(meta.getUpdateSql(), stmt, res);
+    runningStatement = null;
+    stmt.close();
+    written();
+    return res;
+  }
+
+  /**
+   * Update the columns a partly loaded record has. A Deferred column is written if it's been read,
+   * or replaced since the record was loaded, and a LazyBlob if it isn't the one stored in the row.
+   *
+   * @return Number of rows updated, 0 if there's nothing to write
+   * @throws IllegalStateException if a column that wasn't loaded has been changed, since the
+   *                               change can't be told from the value it replaces
+   */
+  private int updateLoaded(RecordMetadata meta, Record record) throws SQLException {
+    Object[] values = new Object[meta.getColumnCount()];
+    meta.values(record, values);
+    BitSet unloaded = record.getUnloaded();
+    StringBuilder sql = new StringBuilder("UPDATE ").append(meta.getTableName()).append(" SET ");
+    int[] written = new int[values.length];
+    int count = 0;
+    for(int i = 0; i < values.length; i++) {
+      boolean missing = unloaded != null && unloaded.get(i);
+      if(missing && !meta.isDeferred(i) && !Objects.deepEquals(values[i], meta.defaultOf(i))) {
+        throw new IllegalStateException(record.getClass().getSimpleName() + " was loaded without its "
+            + meta.getColumn(i) + " column, select it to change it");
+      }
+      boolean pending = values[i] instanceof Deferred && !((Deferred<?>) values[i]).isLoaded();
+      boolean inPlace = values[i] instanceof LazyBlob
+          && ((LazyBlob) values[i]).isAt(this, meta.getTableName(), meta.getColumn(i), record.getID());
+      if(!inPlace && (!missing || (meta.isDeferred(i) && !pending))) {
+        sql.append(count == 0 ? "" : ", ").append(meta.getColumn(i)).append(" = ?");
+        written[count] = i;
+        count++;
+      }
+    }
+    if(count == 0) {
+      return 0;
+    }
+    sql.append(" WHERE ").append(COLUMN_ID).append(" = ?");
+    PreparedStatement stmt = prepareStatement(sql.toString());
+    runningStatement = stmt;
+    for(int i = 0; i < count; i++) {
+      int column = written[i];
+      bindColumn(stmt, i + 1, values[column], meta.getTableName(), meta.getColumn(column));
+    }
+    stmt.setInt(count + 1, record.getID());
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
+    int res = stmt.executeUpdate();
+    event.done(sql, stmt, res);
+    runningStatement = null;
+    stmt.close();
+    written();
+    return res;
+  }
+
+  /**
+   * Records loaded without some of their columns can be updated, but not inserted,
+   * unless the only ones missing are Deferred, which are read to be inserted.
+   */
+  private static void requireColumns(RecordMetadata meta, Record record) {
+    BitSet unloaded = record.getUnloaded();
+    if(unloaded == null) {
+      return;
+    }
+    for(int i = unloaded.nextSetBit(0); i >= 0; i = unloaded.nextSetBit(i + 1)) {
+      if(!meta.isDeferred(i)) {
+        throw new IllegalStateException(record.getClass().getSimpleName() + " was loaded without its "
+            + meta.getColumn(i) + " column, so it can't be inserted");
+      }
+    }
+  }
+
+  /**
+   * Delete a record's row by id.
+   *
+   * @param record Record to delete
+   * @return Number of rows deleted (Should be 1)
+   * @throws SQLException
+   */
+  public int delete(Record record) throws SQLException {
+    String sql = RecordMetadata.of(record.getClass()).getDeleteSql();
+    PreparedStatement stmt = prepareStatement(sql);
+    runningStatement = stmt;
+    stmt.setInt(1, record.getID());
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
+    int res = stmt.executeUpdate();
+    event.done(sql, stmt, res);
+    runningStatement = null;
+    stmt.close();
+    written();
+    return res;
+  }
+
+  /**
+   * Load a record by id.
+   *
+   * @param cl Class of record to load
+   * @param id ID of the row
+   * @return the record, or null if there is no row with that id
+   * @throws SQLException
+   */
+  public <T extends Record> T find(Class<T> cl, int id) throws SQLException {
+    RecordMetadata meta = RecordMetadata.of(cl);
+    PreparedStatement stmt = prepareStatement(meta.getFindSql());
+    runningStatement = stmt;
+    stmt.setInt(1, id);
+    StatementEvents.Execute event = StatementEvents.execute();
+    ResultSet rs = stmt.executeQuery();
+    event.done(meta.getFindSql(), stmt, -1);
+    runningStatement = null;
+    T record = null;
+    StatementEvents.Fetch fetch = StatementEvents.fetch();
+    if(rs.next()) {
+      try {
+        record = cl.getDeclaredConstructor().newInstance();
+      } catch(ReflectiveOperationException e) {
+        stmt.close();
+        throw new SQLException("Can't create " + cl.getName(), e);
+      }
+      RecordMapper<?> mapper = meta.getMapper();
+      if(meta.hasDeferred()) {
+        record.setFromProjection(rs, new Projection(this, meta, rs, true));
+      } else if(mapper == null) {
+        record.setFromCursor(rs, false);
+      } else {
+        record.setFromMapped(rs, mapper);
+      }
+    }
+    fetch.done(meta.getTableName(), cl, record == null ? 0 : 1);
+    stmt.close();
+    return record;
+  }
+
   /**
    * Insert an array of records fast. IDs are not set on the Record objects.
    *
@@ -288,10 +816,14 @@ public class DBInterface {
   public synchronized void batchInsert(Record[] items, int limit) throws SQLException {
     if(limit == 0) return;
     Record template = items[0];
-    HashMap<String, Object> values = template.getValues();
-    values.remove(COLUMN_ID);
-    ArrayList<String> keys = new ArrayList<>(values.keySet());
-    Collections.sort(keys);
+    String[] columns = RecordMetadata.of(template.getClass()).getColumns();
+    if(columns == null) {
+      HashMap<String, Object> values = template.getValues();
+      values.remove(COLUMN_ID);
+      columns = values.keySet().toArray(new String[values.size()]);
+      Arrays.sort(columns);
+    }
+    List<String> keys = Arrays.asList(columns);
 
     StringBuilder sql = new StringBuilder("INSERT INTO " + template.getTableName() + " (" + String.join(", ", keys) + ") VALUES ");
 
@@ -307,7 +839,7 @@ public class DBInterface {
         }
         if(val instanceof Boolean) {
           sql.append((Boolean) val ? "1" : "0");
-        } else if(!(val instanceof String)) {
+        } else if(val == null || val instanceof Number) {
           sql.append(val);
         } else {
           sql.append("?");
@@ -320,22 +852,30 @@ public class DBInterface {
         sql.append(")");
       }
     }
-    PreparedStatement stmt = connection.prepareStatement(sql.toString());
+    PreparedStatement stmt = prepareStatement(sql.toString());
     runningStatement = stmt;
     int pos = 1;
     for(int i = 0; i < limit; i++) {
       Record r = items[i];
       r.fastValues(fastValues);
-      for(Object val : fastValues) {
+      for(int c = 0; c < fastValues.length; c++) {
+        Object val = fastValues[c];
         if(val instanceof String) {
           stmt.setString(pos, (String) val);
           pos++;
+        } else if(val != null && !(val instanceof Number) && !(val instanceof Boolean)) {
+          bindColumn(stmt, pos, val, template.getTableName(), columns[c]);
+          pos++;
         }
       }
     }
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
     stmt.execute();
+    event.done(sql, stmt, limit);
     runningStatement = null;
     stmt.close();
+    written();
   }
 
   /**
@@ -351,12 +891,109 @@ public class DBInterface {
     String sql = "DELETE FROM " + table + (where == null ? "" : " WHERE " + where);
     PreparedStatement stmt = prepare(sql, whereargs, 1);
     runningStatement = stmt;
+    writing();
+    StatementEvents.Execute event = StatementEvents.execute();
     int id = stmt.executeUpdate();
+    event.done(sql, stmt, id);
     runningStatement = null;
     stmt.close();
+    InList.released(connection, whereargs);
+    written();
     return id;
   }
 
+  /**
+   * Drop rows by id, in chunks of MAX_VARIABLES ids per statement, all in one transaction.
+   *
+   * @param table Table to drop from.
+   * @param ids   IDs of rows to drop.
+   * @return Number of rows dropped.
+   * @throws SQLException
+   */
+  public int deleteAll(String table, int... ids) throws SQLException {
+    if(ids.length == 0) {
+      return 0;
+    }
+    int[] dropped = new int[1];
+    transaction(db -> {
+      String prefix = "DELETE FROM " + table + " WHERE " + COLUMN_ID + " IN (";
+      PreparedStatement full = null;
+      String fullSql = null;
+      try {
+        for(int start = 0; start < ids.length; start += MAX_VARIABLES) {
+          int length = Math.min(MAX_VARIABLES, ids.length - start);
+          PreparedStatement stmt = null;
+          try {
+            String sql;
+            if(length == MAX_VARIABLES) {
+              // Every full chunk has the same SQL, so prepare it once.
+              if(full == null) {
+                fullSql = prefix + createInsert(MAX_VARIABLES) + ")";
+                full = prepareStatement(fullSql);
+              }
+              sql = fullSql;
+              stmt = full;
+            } else {
+              sql = prefix + createInsert(length) + ")";
+              stmt = prepareStatement(sql);
+            }
+            for(int i = 0; i < length; i++) {
+              stmt.setInt(i + 1, ids[start + i]);
+            }
+            runningStatement = stmt;
+            StatementEvents.Execute event = StatementEvents.execute();
+            int rows = stmt.executeUpdate();
+            event.done(sql, stmt, rows);
+            dropped[0] += rows;
+          } finally {
+            runningStatement = null;
+            if(stmt != null && stmt != full) {
+              stmt.close();
+            }
+          }
+        }
+      } finally {
+        if(full != null) {
+          full.close();
+        }
+      }
+    });
+    return dropped[0];
+  }
+
+  /**
+   * Drop a collection of records, which can be of different classes.
+   * Unsaved records are skipped. Runs in one transaction.
+   *
+   * @param records Records to drop.
+   * @return Number of rows dropped.
+   * @throws SQLException
+   */
+  public int dropAll(Collection<? extends Record> records) throws SQLException {
+    LinkedHashMap<String, ArrayList<Integer>> byTable = new LinkedHashMap<>();
+    for(Record record : records) {
+      if(record.isSaved()) {
+        ArrayList<Integer> ids = byTable.get(record.getTableName());
+        if(ids == null) {
+          ids = new ArrayList<>();
+          byTable.put(record.getTableName(), ids);
+        }
+        ids.add(record.getID());
+      }
+    }
+    int[] dropped = new int[1];
+    transaction(db -> {
+      for(Map.Entry<String, ArrayList<Integer>> table : byTable.entrySet()) {
+        int[] ids = new int[table.getValue().size()];
+        for(int i = 0; i < ids.length; i++) {
+          ids[i] = table.getValue().get(i);
+        }
+        dropped[0] += deleteAll(table.getKey(), ids);
+      }
+    });
+    return dropped[0];
+  }
+
   /**
    * Perform an SQL query on the DB that returns a result
    *
@@ -368,7 +1005,9 @@ public class DBInterface {
   public ResultSet rawQuery(String sql, Object[] values) throws SQLException {
     PreparedStatement stmt = prepare(sql, values, 1);
     runningStatement = stmt;
+    StatementEvents.Execute event = StatementEvents.execute();
     ResultSet res = stmt.executeQuery();
+    event.done(sql, stmt, -1);
     runningStatement = null;
     return res;
   }
@@ -380,40 +1019,21 @@ public class DBInterface {
    * @throws SQLException
    */
   public void runSql(String sql) throws SQLException {
+    writing();
     runningStatement = connection.createStatement();
-    runningStatement.executeUpdate(sql);
+    StatementEvents.Execute event = StatementEvents.execute();
+    event.done(sql, runningStatement, runningStatement.executeUpdate(sql));
     runningStatement = null;
+    written();
   }
 
   /**
-   * Called when the DB needs upgrading.
-   * Database versions must be sequential integers that are greater than zero.
+   * Called when the DB is opened to bring the schema up to date.
+   * Only reads the version if nothing needs doing.
+   * Register steps with migration() rather than overriding this.
    */
   protected void upgrade() throws SQLException {
-    int version = 0;
-    HashRecord hr = new HashRecord(META_TABLE);
-    try {
-      hr.load(this);
-      String strVersion = hr.get("db_version");
-      if(strVersion != null && strVersion.matches("\\d+")) {
-        version = Integer.parseInt(strVersion);
-      }
-    } catch (SQLException se) {
-      version = -2;
-    } catch (NumberFormatException nfe) {
-      version = -1;
-    }
-    if(version == -2) {
-      hr.createTable(this);
-      version = -1;
-    }
-    switch(version + 1) {
-      case 0: {
-        // Do the database
-      }
-    }
-    hr.put("db_version", Integer.toString(DATABASE_VERSION));
-    hr.save(this);
+    migrations.run(this);
   }
 
   /**
@@ -434,4 +1054,11 @@ public class DBInterface {
       return false;
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Something to run against the database, for transaction() and migration().
+   */
+  public interface Work {
+    void run(DBInterface database) throws SQLException;
+  }
+}
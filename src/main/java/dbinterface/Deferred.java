@@ -0,0 +1,181 @@
+package dbinterface;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A column that isn't selected with its record, and is read the first time get() is called.
+ * For large text or bytes, eg. descriptions, that listing pages load but never show.
+ *
+ * Use it as a Record field with @Column, as Deferred<String> or Deferred<byte[]>. Query, find()
+ * and ParallelScan leave the column out of the SELECT. The records a query loaded together share
+ * one batch per deferred column, so the first get() on any of them reads the column for all of
+ * them, in one query by id. New values are made with of(). Saving a record doesn't write a
+ * deferred column that hasn't been read or replaced.
+ */
+public final class Deferred<T> {
+  private final Batch batch;
+  private final Record owner;
+  private final Class<T> type;
+  private T value;
+  private volatile boolean loaded;
+
+  private Deferred(Batch batch, Record owner, Class<T> type, T value, boolean loaded) {
+    this.batch = batch;
+    this.owner = owner;
+    this.type = type;
+    this.value = value;
+    this.loaded = loaded;
+  }
+
+  /**
+   * @param value Value to save
+   * @return a loaded value
+   */
+  public static <T> Deferred<T> of(T value) {
+    return new Deferred<>(null, null, null, value, true);
+  }
+
+  /**
+   * The value, reading it and the rest of its batch from the database if it hasn't been read yet.
+   * null if the row has been deleted since the record was loaded.
+   *
+   * @return the value
+   * @throws SQLException
+   */
+  public T get() throws SQLException {
+    if(!loaded) {
+      batch.load();
+    }
+    return value;
+  }
+
+  /**
+   * @return true once the value has been read, or if it was made with of()
+   */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * A value that was selected, read now. Used by generated mappers.
+   *
+   * @param rs ResultSet on the row
+   * @param column Index of the column
+   * @param type String.class or byte[].class
+   * @return a loaded value
+   * @throws SQLException
+   */
+  public static <T> Deferred<T> read(ResultSet rs, int column, Class<T> type) throws SQLException {
+    return new Deferred<>(null, null, type, readValue(rs, column, type), true);
+  }
+
+  /**
+   * A value to read later with the rest of batch. Used by generated mappers.
+   *
+   * @param batch Batch for the column
+   * @param owner Record the value belongs to, which has its id set
+   * @param type String.class or byte[].class
+   * @return a value that isn't loaded
+   */
+  public static <T> Deferred<T> pending(Batch batch, Record owner, Class<T> type) {
+    Deferred<T> deferred = new Deferred<>(batch, owner, type, null, false);
+    batch.add(deferred);
+    return deferred;
+  }
+
+  /**
+   * Bind a value to a ?, reading it first if it hasn't been, or NULL if it's null. Used by generated mappers.
+   *
+   * @param stmt Statement to bind to
+   * @param pos Index of the ?
+   * @param deferred Value to bind
+   * @throws SQLException
+   */
+  public static void bind(PreparedStatement stmt, int pos, Deferred<?> deferred) throws SQLException {
+    Object value = deferred == null ? null : deferred.get();
+    if(value == null) {
+      stmt.setNull(pos, Types.NULL);
+    } else if(value instanceof byte[]) {
+      stmt.setBytes(pos, (byte[]) value);
+    } else {
+      stmt.setString(pos, value.toString());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T readValue(ResultSet rs, int column, Class<T> type) throws SQLException {
+    return (T) (type == byte[].class ? rs.getBytes(column) : rs.getString(column));
+  }
+
+  @Override
+  public String toString() {
+    return loaded ? String.valueOf(value) : "(not loaded)";
+  }
+
+  /**
+   * The values of one deferred column for the records a query loaded together.
+   */
+  public static final class Batch {
+    private final DBInterface database;
+    private final String table;
+    private final String column;
+    private final int position;
+    private ArrayList<Deferred<?>> waiting = new ArrayList<>();
+
+    /**
+     * @param position Index of the column in the mapper's getColumns()
+     */
+    Batch(DBInterface database, String table, String column, int position) {
+      this.database = database;
+      this.table = table;
+      this.column = column;
+      this.position = position;
+    }
+
+    synchronized void add(Deferred<?> deferred) {
+      waiting.add(deferred);
+    }
+
+    /**
+     * Read the column for every value still waiting, in one query by id per InList.MAX_BOUND values,
+     * so the ids are bound as ?s rather than written to a table.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    synchronized void load() throws SQLException {
+      if(waiting.isEmpty()) {
+        return;
+      }
+      Class<?> type = waiting.get(0).type;
+      ArrayList<Integer> wanted = new ArrayList<>(waiting.size());
+      for(Deferred<?> deferred : waiting) {
+        wanted.add(deferred.owner.getID());
+      }
+      HashMap<Integer, Object> values = new HashMap<>();
+      String sql = "SELECT " + DBInterface.COLUMN_ID + ", " + column + " FROM " + table
+          + " WHERE " + InList.sql(DBInterface.COLUMN_ID);
+      for(int start = 0; start < wanted.size(); start += InList.MAX_BOUND) {
+        InList ids = InList.of(wanted.subList(start, Math.min(wanted.size(), start + InList.MAX_BOUND)));
+        ResultSet rs = database.rawQuery(sql, new Object[] {ids});
+        try {
+          while(rs.next()) {
+            values.put(rs.getInt(1), readValue(rs, 2, type));
+          }
+        } finally {
+          rs.close();
+          ids.release(database);
+        }
+      }
+      for(Deferred deferred : waiting) {
+        deferred.value = values.get(deferred.owner.getID());
+        deferred.loaded = true;
+        deferred.owner.markLoaded(position);
+      }
+      waiting = new ArrayList<>();
+    }
+  }
+}
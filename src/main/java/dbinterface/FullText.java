@@ -0,0 +1,179 @@
+package dbinterface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.sqlite.Function;
+
+/**
+ * Full-text search over the columns a Record names in getSearchColumns().
+ *
+ * create() adds an FTS4 table called &lt;table&gt;_fts that indexes those columns without storing
+ * a second copy of them, and triggers that keep it in step with inserts, updates and deletes.
+ * Query.match() then searches it and joins back to the records, best match first.
+ */
+public class FullText {
+  /**
+   * Column holding the BM25 score of a match, higher is better.
+   */
+  public static final String RANK = "fts_rank";
+  /**
+   * Column holding the matched text with the terms highlighted.
+   */
+  public static final String SNIPPET = "fts_snippet";
+  static final String HIGHLIGHT_START = "<b>";
+  static final String HIGHLIGHT_END = "</b>";
+  static final String ELLIPSIS = "...";
+  private static final int SNIPPET_TOKENS = 15;
+
+  private static final Set<Connection> REGISTERED = Collections.synchronizedSet(
+      Collections.newSetFromMap(new WeakHashMap<Connection, Boolean>()));
+
+  private FullText() {
+  }
+
+  /**
+   * @param table Record table
+   * @return Name of the full-text table that indexes it
+   */
+  public static String tableFor(String table) {
+    return table + "_fts";
+  }
+
+  /**
+   * Create the full-text table and its triggers, and index the rows already in the table.
+   * Run it from a migration, eg. dbi.migration(2, db -> FullText.create(db, Article.class))
+   *
+   * @param database DB to create it in
+   * @param cl Record class with search columns
+   * @throws SQLException
+   */
+  public static void create(DBInterface database, Class<? extends Record> cl) throws SQLException {
+    String table = Record.getTableName(cl);
+    String fts = tableFor(table);
+    String[] columns = columnsOf(cl);
+    String list = String.join(", ", columns);
+    String newValues = "new." + String.join(", new.", columns);
+
+    database.runSql("CREATE VIRTUAL TABLE " + fts + " USING fts4(content='" + table + "', " + list + ")");
+    // An external content index has to be told the old values before they're gone.
+    database.runSql("CREATE TRIGGER " + fts + "_bu BEFORE UPDATE ON " + table
+        + " BEGIN DELETE FROM " + fts + " WHERE docid = old.rowid; END");
+    database.runSql("CREATE TRIGGER " + fts + "_bd BEFORE DELETE ON " + table
+        + " BEGIN DELETE FROM " + fts + " WHERE docid = old.rowid; END");
+    database.runSql("CREATE TRIGGER " + fts + "_au AFTER UPDATE ON " + table
+        + " BEGIN INSERT INTO " + fts + " (docid, " + list + ") VALUES (new.rowid, " + newValues + "); END");
+    database.runSql("CREATE TRIGGER " + fts + "_ai AFTER INSERT ON " + table
+        + " BEGIN INSERT INTO " + fts + " (docid, " + list + ") VALUES (new.rowid, " + newValues + "); END");
+    rebuild(database, cl);
+  }
+
+  /**
+   * Re-index every row, eg. after changing rows with the triggers dropped.
+   *
+   * @param database DB the index is in
+   * @param cl Record class with search columns
+   * @throws SQLException
+   */
+  public static void rebuild(DBInterface database, Class<? extends Record> cl) throws SQLException {
+    String fts = tableFor(Record.getTableName(cl));
+    database.runSql("INSERT INTO " + fts + " (" + fts + ") VALUES ('rebuild')");
+  }
+
+  /**
+   * Remove the full-text table and its triggers.
+   *
+   * @param database DB the index is in
+   * @param cl Record class with search columns
+   * @throws SQLException
+   */
+  public static void drop(DBInterface database, Class<? extends Record> cl) throws SQLException {
+    String fts = tableFor(Record.getTableName(cl));
+    for(String trigger : new String[] {"_bu", "_bd", "_au", "_ai"}) {
+      database.runSql("DROP TRIGGER IF EXISTS " + fts + trigger);
+    }
+    database.runSql("DROP TABLE IF EXISTS " + fts);
+  }
+
+  static String[] columnsOf(Class<? extends Record> cl) {
+    String[] columns;
+    try {
+      columns = cl.getDeclaredConstructor().newInstance().getSearchColumns();
+    } catch(ReflectiveOperationException e) {
+      throw new IllegalArgumentException("Can't create " + cl.getName() + " to read its search columns", e);
+    }
+    if(columns.length == 0) {
+      throw new IllegalArgumentException(cl.getName() + " has no search columns, override getSearchColumns()");
+    }
+    return columns;
+  }
+
+  /**
+   * SQL for the matching rows of the full-text table, their rank and snippet, to join on.
+   *
+   * @param table Record table
+   * @param column Column to search, null for all of them
+   * @return Content for 'FROM ...' with one ? for the terms
+   */
+  static String joinFor(String table, String column) {
+    String fts = tableFor(table);
+    return table + " JOIN (SELECT docid, " + RANK + "(matchinfo(" + fts + ", 'pcnalx')) AS " + RANK
+        + ", snippet(" + fts + ", '" + HIGHLIGHT_START + "', '" + HIGHLIGHT_END + "', '" + ELLIPSIS + "', -1, "
+        + SNIPPET_TOKENS + ") AS " + SNIPPET
+        + " FROM " + fts + " WHERE " + (column == null ? fts : column) + " MATCH ?) AS fts_hits"
+        + " ON fts_hits.docid = " + table + "." + DBInterface.COLUMN_ID;
+  }
+
+  /**
+   * Add the ranking function to a connection, once.
+   *
+   * @param database DB about to run a match
+   * @throws SQLException
+   */
+  static void register(DBInterface database) throws SQLException {
+    Connection connection = database.getConnection();
+    if(connection != null && REGISTERED.add(connection)) {
+      Function.create(connection, RANK, new Bm25());
+    }
+  }
+
+  /**
+   * Okapi BM25 from FTS4's matchinfo(fts, 'pcnalx').
+   */
+  static class Bm25 extends Function {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    @Override
+    protected void xFunc() throws SQLException {
+      ByteBuffer info = ByteBuffer.wrap(value_blob(0)).order(ByteOrder.nativeOrder());
+      int phrases = info.getInt(0);
+      int columns = info.getInt(4);
+      double rows = info.getInt(8) & 0xffffffffL;
+      int averages = 12;
+      int lengths = averages + columns * 4;
+      int hits = lengths + columns * 4;
+      double score = 0;
+      for(int p = 0; p < phrases; p++) {
+        for(int c = 0; c < columns; c++) {
+          int x = hits + (p * columns + c) * 12;
+          double frequency = info.getInt(x);
+          if(frequency == 0) {
+            continue;
+          }
+          double documents = info.getInt(x + 8);
+          double average = Math.max(1, info.getInt(averages + c * 4));
+          double length = info.getInt(lengths + c * 4);
+          double idf = Math.max(1e-6, Math.log((rows - documents + 0.5) / (documents + 0.5)));
+          score += idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / average));
+        }
+      }
+      result(score);
+    }
+  }
+}
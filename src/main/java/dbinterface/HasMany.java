@@ -0,0 +1,49 @@
+package dbinterface;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Target records hold the owner's id, eg. a Customer has many Orders through
+ * order.customer_id. getRelated() returns an ArrayList of the targets, ordered by id.
+ */
+public class HasMany extends Association {
+
+  /**
+   * @param name Name to include() and getRelated() it by
+   * @param target Record class that points back to the owner
+   * @param foreignKey Column on the target holding the owner's id
+   */
+  public HasMany(String name, Class<? extends Record> target, String foreignKey) {
+    super(name, target, foreignKey);
+  }
+
+  @Override
+  public void load(DBInterface database, List<? extends Record> owners) throws SQLException {
+    LinkedHashSet<Integer> ids = new LinkedHashSet<>();
+    for(Record owner : owners) {
+      if(owner.isSaved()) {
+        ids.add(owner.getID());
+      }
+    }
+    HashMap<Integer, ArrayList<Record>> byOwner = new HashMap<>();
+    if(!ids.isEmpty()) {
+      for(Record rec : loadWhereIn(database, foreignKey, ids)) {
+        Integer ownerId = idValue(rec, foreignKey);
+        ArrayList<Record> list = byOwner.get(ownerId);
+        if(list == null) {
+          list = new ArrayList<>();
+          byOwner.put(ownerId, list);
+        }
+        list.add(rec);
+      }
+    }
+    for(Record owner : owners) {
+      ArrayList<Record> list = byOwner.get(owner.getID());
+      owner.setRelated(name, list == null ? new ArrayList<Record>() : list);
+    }
+  }
+}
@@ -0,0 +1,385 @@
+package dbinterface;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A list of values bound to a single ?, so "column IN (...)" has only a few shapes of SQL whatever
+ * the length. Use it through Query.whereIn(), or with sql(column) in your own SQL:
+ * dbi.rawQuery("SELECT * FROM book WHERE " + InList.sql("author_id"), new Object[] {InList.of(ids)})
+ *
+ * Before the SQL is prepared, a list of up to MAX_BOUND values is written out as a list of ?s,
+ * padded to 8, 64 or MAX_BOUND by repeating its last value, and its values are bound to them.
+ * A longer list is put in a temporary table on the connection under a new list id, and the id is
+ * bound instead. The table is created the first time a long list is used on a connection, which
+ * a query_only connection can't do. Updates and deletes remove the rows once they've run, and
+ * Query removes them once it's read its results. A cursor handed back to the caller, from
+ * allCursor() or rawQuery(), can't say when it's finished with them, so they stay until the list
+ * is bound again or release() is called.
+ *
+ * Sqlite's carray() and json_each() would avoid the table, but neither is in the bundled driver.
+ */
+public final class InList {
+  static final String TABLE = "dbinterface_in";
+  /**
+   * Longest list bound as ?s, longer ones go through the table.
+   */
+  static final int MAX_BOUND = 256;
+  /**
+   * Sizes a list of ?s is padded to, so there are only a few statements to prepare.
+   */
+  private static final int[] BUCKETS = {8, 64, MAX_BOUND};
+  private static final String SELECT = "(SELECT value FROM temp." + TABLE + " WHERE list = ?)";
+  /**
+   * Rows per INSERT, a chunk is padded up to the first that fits it. Bigger statements take
+   * longer to prepare than the extra INSERTs they save.
+   */
+  private static final int[] CHUNKS = {8, 64};
+  private static final int PER_INSERT = CHUNKS[CHUNKS.length - 1];
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+  /**
+   * Connections the list table has been created on, with the number of rows put in and taken out
+   * of it, which Sqlite's total_changes() counts along with the rows written to the database.
+   */
+  private static final Map<Connection, AtomicLong> TABLES = Collections.synchronizedMap(
+      new WeakHashMap<Connection, AtomicLong>());
+
+  private final long[] numbers;
+  private final Object[] values;
+  private final ConcurrentHashMap<Connection, Long> filled = new ConcurrentHashMap<>();
+
+  private InList(long[] numbers, Object[] values) {
+    this.numbers = numbers;
+    this.values = values;
+  }
+
+  public static InList of(int... values) {
+    long[] numbers = new long[values.length];
+    for(int i = 0; i < values.length; i++) {
+      numbers[i] = values[i];
+    }
+    return new InList(numbers, null);
+  }
+
+  public static InList of(long... values) {
+    return new InList(values.clone(), null);
+  }
+
+  /**
+   * @param values Values of any type bind() supports, eg. Integers or Strings
+   * @return a list of the values
+   */
+  public static InList of(Collection<?> values) {
+    return new InList(null, values.toArray());
+  }
+
+  /**
+   * @param column Column to test
+   * @return "column IN (...)" with one ? for an InList
+   */
+  public static String sql(String column) {
+    return column + " IN " + SELECT;
+  }
+
+  public int size() {
+    return numbers != null ? numbers.length : values.length;
+  }
+
+  /**
+   * SQL with its short lists written out as ?s, and the values to bind to it.
+   */
+  static final class Expanded {
+    final String sql;
+    final Object[] args;
+
+    private Expanded(String sql, Object[] args) {
+      this.sql = sql;
+      this.args = args;
+    }
+  }
+
+  /**
+   * Write out each InList in args of up to MAX_BOUND values as ?s, in place of the sql() it's
+   * bound to. Longer lists, and any whose ? isn't in an sql(), are left to go through the table.
+   *
+   * @param sql SQL about to be prepared
+   * @param args Values for the ?s, starting with the start'th
+   * @param start Index of the ? args[0] is bound to
+   * @return the SQL and values to prepare and bind, from the start'th ?
+   */
+  static Expanded expand(String sql, Object[] args, int start) {
+    if(args == null || !hasList(args)) {
+      return new Expanded(sql, args);
+    }
+    int[] marks = placeholders(sql);
+    if(marks == null) {
+      return new Expanded(sql, args);
+    }
+    int variables = marks.length;
+    StringBuilder expanded = new StringBuilder(sql.length());
+    ArrayList<Object> bound = new ArrayList<>(args.length);
+    int copied = 0;
+    for(int i = 0; i < args.length; i++) {
+      int mark = start - 1 + i;
+      if(args[i] instanceof InList && mark < marks.length) {
+        InList list = (InList) args[i];
+        int bucket = bucketFor(list.size());
+        int open = marks[mark] - (SELECT.length() - 2);
+        if(bucket >= 0 && variables - 1 + bucket <= DBInterface.MAX_VARIABLES && open >= copied
+            && sql.startsWith(SELECT, open)) {
+          expanded.append(sql, copied, open).append('(').append(DBInterface.createInsert(bucket)).append(')');
+          copied = open + SELECT.length();
+          for(int j = 0; j < bucket; j++) {
+            bound.add(list.valueAt(Math.min(j, list.size() - 1)));
+          }
+          variables += bucket - 1;
+          continue;
+        }
+      }
+      bound.add(args[i]);
+    }
+    expanded.append(sql, copied, sql.length());
+    return new Expanded(expanded.toString(), bound.toArray());
+  }
+
+  private static boolean hasList(Object[] args) {
+    for(Object arg : args) {
+      if(arg instanceof InList) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Number of ?s to write out a list of size values, -1 if it's too long
+   */
+  private static int bucketFor(int size) {
+    if(size == 0) {
+      return 0;
+    }
+    for(int bucket : BUCKETS) {
+      if(size <= bucket) {
+        return bucket;
+      }
+    }
+    return -1;
+  }
+
+  private Object valueAt(int index) {
+    return numbers != null ? (Object) numbers[index] : values[index];
+  }
+
+  /**
+   * Find the ?s in SQL, skipping quoted text and comments.
+   *
+   * @return Index of each ?, null if there's a numbered one, which can't be told apart by position
+   */
+  private static int[] placeholders(String sql) {
+    int[] found = new int[16];
+    int count = 0;
+    int length = sql.length();
+    for(int i = 0; i < length; i++) {
+      char c = sql.charAt(i);
+      if(c == '\'' || c == '"' || c == '`' || c == '[') {
+        char close = c == '[' ? ']' : c;
+        int end = sql.indexOf(close, i + 1);
+        i = end < 0 ? length : end;
+      } else if(c == '-' && sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end;
+      } else if(c == '/' && sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 1;
+      } else if(c == '?') {
+        if(i + 1 < length && Character.isDigit(sql.charAt(i + 1))) {
+          return null;
+        }
+        if(count == found.length) {
+          found = Arrays.copyOf(found, count * 2);
+        }
+        found[count++] = i;
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /**
+   * Add the list table to a connection if there's an InList still in args, the first time there
+   * is one. It has to exist before SQL that uses it is prepared.
+   *
+   * @param connection Connection the SQL is about to be prepared on
+   * @param args Values that will be bound, after expand()
+   * @throws SQLException if the connection is query_only
+   */
+  static void createTable(Connection connection, Object[] args) throws SQLException {
+    if(args == null || TABLES.containsKey(connection)) {
+      return;
+    }
+    for(Object arg : args) {
+      if(arg instanceof InList) {
+        if(isQueryOnly(connection)) {
+          throw new SQLException("A list of " + ((InList) arg).size() + " values needs a temporary table,"
+              + " which a query_only connection can't write. Use lists of up to " + MAX_BOUND + " values.");
+        }
+        createTable(connection);
+        return;
+      }
+    }
+  }
+
+  private static boolean isQueryOnly(Connection connection) throws SQLException {
+    Statement pragma = connection.createStatement();
+    try {
+      ResultSet rs = pragma.executeQuery("PRAGMA query_only");
+      return rs.next() && rs.getInt(1) != 0;
+    } finally {
+      pragma.close();
+    }
+  }
+
+  private static AtomicLong createTable(Connection connection) throws SQLException {
+    AtomicLong changes = TABLES.get(connection);
+    if(changes != null) {
+      return changes;
+    }
+    Statement create = connection.createStatement();
+    try {
+      create.executeUpdate("CREATE TEMP TABLE IF NOT EXISTS " + TABLE
+          + " (list INTEGER NOT NULL, value, PRIMARY KEY (list, value)) WITHOUT ROWID");
+    } finally {
+      create.close();
+    }
+    changes = new AtomicLong();
+    TABLES.put(connection, changes);
+    return changes;
+  }
+
+  /**
+   * @param connection Connection to look at
+   * @return Rows put in and taken out of the list table, part of the connection's total_changes()
+   */
+  static long changes(Connection connection) {
+    AtomicLong changes = TABLES.get(connection);
+    return changes == null ? 0 : changes.get();
+  }
+
+  /**
+   * Put the values in the connection's list table.
+   *
+   * @return id of the list to bind
+   */
+  long fill(Connection connection) throws SQLException {
+    AtomicLong changes = createTable(connection);
+    long id = NEXT_ID.incrementAndGet();
+    int size = size();
+    PreparedStatement[] inserts = new PreparedStatement[CHUNKS.length];
+    try {
+      for(int start = 0; start < size; start += PER_INSERT) {
+        int length = Math.min(PER_INSERT, size - start);
+        // Pad the chunk to the next fixed size by repeating its last value, which INSERT OR IGNORE
+        // drops, so there are only a few statements to prepare whatever the length.
+        int chunk = 0;
+        while(CHUNKS[chunk] < length) {
+          chunk++;
+        }
+        if(inserts[chunk] == null) {
+          inserts[chunk] = connection.prepareStatement(insertSql(CHUNKS[chunk]));
+        }
+        PreparedStatement stmt = inserts[chunk];
+        int pos = 1;
+        for(int i = 0; i < CHUNKS[chunk]; i++) {
+          int index = start + Math.min(i, length - 1);
+          stmt.setLong(pos++, id);
+          if(numbers != null) {
+            stmt.setLong(pos++, numbers[index]);
+          } else {
+            DBInterface.bind(stmt, pos++, values[index]);
+          }
+        }
+        changes.addAndGet(stmt.executeUpdate());
+      }
+    } finally {
+      for(PreparedStatement stmt : inserts) {
+        if(stmt != null) {
+          stmt.close();
+        }
+      }
+    }
+    Long previous = filled.put(connection, id);
+    if(previous != null) {
+      remove(connection, previous);
+    }
+    return id;
+  }
+
+  private static String insertSql(int rows) {
+    StringBuilder sql = new StringBuilder("INSERT OR IGNORE INTO temp." + TABLE + " (list, value) VALUES ");
+    for(int i = 0; i < rows; i++) {
+      sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Remove the values put in for a statement that has finished, eg. once a cursor is closed.
+   *
+   * @param database DB the list was bound on
+   * @throws SQLException
+   */
+  public void release(DBInterface database) throws SQLException {
+    if(database.getConnection() != null) {
+      release(database.getConnection());
+    }
+  }
+
+  void release(Connection connection) throws SQLException {
+    Long id = filled.remove(connection);
+    if(id != null) {
+      remove(connection, id);
+    }
+  }
+
+  private static void remove(Connection connection, long id) throws SQLException {
+    PreparedStatement stmt = connection.prepareStatement("DELETE FROM temp." + TABLE + " WHERE list = ?");
+    try {
+      stmt.setLong(1, id);
+      AtomicLong changes = TABLES.get(connection);
+      int removed = stmt.executeUpdate();
+      if(changes != null) {
+        changes.addAndGet(removed);
+      }
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Release every InList in args, once the statement they were bound to has finished.
+   *
+   * @param connection Connection the statement ran on
+   * @param args Values that were bound
+   * @throws SQLException
+   */
+  static void released(Connection connection, Object[] args) throws SQLException {
+    if(args == null) {
+      return;
+    }
+    for(Object arg : args) {
+      if(arg instanceof InList) {
+        ((InList) arg).release(connection);
+      }
+    }
+  }
+}
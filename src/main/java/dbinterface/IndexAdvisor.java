@@ -0,0 +1,496 @@
+package dbinterface;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Watches the queries run through DBInterface.query() and suggests indexes for them.
+ *
+ * Each query's WHERE and ORDER BY columns are recorded, and the first time a query's SQL is seen
+ * (with its literal strings and numbers taken out) its EXPLAIN QUERY PLAN is checked for a full table scan or a temporary sort. Queries that scan
+ * add their time to a candidate index on their columns (equality columns first, then a range or
+ * the ORDER BY columns), and recommendations() ranks the candidates by that time.
+ *
+ * Turn it on with dbi.advisor(new IndexAdvisor()). It costs one EXPLAIN per distinct SQL string,
+ * and remembers up to maxShapes() of them. Queries past that aren't recorded, see getOverflow().
+ */
+public class IndexAdvisor {
+  private static final Pattern PREDICATE = Pattern.compile(
+      "([A-Za-z_][A-Za-z0-9_]*(?:\\.[A-Za-z_][A-Za-z0-9_]*)?)\\s*(==|=|!=|<>|<=|>=|<|>|\\bIN\\b|\\bIS\\b|\\bLIKE\\b|\\bBETWEEN\\b|\\bGLOB\\b)",
+      Pattern.CASE_INSENSITIVE);
+  private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+  private static final Pattern LITERAL = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+  private static final int MAX_COLUMNS = 4;
+
+  private final ConcurrentHashMap<String, Shape> shapes = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Candidate> candidates = new ConcurrentHashMap<>();
+  private final AtomicLong overflow = new AtomicLong();
+  private int minExecutions = 2;
+  private int maxShapes = 1000;
+
+  private ScheduledExecutorService creator = null;
+  private ScheduledFuture<?> creatorTask = null;
+  // The background creator's own connection to the file, open while it's running
+  private DBInterface creatorDatabase = null;
+  private volatile SQLException lastCreateError = null;
+
+  /**
+   * Only recommend indexes for queries that have scanned at least this many times, 2 by default.
+   *
+   * @param executions minimum number of scanning executions
+   * @return this (for convenience)
+   */
+  public IndexAdvisor minExecutions(int executions) {
+    this.minExecutions = executions;
+    return this;
+  }
+
+  /**
+   * Most distinct SQL strings to remember, 1000 by default.
+   *
+   * @param shapes maximum number of SQL strings
+   * @return this (for convenience)
+   */
+  public IndexAdvisor maxShapes(int shapes) {
+    this.maxShapes = shapes;
+    return this;
+  }
+
+  /**
+   * @return Number of queries that weren't recorded because maxShapes() SQL strings had been seen
+   */
+  public long getOverflow() {
+    return overflow.get();
+  }
+
+  /**
+   * Record a query. Called by DBInterface.query().
+   *
+   * @param database DB the query ran on
+   * @param sql SQL that was run
+   * @param args Values bound to the ?s
+   * @param table Content for 'FROM ...'
+   * @param where Content for 'WHERE ...'
+   * @param orderBy Content for 'ORDER BY ...'
+   * @param nanos How long the query took to return its first row
+   */
+  void observe(DBInterface database, String sql, Object[] args, String table, String where, String orderBy, long nanos) {
+    String key = LITERAL.matcher(sql).replaceAll("?");
+    Shape shape = shapes.get(key);
+    if(shape == null) {
+      if(shapes.size() >= maxShapes) {
+        overflow.incrementAndGet();
+        return;
+      }
+      shape = shapeOf(database, sql, args, table, where, orderBy);
+      shapes.put(key, shape);
+    }
+    if(shape.candidate != null) {
+      shape.candidate.executions.incrementAndGet();
+      if(shape.scans) {
+        shape.candidate.scans.incrementAndGet();
+        shape.candidate.scanNanos.addAndGet(nanos);
+      }
+    }
+  }
+
+  /**
+   * Work out which candidate index a query's SQL belongs to and whether it scans, once per SQL string.
+   */
+  private Shape shapeOf(DBInterface database, String sql, Object[] args, String table, String where, String orderBy) {
+    if(table == null || !TABLE_NAME.matcher(table).matches() || (where == null && orderBy == null)) {
+      return new Shape(null, false);
+    }
+    List<String> columns = candidateColumns(where, orderBy);
+    if(columns.isEmpty()) {
+      return new Shape(null, false);
+    }
+    boolean scans;
+    try {
+      scans = scans(database, sql, args, table);
+    } catch(SQLException sqe) {
+      scans = false;
+    }
+    String key = table.toLowerCase() + " (" + String.join(", ", columns) + ")";
+    return new Shape(candidates.computeIfAbsent(key, k -> new Candidate(table.toLowerCase(), columns)), scans);
+  }
+
+  /**
+   * Work out the columns an index would need: equality columns, then one range column,
+   * or the ORDER BY columns if there is no range.
+   */
+  static List<String> candidateColumns(String where, String orderBy) {
+    LinkedHashSet<String> equality = new LinkedHashSet<>();
+    String range = null;
+    if(where != null) {
+      Matcher m = PREDICATE.matcher(where);
+      while(m.find()) {
+        String column = m.group(1).substring(m.group(1).lastIndexOf('.') + 1).toLowerCase();
+        String op = m.group(2).toUpperCase();
+        if(op.equals("=") || op.equals("==") || op.equals("IN") || op.equals("IS")) {
+          equality.add(column);
+        } else if(range == null && !op.equals("!=") && !op.equals("<>")) {
+          range = column;
+        }
+      }
+    }
+    ArrayList<String> sortedEquality = new ArrayList<>(equality);
+    Collections.sort(sortedEquality);
+    ArrayList<String> columns = new ArrayList<>(sortedEquality);
+    if(range != null && !equality.contains(range)) {
+      columns.add(range);
+    } else if(range == null && orderBy != null) {
+      for(String term : orderBy.split(",")) {
+        String[] words = term.trim().split("\\s+");
+        String column = words[0].substring(words[0].lastIndexOf('.') + 1).toLowerCase();
+        if(!TABLE_NAME.matcher(column).matches()) {
+          break;
+        }
+        if(!columns.contains(column)) {
+          columns.add(column);
+        }
+      }
+    }
+    return columns.size() > MAX_COLUMNS ? new ArrayList<>(columns.subList(0, MAX_COLUMNS)) : columns;
+  }
+
+  private static boolean scans(DBInterface database, String sql, Object[] args, String table) throws SQLException {
+    InList.Expanded bound = InList.expand("EXPLAIN QUERY PLAN " + sql, args, 1);
+    InList.createTable(database.getConnection(), bound.args);
+    PreparedStatement stmt = database.getConnection().prepareStatement(bound.sql);
+    try {
+      if(bound.args != null) {
+        for(int i = 0; i < bound.args.length; i++) {
+          DBInterface.bind(stmt, i + 1, bound.args[i]);
+        }
+      }
+      ResultSet rs = stmt.executeQuery();
+      String fullScan = "scan table " + table.toLowerCase();
+      while(rs.next()) {
+        String detail = rs.getString("detail").toLowerCase();
+        if(detail.equals(fullScan) || (detail.startsWith(fullScan + " ") && !detail.contains(" using "))
+            || detail.startsWith("use temp b-tree for order by")) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Indexes that would have saved the most time, skipping any that already exist
+   * and columns the table doesn't have.
+   *
+   * @param database DB to check existing indexes in
+   * @return recommendations, most benefit first
+   * @throws SQLException
+   */
+  public List<Recommendation> recommendations(DBInterface database) throws SQLException {
+    ArrayList<Recommendation> recommendations = new ArrayList<>();
+    for(Candidate candidate : candidates.values()) {
+      if(candidate.scans.get() < minExecutions) {
+        continue;
+      }
+      HashSet<String> tableColumns = columnsOf(database, candidate.table);
+      if(!tableColumns.containsAll(candidate.columns) || isIndexed(database, candidate)) {
+        continue;
+      }
+      recommendations.add(new Recommendation(candidate.table, candidate.columns,
+          candidate.executions.get(), candidate.scans.get(), candidate.scanNanos.get(), rowEstimate(database, candidate.table)));
+    }
+    Collections.sort(recommendations, (a, b) -> Long.compare(b.getEstimatedBenefitNanos(), a.getEstimatedBenefitNanos()));
+    return recommendations;
+  }
+
+  /**
+   * Create the top recommended indexes.
+   *
+   * @param database DB to create them in
+   * @param max Most indexes to create
+   * @return the indexes created
+   * @throws SQLException
+   */
+  public List<Recommendation> createIndexes(DBInterface database, int max) throws SQLException {
+    List<Recommendation> recommendations = recommendations(database);
+    List<Recommendation> created = new ArrayList<>();
+    for(Recommendation recommendation : recommendations) {
+      if(created.size() == max) {
+        break;
+      }
+      database.runSql(recommendation.getSql());
+      created.add(recommendation);
+    }
+    // Plans have changed now, so check them again.
+    shapes.clear();
+    return created;
+  }
+
+  /**
+   * Create recommended indexes on a background thread, but only between start and end each day,
+   * eg. 02:00 to 04:00. Checks every interval. Restarts it if it's already running. The indexes are
+   * created on a connection of the thread's own to database's file, so they never run in the middle
+   * of the application's statements or transactions, and wait for them like any other writer.
+   *
+   * @param database DB to create indexes in, in a file
+   * @param start Start of the maintenance window
+   * @param end End of the maintenance window, can be before start to span midnight
+   * @param max Most indexes to create at each check
+   * @param interval Time between checks
+   * @param unit Unit of interval
+   * @throws IllegalArgumentException if the database is in memory
+   */
+  public synchronized void startAutoCreate(DBInterface database, LocalTime start, LocalTime end, int max, long interval, TimeUnit unit) {
+    if(database.getLocation() == null) {
+      throw new IllegalArgumentException("Creating indexes in the background needs a database in a file");
+    }
+    stopAutoCreate();
+    File location = database.getLocation();
+    creator = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "IndexAdvisor");
+      t.setDaemon(true);
+      return t;
+    });
+    creatorTask = creator.scheduleWithFixedDelay(() -> {
+      if(inWindow(LocalTime.now(), start, end)) {
+        createInBackground(location, max);
+      }
+    }, interval, interval, unit);
+  }
+
+  private synchronized void createInBackground(File location, int max) {
+    if(creator == null) {
+      return;
+    }
+    try {
+      if(creatorDatabase == null) {
+        creatorDatabase = new DBInterface(location).open();
+      }
+      createIndexes(creatorDatabase, max);
+      lastCreateError = null;
+    } catch(SQLException sqe) {
+      lastCreateError = sqe;
+    }
+  }
+
+  /**
+   * Stop creating indexes in the background, if it is running.
+   */
+  public synchronized void stopAutoCreate() {
+    if(creator != null) {
+      creatorTask.cancel(false);
+      creator.shutdown();
+      creator = null;
+      creatorTask = null;
+    }
+    if(creatorDatabase != null) {
+      creatorDatabase.close();
+      creatorDatabase = null;
+    }
+  }
+
+  /**
+   * The error thrown by the last background index creation, null if it succeeded.
+   *
+   * @return last error
+   */
+  public SQLException getLastCreateError() {
+    return lastCreateError;
+  }
+
+  static boolean inWindow(LocalTime now, LocalTime start, LocalTime end) {
+    if(start.isBefore(end)) {
+      return !now.isBefore(start) && now.isBefore(end);
+    }
+    return !now.isBefore(start) || now.isBefore(end);
+  }
+
+  /**
+   * Forget everything observed so far.
+   */
+  public void reset() {
+    shapes.clear();
+    candidates.clear();
+    overflow.set(0);
+  }
+
+  private static HashSet<String> columnsOf(DBInterface database, String table) throws SQLException {
+    HashSet<String> columns = new HashSet<>();
+    ResultSet rs = database.rawQuery("PRAGMA table_info(" + table + ")", null);
+    while(rs.next()) {
+      columns.add(rs.getString("name").toLowerCase());
+    }
+    rs.close();
+    return columns;
+  }
+
+  /**
+   * Check whether an existing index starts with the candidate's columns.
+   */
+  private static boolean isIndexed(DBInterface database, Candidate candidate) throws SQLException {
+    ArrayList<String> indexes = new ArrayList<>();
+    ResultSet rs = database.rawQuery("PRAGMA index_list(" + candidate.table + ")", null);
+    while(rs.next()) {
+      indexes.add(rs.getString("name"));
+    }
+    rs.close();
+    for(String index : indexes) {
+      ArrayList<String> columns = new ArrayList<>();
+      ResultSet info = database.rawQuery("PRAGMA index_info(" + index + ")", null);
+      while(info.next()) {
+        String name = info.getString("name");
+        columns.add(name == null ? "" : name.toLowerCase());
+      }
+      info.close();
+      if(columns.size() >= candidate.columns.size()
+          && columns.subList(0, candidate.columns.size()).equals(candidate.columns)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rows in the table from its counter cache, or when it was last analyzed, or failing those by counting them.
+   */
+  private static long rowEstimate(DBInterface database, String table) throws SQLException {
+    Long counted = CounterCache.get(database, table, "");
+    if(counted != null) {
+      return counted;
+    }
+    long analyzed = TableStats.analyzedRows(database, table);
+    if(analyzed >= 0) {
+      return analyzed;
+    }
+    ResultSet rs = database.rawQuery("SELECT count(*) FROM " + table, null);
+    try {
+      return rs.next() ? rs.getLong(1) : 0;
+    } finally {
+      rs.close();
+    }
+  }
+
+  private static class Shape {
+    final Candidate candidate;
+    final boolean scans;
+
+    Shape(Candidate candidate, boolean scans) {
+      this.candidate = candidate;
+      this.scans = scans;
+    }
+  }
+
+  private static class Candidate {
+    final String table;
+    final List<String> columns;
+    final AtomicLong executions = new AtomicLong();
+    final AtomicLong scans = new AtomicLong();
+    final AtomicLong scanNanos = new AtomicLong();
+
+    Candidate(String table, List<String> columns) {
+      this.table = table;
+      this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+    }
+  }
+
+  /**
+   * An index that queries would have used.
+   */
+  public static class Recommendation {
+    private final String table;
+    private final List<String> columns;
+    private final long executions;
+    private final long scans;
+    private final long scanNanos;
+    private final long rows;
+
+    Recommendation(String table, List<String> columns, long executions, long scans, long scanNanos, long rows) {
+      this.table = table;
+      this.columns = columns;
+      this.executions = executions;
+      this.scans = scans;
+      this.scanNanos = scanNanos;
+      this.rows = rows;
+    }
+
+    public String getTable() {
+      return table;
+    }
+
+    public List<String> getColumns() {
+      return columns;
+    }
+
+    /**
+     * @return Number of queries that would use the index
+     */
+    public long getExecutions() {
+      return executions;
+    }
+
+    /**
+     * @return Number of those that scanned the table or sorted without an index
+     */
+    public long getScans() {
+      return scans;
+    }
+
+    /**
+     * @return Number of rows in the table, from its counter cache or ANALYZE if it has them
+     */
+    public long getRows() {
+      return rows;
+    }
+
+    /**
+     * Time the scanning queries spent, minus what an index lookup into this many rows
+     * would roughly cost (log2(rows) of rows instead of all of them).
+     *
+     * @return estimated time saved, nanoseconds
+     */
+    public long getEstimatedBenefitNanos() {
+      if(rows <= 1) {
+        return 0;
+      }
+      double lookupFraction = Math.log(rows) / Math.log(2) / rows;
+      return (long) (scanNanos * (1 - Math.min(1, lookupFraction)));
+    }
+
+    /**
+     * @return Name the index will be created with
+     */
+    public String getIndexName() {
+      return "idx_" + table + "_" + String.join("_", columns);
+    }
+
+    /**
+     * @return CREATE INDEX statement for the recommendation
+     */
+    public String getSql() {
+      return "CREATE INDEX IF NOT EXISTS " + getIndexName() + " ON " + table + " (" + String.join(", ", columns) + ")";
+    }
+
+    @Override
+    public String toString() {
+      return getSql() + " -- " + scans + "/" + executions + " queries scanned, ~"
+          + TimeUnit.NANOSECONDS.toMillis(getEstimatedBenefitNanos()) + "ms to save";
+    }
+  }
+}
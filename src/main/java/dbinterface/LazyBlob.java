@@ -0,0 +1,347 @@
+package dbinterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * A BLOB column value that isn't read until it's used, for attachments too big to load with every record.
+ *
+ * Use it as a Record field, with @Column or by calling LazyBlob.read() from setValues(). Loading the
+ * record only remembers where the value is; openStream() then reads it in chunks of chunkSize bytes,
+ * so only one chunk is on the heap at a time. New values are made with of(), from bytes, a buffer or
+ * a stream that is read when the record is saved.
+ *
+ * Sqlite's incremental blob I/O isn't available through the JDBC driver, so chunks are read with
+ * substr(), and a value being saved is held in memory once while it's bound. Saving a record whose
+ * LazyBlob is still the one loaded from its own row leaves the column out of the UPDATE, so the
+ * value isn't read. A stored value saved to any other row is copied through memory.
+ */
+public class LazyBlob {
+  /**
+   * Bytes read per chunk by default.
+   */
+  public static final int DEFAULT_CHUNK = 1024 * 1024;
+
+  private final Connection connection;
+  private final String table;
+  private final String column;
+  private final int id;
+  private byte[] bytes;
+  private ByteBuffer buffer;
+  private InputStream source;
+  private int chunkSize = DEFAULT_CHUNK;
+
+  private LazyBlob(Connection connection, String table, String column, int id) {
+    this.connection = connection;
+    this.table = table;
+    this.column = column;
+    this.id = id;
+  }
+
+  /**
+   * @param bytes Value to save
+   * @return a blob holding bytes
+   */
+  public static LazyBlob of(byte[] bytes) {
+    LazyBlob blob = new LazyBlob(null, null, null, DBInterface.DEFAULT_ID);
+    blob.bytes = bytes;
+    return blob;
+  }
+
+  /**
+   * @param buffer Value to save, from its position to its limit. The position isn't changed.
+   * @return a blob holding the buffer
+   */
+  public static LazyBlob of(ByteBuffer buffer) {
+    LazyBlob blob = new LazyBlob(null, null, null, DBInterface.DEFAULT_ID);
+    blob.buffer = buffer.duplicate();
+    return blob;
+  }
+
+  /**
+   * @param source Stream to save, read to the end and closed when the record is saved
+   * @return a blob that reads source when bound
+   */
+  public static LazyBlob of(InputStream source) {
+    LazyBlob blob = new LazyBlob(null, null, null, DBInterface.DEFAULT_ID);
+    blob.source = source;
+    return blob;
+  }
+
+  /**
+   * A stored value, to read a column without loading its record.
+   *
+   * @param database DB the row is in
+   * @param table Table the row is in
+   * @param column BLOB column
+   * @param id ID of the row
+   * @return a blob that reads from the row
+   */
+  public static LazyBlob at(DBInterface database, String table, String column, int id) {
+    return new LazyBlob(database.getConnection(), table, column, id);
+  }
+
+  /**
+   * Where a result column is stored, without reading its value. Used from setValues() and by generated mappers.
+   * If the column isn't straight from a table, eg. it's an expression, the value is read now instead.
+   *
+   * @param rs ResultSet on the row, which has to include the id
+   * @param column Index of the BLOB column
+   * @return a blob that reads from the row
+   * @throws SQLException
+   */
+  public static LazyBlob read(ResultSet rs, int column) throws SQLException {
+    String table = rs.getMetaData().getTableName(column);
+    if(table == null || table.isEmpty()) {
+      byte[] value = rs.getBytes(column);
+      return value == null ? null : of(value);
+    }
+    return new LazyBlob(rs.getStatement().getConnection(), table, rs.getMetaData().getColumnName(column),
+        rs.getInt(DBInterface.COLUMN_ID));
+  }
+
+  /**
+   * Same as read(rs, index), by column name.
+   */
+  public static LazyBlob read(ResultSet rs, String column) throws SQLException {
+    return read(rs, rs.findColumn(column));
+  }
+
+  /**
+   * Bind a blob to a ?, or NULL if it's null. Used by generated mappers.
+   *
+   * @param stmt Statement to bind to
+   * @param pos Index of the ?
+   * @param blob Value to bind
+   * @throws SQLException
+   */
+  public static void bind(PreparedStatement stmt, int pos, LazyBlob blob) throws SQLException {
+    if(blob == null) {
+      stmt.setNull(pos, Types.BLOB);
+    } else {
+      byte[] value = blob.getBytes();
+      if(value == null) {
+        stmt.setNull(pos, Types.BLOB);
+      } else {
+        stmt.setBytes(pos, value);
+      }
+    }
+  }
+
+  /**
+   * @param database DB the row is in
+   * @param table Table the row is in
+   * @param column BLOB column
+   * @param id ID of the row
+   * @return If the value is stored in that row and column, so saving it there wouldn't change anything
+   */
+  boolean isAt(DBInterface database, String table, String column, int id) {
+    return isStored() && connection == database.getConnection() && this.id == id
+        && this.table.equalsIgnoreCase(table) && this.column.equalsIgnoreCase(column);
+  }
+
+  /**
+   * Bytes to read per query when streaming a stored value.
+   *
+   * @param bytes chunk size
+   * @return this (for convenience)
+   */
+  public LazyBlob chunkSize(int bytes) {
+    if(bytes < 1) {
+      throw new IllegalArgumentException("Chunks need at least one byte");
+    }
+    this.chunkSize = bytes;
+    return this;
+  }
+
+  /**
+   * @return If the value is in a row, rather than held in memory to be saved
+   */
+  public boolean isStored() {
+    return table != null;
+  }
+
+  /**
+   * @return Size in bytes, -1 if the stored value is NULL or the length of a stream isn't known yet
+   * @throws SQLException
+   */
+  public long length() throws SQLException {
+    if(bytes != null) {
+      return bytes.length;
+    } else if(buffer != null) {
+      return buffer.remaining();
+    } else if(source != null) {
+      return -1;
+    }
+    PreparedStatement stmt = connection.prepareStatement(
+        "SELECT length(" + column + ") FROM " + table + " WHERE " + DBInterface.COLUMN_ID + " = ?");
+    try {
+      stmt.setInt(1, id);
+      ResultSet rs = stmt.executeQuery();
+      if(!rs.next()) {
+        return -1;
+      }
+      long length = rs.getLong(1);
+      return rs.wasNull() ? -1 : length;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Read the value a chunk at a time. Close the stream when done.
+   *
+   * @return stream of the value, empty if it's NULL
+   * @throws SQLException
+   */
+  public InputStream openStream() throws SQLException {
+    if(!isStored()) {
+      byte[] value = getBytes();
+      return new ByteArrayInputStream(value == null ? new byte[0] : value);
+    }
+    return new ChunkStream(length());
+  }
+
+  /**
+   * Read the whole value into memory. Streams given to of() are read once and kept.
+   *
+   * @return the value, null if it's NULL
+   * @throws SQLException
+   */
+  public byte[] getBytes() throws SQLException {
+    if(bytes != null) {
+      return bytes;
+    } else if(buffer != null) {
+      byte[] value = new byte[buffer.remaining()];
+      buffer.duplicate().get(value);
+      return value;
+    } else if(source != null) {
+      try {
+        bytes = source.readAllBytes();
+        source.close();
+      } catch(IOException ioe) {
+        throw new SQLException("Can't read blob stream", ioe);
+      }
+      source = null;
+      return bytes;
+    }
+    PreparedStatement stmt = connection.prepareStatement(
+        "SELECT " + column + " FROM " + table + " WHERE " + DBInterface.COLUMN_ID + " = ?");
+    try {
+      stmt.setInt(1, id);
+      ResultSet rs = stmt.executeQuery();
+      return rs.next() ? rs.getBytes(1) : null;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * Copy the value to out a chunk at a time.
+   *
+   * @param out Where to write the value
+   * @return Number of bytes written
+   * @throws SQLException
+   * @throws IOException
+   */
+  public long writeTo(OutputStream out) throws SQLException, IOException {
+    InputStream in = openStream();
+    try {
+      return in.transferTo(out);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return isStored() ? table + "." + column + "[" + id + "]" : "LazyBlob(unsaved)";
+  }
+
+  /**
+   * Reads a stored value with one substr() query per chunk.
+   */
+  private class ChunkStream extends InputStream {
+    private final long length;
+    private PreparedStatement stmt;
+    private byte[] chunk = new byte[0];
+    private int index = 0;
+    private long read = 0;
+
+    ChunkStream(long length) throws SQLException {
+      this.length = length;
+      this.stmt = connection.prepareStatement(
+          "SELECT substr(" + column + ", ?, ?) FROM " + table + " WHERE " + DBInterface.COLUMN_ID + " = ?");
+    }
+
+    private boolean fill() throws IOException {
+      if(index < chunk.length) {
+        return true;
+      }
+      if(stmt == null || read >= length) {
+        return false;
+      }
+      try {
+        stmt.setLong(1, read + 1);
+        stmt.setInt(2, chunkSize);
+        stmt.setInt(3, id);
+        ResultSet rs = stmt.executeQuery();
+        byte[] next = rs.next() ? rs.getBytes(1) : null;
+        rs.close();
+        if(next == null || next.length == 0) {
+          return false;
+        }
+        chunk = next;
+        index = 0;
+        read += next.length;
+        return true;
+      } catch(SQLException sqe) {
+        throw new IOException("Can't read " + LazyBlob.this, sqe);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      return fill() ? chunk[index++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if(len == 0) {
+        return 0;
+      }
+      if(!fill()) {
+        return -1;
+      }
+      int count = Math.min(len, chunk.length - index);
+      System.arraycopy(chunk, index, b, off, count);
+      index += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return chunk.length - index;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(stmt != null) {
+        try {
+          stmt.close();
+        } catch(SQLException sqe) {
+          throw new IOException("Can't close " + LazyBlob.this, sqe);
+        }
+        stmt = null;
+      }
+    }
+  }
+}
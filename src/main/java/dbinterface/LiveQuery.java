@@ -0,0 +1,217 @@
+package dbinterface;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * The results of a Query, kept up to date as rows are written.
+ *
+ * Starts with query.all(), then follows the table's ChangeFeed. Each committed batch only
+ * re-reads the rows it touched, by id, and works out which of them were added to, changed in or
+ * removed from the results. Subscribers get those differences, so keeping a view fresh costs
+ * in proportion to the rows written rather than the size of the table.
+ *
+ * The rows are re-read on the thread that committed them, straight after the commit, since
+ * that's the only time the connection is known to have no transaction open. Subscribers get
+ * the differences on the common ForkJoinPool.
+ *
+ * Results are in id order. The query can't use orderBy(), groupBy() or limit(), since a
+ * change to one row could move any other row in or out of those.
+ */
+public class LiveQuery<T extends Record> implements Flow.Publisher<LiveQuery.Diff<T>> {
+  private final Query query;
+  private final Class<T> cl;
+  private final TreeMap<Integer, T> results = new TreeMap<>();
+  private final SubmissionPublisher<Diff<T>> diffs = new SubmissionPublisher<>(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+  private final Follower follower = new Follower();
+  private volatile ChangeFeed changes = null;
+  private volatile SQLException lastError = null;
+  private long refreshes = 0;
+
+  /**
+   * Rows that entered, changed within or left the results in one commit.
+   */
+  public static class Diff<T extends Record> {
+    private final List<T> added;
+    private final List<T> changed;
+    private final List<T> removed;
+
+    Diff(List<T> added, List<T> changed, List<T> removed) {
+      this.added = Collections.unmodifiableList(added);
+      this.changed = Collections.unmodifiableList(changed);
+      this.removed = Collections.unmodifiableList(removed);
+    }
+
+    public List<T> getAdded() {
+      return added;
+    }
+
+    /**
+     * @return New versions of rows that were written and still match
+     */
+    public List<T> getChanged() {
+      return changed;
+    }
+
+    /**
+     * @return Last versions of rows that were deleted or no longer match
+     */
+    public List<T> getRemoved() {
+      return removed;
+    }
+
+    public boolean isEmpty() {
+      return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return "+" + added.size() + " ~" + changed.size() + " -" + removed.size();
+    }
+  }
+
+  LiveQuery(Query query, Class<T> cl) {
+    if(query.getOrderBy() != null || query.getGroupBy() != null || query.getLimit() != DBInterface.ALL) {
+      throw new UnsupportedOperationException("orderBy(), groupBy() and limit() can't be kept live, sort getResults() instead");
+    }
+    if(query.getDatabase() instanceof ShardedDBInterface) {
+      throw new UnsupportedOperationException("Live queries can't span shards, use getShard()");
+    }
+    this.query = query;
+    this.cl = cl;
+  }
+
+  /**
+   * Load the results and start following changes.
+   */
+  LiveQuery<T> start() throws SQLException {
+    DBInterface database = query.getDatabase();
+    // Listen first so nothing committed between the load and the listening is missed.
+    changes = database.changes();
+    changes.listen(query.getTable(), follower);
+    synchronized(this) {
+      // Held while loading, so a batch that arrives meanwhile is applied on top of the load.
+      for(T record : query.copyFor(database).all(cl)) {
+        results.put(record.getID(), record);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * @return Current results, in id order
+   */
+  public synchronized ArrayList<T> getResults() {
+    return new ArrayList<>(results.values());
+  }
+
+  public synchronized int size() {
+    return results.size();
+  }
+
+  /**
+   * Get the differences after each commit that changes the results.
+   */
+  @Override
+  public void subscribe(Flow.Subscriber<? super Diff<T>> subscriber) {
+    diffs.subscribe(subscriber);
+  }
+
+  /**
+   * @return Number of batches of changes applied
+   */
+  public synchronized long getRefreshes() {
+    return refreshes;
+  }
+
+  /**
+   * @return Why the results stopped updating, null if they haven't
+   */
+  public SQLException getLastError() {
+    return lastError;
+  }
+
+  /**
+   * Stop following changes and complete every subscription.
+   */
+  public void close() {
+    ChangeFeed feed = changes;
+    if(feed != null) {
+      feed.unlisten(query.getTable(), follower);
+    }
+    diffs.close();
+  }
+
+  /**
+   * Re-read the rows with these ids and apply them to the results.
+   */
+  synchronized Diff<T> refresh(LinkedHashSet<Integer> ids) throws SQLException {
+    DBInterface database = query.getDatabase();
+    Object[] whereargs = query.getWhereArgs();
+    int chunk = DBInterface.MAX_VARIABLES - (whereargs == null ? 0 : whereargs.length);
+    Integer[] all = ids.toArray(new Integer[ids.size()]);
+    TreeMap<Integer, T> found = new TreeMap<>();
+    for(int start = 0; start < all.length; start += chunk) {
+      int length = Math.min(chunk, all.length - start);
+      Object[] args = new Object[length];
+      System.arraycopy(all, start, args, 0, length);
+      String where = query.getTable() + "." + DBInterface.COLUMN_ID + " IN (" + DBInterface.createInsert(length) + ")";
+      for(T record : query.copyFor(database).where(where, args).all(cl)) {
+        found.put(record.getID(), record);
+      }
+    }
+    ArrayList<T> added = new ArrayList<>();
+    ArrayList<T> changed = new ArrayList<>();
+    ArrayList<T> removed = new ArrayList<>();
+    for(Integer id : all) {
+      T now = found.get(id);
+      T before = now == null ? results.remove(id) : results.put(id, now);
+      if(now == null) {
+        if(before != null) {
+          removed.add(before);
+        }
+      } else if(before == null) {
+        added.add(now);
+      } else {
+        changed.add(now);
+      }
+    }
+    refreshes++;
+    return new Diff<>(added, changed, removed);
+  }
+
+  /**
+   * Applies the table's committed changes, on the committing thread.
+   */
+  private class Follower implements ChangeFeed.Listener {
+    @Override
+    public void committed(List<ChangeEvent> batch) {
+      LinkedHashSet<Integer> ids = new LinkedHashSet<>();
+      for(ChangeEvent event : batch) {
+        ids.add((int) event.getRowid());
+      }
+      try {
+        Diff<T> diff = refresh(ids);
+        if(!diff.isEmpty()) {
+          diffs.submit(diff);
+        }
+      } catch(SQLException sqe) {
+        lastError = sqe;
+        changes.unlisten(query.getTable(), this);
+        diffs.closeExceptionally(sqe);
+      }
+    }
+
+    @Override
+    public void closed() {
+      diffs.close();
+    }
+  }
+}
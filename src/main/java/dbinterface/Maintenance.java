@@ -0,0 +1,418 @@
+package dbinterface;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a long running database in shape: hands free pages back with incremental_vacuum,
+ * re-runs ANALYZE on tables whose size has drifted from their statistics, and checkpoints the WAL.
+ *
+ * Passes run on a connection of their own to the file, so they never share a statement or a
+ * transaction with the DBInterface, and Sqlite's locks keep the two apart. start() checks every
+ * interval and runs a pass once nothing has been committed for idleFor(). Each pass works in
+ * small steps and stops when its slice() is used up, or as soon as a step finds the database
+ * locked, carrying on where it left off next time, so a query arriving meanwhile waits for one
+ * step at most. A step can't be interrupted, ANALYZE of one large table can run past the slice.
+ *
+ * incremental_vacuum only frees pages when the database was created with
+ * DBConfig.autoVacuum(INCREMENTAL). Sqlite's PRAGMA optimize isn't in the bundled driver, so stale
+ * tables are found by comparing their row count, from a CounterCache if there is one, to sqlite_stat1.
+ * Without a counter the rows are counted, but only until the table is far enough past its
+ * statistics to be stale.
+ *
+ * Use runPass() to run one pass now, eg. from a scheduler of your own. Only databases in a file
+ * can be maintained.
+ */
+public class Maintenance {
+  private static final int SQLITE_BUSY = 5;
+  private static final int SQLITE_LOCKED = 6;
+
+  private final DBInterface database;
+  private long sliceNanos = TimeUnit.MILLISECONDS.toNanos(50);
+  private long idleNanos = TimeUnit.SECONDS.toNanos(5);
+  private int vacuumPages = 256;
+  private double staleRatio = 0.1;
+  private long truncateBytes = 64L * 1024 * 1024;
+
+  private ScheduledExecutorService runner = null;
+  private ScheduledFuture<?> runnerTask = null;
+  // Maintenance's own connection to the file, kept open while started
+  private DBInterface own = null;
+  private long lastVersion = -1;
+  private long lastChangeAt = 0;
+  private int nextTable = 0;
+  private volatile Report lastReport = null;
+  private volatile SQLException lastError = null;
+  private long passes = 0;
+
+  /**
+   * @param database DB to maintain, in a file
+   * @throws IllegalArgumentException if the database is in memory
+   */
+  public Maintenance(DBInterface database) {
+    if(database.getLocation() == null) {
+      throw new IllegalArgumentException("Maintenance needs a database in a file");
+    }
+    this.database = database;
+  }
+
+  /**
+   * Most time a pass spends before stopping, 50ms by default.
+   *
+   * @param time length of a slice
+   * @param unit unit of time
+   * @return this (for convenience)
+   */
+  public Maintenance slice(long time, TimeUnit unit) {
+    sliceNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /**
+   * How long nothing has to be written before a scheduled pass runs, 5 seconds by default.
+   *
+   * @param time quiet time
+   * @param unit unit of time
+   * @return this (for convenience)
+   */
+  public Maintenance idleFor(long time, TimeUnit unit) {
+    idleNanos = unit.toNanos(time);
+    return this;
+  }
+
+  /**
+   * @param pages Free pages to hand back per incremental_vacuum step, 256 by default
+   * @return this (for convenience)
+   */
+  public Maintenance vacuumPages(int pages) {
+    vacuumPages = pages;
+    return this;
+  }
+
+  /**
+   * Re-analyze a table once its row count is this far from its statistics, 0.1 (10%) by default.
+   *
+   * @param ratio fraction of the analyzed row count
+   * @return this (for convenience)
+   */
+  public Maintenance staleRatio(double ratio) {
+    staleRatio = ratio;
+    return this;
+  }
+
+  /**
+   * Checkpoint with TRUNCATE rather than PASSIVE once the WAL is this big, 64 MiB by default.
+   *
+   * @param bytes WAL size
+   * @return this (for convenience)
+   */
+  public Maintenance truncateAbove(long bytes) {
+    truncateBytes = bytes;
+    return this;
+  }
+
+  /**
+   * Check every interval, and run a pass once the database has been idle. Restarts it if it's already running.
+   *
+   * @param interval Time between checks
+   * @param unit Unit of interval
+   */
+  public synchronized void start(long interval, TimeUnit unit) {
+    stop();
+    runner = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "Maintenance");
+      t.setDaemon(true);
+      return t;
+    });
+    runnerTask = runner.scheduleWithFixedDelay(this::runIfIdle, interval, interval, unit);
+  }
+
+  private synchronized void runIfIdle() {
+    if(runner == null) {
+      return;
+    }
+    try {
+      if(isIdle()) {
+        runPass();
+      }
+      lastError = null;
+    } catch(SQLException sqe) {
+      lastError = sqe;
+    }
+  }
+
+  /**
+   * Stop running passes in the background, if it is running.
+   */
+  public synchronized void stop() {
+    if(runner != null) {
+      runnerTask.cancel(false);
+      runner.shutdown();
+      runner = null;
+      runnerTask = null;
+    }
+    disconnect();
+  }
+
+  /**
+   * Nothing committed to the file since the last check, for at least idleFor().
+   */
+  private boolean isIdle() throws SQLException {
+    if(database.isClosed()) {
+      return false;
+    }
+    connect();
+    // Changes whenever another connection, eg. the DBInterface's, commits to the file.
+    long version = longPragma("PRAGMA data_version");
+    long now = System.nanoTime();
+    if(version != lastVersion) {
+      lastVersion = version;
+      lastChangeAt = now;
+      return false;
+    }
+    return now - lastChangeAt >= idleNanos;
+  }
+
+  /**
+   * Open maintenance's own connection, which gives up at once rather than waiting for a lock.
+   */
+  private void connect() throws SQLException {
+    if(own == null) {
+      own = new DBInterface(database.getLocation()).open();
+      own.runSql("PRAGMA busy_timeout = 0");
+    }
+  }
+
+  private void disconnect() {
+    if(own != null) {
+      own.close();
+      own = null;
+      lastVersion = -1;
+    }
+  }
+
+  private static boolean isLocked(SQLException sqe) {
+    // The driver doesn't always set the error code, some paths only have the message
+    String message = String.valueOf(sqe.getMessage());
+    return sqe.getErrorCode() == SQLITE_BUSY || sqe.getErrorCode() == SQLITE_LOCKED
+        || message.contains("database is locked") || message.contains("table is locked");
+  }
+
+  /**
+   * Run one pass now, stopping when the slice is used up or the database is locked.
+   *
+   * @return what was done
+   * @throws SQLException
+   */
+  public synchronized Report runPass() throws SQLException {
+    connect();
+    try {
+      return pass();
+    } finally {
+      if(runner == null) {
+        disconnect();
+      }
+    }
+  }
+
+  private Report pass() throws SQLException {
+    long deadline = System.nanoTime() + sliceNanos;
+    Report report = new Report();
+    report.freePagesBefore = longPragma("PRAGMA freelist_count");
+    report.walBytesBefore = walBytes();
+
+    boolean locked = false;
+    long start = System.nanoTime();
+    try {
+      if(longPragma("PRAGMA auto_vacuum") == DBConfig.AutoVacuum.INCREMENTAL.ordinal()) {
+        // Leave half the slice, so a big vacuum doesn't keep the WAL from being checkpointed.
+        long vacuumDeadline = start + sliceNanos / 2;
+        long free = report.freePagesBefore;
+        while(free > 0 && System.nanoTime() < vacuumDeadline) {
+          own.runSql("PRAGMA incremental_vacuum(" + vacuumPages + ")");
+          free = longPragma("PRAGMA freelist_count");
+        }
+      }
+      report.vacuumNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      analyzeStale(report, deadline);
+      report.analyzeNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      if(report.walBytesBefore > 0 && System.nanoTime() < deadline) {
+        report.checkpoint = report.walBytesBefore >= truncateBytes ? "TRUNCATE" : "PASSIVE";
+        longPragma("PRAGMA wal_checkpoint(" + report.checkpoint + ")");
+      }
+      report.checkpointNanos = System.nanoTime() - start;
+    } catch(SQLException sqe) {
+      if(!isLocked(sqe)) {
+        throw sqe;
+      }
+      // The DBInterface is writing, so stop here and carry on next time.
+      locked = true;
+    }
+
+    report.freePagesAfter = longPragma("PRAGMA freelist_count");
+    report.walBytesAfter = walBytes();
+    report.finished = !locked && System.nanoTime() < deadline;
+    lastReport = report;
+    passes++;
+    return report;
+  }
+
+  /**
+   * Analyze tables with no statistics, or whose size has drifted, starting after the last one checked.
+   */
+  private void analyzeStale(Report report, long deadline) throws SQLException {
+    ArrayList<String> tables = new ArrayList<>();
+    ResultSet rs = own.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+        + " AND name NOT LIKE 'sqlite_%' AND sql NOT LIKE 'CREATE VIRTUAL%' ORDER BY name", null);
+    while(rs.next()) {
+      tables.add(rs.getString(1));
+    }
+    rs.close();
+    for(int checked = 0; checked < tables.size(); checked++) {
+      if(System.nanoTime() >= deadline) {
+        return;
+      }
+      String table = tables.get(nextTable % tables.size());
+      long analyzed = TableStats.analyzedRows(own, table);
+      // max(rowid) would be cheaper, but stays high after deletes. count(*) reads the smallest index,
+      // still much less than ANALYZE reading all of them, and stops once the table is stale.
+      Long rows = CounterCache.get(own, table, "");
+      if(rows == null) {
+        long enough = analyzed < 0 ? 1 : (long) (analyzed * (1 + staleRatio)) + 1;
+        rows = longPragma("SELECT count(*) FROM (SELECT 1 FROM " + table + " LIMIT " + enough + ")");
+      }
+      if(rows > 0 && (analyzed < 0 || Math.abs(rows - analyzed) > analyzed * staleRatio)) {
+        if(System.nanoTime() >= deadline) {
+          // Counting used up the slice, analyze it first thing next pass.
+          return;
+        }
+        own.runSql("ANALYZE " + table);
+        report.analyzed.add(table);
+      }
+      nextTable = (nextTable + 1) % tables.size();
+    }
+  }
+
+  private long longPragma(String sql) throws SQLException {
+    ResultSet rs = own.rawQuery(sql, null);
+    long value = rs.next() ? rs.getLong(1) : 0;
+    rs.close();
+    return value;
+  }
+
+  /**
+   * @return Size of the WAL file, 0 if there isn't one
+   */
+  private long walBytes() {
+    File location = database.getLocation();
+    return location == null ? 0 : new File(location.getPath() + "-wal").length();
+  }
+
+  /**
+   * @return What the last pass did, null if none has run
+   */
+  public Report getLastReport() {
+    return lastReport;
+  }
+
+  public synchronized long getPasses() {
+    return passes;
+  }
+
+  /**
+   * The error thrown by the last background check or pass, null if it succeeded.
+   *
+   * @return last error
+   */
+  public SQLException getLastError() {
+    return lastError;
+  }
+
+  /**
+   * What one pass did and how long each part took.
+   */
+  public static class Report {
+    private long freePagesBefore;
+    private long freePagesAfter;
+    private long walBytesBefore;
+    private long walBytesAfter;
+    private String checkpoint = null;
+    private final ArrayList<String> analyzed = new ArrayList<>();
+    private long vacuumNanos;
+    private long analyzeNanos;
+    private long checkpointNanos;
+    private boolean finished;
+
+    public long getFreePagesBefore() {
+      return freePagesBefore;
+    }
+
+    public long getFreePagesAfter() {
+      return freePagesAfter;
+    }
+
+    public long getWalBytesBefore() {
+      return walBytesBefore;
+    }
+
+    public long getWalBytesAfter() {
+      return walBytesAfter;
+    }
+
+    /**
+     * @return PASSIVE or TRUNCATE, null if there was no WAL to checkpoint
+     */
+    public String getCheckpoint() {
+      return checkpoint;
+    }
+
+    /**
+     * @return Tables ANALYZE was run on
+     */
+    public List<String> getAnalyzed() {
+      return Collections.unmodifiableList(analyzed);
+    }
+
+    public long getVacuumNanos() {
+      return vacuumNanos;
+    }
+
+    public long getAnalyzeNanos() {
+      return analyzeNanos;
+    }
+
+    public long getCheckpointNanos() {
+      return checkpointNanos;
+    }
+
+    public long getTotalNanos() {
+      return vacuumNanos + analyzeNanos + checkpointNanos;
+    }
+
+    /**
+     * @return If the pass got through everything within its slice
+     */
+    public boolean isFinished() {
+      return finished;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("free pages %d -> %d (%.1fms), analyzed %s (%.1fms), WAL %d -> %d bytes %s(%.1fms)",
+          freePagesBefore, freePagesAfter, vacuumNanos / 1e6, analyzed, analyzeNanos / 1e6,
+          walBytesBefore, walBytesAfter, checkpoint == null ? "" : checkpoint + " ", checkpointNanos / 1e6);
+    }
+  }
+}
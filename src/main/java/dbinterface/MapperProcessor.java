@@ -0,0 +1,384 @@
+package dbinterface;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a RecordMapper for every Record subclass with @Column fields.
+ * The mapper is written next to the record class, eg. PersonMapper for Person,
+ * and reads and writes fields directly so there is no reflection at runtime.
+ */
+@SupportedAnnotationTypes("dbinterface.Column")
+public class MapperProcessor extends AbstractProcessor {
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    LinkedHashMap<TypeElement, ArrayList<VariableElement>> classes = new LinkedHashMap<>();
+    for(Element element : roundEnv.getElementsAnnotatedWith(Column.class)) {
+      TypeElement owner = (TypeElement) element.getEnclosingElement();
+      ArrayList<VariableElement> fields = classes.get(owner);
+      if(fields == null) {
+        fields = new ArrayList<>();
+        classes.put(owner, fields);
+      }
+      fields.add((VariableElement) element);
+    }
+    for(Map.Entry<TypeElement, ArrayList<VariableElement>> entry : classes.entrySet()) {
+      ArrayList<VariableElement> fields = inherited(entry.getKey());
+      if(fields == null) {
+        continue;
+      }
+      fields.addAll(entry.getValue());
+      try {
+        generate(entry.getKey(), fields);
+      } catch(IOException ioe) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "Couldn't write mapper: " + ioe.getMessage(), entry.getKey());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The @Column fields of a class's superclasses, which its mapper has to include as well.
+   * Only fields compiled with the class can be seen, since @Column isn't kept in class files.
+   *
+   * @return the fields, or null if they can't all be mapped
+   */
+  private ArrayList<VariableElement> inherited(TypeElement record) {
+    ArrayList<VariableElement> fields = new ArrayList<>();
+    String pkg = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+    TypeMirror parent = record.getSuperclass();
+    while(parent instanceof DeclaredType) {
+      TypeElement type = (TypeElement) ((DeclaredType) parent).asElement();
+      String name = type.getQualifiedName().toString();
+      if(name.equals("dbinterface.Record") || name.equals("java.lang.Object")) {
+        break;
+      }
+      boolean annotated = false;
+      for(Element member : type.getEnclosedElements()) {
+        if(member.getKind() == ElementKind.FIELD && member.getAnnotation(Column.class) != null) {
+          String memberPkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+          if(!memberPkg.equals(pkg) && !member.getModifiers().contains(Modifier.PUBLIC)) {
+            error(record, "Inherited @Column field " + name + "." + member.getSimpleName()
+                + " must be public, since the mapper is in another package");
+            return null;
+          }
+          fields.add((VariableElement) member);
+          annotated = true;
+        }
+      }
+      if(!annotated && processingEnv.getElementUtils().getTypeElement(mapperName(type)) != null) {
+        error(record, "Can't map the @Column fields inherited from " + name
+            + ", since it was compiled separately. Compile them together.");
+        return null;
+      }
+      parent = type.getSuperclass();
+    }
+    return fields;
+  }
+
+  private String mapperName(TypeElement type) {
+    String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    return pkg.isEmpty() ? flatName(type) + "Mapper" : pkg + "." + flatName(type) + "Mapper";
+  }
+
+  private void generate(TypeElement record, ArrayList<VariableElement> fields) throws IOException {
+    TypeMirror recordType = processingEnv.getElementUtils().getTypeElement("dbinterface.Record").asType();
+    if(!processingEnv.getTypeUtils().isAssignable(record.asType(), recordType)) {
+      error(record, "@Column can only be used in subclasses of dbinterface.Record");
+      return;
+    }
+
+    ArrayList<MappedField> columns = new ArrayList<>();
+    for(VariableElement field : fields) {
+      Set<Modifier> modifiers = field.getModifiers();
+      if(modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) {
+        error(field, "@Column fields must not be private, static or final");
+        return;
+      }
+      FieldType type = FieldType.of(field.asType().toString());
+      if(type == null) {
+        error(field, "Unsupported @Column type " + field.asType());
+        return;
+      }
+      String name = field.getAnnotation(Column.class).value();
+      if(name.isEmpty()) {
+        name = field.getSimpleName().toString().toLowerCase();
+      }
+      if(name.equals(DBInterface.COLUMN_ID)) {
+        error(field, "The id column is handled by Record");
+        return;
+      }
+      for(MappedField column : columns) {
+        if(column.column.equals(name)) {
+          error(record, "Column " + name + " is mapped by more than one field");
+          return;
+        }
+      }
+      columns.add(new MappedField(field.getSimpleName().toString(), name, type));
+    }
+    // Same order as batchInsert() expects from fastValues()
+    Collections.sort(columns, (a, b) -> a.column.compareTo(b.column));
+
+    String pkg = processingEnv.getElementUtils().getPackageOf(record).getQualifiedName().toString();
+    String recordName = record.getQualifiedName().toString();
+    String mapperName = flatName(record) + "Mapper";
+    String qualified = pkg.isEmpty() ? mapperName : pkg + "." + mapperName;
+
+    StringBuilder src = new StringBuilder();
+    if(!pkg.isEmpty()) {
+      src.append("package ").append(pkg).append(";\n\n");
+    }
+    src.append("import java.sql.PreparedStatement;\n")
+        .append("import java.sql.ResultSet;\n")
+        .append("import java.sql.SQLException;\n")
+        .append("import java.sql.Types;\n")
+        .append("import java.util.HashMap;\n\n")
+        .append("import dbinterface.CompressedText;\n")
+        .append("import dbinterface.Deferred;\n")
+        .append("import dbinterface.LazyBlob;\n")
+        .append("import dbinterface.RecordMapper;\n\n")
+        .append("/**\n * Generated by dbinterface.MapperProcessor from ").append(recordName).append(", don't edit.\n */\n")
+        .append("public final class ").append(mapperName)
+        .append(" implements RecordMapper<").append(recordName).append("> {\n");
+
+    src.append("  private static final String[] COLUMNS = new String[] {");
+    for(int i = 0; i < columns.size(); i++) {
+      src.append(i == 0 ? "" : ", ").append('"').append(columns.get(i).column).append('"');
+    }
+    src.append("};\n");
+    src.append("  private static final String[] DEFERRED = new String[] {");
+    boolean first = true;
+    for(MappedField column : columns) {
+      if(column.type.isDeferred()) {
+        src.append(first ? "" : ", ").append('"').append(column.column).append('"');
+        first = false;
+      }
+    }
+    src.append("};\n\n");
+
+    src.append("  @Override\n  public String[] getColumns() {\n    return COLUMNS.clone();\n  }\n\n");
+    src.append("  @Override\n  public String[] getDeferredColumns() {\n    return DEFERRED.clone();\n  }\n\n");
+
+    src.append("  @Override\n  public void bind(").append(recordName)
+        .append(" record, PreparedStatement stmt, int start) throws SQLException {\n");
+    for(int i = 0; i < columns.size(); i++) {
+      columns.get(i).appendBind(src, "start + " + i);
+    }
+    src.append("  }\n\n");
+
+    src.append("  @Override\n  public void read(").append(recordName)
+        .append(" record, ResultSet rs, int start) throws SQLException {\n");
+    int selected = 0;
+    for(MappedField column : columns) {
+      if(!column.type.isDeferred()) {
+        column.appendRead(src, "start + " + selected);
+        selected++;
+      }
+    }
+    src.append("  }\n\n");
+
+    src.append("  @Override\n  public void readColumn(").append(recordName)
+        .append(" record, int column, ResultSet rs, int index) throws SQLException {\n")
+        .append("    switch(column) {\n");
+    for(int i = 0; i < columns.size(); i++) {
+      StringBuilder read = new StringBuilder();
+      columns.get(i).appendRead(read, "index");
+      src.append("    case ").append(i).append(":\n")
+          .append(read.toString().replace("\n    ", "\n      ").replaceFirst("^    ", "      "))
+          .append("      break;\n");
+    }
+    src.append("    }\n  }\n\n");
+
+    src.append("  @Override\n  public void defer(").append(recordName)
+        .append(" record, int column, Deferred.Batch batch) {\n")
+        .append("    switch(column) {\n");
+    for(int i = 0; i < columns.size(); i++) {
+      MappedField column = columns.get(i);
+      if(column.type.isDeferred()) {
+        src.append("    case ").append(i).append(":\n")
+            .append("      record.").append(column.field).append(" = Deferred.pending(batch, record, ")
+            .append(column.type.valueClass()).append(");\n")
+            .append("      break;\n");
+      }
+    }
+    src.append("    }\n  }\n\n");
+
+    src.append("  @Override\n  public void readNamed(").append(recordName)
+        .append(" record, ResultSet rs) throws SQLException {\n");
+    for(MappedField column : columns) {
+      column.appendRead(src, "rs.findColumn(\"" + column.column + "\")");
+    }
+    src.append("  }\n\n");
+
+    src.append("  @Override\n  public void values(").append(recordName).append(" record, Object[] container) {\n");
+    for(int i = 0; i < columns.size(); i++) {
+      src.append("    container[").append(i).append("] = record.").append(columns.get(i).field).append(";\n");
+    }
+    src.append("  }\n\n");
+
+    src.append("  @Override\n  public void insertValues(").append(recordName)
+        .append(" record, HashMap<String, Object> map) {\n");
+    for(MappedField column : columns) {
+      src.append("    map.put(\"").append(column.column).append("\", record.").append(column.field).append(");\n");
+    }
+    src.append("  }\n}\n");
+
+    Writer out = processingEnv.getFiler().createSourceFile(qualified, record).openWriter();
+    out.write(src.toString());
+    out.close();
+  }
+
+  private static String flatName(TypeElement type) {
+    String name = type.getSimpleName().toString();
+    Element enclosing = type.getEnclosingElement();
+    while(enclosing != null && !(enclosing instanceof PackageElement)) {
+      if(enclosing.getKind() == ElementKind.CLASS || enclosing.getKind() == ElementKind.INTERFACE) {
+        name = enclosing.getSimpleName() + "_" + name;
+      }
+      enclosing = enclosing.getEnclosingElement();
+    }
+    return name;
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  private static class MappedField {
+    final String field;
+    final String column;
+    final FieldType type;
+
+    MappedField(String field, String column, FieldType type) {
+      this.field = field;
+      this.column = column;
+      this.type = type;
+    }
+
+    void appendBind(StringBuilder src, String index) {
+      String value = "record." + field;
+      if(type == FieldType.LAZY_BLOB) {
+        src.append("    LazyBlob.bind(stmt, ").append(index).append(", ").append(value).append(");\n");
+        return;
+      } else if(type.isDeferred()) {
+        src.append("    Deferred.bind(stmt, ").append(index).append(", ").append(value).append(");\n");
+        return;
+      } else if(type == FieldType.COMPRESSED_TEXT) {
+        src.append("    CompressedText.bind(stmt, ").append(index).append(", ").append(value)
+            .append(", record.getTableName(), \"").append(column).append("\");\n");
+        return;
+      }
+      if(type.boxed) {
+        src.append("    if(").append(value).append(" == null) {\n")
+            .append("      stmt.setNull(").append(index).append(", Types.").append(type.sqlType).append(");\n")
+            .append("    } else {\n  ");
+      }
+      src.append("    stmt.set").append(type.accessor).append("(").append(index).append(", ").append(value).append(");\n");
+      if(type.boxed) {
+        src.append("    }\n");
+      }
+    }
+
+    void appendRead(StringBuilder src, String index) {
+      if(type == FieldType.LAZY_BLOB) {
+        src.append("    record.").append(field).append(" = LazyBlob.read(rs, ").append(index).append(");\n");
+        return;
+      } else if(type.isDeferred()) {
+        src.append("    record.").append(field).append(" = Deferred.read(rs, ").append(index).append(", ")
+            .append(type.valueClass()).append(");\n");
+        return;
+      } else if(type == FieldType.COMPRESSED_TEXT) {
+        src.append("    record.").append(field).append(" = CompressedText.read(rs, ").append(index)
+            .append(", record.getTableName(), \"").append(column).append("\");\n");
+        return;
+      }
+      if(type.boxed) {
+        src.append("    {\n")
+            .append("      ").append(type.primitive).append(" value = rs.get").append(type.accessor).append("(").append(index).append(");\n")
+            .append("      record.").append(field).append(" = rs.wasNull() ? null : value;\n")
+            .append("    }\n");
+      } else {
+        src.append("    record.").append(field).append(" = rs.get").append(type.accessor).append("(").append(index).append(");\n");
+      }
+    }
+  }
+
+  private enum FieldType {
+    INT("int", "Int", "INTEGER", false),
+    INTEGER("java.lang.Integer", "Int", "INTEGER", true),
+    LONG("long", "Long", "BIGINT", false),
+    LONG_BOXED("java.lang.Long", "Long", "BIGINT", true),
+    FLOAT("float", "Float", "REAL", false),
+    FLOAT_BOXED("java.lang.Float", "Float", "REAL", true),
+    DOUBLE("double", "Double", "DOUBLE", false),
+    DOUBLE_BOXED("java.lang.Double", "Double", "DOUBLE", true),
+    BOOLEAN("boolean", "Boolean", "BOOLEAN", false),
+    BOOLEAN_BOXED("java.lang.Boolean", "Boolean", "BOOLEAN", true),
+    STRING("java.lang.String", "String", "VARCHAR", false),
+    BYTES("byte[]", "Bytes", "BLOB", false),
+    LAZY_BLOB("dbinterface.LazyBlob", "Blob", "BLOB", false),
+    COMPRESSED_TEXT("dbinterface.CompressedText", "Blob", "BLOB", false),
+    DEFERRED_TEXT("dbinterface.Deferred<java.lang.String>", "String", "VARCHAR", false),
+    DEFERRED_BYTES("dbinterface.Deferred<byte[]>", "Bytes", "BLOB", false);
+
+    final String javaType;
+    final String accessor;
+    final String sqlType;
+    final boolean boxed;
+    final String primitive;
+
+    FieldType(String javaType, String accessor, String sqlType, boolean boxed) {
+      this.javaType = javaType;
+      this.accessor = accessor;
+      this.sqlType = sqlType;
+      this.boxed = boxed;
+      this.primitive = accessor.toLowerCase();
+    }
+
+    boolean isDeferred() {
+      return this == DEFERRED_TEXT || this == DEFERRED_BYTES;
+    }
+
+    /**
+     * @return Class literal of a Deferred column's value
+     */
+    String valueClass() {
+      return this == DEFERRED_BYTES ? "byte[].class" : "String.class";
+    }
+
+    static FieldType of(String javaType) {
+      for(FieldType type : values()) {
+        if(type.javaType.equals(javaType)) {
+          return type;
+        }
+      }
+      return null;
+    }
+  }
+}
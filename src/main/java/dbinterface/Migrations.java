@@ -0,0 +1,146 @@
+package dbinterface;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Ordered schema migrations for a DBInterface.
+ * The version is stored as db_version in the meta table. On open, only the version is read,
+ * and steps newer than it are run in order, each in its own transaction with its version bump.
+ */
+public class Migrations {
+  public static final String VERSION_KEY = "db_version";
+  public static final int NO_META_TABLE = -1;
+
+  private final TreeMap<Integer, DBInterface.Work> steps = new TreeMap<>();
+  private int version = NO_META_TABLE;
+  private int applied = 0;
+
+  /**
+   * Register a migration step. Versions must be greater than zero and not already registered.
+   *
+   * @param version Version the database is at after this step
+   * @param step Changes to make, eg. db -> db.runSql("CREATE TABLE ...")
+   * @return this (for convenience)
+   */
+  public Migrations add(int version, DBInterface.Work step) {
+    if(version <= 0) {
+      throw new IllegalArgumentException("Migration versions must be greater than zero: " + version);
+    }
+    if(steps.containsKey(version)) {
+      throw new IllegalArgumentException("Migration " + version + " is already registered");
+    }
+    steps.put(version, step);
+    return this;
+  }
+
+  /**
+   * The version the database will be at after running all migrations.
+   *
+   * @return highest registered version, or DBInterface.DATABASE_VERSION if that is higher.
+   */
+  public int getTargetVersion() {
+    int target = DBInterface.DATABASE_VERSION;
+    if(!steps.isEmpty() && steps.lastKey() > target) {
+      target = steps.lastKey();
+    }
+    return target;
+  }
+
+  /**
+   * The version the database was at after the last run()
+   *
+   * @return version, NO_META_TABLE if never run
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * How many steps the last run() applied
+   *
+   * @return number of steps
+   */
+  public int getApplied() {
+    return applied;
+  }
+
+  /**
+   * Bring the database up to the target version.
+   * Writes nothing if the database is already current.
+   *
+   * @param database DB to migrate
+   * @return number of steps applied
+   * @throws SQLException
+   */
+  public int run(DBInterface database) throws SQLException {
+    applied = 0;
+    version = readVersion(database);
+    int target = getTargetVersion();
+    if(version == NO_META_TABLE) {
+      database.transaction(db -> {
+        db.runSql("CREATE TABLE IF NOT EXISTS " + DBInterface.META_TABLE + " (key varchar(50), value text)");
+        writeVersion(db, 0, false);
+      });
+      version = 0;
+    }
+    for(Map.Entry<Integer, DBInterface.Work> step : steps.tailMap(version, false).entrySet()) {
+      final int stepVersion = step.getKey();
+      database.transaction(db -> {
+        step.getValue().run(db);
+        writeVersion(db, stepVersion, true);
+      });
+      version = stepVersion;
+      applied++;
+    }
+    if(version < target) {
+      // DATABASE_VERSION was bumped without a step to go with it.
+      final int newVersion = target;
+      database.transaction(db -> writeVersion(db, newVersion, true));
+      version = target;
+    }
+    return applied;
+  }
+
+  /**
+   * Read just the version from the meta table.
+   *
+   * @param database DB to read from
+   * @return version, 0 if it isn't set, NO_META_TABLE if there is no meta table.
+   * @throws SQLException if the table can't be read, eg. the database is locked. That isn't
+   *                      taken to mean there's no table, which would run every migration again.
+   */
+  public static int readVersion(DBInterface database) throws SQLException {
+    ResultSet exists = database.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+        new Object[]{DBInterface.META_TABLE});
+    boolean missing = !exists.next() || exists.getInt(1) == 0;
+    exists.getStatement().close();
+    if(missing) {
+      return NO_META_TABLE;
+    }
+    ResultSet rs = database.rawQuery("SELECT value FROM " + DBInterface.META_TABLE + " WHERE key = ?", new Object[]{VERSION_KEY});
+    int version = 0;
+    if(rs.next()) {
+      String value = rs.getString(1);
+      if(value != null && value.matches("\\d+")) {
+        version = Integer.parseInt(value);
+      }
+    }
+    rs.getStatement().close();
+    return version;
+  }
+
+  private static void writeVersion(DBInterface database, int version, boolean exists) throws SQLException {
+    HashMap<String, Object> values = new HashMap<>();
+    values.put("value", Integer.toString(version));
+    // Old databases might be missing the row, so fall back to inserting it.
+    if(exists && database.update(DBInterface.META_TABLE, values, "key=?", new Object[]{VERSION_KEY}) > 0) {
+      return;
+    }
+    values.put("key", VERSION_KEY);
+    database.insert(DBInterface.META_TABLE, values);
+  }
+}
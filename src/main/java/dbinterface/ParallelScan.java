@@ -0,0 +1,274 @@
+package dbinterface;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Runs a Query over a table on several cores by splitting it into rowid ranges.
+ * Each range is read on its own read-only connection, in a ForkJoinPool, and the results are
+ * either merged back in rowid order or reduced in parallel.
+ *
+ * Only works for databases in a file, and only sees committed changes. The query can't use
+ * orderBy(), groupBy() or limit(), since those need every row in one place.
+ */
+public class ParallelScan {
+  private final Query query;
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private int ranges = 0;
+
+  /**
+   * Called for each row of a range to add it to that range's container.
+   */
+  public interface Accumulator<A> {
+    void accept(A container, ResultSet row) throws SQLException;
+  }
+
+  /**
+   * @param query Query to scan, on a DBInterface opened from a file
+   */
+  public ParallelScan(Query query) {
+    this.query = query;
+  }
+
+  /**
+   * Number of connections and threads to use, the number of cores by default.
+   *
+   * @param threads threads to scan with
+   * @return this (for convenience)
+   */
+  public ParallelScan parallelism(int threads) {
+    if(threads < 1) {
+      throw new IllegalArgumentException("Need at least one thread");
+    }
+    this.parallelism = threads;
+    return this;
+  }
+
+  /**
+   * Number of rowid ranges to split the table into, four per thread by default.
+   * More ranges even out tables with gaps in their rowids.
+   *
+   * @param ranges ranges to split into
+   * @return this (for convenience)
+   */
+  public ParallelScan ranges(int ranges) {
+    this.ranges = ranges;
+    return this;
+  }
+
+  /**
+   * Load every matching record, in rowid order.
+   *
+   * @param cl Class of record to load
+   * @return records from all ranges
+   * @throws SQLException
+   */
+  public <T extends Record> ArrayList<T> all(Class<T> cl) throws SQLException {
+    RecordMetadata meta = RecordMetadata.of(cl);
+    RecordMapper<T> mapper = query.getSelect() == null ? RecordMapper.of(cl) : null;
+    String select = mapper != null ? meta.getSelectColumns()
+        : query.getSelect() == null ? "*" : query.getSelect();
+    // Every range selects the same columns, so they share one, made from the first row read.
+    Projection[] projection = new Projection[1];
+    boolean projected = Projection.isNeeded(meta, query.getSelect());
+    List<ArrayList<T>> parts = scan(select, ArrayList::new, (list, row) -> {
+      T record;
+      try {
+        record = cl.getDeclaredConstructor().newInstance();
+      } catch(ReflectiveOperationException e) {
+        throw new SQLException("Can't create " + cl.getName(), e);
+      }
+      if(projected) {
+        synchronized(projection) {
+          if(projection[0] == null) {
+            projection[0] = new Projection(query.getDatabase(), meta, row, true);
+          }
+        }
+        record.setFromProjection(row, projection[0]);
+      } else if(mapper == null) {
+        record.setFromCursor(row, false);
+      } else {
+        record.setFromMapped(row, mapper);
+      }
+      list.add(record);
+    });
+    int size = 0;
+    for(ArrayList<T> part : parts) {
+      size += part.size();
+    }
+    ArrayList<T> merged = new ArrayList<>(size);
+    for(ArrayList<T> part : parts) {
+      merged.addAll(part);
+    }
+    query.loadIncludes(merged);
+    return merged;
+  }
+
+  /**
+   * Same as all(), as a parallel stream.
+   *
+   * @param cl Class of record to load
+   * @return stream of the records
+   * @throws SQLException
+   */
+  public <T extends Record> Stream<T> stream(Class<T> cl) throws SQLException {
+    return all(cl).parallelStream();
+  }
+
+  /**
+   * Reduce rows without creating Records. Each range gets its own container from init,
+   * rows are added to it with accumulator, then the containers are combined.
+   * Eg. new ParallelScan(query).reduce(() -> new long[1], (sum, row) -> sum[0] += row.getLong("size"),
+   *     (a, b) -> { a[0] += b[0]; return a; })
+   *
+   * @param init Creates an empty container
+   * @param accumulator Adds a row to a container
+   * @param combiner Combines two containers
+   * @return combined container, from init() if there are no rows
+   * @throws SQLException
+   */
+  public <A> A reduce(Supplier<A> init, Accumulator<A> accumulator, BinaryOperator<A> combiner) throws SQLException {
+    String select = query.getSelect() == null ? "*" : query.getSelect();
+    A result = init.get();
+    for(A part : scan(select, init, accumulator)) {
+      result = combiner.apply(result, part);
+    }
+    return result;
+  }
+
+  /**
+   * Split the table into rowid ranges and run each range in the pool.
+   *
+   * @return one container per range, in rowid order
+   */
+  private <A> List<A> scan(String select, Supplier<A> init, Accumulator<A> accumulator) throws SQLException {
+    if(query.getOrderBy() != null || query.getGroupBy() != null || query.getLimit() != DBInterface.ALL) {
+      throw new UnsupportedOperationException("orderBy(), groupBy() and limit() can't be split into ranges");
+    }
+    DBInterface database = query.getDatabase();
+    if(database.getLocation() == null) {
+      throw new IllegalStateException("Parallel scans need a database in a file");
+    }
+    String table = query.getTable();
+    ResultSet bounds = database.rawQuery("SELECT min(rowid), max(rowid) FROM " + table, null);
+    long min = bounds.getLong(1);
+    long max = bounds.getLong(2);
+    boolean empty = bounds.getObject(1) == null;
+    bounds.close();
+    if(empty) {
+      return new ArrayList<>();
+    }
+
+    int count = ranges > 0 ? ranges : parallelism * 4;
+    long step = Math.max(1, (max - min + count) / count);
+    ArrayList<long[]> split = new ArrayList<>();
+    for(long start = min; start <= max; start += step) {
+      split.add(new long[] {start, Math.min(max, start + step - 1)});
+    }
+
+    String sql = "SELECT " + select + " FROM " + table + " WHERE rowid BETWEEN ? AND ?"
+        + (query.getWhere() == null ? "" : " AND (" + query.getWhere() + ")");
+    InList.Expanded bound = InList.expand(sql, query.getWhereArgs(), 3);
+    Object[] whereargs = bound.args;
+    String url = "jdbc:sqlite:" + database.getLocation().getAbsolutePath();
+    SQLiteConfig readOnly = new SQLiteConfig();
+    readOnly.setReadOnly(true);
+
+    int threads = Math.min(parallelism, split.size());
+    BlockingQueue<Connection> connections = new ArrayBlockingQueue<>(threads);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      for(int i = 0; i < threads; i++) {
+        Connection connection = DriverManager.getConnection(url, readOnly.toProperties());
+        connections.add(connection);
+        InList.createTable(connection, whereargs);
+      }
+      return pool.submit(() -> split.parallelStream().map(range -> {
+        Connection connection = null;
+        try {
+          connection = connections.take();
+          A container = init.get();
+          PreparedStatement stmt = connection.prepareStatement(bound.sql);
+          try {
+            stmt.setLong(1, range[0]);
+            stmt.setLong(2, range[1]);
+            if(whereargs != null) {
+              for(int i = 0; i < whereargs.length; i++) {
+                DBInterface.bind(stmt, i + 3, whereargs[i]);
+              }
+            }
+            ResultSet rs = stmt.executeQuery();
+            while(rs.next()) {
+              accumulator.accept(container, rs);
+            }
+          } finally {
+            stmt.close();
+          }
+          return container;
+        } catch(SQLException sqe) {
+          throw new ScanException(sqe);
+        } catch(InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new ScanException(new SQLException("Interrupted", ie));
+        } finally {
+          if(connection != null) {
+            connections.add(connection);
+          }
+        }
+      }).collect(Collectors.toList())).get();
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for scan", ie);
+    } catch(ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      // The pool can wrap the exception again when it crosses threads.
+      for(Throwable t = cause; t != null; t = t.getCause()) {
+        if(t instanceof ScanException) {
+          throw ((ScanException) t).sqe;
+        }
+      }
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SQLException("Scan failed", cause);
+    } finally {
+      pool.shutdown();
+      for(Connection connection : connections) {
+        try {
+          connection.close();
+        } catch(SQLException sqe) {
+          // Meh.
+        }
+      }
+    }
+  }
+
+  /**
+   * Carries an SQLException out of the stream.
+   */
+  private static class ScanException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final SQLException sqe;
+
+    ScanException(SQLException sqe) {
+      super(sqe);
+      this.sqe = sqe;
+    }
+  }
+}
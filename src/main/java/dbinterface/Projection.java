@@ -0,0 +1,110 @@
+package dbinterface;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+/**
+ * Where a query's result columns go in a Record with a generated mapper, for queries that don't
+ * select the whole record: a Query.select() of some of its columns, or a class with Deferred
+ * columns. Worked out once per query from the result's column names.
+ *
+ * Columns that were selected are read by position. Deferred columns that weren't get a value
+ * that's read on first use, in a batch shared by the records of the query. Any other column
+ * that wasn't selected keeps its default value and is marked unloaded on the record, so
+ * saving it doesn't overwrite the column, and refuses to if the field has been changed.
+ */
+final class Projection {
+  private final DBInterface database;
+  private final RecordMetadata meta;
+  @SuppressWarnings("rawtypes")
+  private final RecordMapper mapper;
+  private final int idColumn;
+  // Result column of each of the mapper's columns, 0 if it wasn't selected
+  private final int[] indexes;
+  private final BitSet unloaded;
+  // Shared by the records for each Deferred column that wasn't selected, null if they each get their own
+  private final Deferred.Batch[] batches;
+
+  /**
+   * @param database DB to read Deferred columns from
+   * @param meta Metadata of the record class, which has a mapper
+   * @param rs Result to read from
+   * @param batched Whether the records share a batch per Deferred column, false if each record is
+   *                dropped or reused before the next is read
+   * @throws IllegalStateException if a Deferred column wasn't selected and the id wasn't either,
+   *                               so it couldn't be read later
+   * @throws SQLException
+   */
+  Projection(DBInterface database, RecordMetadata meta, ResultSet rs, boolean batched) throws SQLException {
+    this.database = database;
+    this.meta = meta;
+    this.mapper = meta.getMapper();
+    indexes = new int[meta.getColumnCount()];
+    int id = 0;
+    ResultSetMetaData result = rs.getMetaData();
+    for(int i = 1; i <= result.getColumnCount(); i++) {
+      String label = result.getColumnLabel(i);
+      if(label.equalsIgnoreCase(DBInterface.COLUMN_ID)) {
+        if(id == 0) {
+          id = i;
+        }
+        continue;
+      }
+      int position = meta.indexOf(label);
+      if(position >= 0 && indexes[position] == 0) {
+        indexes[position] = i;
+      }
+    }
+    idColumn = id;
+    BitSet missing = new BitSet();
+    batches = new Deferred.Batch[indexes.length];
+    for(int i = 0; i < indexes.length; i++) {
+      if(indexes[i] == 0) {
+        missing.set(i);
+        if(meta.isDeferred(i) && idColumn == 0) {
+          throw new IllegalStateException("Select " + DBInterface.COLUMN_ID + " or " + meta.getColumn(i)
+              + " to load " + meta.getTableName() + ", " + meta.getColumn(i) + " is read later by id");
+        }
+        if(batched && meta.isDeferred(i)) {
+          batches[i] = newBatch(i);
+        }
+      }
+    }
+    unloaded = missing.isEmpty() ? null : missing;
+  }
+
+  /**
+   * @return whether a query needs a Projection to load the class, rather than its mapper's read()
+   */
+  static boolean isNeeded(RecordMetadata meta, String select) {
+    return meta.getMapper() != null && (select != null || meta.hasDeferred());
+  }
+
+  private Deferred.Batch newBatch(int position) {
+    return new Deferred.Batch(database, meta.getTableName(), meta.getColumn(position), position);
+  }
+
+  int getIdColumn() {
+    return idColumn;
+  }
+
+  BitSet getUnloaded() {
+    return unloaded;
+  }
+
+  /**
+   * Read the selected columns of a row, and defer the Deferred ones that weren't.
+   */
+  @SuppressWarnings("unchecked")
+  void read(Record record, ResultSet rs) throws SQLException {
+    for(int i = 0; i < indexes.length; i++) {
+      if(indexes[i] != 0) {
+        mapper.readColumn(record, i, rs, indexes[i]);
+      } else if(meta.isDeferred(i)) {
+        mapper.defer(record, i, batches[i] != null ? batches[i] : newBatch(i));
+      }
+    }
+  }
+}
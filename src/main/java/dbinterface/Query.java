@@ -3,7 +3,9 @@ package dbinterface;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.function.Consumer;
 
 /**
 * Builds an SQL statement, executes on the database and returns the result.
@@ -19,6 +21,10 @@ public class Query {
   private int limit = DBInterface.ALL;
   private int offset = 0;
   private Class classType = null;
+  private ArrayList<String> includes = null;
+  private String matchFrom = null;
+  private String matchTerms = null;
+  private HashMap<String, InList> inLists = null;
 
   /**
    * Create a query. null args are ignored when executed.
@@ -151,6 +157,36 @@ public class Query {
     return this;
   }
 
+  /**
+   * Only rows where column is one of values. The whole list is bound to a single ?, so queries
+   * with lists of any length share the same SQL. Combines with where() like another where().
+   *
+   * @param column Column to test
+   * @param values Values to allow
+   * @return this (for convenience)
+   */
+  public Query whereIn(String column, InList values) {
+    if(inLists == null) {
+      inLists = new HashMap<>();
+    }
+    // Stands in for the list among the String whereargs until the query runs.
+    String marker = "\u0000InList" + inLists.size();
+    inLists.put(marker, values);
+    return where(InList.sql(column), marker);
+  }
+
+  public Query whereIn(String column, int... values) {
+    return whereIn(column, InList.of(values));
+  }
+
+  public Query whereIn(String column, long... values) {
+    return whereIn(column, InList.of(values));
+  }
+
+  public Query whereIn(String column, Collection<?> values) {
+    return whereIn(column, InList.of(values));
+  }
+
   /**
    * Set WHERE to be DBInterface.COLUMN_ID = ?
    * Set whereargs to be just the ID.
@@ -170,7 +206,7 @@ public class Query {
    */
   public ResultSet allCursor() throws SQLException {
     if(database == null) database = DBInterface.getGlobal();
-    return database.query(table, select, where, whereargs, groupBy, orderBy, limit);
+    return database.query(source(), select, where, args(), groupBy, orderBy, limit);
   }
 
   /**
@@ -181,7 +217,7 @@ public class Query {
    */
   public ResultSet firstCursor() throws SQLException {
     if(database == null) database = DBInterface.getGlobal();
-    return database.query(table, select, where, whereargs, groupBy, orderBy, 1);
+    return database.query(source(), select, where, args(), groupBy, orderBy, 1);
   }
 
   /**
@@ -237,6 +273,177 @@ public class Query {
     return from(Record.getTableName(cl));
   }
 
+  /**
+   * Load associations of the queried Record class along with it, in one query per
+   * association instead of one per record.
+   *
+   * @param associations Names of associations declared in Record.getAssociations()
+   * @return this (for convenience)
+   */
+  public Query include(String... associations) {
+    if(includes == null) {
+      includes = new ArrayList<>();
+    }
+    for(String name : associations) {
+      includes.add(name);
+    }
+    return this;
+  }
+
+  void loadIncludes(ArrayList<? extends Record> records) throws SQLException {
+    if(includes == null || records.isEmpty()) {
+      return;
+    }
+    Record template = records.get(0);
+    for(String name : includes) {
+      Association assoc = template.getAssociation(name);
+      if(assoc == null) {
+        throw new IllegalArgumentException("No association " + name + " on " + template.getClass().getSimpleName());
+      }
+      assoc.load(database, records);
+    }
+  }
+
+  private <T extends Record> T loadIncludes(T record) throws SQLException {
+    if(includes != null) {
+      ArrayList<T> single = new ArrayList<>();
+      single.add(record);
+      loadIncludes(single);
+    }
+    return record;
+  }
+
+  /**
+   * Only return rows whose full-text index matches the terms, best match first unless
+   * orderBy() is set. The record class needs search columns indexed by FullText.create().
+   * Terms use FTS4 syntax, eg. "sqlite", "sql*", "\"exact phrase\"" or "java OR kotlin".
+   *
+   * @param column Search column to look in
+   * @param terms What to search for
+   * @return this (for convenience)
+   */
+  public Query match(String column, String terms) {
+    if(table == null) {
+      throw new IllegalStateException("Set the table with from() before match()");
+    }
+    matchFrom = FullText.joinFor(table, column);
+    matchTerms = terms;
+    if(orderBy == null) {
+      orderBy = FullText.RANK + " DESC";
+    }
+    return this;
+  }
+
+  /**
+   * Same as match(column, terms), looking in every search column.
+   *
+   * @param terms What to search for
+   * @return this (for convenience)
+   */
+  public Query match(String terms) {
+    return match(null, terms);
+  }
+
+  /**
+   * Run a match() query and return the records along with their rank and highlighted text.
+   *
+   * @return matching records, best first
+   * @throws SQLException
+   */
+  public <T extends Record> ArrayList<SearchHit<T>> hits() throws SQLException {
+    if(matchFrom == null || classType == null) {
+      throw new IllegalStateException("hits() needs from(Class) and match()");
+    }
+    if(database == null) database = DBInterface.getGlobal();
+    @SuppressWarnings("unchecked")
+    Class<T> cl = (Class<T>) classType;
+    RecordMapper<T> mapper = mapperFor(cl);
+    String columns = mapper == null ? "*" : RecordMetadata.of(cl).getSelectColumns()
+        + ", " + FullText.RANK + ", " + FullText.SNIPPET;
+    ResultSet c = database.query(source(), columns, where, args(), groupBy, orderBy, limit);
+    Projection projection = projectionFor(cl, c, true);
+    ArrayList<T> records = new ArrayList<>();
+    ArrayList<SearchHit<T>> hits = new ArrayList<>();
+    StatementEvents.Fetch event = StatementEvents.fetch();
+    while(c.next()) {
+      T record;
+      try {
+        record = cl.getDeclaredConstructor().newInstance();
+      } catch(ReflectiveOperationException e) {
+        c.close();
+        throw new SQLException("Can't create " + cl.getName(), e);
+      }
+      if(projection != null) {
+        record.setFromProjection(c, projection);
+      } else if(mapper == null) {
+        record.setFromCursor(c, false);
+      } else {
+        record.setFromMapped(c, mapper);
+      }
+      records.add(record);
+      hits.add(new SearchHit<>(record, c.getDouble(FullText.RANK), c.getString(FullText.SNIPPET)));
+    }
+    event.done(table, cl, hits.size());
+    c.close();
+    releaseLists();
+    loadIncludes(records);
+    return hits;
+  }
+
+  /**
+   * What to select from, the table or the table joined to its full-text matches.
+   */
+  private String source() throws SQLException {
+    if(matchFrom == null) {
+      return table;
+    }
+    FullText.register(database);
+    return matchFrom;
+  }
+
+  /**
+   * Values for the ?s, with the match terms first since they come before WHERE.
+   */
+  private Object[] args() {
+    Object[] args = whereArgs();
+    if(matchFrom == null) {
+      return args;
+    }
+    int count = args == null ? 0 : args.length;
+    Object[] withTerms = new Object[count + 1];
+    withTerms[0] = matchTerms;
+    for(int i = 0; i < count; i++) {
+      withTerms[i + 1] = args[i];
+    }
+    return withTerms;
+  }
+
+  /**
+   * Values for the ?s in WHERE, with whereIn() lists in place of their markers.
+   */
+  private Object[] whereArgs() {
+    if(inLists == null || whereargs == null) {
+      return whereargs;
+    }
+    Object[] args = new Object[whereargs.length];
+    for(int i = 0; i < args.length; i++) {
+      InList list = inLists.get(whereargs[i]);
+      args[i] = list == null ? whereargs[i] : list;
+    }
+    return args;
+  }
+
+  /**
+   * Remove the whereIn() lists from the temporary table once the results have been read.
+   */
+  private void releaseLists() throws SQLException {
+    if(inLists != null) {
+      for(InList list : inLists.values()) {
+        list.release(database);
+      }
+    }
+  }
+
   /**
    * Set the limit of rows to return
    * @param limit Max number of rows to return
@@ -267,7 +474,7 @@ public class Query {
    */
   public int update(HashMap<String, Object> values) throws SQLException {
     values.remove(DBInterface.COLUMN_ID);
-    return database.update(table, values, where, whereargs);
+    return database.update(table, values, where, whereArgs());
   }
 
   /**
@@ -281,7 +488,7 @@ public class Query {
   public int update(int id, HashMap<String, Object> values) throws SQLException {
     values.remove(DBInterface.COLUMN_ID);
     String where = DBInterface.COLUMN_ID + " = " + Integer.toString(id);
-    return database.update(table, values, where, whereargs);
+    return database.update(table, values, where, whereArgs());
   }
 
   /**
@@ -291,7 +498,7 @@ public class Query {
    * @throws SQLException
    */
   public int drop() throws SQLException {
-    return database.delete(table, where, whereargs);
+    return database.delete(table, where, whereArgs());
   }
 
   /**
@@ -306,6 +513,18 @@ public class Query {
     return database.delete(table, wh, new Object[]{id});
   }
 
+  /**
+   * Drop many rows by id, using as few statements as possible, in one transaction.
+   *
+   * @param ids IDs to drop
+   * @return Number of rows dropped
+   * @throws SQLException
+   */
+  public int dropAll(int... ids) throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    return database.deleteAll(table, ids);
+  }
+
   /**
    * Find by id in given table
    *
@@ -330,12 +549,25 @@ public class Query {
   }
 
   public <T extends Record> ArrayList<T> all(Class<T> cl) throws SQLException {
-    ResultSet c = allCursor();
+    if(database == null) database = DBInterface.getGlobal();
+    if(database instanceof ShardedDBInterface) {
+      return ((ShardedDBInterface) database).all(this, cl, limit);
+    }
+    RecordMapper<T> mapper = mapperFor(cl);
+    ResultSet c = mapper == null ? allCursor() : mappedCursor(cl, limit);
+    Projection projection = projectionFor(cl, c, true);
     ArrayList<T> ar = new ArrayList<>();
+    StatementEvents.Fetch event = StatementEvents.fetch();
     while((c.next())) {
       try {
         T l = cl.newInstance();
-        l.setFromCursor(c, false);
+        if(projection != null) {
+          l.setFromProjection(c, projection);
+        } else if(mapper == null) {
+          l.setFromCursor(c, false);
+        } else {
+          l.setFromMapped(c, mapper);
+        }
         ar.add(l);
       } catch (InstantiationException ie) {
         ie.printStackTrace();
@@ -343,10 +575,71 @@ public class Query {
         iae.printStackTrace();
       }
     }
+    event.done(table, cl, ar.size());
     c.close();
+    releaseLists();
+    loadIncludes(ar);
     return ar;
   }
 
+  /**
+   * Load each row into the same instance and pass it to action, instead of creating a Record per row.
+   * For scans that only read or aggregate the rows, so a long scan leaves almost no garbage.
+   *
+   * The instance is only valid for the row being passed to action: the next row overwrites it,
+   * so copy out any values you need and don't keep the instance itself, eg. in a list.
+   * After the scan it holds the last row. Includes aren't loaded.
+   *
+   * @param instance Record to load every row into
+   * @param action Called once per row with instance
+   * @return Number of rows
+   * @throws SQLException
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Record> int forEachReusing(T instance, Consumer<? super T> action) throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    if(database instanceof ShardedDBInterface) {
+      if(orderBy != null) {
+        throw new UnsupportedOperationException("Can't merge ORDER BY across shards without creating records");
+      }
+      ShardedDBInterface sharded = (ShardedDBInterface) database;
+      int rows = 0;
+      for(int i = 0; i < sharded.getShardCount() && (limit == DBInterface.ALL || rows < limit); i++) {
+        Query shard = copyFor(sharded.getShard(i));
+        if(limit != DBInterface.ALL) {
+          // Each shard only gets what's left of the limit.
+          shard.limit = limit - rows;
+        }
+        rows += shard.forEachReusing(instance, action);
+      }
+      return rows;
+    }
+    Class<T> cl = (Class<T>) instance.getClass();
+    RecordMapper<T> mapper = mapperFor(cl);
+    ResultSet c = mapper == null ? allCursor() : mappedCursor(cl, limit);
+    Projection projection = projectionFor(cl, c, false);
+    int rows = 0;
+    StatementEvents.Fetch event = StatementEvents.fetch();
+    try {
+      while(c.next()) {
+        if(projection != null) {
+          instance.setFromProjection(c, projection);
+        } else if(mapper == null) {
+          instance.setFromCursor(c, false);
+        } else {
+          instance.setFromMapped(c, mapper);
+        }
+        action.accept(instance);
+        rows++;
+      }
+    } finally {
+      event.done(table, cl, rows);
+      c.close();
+      releaseLists();
+    }
+    return rows;
+  }
+
   public <T extends Record> ArrayList<T> all() throws SQLException {
     if(classType != null){
       return all(classType);
@@ -356,29 +649,44 @@ public class Query {
 
   public <T extends Record> T find(int id) throws SQLException {
     if(classType != null) {
-      ResultSet c = findCursor(id);
-      try {
-        T l = (T) classType.newInstance();
-        l.setFromCursor(c, true);
-        c.close();
-        return l;
-      } catch (InstantiationException ie) {
-        ie.printStackTrace();
-      } catch (IllegalAccessException iae) {
-        iae.printStackTrace();
+      if(where == null && select == null) {
+        if(database == null) database = DBInterface.getGlobal();
+        @SuppressWarnings("unchecked")
+        T found = (T) database.find(classType, id);
+        return found == null ? null : loadIncludes(found);
       }
+      return where(DBInterface.COLUMN_ID + " = " + Integer.toString(id)).first();
     }
     return null;
   }
 
   public <T extends Record> T first() throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    if(classType != null && database instanceof ShardedDBInterface) {
+      @SuppressWarnings("unchecked")
+      ArrayList<T> found = ((ShardedDBInterface) database).all(this, (Class<T>) classType, 1);
+      return found.isEmpty() ? null : found.get(0);
+    }
     if(classType != null) {
-      ResultSet c = firstCursor();
+      @SuppressWarnings("unchecked")
+      Class<T> cl = (Class<T>) classType;
+      RecordMapper<T> mapper = mapperFor(cl);
+      ResultSet c = mapper == null ? firstCursor() : mappedCursor(cl, 1);
       try {
-        T l = (T) classType.newInstance();
-        l.setFromCursor(c, true);
+        StatementEvents.Fetch event = StatementEvents.fetch();
+        Projection projection = projectionFor(cl, c, true);
+        T l = cl.newInstance();
+        if(projection != null) {
+          l.setFromProjection(c, projection);
+        } else if(mapper == null) {
+          l.setFromCursor(c, true);
+        } else {
+          l.setFromMapped(c, mapper);
+        }
+        event.done(table, classType, 1);
         c.close();
-        return l;
+        releaseLists();
+        return loadIncludes(l);
       } catch (InstantiationException ie) {
         ie.printStackTrace();
       } catch (IllegalAccessException iae) {
@@ -388,14 +696,168 @@ public class Query {
     return null;
   }
 
+  /**
+   * Load the results and keep them up to date as rows in the table are written.
+   * Eg. LiveQuery&lt;Book&gt; books = new Query(dbi).from(Book.class).where("author_id = ?", 3).live(Book.class)
+   *
+   * @param cl Class of record to load
+   * @return live results, close() it when done
+   * @throws SQLException
+   */
+  public <T extends Record> LiveQuery<T> live(Class<T> cl) throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    if(table == null) {
+      table = Record.getTableName(cl);
+    }
+    return new LiveQuery<>(this, cl).start();
+  }
+
+  public <T extends Record> LiveQuery<T> live() throws SQLException {
+    if(classType != null) {
+      @SuppressWarnings("unchecked")
+      Class<T> cl = (Class<T>) classType;
+      return live(cl);
+    }
+    return null;
+  }
+
+  /**
+   * Copy this query to run on another database, eg. one shard of a ShardedDBInterface.
+   *
+   * @param other DB to run the copy on
+   * @return a new Query
+   */
+  Query copyFor(DBInterface other) {
+    Query copy = new Query(table, other, select, where, whereargs, groupBy, orderBy);
+    copy.limit = limit;
+    copy.offset = offset;
+    copy.classType = classType;
+    copy.includes = includes;
+    copy.matchFrom = matchFrom;
+    copy.matchTerms = matchTerms;
+    copy.inLists = inLists == null ? null : new HashMap<>(inLists);
+    return copy;
+  }
+
+  String getTable() {
+    return table;
+  }
+
+  String getSelect() {
+    return select;
+  }
+
+  String getWhere() {
+    return where;
+  }
+
+  Object[] getWhereArgs() {
+    return whereArgs();
+  }
+
+  String getOrderBy() {
+    return orderBy;
+  }
+
+  String getGroupBy() {
+    return groupBy;
+  }
+
+  int getLimit() {
+    return limit;
+  }
+
+  DBInterface getDatabase() {
+    if(database == null) database = DBInterface.getGlobal();
+    return database;
+  }
+
+  /**
+   * The generated mapper for a class, if the query is selecting whole rows.
+   */
+  private <T extends Record> RecordMapper<T> mapperFor(Class<T> cl) {
+    return select == null ? RecordMapper.of(cl) : null;
+  }
+
+  /**
+   * How to read cl from c if the query doesn't select whole records, null if it does.
+   *
+   * @param batched Whether the records are kept together, so their Deferred columns can be read together
+   */
+  private Projection projectionFor(Class<? extends Record> cl, ResultSet c, boolean batched) throws SQLException {
+    RecordMetadata meta = RecordMetadata.of(cl);
+    return Projection.isNeeded(meta, select) ? new Projection(database, meta, c, batched) : null;
+  }
+
+  /**
+   * Select the id then the mapper's columns, so rows can be read by position.
+   */
+  private ResultSet mappedCursor(Class<? extends Record> cl, int limit) throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    String columns = RecordMetadata.of(cl).getSelectColumns();
+    return database.query(source(), columns, where, args(), groupBy, orderBy, limit);
+  }
+
+  /**
+   * Count the matching rows, reading a CounterCache instead if there's one for this where().
+   *
+   * @return number of rows
+   * @throws SQLException
+   */
   public int count() throws SQLException {
-    return count("*");
+    Long counted = counted();
+    return counted != null ? counted.intValue() : count("*");
   }
 
   public int count(String column) throws SQLException {
     return (Integer) scalar("count(" + column + ")");
   }
 
+  /**
+   * Roughly how many rows match, without counting them. Uses a CounterCache if there is one,
+   * otherwise the statistics from the last ANALYZE: the table's row count, narrowed by the index
+   * the query would search. Conditions no index covers aren't estimated, so the row count is an
+   * upper bound for them. Tables that haven't been analyzed are counted with count().
+   *
+   * @return estimated number of rows
+   * @throws SQLException
+   */
+  public long estimateCount() throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    if(database instanceof ShardedDBInterface) {
+      ShardedDBInterface sharded = (ShardedDBInterface) database;
+      long rows = 0;
+      for(int i = 0; i < sharded.getShardCount(); i++) {
+        rows += copyFor(sharded.getShard(i)).estimateCount();
+      }
+      return rows;
+    }
+    Long counted = counted();
+    if(counted != null) {
+      return counted;
+    }
+    if(matchFrom == null && groupBy == null) {
+      long estimate = TableStats.estimate(database, table, where, whereArgs());
+      releaseLists();
+      if(estimate >= 0) {
+        return estimate;
+      }
+    }
+    return count();
+  }
+
+  /**
+   * @return The count kept by a CounterCache for this query, null if there isn't one
+   */
+  private Long counted() throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    if(database instanceof ShardedDBInterface || matchFrom != null || groupBy != null
+        || (whereargs != null && whereargs.length > 0)) {
+      return null;
+    }
+    return CounterCache.get(database, table, where);
+  }
+
   public Object max(String column) throws SQLException {
     return scalar("max(" + column + ")");
   }
@@ -409,10 +871,15 @@ public class Query {
   }
 
   public Object scalar(String function) throws SQLException {
+    if(database == null) database = DBInterface.getGlobal();
+    if(database instanceof ShardedDBInterface) {
+      return ((ShardedDBInterface) database).scalar(this, function);
+    }
     select = function;
     ResultSet rs = firstCursor();
     Object res = rs.getObject(1);
     rs.close();
+    releaseLists();
     return res;
   }
 }
@@ -2,10 +2,17 @@ package dbinterface;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 
 public abstract class Record {
+  private static final Association[] NO_ASSOCIATIONS = new Association[0];
+  private static final String[] NO_COLUMNS = new String[0];
   private int id;
+  private HashMap<String, Object> related = null;
+  // Positions in the mapper's columns that weren't selected, null when every column was.
+  private BitSet unloaded = null;
 
   /**
    * Creates a new Record from a ResultSet, closes the RS after completion.
@@ -45,29 +52,186 @@ public abstract class Record {
    */
   public void setFromCursor(ResultSet c, boolean closeAfter) throws SQLException {
     setID(c.getInt(DBInterface.COLUMN_ID));
+    unloaded = null;
     setValues(c);
     if(closeAfter) c.close();
   }
 
   /**
    * Called to set properties of a subclass when a Record is loaded.
+   * Handled by the generated RecordMapper if the subclass uses @Column, otherwise must be overridden.
    * @param rs ResultSet to get values from
    * @throws SQLException
    */
-  abstract protected void setValues(ResultSet rs) throws SQLException;
+  @SuppressWarnings("unchecked")
+  protected void setValues(ResultSet rs) throws SQLException {
+    requireMapper().readNamed(this, rs);
+  }
 
   /**
    * Called to get properties from subclass that should be saved into the DB.
+   * Handled by the generated RecordMapper if the subclass uses @Column, otherwise must be overridden.
    * @param map HashMap to store the values in.
    */
-  abstract protected void insertValues(HashMap<String, Object> map);
+  @SuppressWarnings("unchecked")
+  protected void insertValues(HashMap<String, Object> map) {
+    requireMapper().insertValues(this, map);
+  }
 
   /**
    * Overridden to provide a faster way to insert items in a batch.
    * Attributes should be sorted alphabetically when inserted.
+   * Handled by the generated RecordMapper if the subclass uses @Column, otherwise must be overridden.
    * @param container To put values in. Will have correct size, hopefully.
    */
-  abstract public void fastValues(Object[] container);
+  @SuppressWarnings("unchecked")
+  public void fastValues(Object[] container) {
+    requireMapper().values(this, container);
+  }
+
+  /**
+   * Load from a ResultSet selected with the mapper's columns, id first.
+   * @param c ResultSet on the row to load
+   * @param mapper Mapper for this class
+   * @throws SQLException
+   */
+  @SuppressWarnings("unchecked")
+  void setFromMapped(ResultSet c, RecordMapper<?> mapper) throws SQLException {
+    setID(c.getInt(1));
+    unloaded = null;
+    ((RecordMapper<Record>) mapper).read(this, c, 2);
+  }
+
+  /**
+   * Load the columns a query selected, see Projection.
+   * @param c ResultSet on the row to load
+   * @param projection Where each column is in c
+   * @throws SQLException
+   */
+  void setFromProjection(ResultSet c, Projection projection) throws SQLException {
+    int idColumn = projection.getIdColumn();
+    setID(idColumn == 0 ? DBInterface.DEFAULT_ID : c.getInt(idColumn));
+    unloaded = projection.getUnloaded();
+    projection.read(this, c);
+  }
+
+  /**
+   * Check whether a column was loaded. Columns left out of a Query.select() aren't, and keep
+   * their default values. Deferred columns aren't until their value is read.
+   * @param column Column name
+   * @return true if the field holds the column's value
+   */
+  public boolean isLoaded(String column) {
+    if(unloaded == null) {
+      return true;
+    }
+    int position = RecordMetadata.of(getClass()).indexOf(column);
+    if(position < 0) {
+      throw new IllegalArgumentException("No column " + column + " on " + getClass().getSimpleName());
+    }
+    return !unloaded.get(position);
+  }
+
+  /**
+   * @return Positions of the columns that weren't loaded, null if they all were. Not to be changed.
+   */
+  BitSet getUnloaded() {
+    return unloaded;
+  }
+
+  void markLoaded(int position) {
+    if(unloaded != null) {
+      // May be shared with the other records of a query, so it's copied rather than changed.
+      BitSet still = (BitSet) unloaded.clone();
+      still.clear(position);
+      unloaded = still.isEmpty() ? null : still;
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private RecordMapper requireMapper() {
+    RecordMapper mapper = RecordMapper.of(getClass());
+    if(mapper == null) {
+      throw new IllegalStateException(getClass().getName()
+          + " has no @Column fields, so it must override setValues(), insertValues() and fastValues()");
+    }
+    return mapper;
+  }
+
+  /**
+   * Overridden to declare relationships to other Records, which can be loaded
+   * in bulk with Query.include(name). Eg:
+   * return new Association[] { new BelongsTo("customer", Customer.class, "customer_id") };
+   * @return associations of this class, none by default
+   */
+  protected Association[] getAssociations() {
+    return NO_ASSOCIATIONS;
+  }
+
+  /**
+   * Overridden to name text columns that FullText.create() should index, so they can be
+   * searched with Query.match(). Eg: return new String[] { "title", "body" };
+   * @return columns to index, none by default
+   */
+  protected String[] getSearchColumns() {
+    return NO_COLUMNS;
+  }
+
+  /**
+   * Find one of the associations declared in getAssociations()
+   * @param name name of the association
+   * @return the association, or null if there isn't one by that name
+   */
+  public Association getAssociation(String name) {
+    for(Association assoc : getAssociations()) {
+      if(assoc.getName().equals(name)) {
+        return assoc;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the records loaded for an association. A Record for BelongsTo, an ArrayList for HasMany.
+   * @param name name of the association
+   * @return the related record(s), null if they haven't been loaded.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getRelated(String name) {
+    return related == null ? null : (T) related.get(name);
+  }
+
+  /**
+   * Check whether an association has been loaded, with Query.include() or loadRelated()
+   * @param name name of the association
+   * @return true if loaded
+   */
+  public boolean hasRelated(String name) {
+    return related != null && related.containsKey(name);
+  }
+
+  void setRelated(String name, Object value) {
+    if(related == null) {
+      related = new HashMap<>();
+    }
+    related.put(name, value);
+  }
+
+  /**
+   * Load a single association for just this record. Use Query.include() for lists of records.
+   * @param database DB to load from
+   * @param name name of the association
+   * @return the related record(s)
+   * @throws SQLException
+   */
+  public <T> T loadRelated(DBInterface database, String name) throws SQLException {
+    Association assoc = getAssociation(name);
+    if(assoc == null) {
+      throw new IllegalArgumentException("No association " + name + " on " + getClass().getSimpleName());
+    }
+    assoc.load(database, Collections.singletonList(this));
+    return getRelated(name);
+  }
 
   /**
    * Gets the record ID, -1 (DBInterface.DEFAULT_ID) if the record is not saved.
@@ -88,9 +252,9 @@ public abstract class Record {
    */
   public void save(DBInterface database) throws SQLException {
     if(getID() == -1) {
-      setID(new Query(database).in(getClass()).insert(getValues()));
+      setID(database.insert(this));
     } else {
-      new Query(database).in(getClass()).update(getID(), getValues());
+      database.update(this);
     }
   }
 
@@ -108,7 +272,7 @@ public abstract class Record {
     if(getID() == -1) {
       return 0;
     }
-    return new Query(database).in(getClass()).drop(getID());
+    return database.delete(this);
   }
 
   public int drop() throws SQLException {
@@ -144,7 +308,7 @@ public abstract class Record {
     return getClass().getSimpleName() + " id: " + Integer.toString(getID());
   }
   public static String getTableName(Class<? extends Record> cl) {
-    return cl.getSimpleName().toLowerCase();
+    return RecordMetadata.of(cl).getTableName();
   }
 
   public String getTableName() {
@@ -0,0 +1,109 @@
+package dbinterface;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * Moves values between a Record subclass and the database by column position.
+ * Implementations are generated by MapperProcessor for classes with @Column fields,
+ * and are named after the record class, eg. PersonMapper for Person.
+ *
+ * Every method uses the same column order: getColumns(), which is sorted alphabetically
+ * and doesn't include the id. read() skips the Deferred columns, since they aren't selected.
+ */
+public interface RecordMapper<T extends Record> {
+
+  /**
+   * @return Column names, sorted alphabetically, without the id
+   */
+  String[] getColumns();
+
+  /**
+   * @return Names of the Deferred columns, which are left out of RecordMetadata.getSelectColumns()
+   */
+  String[] getDeferredColumns();
+
+  /**
+   * Bind every column of the record to consecutive ?s.
+   *
+   * @param record Record to read from
+   * @param stmt Statement to bind to
+   * @param start Index of the ? for the first column
+   * @throws SQLException
+   */
+  void bind(T record, PreparedStatement stmt, int start) throws SQLException;
+
+  /**
+   * Read every column except the Deferred ones from consecutive result columns.
+   *
+   * @param record Record to set values on
+   * @param rs ResultSet on the row to read
+   * @param start Index of the first column
+   * @throws SQLException
+   */
+  void read(T record, ResultSet rs, int start) throws SQLException;
+
+  /**
+   * Read one column, for ResultSets that only selected some of them.
+   *
+   * @param record Record to set the value on
+   * @param column Index of the column in getColumns()
+   * @param rs ResultSet on the row to read
+   * @param index Index of the result column to read it from
+   * @throws SQLException
+   */
+  void readColumn(T record, int column, ResultSet rs, int index) throws SQLException;
+
+  /**
+   * Set a Deferred column to a value that's read later with the rest of batch.
+   *
+   * @param record Record to set the value on, with its id set
+   * @param column Index of the column in getColumns()
+   * @param batch Batch for the column
+   */
+  void defer(T record, int column, Deferred.Batch batch);
+
+  /**
+   * Read every column by name, for ResultSets that weren't selected through the mapper.
+   *
+   * @param record Record to set values on
+   * @param rs ResultSet on the row to read
+   * @throws SQLException
+   */
+  void readNamed(T record, ResultSet rs) throws SQLException;
+
+  /**
+   * @param record Record to read from
+   * @param container Array of getColumns().length to put the values in
+   */
+  void values(T record, Object[] container);
+
+  /**
+   * @param record Record to read from
+   * @param map Map to put column name/value pairs in
+   */
+  void insertValues(T record, HashMap<String, Object> map);
+
+  /**
+   * Find the generated mapper for a Record class. Looked up once per class.
+   *
+   * @param cl Record class
+   * @return the mapper, or null if the class has no @Column fields.
+   */
+  @SuppressWarnings("unchecked")
+  static <T extends Record> RecordMapper<T> of(Class<T> cl) {
+    return (RecordMapper<T>) RecordMetadata.of(cl).getMapper();
+  }
+
+  /**
+   * Name of the mapper class generated for a Record class.
+   *
+   * @param recordClassName binary name of the record class, eg. com.example.Outer$Person
+   * @return eg. com.example.Outer_PersonMapper
+   */
+  static String mapperName(String recordClassName) {
+    return recordClassName.replace('$', '_') + "Mapper";
+  }
+}
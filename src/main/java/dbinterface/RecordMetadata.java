@@ -0,0 +1,335 @@
+package dbinterface;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Everything DBInterface needs to know about a Record class, worked out once per class:
+ * the table name, the column list and the SQL to insert, update, delete and find by id.
+ *
+ * The column list and its SQL come from the generated RecordMapper. A hand written Record can
+ * leave keys out of insertValues() depending on its fields, so its SQL is built on each save
+ * from the keys it put in the map, and getColumns() is null.
+ */
+public class RecordMetadata {
+  private static final ClassValue<RecordMetadata> REGISTRY = new ClassValue<RecordMetadata>() {
+    @Override
+    @SuppressWarnings("unchecked")
+    protected RecordMetadata computeValue(Class<?> type) {
+      return new RecordMetadata((Class<? extends Record>) type);
+    }
+  };
+
+  private final Class<? extends Record> recordClass;
+  private final String tableName;
+  private final RecordMapper<?> mapper;
+  private final String[] columns;
+  private final BitSet deferred = new BitSet();
+  private final boolean blobs;
+  private final String selectColumns;
+  private final String insertSql;
+  private final String insertWithIdSql;
+  private final String updateSql;
+  private final String deleteSql;
+  private final String findSql;
+  // The mapper's values for a new instance, see defaultOf()
+  private volatile Object[] defaults;
+  // Connections the columns have been checked against, since each can be to a different file
+  private final Map<Connection, Boolean> verified = Collections.synchronizedMap(
+      new WeakHashMap<Connection, Boolean>());
+
+  /**
+   * Get the metadata for a Record class, created the first time it's asked for.
+   *
+   * @param cl Record class
+   * @return metadata for the class
+   */
+  public static RecordMetadata of(Class<? extends Record> cl) {
+    return REGISTRY.get(cl);
+  }
+
+  private RecordMetadata(Class<? extends Record> cl) {
+    recordClass = cl;
+    tableName = cl.getSimpleName().toLowerCase();
+    mapper = findMapper(cl);
+    columns = mapper != null ? mapper.getColumns() : null;
+    blobs = columns != null && hasBlobFields(cl);
+
+    if(columns == null) {
+      selectColumns = "*";
+      insertSql = null;
+      insertWithIdSql = null;
+      updateSql = null;
+    } else if(columns.length == 0) {
+      selectColumns = "*";
+      insertSql = "INSERT INTO " + tableName + " DEFAULT VALUES";
+      insertWithIdSql = "INSERT INTO " + tableName + " (" + DBInterface.COLUMN_ID + ") VALUES (?)";
+      updateSql = null;
+    } else {
+      selectColumns = mapper == null ? "*" : DBInterface.COLUMN_ID + ", " + String.join(", ", selected());
+      insertSql = "INSERT INTO " + tableName + " (" + String.join(", ", columns)
+          + ") VALUES (" + DBInterface.createInsert(columns.length) + ")";
+      insertWithIdSql = "INSERT INTO " + tableName + " (" + DBInterface.COLUMN_ID + ", " + String.join(", ", columns)
+          + ") VALUES (" + DBInterface.createInsert(columns.length + 1) + ")";
+      updateSql = "UPDATE " + tableName + " SET " + String.join("=?, ", columns) + "=?"
+          + " WHERE " + DBInterface.COLUMN_ID + " = ?";
+    }
+    deleteSql = "DELETE FROM " + tableName + " WHERE " + DBInterface.COLUMN_ID + " = ?";
+    findSql = "SELECT " + selectColumns + " FROM " + tableName + " WHERE " + DBInterface.COLUMN_ID + " = ?";
+  }
+
+  /**
+   * Mark the mapper's Deferred columns, which aren't selected with the record.
+   *
+   * @return the other columns
+   */
+  private ArrayList<String> selected() {
+    ArrayList<String> selected = new ArrayList<>(Arrays.asList(columns));
+    for(String name : mapper.getDeferredColumns()) {
+      deferred.set(indexOf(name));
+      selected.remove(name);
+    }
+    return selected;
+  }
+
+  /**
+   * The class's generated mapper. A subclass without @Column fields of its own uses its
+   * superclass's, which maps all of its columns.
+   */
+  private static RecordMapper<?> findMapper(Class<?> cl) {
+    for(Class<?> c = cl; c != null && c != Record.class; c = c.getSuperclass()) {
+      if(c != cl && overridesInsertValues(cl)) {
+        // Hand written columns on top of the superclass's, saved from insertValues() each time.
+        return null;
+      }
+      try {
+        Class<?> mapper = Class.forName(RecordMapper.mapperName(c.getName()), true, c.getClassLoader());
+        return (RecordMapper<?>) mapper.getDeclaredConstructor().newInstance();
+      } catch(ClassNotFoundException cnf) {
+        // Try the superclass
+      } catch(ReflectiveOperationException roe) {
+        throw new IllegalStateException("Can't create mapper for " + c.getName(), roe);
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasBlobFields(Class<?> cl) {
+    for(Class<?> c = cl; c != null && c != Record.class; c = c.getSuperclass()) {
+      for(Field field : c.getDeclaredFields()) {
+        if(field.getType() == LazyBlob.class && !Modifier.isStatic(field.getModifiers())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean overridesInsertValues(Class<?> cl) {
+    for(Class<?> c = cl; c != null && c != Record.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod("insertValues", HashMap.class);
+        return true;
+      } catch(NoSuchMethodException nsm) {
+        // Keep looking up the hierarchy
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check the columns against the table the first time the class is saved on a connection.
+   *
+   * @param database DB to check in
+   * @throws SQLException if the table is missing any of the columns.
+   */
+  void verify(DBInterface database) throws SQLException {
+    Connection connection = database.getConnection();
+    if(columns == null || verified.containsKey(connection)) {
+      return;
+    }
+    HashSet<String> existing = new HashSet<>();
+    ResultSet rs = database.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+    while(rs.next()) {
+      existing.add(rs.getString("name").toLowerCase());
+    }
+    rs.close();
+    if(existing.isEmpty()) {
+      throw new SQLException("No table " + tableName + " for " + recordClass.getName());
+    }
+    ArrayList<String> missing = new ArrayList<>();
+    for(String column : columns) {
+      if(!existing.contains(column.toLowerCase())) {
+        missing.add(column);
+      }
+    }
+    if(!missing.isEmpty()) {
+      throw new SQLException("Table " + tableName + " has no column(s) " + String.join(", ", missing)
+          + " for " + recordClass.getName());
+    }
+    verified.put(connection, Boolean.TRUE);
+  }
+
+  public Class<? extends Record> getRecordClass() {
+    return recordClass;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * @return The generated mapper, or null if the class is hand written
+   */
+  public RecordMapper<?> getMapper() {
+    return mapper;
+  }
+
+  /**
+   * @return Column names, sorted, without the id. null if the class is hand written.
+   */
+  public String[] getColumns() {
+    return columns == null ? null : columns.clone();
+  }
+
+  int getColumnCount() {
+    return columns.length;
+  }
+
+  /**
+   * @param column Column name, in any case
+   * @return Index of the column in getColumns(), -1 if there isn't one
+   */
+  int indexOf(String column) {
+    if(columns != null) {
+      for(int i = 0; i < columns.length; i++) {
+        if(columns[i].equalsIgnoreCase(column)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Read one column of a record through the generated mapper.
+   *
+   * @param record Record of this class
+   * @param position Index of the column in getColumns()
+   * @return the field's value
+   */
+  Object valueOf(Record record, int position) {
+    Object[] container = new Object[columns.length];
+    values(record, container);
+    return container[position];
+  }
+
+  /**
+   * A column's value in a new instance of the class, which a record loaded without the column
+   * still has unless it's been changed since.
+   *
+   * @param position Index of the column in getColumns()
+   * @return the field's value in a new instance
+   */
+  Object defaultOf(int position) {
+    Object[] found = defaults;
+    if(found == null) {
+      found = new Object[columns.length];
+      try {
+        values(recordClass.getDeclaredConstructor().newInstance(), found);
+      } catch(ReflectiveOperationException e) {
+        throw new IllegalStateException("Can't create " + recordClass.getName(), e);
+      }
+      defaults = found;
+    }
+    return found[position];
+  }
+
+  /**
+   * Same as the mapper's values(), for a Record of this class.
+   */
+  @SuppressWarnings("unchecked")
+  void values(Record record, Object[] container) {
+    ((RecordMapper<Record>) mapper).values(record, container);
+  }
+
+  /**
+   * Bind the mapper's columns of a record, in getColumns() order. Only for classes with a mapper.
+   */
+  @SuppressWarnings("unchecked")
+  void bind(Record record, PreparedStatement stmt, int start) throws SQLException {
+    ((RecordMapper<Record>) mapper).bind(record, stmt, start);
+  }
+
+  /**
+   * @return true if the mapper has Deferred columns
+   */
+  boolean hasDeferred() {
+    return !deferred.isEmpty();
+  }
+
+  /**
+   * @return true if the class has LazyBlob fields, which update() leaves out while they're still
+   *         at the record's own row
+   */
+  boolean hasBlobs() {
+    return blobs;
+  }
+
+  boolean isDeferred(int i) {
+    return deferred.get(i);
+  }
+
+  String getColumn(int i) {
+    return columns[i];
+  }
+
+  boolean hasColumns() {
+    return columns != null;
+  }
+
+  /**
+   * @return Content for 'SELECT ...' that loads a whole record, except its Deferred columns
+   */
+  public String getSelectColumns() {
+    return selectColumns;
+  }
+
+  public String getInsertSql() {
+    return insertSql;
+  }
+
+  /**
+   * @return INSERT of every column, with the id bound first
+   */
+  public String getInsertWithIdSql() {
+    return insertWithIdSql;
+  }
+
+  /**
+   * @return UPDATE of every column, with the id bound last
+   */
+  public String getUpdateSql() {
+    return updateSql;
+  }
+
+  public String getDeleteSql() {
+    return deleteSql;
+  }
+
+  public String getFindSql() {
+    return findSql;
+  }
+}
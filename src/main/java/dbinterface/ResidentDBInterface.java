@@ -0,0 +1,300 @@
+package dbinterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A database that runs in memory but is kept in a file.
+ * open() copies the file into memory with Sqlite's backup API, every query is served from memory,
+ * and checkpoint() copies it back. Checkpoints write to a temp file next to the real one and rename
+ * it over the top, so the file always holds a complete copy even if the process dies mid-write.
+ *
+ * Changes made since the last checkpoint are lost if the process dies, so checkpoint on an interval
+ * with startCheckpointing() or after anything that matters. close() checkpoints too.
+ *
+ * Opening a transaction, with transaction() or disableCommit(), and commit() hold the same lock as
+ * a checkpoint, so a checkpoint never starts between another thread's check for an open
+ * transaction and the backup, and never copies uncommitted rows. A transaction() holds it until
+ * it finishes.
+ */
+public class ResidentDBInterface extends DBInterface {
+  private final File file;
+  private long savedChanges = 0;
+  private int savedSchema = 0;
+  private volatile long lastCheckpoint = 0;
+  private volatile long lastCheckpointNanos = 0;
+  private volatile int checkpoints = 0;
+  private volatile SQLException lastCheckpointError = null;
+
+  private ScheduledExecutorService checkpointer = null;
+  private ScheduledFuture<?> checkpointTask = null;
+
+  /**
+   * @param file File to load from and checkpoint to. Created by the first checkpoint if missing.
+   * @throws IllegalArgumentException if the path has a " in it
+   */
+  public ResidentDBInterface(File file) {
+    super();
+    this.file = checkPath(file);
+  }
+
+  /**
+   * @param file File to load from and checkpoint to. Created by the first checkpoint if missing.
+   * @param config Settings to apply to the in-memory database on open
+   * @throws IllegalArgumentException if the path has a " in it
+   */
+  public ResidentDBInterface(File file, DBConfig config) {
+    super(config);
+    this.file = checkPath(file);
+  }
+
+  /**
+   * Sqlite's restore and backup commands take the path in double quotes, with no way to escape one.
+   */
+  private static File checkPath(File file) {
+    File absolute = file.getAbsoluteFile();
+    if(absolute.getPath().indexOf('"') >= 0) {
+      throw new IllegalArgumentException("Can't keep a database at a path with \" in it: " + absolute);
+    }
+    return absolute;
+  }
+
+  @Override
+  void connected() throws SQLException {
+    if(file.exists()) {
+      Statement stmt = getConnection().createStatement();
+      stmt.executeUpdate("restore from \"" + file.getPath() + "\"");
+      stmt.close();
+    }
+    savedChanges = totalChanges();
+    savedSchema = schemaVersion();
+    lastCheckpoint = System.currentTimeMillis();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Check if anything has changed since the database was loaded or last checkpointed.
+   * Counts rows inserted, updated and deleted, and any change to the schema. The temporary
+   * rows Query.whereIn() uses don't count.
+   *
+   * @return true if a checkpoint would write something
+   * @throws SQLException
+   */
+  public synchronized boolean isDirty() throws SQLException {
+    return totalChanges() != savedChanges || schemaVersion() != savedSchema;
+  }
+
+  /**
+   * Write the database to the file if it has changed.
+   *
+   * @return true if the file was written
+   * @throws SQLException if the copy or rename fails, or a transaction is open.
+   */
+  public boolean checkpoint() throws SQLException {
+    return checkpoint(false);
+  }
+
+  /**
+   * Write the database to the file.
+   *
+   * @param force Write even if nothing has changed
+   * @return true if the file was written
+   * @throws SQLException if the copy or rename fails, or a transaction is open.
+   */
+  public synchronized boolean checkpoint(boolean force) throws SQLException {
+    Connection connection = getConnection();
+    if(connection == null) {
+      throw new SQLException("Database is closed");
+    }
+    if(!connection.getAutoCommit()) {
+      // The backup would copy the uncommitted changes along with everything else.
+      throw new SQLException("Can't checkpoint during a transaction");
+    }
+    long changes = totalChanges();
+    int schema = schemaVersion();
+    if(!force && changes == savedChanges && schema == savedSchema) {
+      return false;
+    }
+    long start = System.nanoTime();
+    File temp;
+    try {
+      temp = File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+    } catch(IOException ioe) {
+      throw new SQLException("Couldn't create temp file next to " + file, ioe);
+    }
+    try {
+      Statement stmt = connection.createStatement();
+      stmt.executeUpdate("backup to \"" + temp.getPath() + "\"");
+      stmt.close();
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch(IOException ioe) {
+      throw new SQLException("Couldn't replace " + file, ioe);
+    } finally {
+      temp.delete();
+    }
+    savedChanges = changes;
+    savedSchema = schema;
+    lastCheckpointNanos = System.nanoTime() - start;
+    lastCheckpoint = System.currentTimeMillis();
+    checkpoints++;
+    return true;
+  }
+
+  @Override
+  public synchronized void transaction(Work work) throws SQLException {
+    super.transaction(work);
+  }
+
+  @Override
+  public synchronized void disableCommit() throws SQLException {
+    super.disableCommit();
+  }
+
+  @Override
+  public synchronized void commit() throws SQLException {
+    super.commit();
+  }
+
+  /**
+   * Time the last checkpoint finished (or the database was loaded), as System.currentTimeMillis()
+   *
+   * @return time of last checkpoint
+   */
+  public long getLastCheckpoint() {
+    return lastCheckpoint;
+  }
+
+  /**
+   * How long the last checkpoint took to copy and rename the file.
+   *
+   * @return nanoseconds
+   */
+  public long getLastCheckpointNanos() {
+    return lastCheckpointNanos;
+  }
+
+  /**
+   * @return Number of times the file has been written
+   */
+  public int getCheckpoints() {
+    return checkpoints;
+  }
+
+  /**
+   * The error thrown by the last background or closing checkpoint, null if it succeeded.
+   * After close() rolled back an open transaction, an error saying so.
+   *
+   * @return last checkpoint error
+   */
+  public SQLException getLastCheckpointError() {
+    return lastCheckpointError;
+  }
+
+  /**
+   * Start checkpointing on a background thread. Restarts it if it's already running.
+   * Checkpoints are skipped while a transaction is open. Stopped by close().
+   *
+   * @param interval Time between checkpoints
+   * @param unit Unit of interval
+   */
+  public synchronized void startCheckpointing(long interval, TimeUnit unit) {
+    stopCheckpointing();
+    checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "ResidentDBInterface-" + file.getName());
+      t.setDaemon(true);
+      return t;
+    });
+    checkpointTask = checkpointer.scheduleWithFixedDelay(this::checkpointIfIdle, interval, interval, unit);
+  }
+
+  /**
+   * Checkpoint unless a transaction is open, with nothing able to open one in between.
+   */
+  private synchronized void checkpointIfIdle() {
+    try {
+      Connection connection = getConnection();
+      if(connection != null && connection.getAutoCommit()) {
+        checkpoint();
+        lastCheckpointError = null;
+      }
+    } catch(SQLException sqe) {
+      lastCheckpointError = sqe;
+    }
+  }
+
+  /**
+   * Stop the background checkpoints, if they are running.
+   */
+  public synchronized void stopCheckpointing() {
+    if(checkpointer != null) {
+      checkpointTask.cancel(false);
+      checkpointer.shutdown();
+      checkpointer = null;
+      checkpointTask = null;
+    }
+  }
+
+  public synchronized boolean isCheckpointing() {
+    return checkpointer != null;
+  }
+
+  /**
+   * Checkpoint any changes, then close the database.
+   * A transaction that's still open is rolled back first, so its changes aren't written, and
+   * getLastCheckpointError() says so. A failed checkpoint is kept there too.
+   */
+  @Override
+  public synchronized void close() {
+    stopCheckpointing();
+    Connection connection = getConnection();
+    if(connection != null) {
+      try {
+        boolean open = !connection.getAutoCommit();
+        if(open) {
+          connection.rollback();
+          connection.setAutoCommit(true);
+          rolledBack();
+        }
+        checkpoint();
+        lastCheckpointError = open ? new SQLException("Rolled back the transaction open at close()") : null;
+      } catch(SQLException sqe) {
+        lastCheckpointError = sqe;
+      }
+    }
+    super.close();
+  }
+
+  /**
+   * Rows written to the database, leaving out the InList table, which is temporary and isn't saved.
+   */
+  private long totalChanges() throws SQLException {
+    return queryLong("SELECT total_changes()") - InList.changes(getConnection());
+  }
+
+  private int schemaVersion() throws SQLException {
+    return (int) queryLong("PRAGMA schema_version");
+  }
+
+  private long queryLong(String sql) throws SQLException {
+    Statement stmt = getConnection().createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery(sql);
+      return rs.next() ? rs.getLong(1) : 0;
+    } finally {
+      stmt.close();
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package dbinterface;
+
+/**
+ * A record found by Query.match(), with how well it matched.
+ */
+public class SearchHit<T extends Record> {
+  private final T record;
+  private final double rank;
+  private final String snippet;
+
+  SearchHit(T record, double rank, String snippet) {
+    this.record = record;
+    this.rank = rank;
+    this.snippet = snippet;
+  }
+
+  public T getRecord() {
+    return record;
+  }
+
+  /**
+   * @return BM25 score, higher is a better match
+   */
+  public double getRank() {
+    return rank;
+  }
+
+  /**
+   * @return Part of the matched text with the terms wrapped in &lt;b&gt; tags
+   */
+  public String getSnippet() {
+    return snippet;
+  }
+}
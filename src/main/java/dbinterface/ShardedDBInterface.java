@@ -0,0 +1,642 @@
+package dbinterface;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Spreads records over several database files, so writes aren't limited by one file's single writer.
+ *
+ * Ids are handed out by the ShardedDBInterface so they are unique across every shard, and each id
+ * says which shard its row lives in (id % number of shards). Saving, dropping and finding a record
+ * by id only touches that shard. Query.all(), first(), count(), sum(), min() and max() run on every
+ * shard in parallel and merge the results, keeping orderBy() order and applying limit() again.
+ *
+ * New records go to the shards in turn, or by the hash of a shard key set with shardBy(), eg. to keep
+ * a customer's orders together. Query.include() loads associations from the same shard as the record,
+ * so associated records should share a shard key. Shards must only be written through this class.
+ *
+ * A ResultSet can't span shards, so query() and rawQuery() throw UnsupportedOperationException, and
+ * so does anything built on them: Query.allCursor() and firstCursor(), BulkExporter and
+ * HashRecord.load(). Run those on getShard() instead.
+ */
+public class ShardedDBInterface extends DBInterface {
+  private final DBInterface[] shards;
+  private final HashMap<Class<?>, Function<Record, Object>> shardKeys = new HashMap<>();
+  private final HashMap<String, Integer> sequences = new HashMap<>();
+  private ExecutorService pool = null;
+
+  /**
+   * @param files One file per shard. The order must stay the same every time they're opened.
+   */
+  public ShardedDBInterface(File... files) {
+    this(null, files);
+  }
+
+  /**
+   * @param config Settings to apply to every shard on open
+   * @param files One file per shard. The order must stay the same every time they're opened.
+   */
+  public ShardedDBInterface(DBConfig config, File... files) {
+    super(config);
+    if(files.length == 0) {
+      throw new IllegalArgumentException("Need at least one shard");
+    }
+    shards = new DBInterface[files.length];
+    for(int i = 0; i < files.length; i++) {
+      shards[i] = new DBInterface(files[i], config);
+    }
+  }
+
+  /**
+   * Place new records of a class by the hash of a key rather than in turn.
+   * Records with the same key always end up in the same shard.
+   *
+   * @param cl Record class
+   * @param key Gets the key from a record, eg. order -> order.customerId
+   * @return this (for convenience)
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T extends Record> ShardedDBInterface shardBy(Class<T> cl, Function<T, Object> key) {
+    shardKeys.put(cl, (Function<Record, Object>) key);
+    return this;
+  }
+
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  public DBInterface getShard(int shard) {
+    return shards[shard];
+  }
+
+  /**
+   * @param id ID of a row
+   * @return Index of the shard the row is in
+   */
+  public int shardFor(int id) {
+    return Math.floorMod(id, shards.length);
+  }
+
+  /**
+   * Open every shard, running migrations on each of them.
+   *
+   * @return this (for convenience)
+   * @throws SQLException
+   */
+  @Override
+  public synchronized DBInterface open() throws SQLException {
+    close();
+    for(DBInterface shard : shards) {
+      shard.open();
+    }
+    sequences.clear();
+    pool = Executors.newFixedThreadPool(shards.length, r -> {
+      Thread t = new Thread(r, "ShardedDBInterface");
+      t.setDaemon(true);
+      return t;
+    });
+    return this;
+  }
+
+  @Override
+  public synchronized void close() {
+    for(DBInterface shard : shards) {
+      shard.close();
+    }
+    if(pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return shards[0].isClosed();
+  }
+
+  /**
+   * Register a migration step on every shard.
+   */
+  @Override
+  public DBInterface migration(int version, Work step) {
+    for(DBInterface shard : shards) {
+      shard.migration(version, step);
+    }
+    return this;
+  }
+
+  @Override
+  public Migrations getMigrations() {
+    return shards[0].getMigrations();
+  }
+
+  @Override
+  public int getVersion() {
+    return shards[0].getVersion();
+  }
+
+  @Override
+  public LinkedHashMap<String, String> getSettings() throws SQLException {
+    return shards[0].getSettings();
+  }
+
+  @Override
+  public void disableCommit() throws SQLException {
+    for(DBInterface shard : shards) {
+      shard.disableCommit();
+    }
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    for(DBInterface shard : shards) {
+      shard.commit();
+    }
+  }
+
+  /**
+   * Run work with a transaction open on every shard. Shards are committed one after the other,
+   * so a failure part way through committing leaves the shards before it committed. The rest are
+   * rolled back and the failure is thrown, with anything that went wrong rolling back suppressed.
+   */
+  @Override
+  public void transaction(Work work) throws SQLException {
+    if(!shards[0].getConnection().getAutoCommit()) {
+      work.run(this);
+      return;
+    }
+    disableCommit();
+    try {
+      work.run(this);
+      commit();
+    } catch(SQLException | RuntimeException e) {
+      for(DBInterface shard : shards) {
+        rollback(shard, e);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Roll back a shard that's still in the transaction, one that already committed is left alone.
+   * Anything that goes wrong is added to the exception that caused the rollback.
+   */
+  private static void rollback(DBInterface shard, Exception cause) {
+    Connection connection = shard.getConnection();
+    try {
+      if(!connection.getAutoCommit()) {
+        connection.rollback();
+        shard.rolledBack();
+      }
+    } catch(SQLException sqe) {
+      cause.addSuppressed(sqe);
+    } finally {
+      try {
+        connection.setAutoCommit(true);
+      } catch(SQLException sqe) {
+        cause.addSuppressed(sqe);
+      }
+    }
+  }
+
+  /**
+   * Each shard captures its own changes, use getShard().changes().
+   */
+  @Override
+  public synchronized ChangeFeed changes() throws SQLException {
+    throw new UnsupportedOperationException("Changes are published per shard, use getShard().changes()");
+  }
+
+  /**
+   * Run SQL on every shard, eg. to create tables.
+   */
+  @Override
+  public void runSql(String sql) throws SQLException {
+    for(DBInterface shard : shards) {
+      shard.runSql(sql);
+    }
+  }
+
+  @Override
+  public boolean cancel() {
+    boolean cancelled = false;
+    for(DBInterface shard : shards) {
+      cancelled |= shard.cancel();
+    }
+    return cancelled;
+  }
+
+  /**
+   * Shards can't be queried as one ResultSet, use Query.all() or getShard().
+   */
+  @Override
+  public ResultSet query(String table, String select, String where, Object[] whereargs, String groupBy, String orderBy, int limit) throws SQLException {
+    throw new UnsupportedOperationException("Cursors can't span shards, use Query.all() or getShard()");
+  }
+
+  /**
+   * Shards can't be queried as one ResultSet, use getShard().rawQuery().
+   */
+  @Override
+  public ResultSet rawQuery(String sql, Object[] values) throws SQLException {
+    throw new UnsupportedOperationException("Cursors can't span shards, use getShard()");
+  }
+
+  @Override
+  public int insert(String table, HashMap<String, Object> values) throws SQLException {
+    values.remove(COLUMN_ID);
+    int id = nextId(table, -1);
+    return shards[shardFor(id)].insert(table, values, id);
+  }
+
+  @Override
+  public int insert(Record record) throws SQLException {
+    int shard = -1;
+    Function<Record, Object> key;
+    synchronized(this) {
+      key = shardKeys.get(record.getClass());
+    }
+    if(key != null) {
+      Object value = key.apply(record);
+      shard = Math.floorMod(value == null ? 0 : value.hashCode(), shards.length);
+    }
+    int id = nextId(record.getTableName(), shard);
+    return shards[shardFor(id)].insert(record, id);
+  }
+
+  @Override
+  int insert(Record record, int id) throws SQLException {
+    return shards[shardFor(id)].insert(record, id);
+  }
+
+  @Override
+  public int update(Record record) throws SQLException {
+    return shards[shardFor(record.getID())].update(record);
+  }
+
+  @Override
+  public int delete(Record record) throws SQLException {
+    return shards[shardFor(record.getID())].delete(record);
+  }
+
+  @Override
+  public <T extends Record> T find(Class<T> cl, int id) throws SQLException {
+    return shards[shardFor(id)].find(cl, id);
+  }
+
+  /**
+   * Update matching rows in every shard.
+   */
+  @Override
+  public int update(String table, HashMap<String, Object> values, String where, Object[] whereargs) throws SQLException {
+    int updated = 0;
+    for(Integer count : scatter(shard -> shard.update(table, values, where, whereargs))) {
+      updated += count;
+    }
+    return updated;
+  }
+
+  /**
+   * Delete matching rows in every shard.
+   */
+  @Override
+  public int delete(String table, String where, Object[] whereargs) throws SQLException {
+    int deleted = 0;
+    for(Integer count : scatter(shard -> shard.delete(table, where, whereargs))) {
+      deleted += count;
+    }
+    return deleted;
+  }
+
+  @Override
+  public int deleteAll(String table, int... ids) throws SQLException {
+    ArrayList<ArrayList<Integer>> byShard = new ArrayList<>();
+    for(int i = 0; i < shards.length; i++) {
+      byShard.add(new ArrayList<>());
+    }
+    for(int id : ids) {
+      byShard.get(shardFor(id)).add(id);
+    }
+    int deleted = 0;
+    for(int i = 0; i < shards.length; i++) {
+      ArrayList<Integer> shardIds = byShard.get(i);
+      if(!shardIds.isEmpty()) {
+        deleted += shards[i].deleteAll(table, shardIds.stream().mapToInt(Integer::intValue).toArray());
+      }
+    }
+    return deleted;
+  }
+
+  @Override
+  public int dropAll(Collection<? extends Record> records) throws SQLException {
+    ArrayList<ArrayList<Record>> byShard = new ArrayList<>();
+    for(int i = 0; i < shards.length; i++) {
+      byShard.add(new ArrayList<>());
+    }
+    for(Record record : records) {
+      if(record.isSaved()) {
+        byShard.get(shardFor(record.getID())).add(record);
+      }
+    }
+    int dropped = 0;
+    for(int i = 0; i < shards.length; i++) {
+      if(!byShard.get(i).isEmpty()) {
+        dropped += shards[i].dropAll(byShard.get(i));
+      }
+    }
+    return dropped;
+  }
+
+  /**
+   * Insert records, one transaction per shard. IDs are not set on the Record objects.
+   */
+  @Override
+  public synchronized void batchInsert(Record[] items, int limit) throws SQLException {
+    ArrayList<ArrayList<Record>> byShard = new ArrayList<>();
+    ArrayList<ArrayList<Integer>> idsByShard = new ArrayList<>();
+    for(int i = 0; i < shards.length; i++) {
+      byShard.add(new ArrayList<>());
+      idsByShard.add(new ArrayList<>());
+    }
+    for(int i = 0; i < limit; i++) {
+      int id = nextId(items[i].getTableName(), -1);
+      byShard.get(shardFor(id)).add(items[i]);
+      idsByShard.get(shardFor(id)).add(id);
+    }
+    for(int i = 0; i < shards.length; i++) {
+      ArrayList<Record> records = byShard.get(i);
+      ArrayList<Integer> ids = idsByShard.get(i);
+      if(!records.isEmpty()) {
+        shards[i].transaction(db -> {
+          for(int r = 0; r < records.size(); r++) {
+            db.insert(records.get(r), ids.get(r));
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Hand out the next id for a table. Ids are sequence * shards + shard, so the id
+   * gives the shard back and no two shards can use the same one.
+   *
+   * @param shard Shard the row is going into, or -1 to take the next shard in turn.
+   */
+  private synchronized int nextId(String table, int shard) throws SQLException {
+    Integer next = sequences.get(table);
+    if(next == null) {
+      int max = 0;
+      List<Object> maxes = scatter(db -> {
+        ResultSet rs = db.query(table, "max(" + COLUMN_ID + ")", null, null, null, null, 1);
+        Object value = rs.getObject(1);
+        rs.close();
+        return value;
+      });
+      for(Object value : maxes) {
+        if(value != null) {
+          max = Math.max(max, ((Number) value).intValue());
+        }
+      }
+      next = max / shards.length + 1;
+    }
+    sequences.put(table, next + 1);
+    if(shard < 0) {
+      shard = Math.floorMod(next, shards.length);
+    }
+    return next * shards.length + shard;
+  }
+
+  /**
+   * Run a query on every shard and merge the results.
+   */
+  <T extends Record> ArrayList<T> all(Query query, Class<T> cl, int limit) throws SQLException {
+    if(query.getGroupBy() != null) {
+      throw new UnsupportedOperationException("GROUP BY can't be merged across shards");
+    }
+    List<ArrayList<T>> results = scatter(shard -> query.copyFor(shard).limit(limit).all(cl));
+    ArrayList<T> merged = new ArrayList<>();
+    if(query.getOrderBy() == null) {
+      for(ArrayList<T> result : results) {
+        merged.addAll(result);
+      }
+    } else {
+      mergeOrdered(results, query.getOrderBy(), merged);
+    }
+    if(limit != ALL && merged.size() > limit) {
+      merged.subList(limit, merged.size()).clear();
+    }
+    return merged;
+  }
+
+  /**
+   * Run an aggregate on every shard and combine the results.
+   * count, sum, total, min and max can be combined. avg can't, use sum and count instead.
+   */
+  Object scalar(Query query, String function) throws SQLException {
+    if(query.getGroupBy() != null) {
+      throw new UnsupportedOperationException("GROUP BY can't be merged across shards");
+    }
+    String name = function.trim().toLowerCase();
+    List<Object> results = scatter(shard -> query.copyFor(shard).scalar(function));
+    if(name.startsWith("count(") || name.startsWith("sum(") || name.startsWith("total(")) {
+      return add(results, name.startsWith("total("));
+    } else if(name.startsWith("min(") || name.startsWith("max(")) {
+      boolean max = name.startsWith("max(");
+      Object best = null;
+      for(Object result : results) {
+        if(result != null && (best == null || (compareValues(result, best) > 0) == max)) {
+          best = result;
+        }
+      }
+      return best;
+    }
+    throw new UnsupportedOperationException("Can't combine " + function + " across shards");
+  }
+
+  private static Object add(List<Object> results, boolean total) {
+    long whole = 0;
+    double real = 0;
+    boolean isReal = total;
+    boolean any = false;
+    for(Object result : results) {
+      if(result == null) {
+        continue;
+      }
+      any = true;
+      if(result instanceof Double || result instanceof Float) {
+        isReal = true;
+        real += ((Number) result).doubleValue();
+      } else {
+        whole += ((Number) result).longValue();
+      }
+    }
+    if(isReal) {
+      return real + whole;
+    } else if(!any) {
+      return null;
+    } else if(whole >= Integer.MIN_VALUE && whole <= Integer.MAX_VALUE) {
+      return (int) whole;
+    }
+    return whole;
+  }
+
+  /**
+   * Merge lists that are each sorted by orderBy into one sorted list.
+   */
+  private static <T extends Record> void mergeOrdered(List<ArrayList<T>> results, String orderBy, ArrayList<T> merged) {
+    String[] terms = orderBy.split(",");
+    String[] columns = new String[terms.length];
+    boolean[] descending = new boolean[terms.length];
+    for(int i = 0; i < terms.length; i++) {
+      String[] words = terms[i].trim().split("\\s+");
+      if(words.length > 2 || (words.length == 2 && !words[1].equalsIgnoreCase("ASC") && !words[1].equalsIgnoreCase("DESC"))) {
+        throw new UnsupportedOperationException("Can't merge ORDER BY " + terms[i].trim() + " across shards");
+      }
+      String column = words[0];
+      columns[i] = column.substring(column.lastIndexOf('.') + 1).toLowerCase();
+      descending[i] = words.length == 2 && words[1].equalsIgnoreCase("DESC");
+    }
+    Comparator<Sorted<T>> order = (a, b) -> {
+      for(int i = 0; i < columns.length; i++) {
+        int cmp = compareValues(a.keys[i], b.keys[i]);
+        if(cmp != 0) {
+          return descending[i] ? -cmp : cmp;
+        }
+      }
+      return Integer.compare(a.shard, b.shard);
+    };
+    PriorityQueue<Sorted<T>> heads = new PriorityQueue<>(Math.max(1, results.size()), order);
+    for(int i = 0; i < results.size(); i++) {
+      if(!results.get(i).isEmpty()) {
+        heads.add(new Sorted<>(results.get(i), i, columns));
+      }
+    }
+    while(!heads.isEmpty()) {
+      Sorted<T> head = heads.poll();
+      merged.add(head.current());
+      if(head.advance()) {
+        heads.add(head);
+      }
+    }
+  }
+
+  /**
+   * Compare two column values the way Sqlite sorts them: NULL, then numbers, then text.
+   */
+  static int compareValues(Object a, Object b) {
+    if(a instanceof Boolean) a = (Boolean) a ? 1 : 0;
+    if(b instanceof Boolean) b = (Boolean) b ? 1 : 0;
+    if(a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    boolean aNumber = a instanceof Number;
+    boolean bNumber = b instanceof Number;
+    if(aNumber && bNumber) {
+      if(a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+      }
+      return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+    } else if(aNumber != bNumber) {
+      return aNumber ? -1 : 1;
+    }
+    return a.toString().compareTo(b.toString());
+  }
+
+  /**
+   * Position in one shard's sorted results, with the sort keys of the current record.
+   */
+  private static class Sorted<T extends Record> {
+    private final ArrayList<T> records;
+    private final int shard;
+    private final String[] columns;
+    private int index = 0;
+    private Object[] keys;
+
+    Sorted(ArrayList<T> records, int shard, String[] columns) {
+      this.records = records;
+      this.shard = shard;
+      this.columns = columns;
+      readKeys();
+    }
+
+    T current() {
+      return records.get(index);
+    }
+
+    boolean advance() {
+      index++;
+      if(index < records.size()) {
+        readKeys();
+        return true;
+      }
+      return false;
+    }
+
+    private void readKeys() {
+      HashMap<String, Object> values = current().getValues();
+      keys = new Object[columns.length];
+      for(int i = 0; i < columns.length; i++) {
+        if(!values.containsKey(columns[i])) {
+          throw new UnsupportedOperationException("Can't merge shards by " + columns[i]
+              + ", it isn't a column of " + current().getClass().getSimpleName());
+        }
+        keys[i] = values.get(columns[i]);
+      }
+    }
+  }
+
+  private interface ShardWork<R> {
+    R run(DBInterface shard) throws SQLException;
+  }
+
+  /**
+   * Run work on every shard at once and wait for all of them.
+   *
+   * @return Results in shard order
+   */
+  private <R> List<R> scatter(ShardWork<R> work) throws SQLException {
+    ExecutorService executor;
+    synchronized(this) {
+      executor = pool;
+    }
+    if(executor == null) {
+      throw new SQLException("Database is closed");
+    }
+    ArrayList<Future<R>> futures = new ArrayList<>();
+    for(DBInterface shard : shards) {
+      futures.add(executor.submit(() -> work.run(shard)));
+    }
+    ArrayList<R> results = new ArrayList<>();
+    try {
+      for(Future<R> future : futures) {
+        results.add(future.get());
+      }
+    } catch(InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for shards", ie);
+    } catch(ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if(cause instanceof SQLException) {
+        throw (SQLException) cause;
+      } else if(cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SQLException("Shard query failed", cause);
+    }
+    return results;
+  }
+}
@@ -0,0 +1,144 @@
+package dbinterface;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for the time DBInterface spends in Sqlite, so slow statements show
+ * up next to GC and thread events in a recording instead of as an anonymous native frame.
+ *
+ * Prepare, Execute and Commit come from DBInterface, Fetch from Query reading its results. The SQL
+ * is on Prepare and Execute, Fetch has the table and record class, and they can be lined up by
+ * thread and time. Each has a threshold so a recording only keeps the slow ones, eg. record every
+ * statement with -XX:StartFlightRecording:dbinterface.Execute#threshold=0ms, or set them in a .jfc file.
+ * When no recording asks for them they're skipped before anything is read from the statement.
+ */
+public final class StatementEvents {
+  private StatementEvents() {
+  }
+
+  @Name("dbinterface.Prepare")
+  @Label("Prepare")
+  @Category({"DBInterface"})
+  @Description("Compiling SQL into a statement")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  public static class Prepare extends Event {
+    @Label("SQL")
+    String sql;
+
+    void done(String sql) {
+      end();
+      if(shouldCommit()) {
+        this.sql = sql;
+        commit();
+      }
+    }
+  }
+
+  @Name("dbinterface.Execute")
+  @Label("Execute")
+  @Category({"DBInterface"})
+  @Description("Running a statement, up to its first row for a query")
+  @Threshold("10 ms")
+  public static class Execute extends Event {
+    @Label("SQL")
+    String sql;
+    @Label("Bound Values")
+    @Description("-1 if the statement couldn't say")
+    int binds;
+    @Label("Rows Changed")
+    @Description("-1 for a query, whose rows are counted by Fetch")
+    long rows;
+
+    /**
+     * Never throws, so the caller goes on to clear and close the statement.
+     */
+    void done(CharSequence sql, Statement stmt, long rows) {
+      end();
+      if(shouldCommit()) {
+        this.sql = sql.toString();
+        this.binds = binds(stmt);
+        this.rows = rows;
+        commit();
+      }
+    }
+
+    private static int binds(Statement stmt) {
+      if(!(stmt instanceof PreparedStatement)) {
+        return 0;
+      }
+      try {
+        return ((PreparedStatement) stmt).getParameterMetaData().getParameterCount();
+      } catch(SQLException sqe) {
+        // Eg. the statement was finalized by executing it
+        return -1;
+      }
+    }
+  }
+
+  @Name("dbinterface.Fetch")
+  @Label("Fetch")
+  @Category({"DBInterface"})
+  @Description("Reading a query's rows into records")
+  @Threshold("10 ms")
+  public static class Fetch extends Event {
+    @Label("Table")
+    String table;
+    @Label("Record Class")
+    String recordClass;
+    @Label("Rows")
+    long rows;
+
+    void done(String table, Class<?> cl, long rows) {
+      end();
+      if(shouldCommit()) {
+        this.table = table;
+        this.recordClass = cl == null ? null : cl.getName();
+        this.rows = rows;
+        commit();
+      }
+    }
+  }
+
+  @Name("dbinterface.Commit")
+  @Label("Commit")
+  @Category({"DBInterface"})
+  @Description("Committing a transaction")
+  @Threshold("10 ms")
+  public static class Commit extends Event {
+  }
+
+  static Prepare prepare() {
+    Prepare event = new Prepare();
+    event.begin();
+    return event;
+  }
+
+  static Execute execute() {
+    Execute event = new Execute();
+    event.begin();
+    return event;
+  }
+
+  static Fetch fetch() {
+    Fetch event = new Fetch();
+    event.begin();
+    return event;
+  }
+
+  static Commit commit() {
+    Commit event = new Commit();
+    event.begin();
+    return event;
+  }
+}
@@ -0,0 +1,142 @@
+package dbinterface;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Row estimates from the statistics ANALYZE keeps in sqlite_stat1.
+ *
+ * Each stat1 row starts with the number of rows in the table, then for an index the average number
+ * of rows that share each prefix of its columns. A query's EXPLAIN QUERY PLAN says which index it
+ * would search and how many of those columns it has equalities for, which picks the average.
+ */
+final class TableStats {
+  private static final Pattern SEARCH = Pattern.compile(
+      "SEARCH TABLE (\\S+)(?: AS \\S+)? USING (?:COVERING )?(INDEX (\\S+)|INTEGER PRIMARY KEY) \\(([^)]*)\\)");
+  /**
+   * Rows a range on an index column is taken to keep, the same guess Sqlite makes without stat4.
+   */
+  private static final int RANGE_DIVISOR = 4;
+
+  private TableStats() {
+  }
+
+  /**
+   * @param database DB the table is in
+   * @param table Table to estimate
+   * @param where Content for 'WHERE ...', null for every row
+   * @param args Values for ?s in where
+   * @return Estimated matching rows, -1 if the table hasn't been analyzed
+   * @throws SQLException
+   */
+  static long estimate(DBInterface database, String table, String where, Object[] args) throws SQLException {
+    HashMap<String, long[]> stats = statsFor(database, table);
+    if(stats.isEmpty()) {
+      return -1;
+    }
+    long rows = rows(stats);
+    if(where == null) {
+      return rows;
+    }
+    InList.Expanded bound = InList.expand("EXPLAIN QUERY PLAN SELECT count(*) FROM " + table + " WHERE " + where, args, 1);
+    InList.createTable(database.getConnection(), bound.args);
+    PreparedStatement stmt = database.getConnection().prepareStatement(bound.sql);
+    try {
+      if(bound.args != null) {
+        for(int i = 0; i < bound.args.length; i++) {
+          DBInterface.bind(stmt, i + 1, bound.args[i]);
+        }
+      }
+      ResultSet rs = stmt.executeQuery();
+      while(rs.next()) {
+        Matcher search = SEARCH.matcher(rs.getString("detail"));
+        if(!search.find() || !search.group(1).equalsIgnoreCase(table)) {
+          continue;
+        }
+        String[] terms = search.group(4).split(" AND ");
+        int equalities = 0;
+        while(equalities < terms.length && terms[equalities].endsWith("=?")) {
+          equalities++;
+        }
+        long estimate;
+        if(search.group(3) == null) {
+          // The rowid is unique.
+          estimate = equalities > 0 ? 1 : rows;
+        } else {
+          long[] index = stats.get(search.group(3).toLowerCase());
+          estimate = index == null || equalities == 0 ? rows : index[Math.min(equalities, index.length - 1)];
+        }
+        if(equalities < terms.length) {
+          estimate /= RANGE_DIVISOR;
+        }
+        return estimate;
+      }
+      // No index narrows it down, so all Sqlite knows is that it's at most every row.
+      return rows;
+    } finally {
+      stmt.close();
+    }
+  }
+
+  /**
+   * @param database DB the table is in
+   * @param table Table to look up
+   * @return Rows the table had when it was last analyzed, -1 if it hasn't been
+   * @throws SQLException
+   */
+  static long analyzedRows(DBInterface database, String table) throws SQLException {
+    HashMap<String, long[]> stats = statsFor(database, table);
+    return stats.isEmpty() ? -1 : rows(stats);
+  }
+
+  /**
+   * The table's own row count, or if it only has index rows, the largest count among them. Each is
+   * the row count when it was analyzed, but an index can leave out rows, eg. a partial index.
+   */
+  private static long rows(HashMap<String, long[]> stats) {
+    long[] table = stats.get("");
+    if(table != null) {
+      return table[0];
+    }
+    long rows = 0;
+    for(long[] index : stats.values()) {
+      rows = Math.max(rows, index[0]);
+    }
+    return rows;
+  }
+
+  /**
+   * The table's stat1 numbers, by lower case index name, with "" for the table itself.
+   */
+  private static HashMap<String, long[]> statsFor(DBInterface database, String table) throws SQLException {
+    HashMap<String, long[]> stats = new HashMap<>();
+    ResultSet exists = database.rawQuery("SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = 'sqlite_stat1'", null);
+    boolean analyzed = exists.next() && exists.getInt(1) > 0;
+    exists.close();
+    if(!analyzed) {
+      return stats;
+    }
+    ResultSet rs = database.rawQuery("SELECT idx, stat FROM sqlite_stat1 WHERE tbl = ? COLLATE NOCASE", new Object[] {table});
+    while(rs.next()) {
+      String[] words = rs.getString(2).split(" ");
+      int numbers = 0;
+      while(numbers < words.length && !words[numbers].isEmpty() && Character.isDigit(words[numbers].charAt(0))) {
+        numbers++;
+      }
+      long[] values = new long[numbers];
+      for(int i = 0; i < numbers; i++) {
+        values[i] = Long.parseLong(words[i]);
+      }
+      String index = rs.getString(1);
+      if(values.length > 0) {
+        stats.put(index == null ? "" : index.toLowerCase(), values);
+      }
+    }
+    rs.close();
+    return stats;
+  }
+}
@@ -0,0 +1,150 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+/**
+ * Fails when a hot path starts allocating more per row or per call than it used to.
+ *
+ * Each path is warmed up so the JIT has settled, then measured with the thread's allocation
+ * counter. The lowest of a few runs is compared to its budget, since a GC or a lazily
+ * loaded class can only add to a run. Budgets are about twice what was measured when they
+ * were set, so they catch a new per-row object or copy rather than noise. If a change
+ * really does need more, raise the budget in the same commit and say why.
+ */
+public class AllocationBudgetTest extends TestCase {
+  private static final int ROWS = 2000;
+  private static final int CALLS = 500;
+  private static final int WARMUP = 5;
+  private static final int RUNS = 5;
+
+  // Measured on JDK 17: 121, 101, 56, 1071, 632-656 and 384-408 bytes.
+  private static final long ALL_MAPPED_PER_ROW = 256;
+  private static final long ALL_HAND_WRITTEN_PER_ROW = 224;
+  private static final long FOR_EACH_REUSING_PER_ROW = 112;
+  private static final long FIND_PER_CALL = 2048;
+  private static final long INSERT_PER_CALL = 1280;
+  private static final long UPDATE_PER_CALL = 768;
+
+  private DBInterface dbi;
+  private com.sun.management.ThreadMXBean threads;
+
+  private interface Path {
+    void run() throws Exception;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    threads.setThreadAllocatedMemoryEnabled(true);
+    dbi = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+          db.runSql(MappedRecord.CREATE);
+        })
+        .open();
+    Author author = new Author("Budget");
+    author.save(dbi);
+    dbi.transaction(db -> {
+      for(int i = 0; i < ROWS; i++) {
+        new Book("Book " + i, author).save(db);
+        new MappedRecord("Record " + i, i).save(db);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+  /**
+   * @return Fewest bytes the path allocated in one run, divided by units
+   */
+  private long measure(int units, Path path) throws Exception {
+    for(int i = 0; i < WARMUP; i++) {
+      path.run();
+    }
+    long thread = Thread.currentThread().getId();
+    long least = Long.MAX_VALUE;
+    for(int i = 0; i < RUNS; i++) {
+      long before = threads.getThreadAllocatedBytes(thread);
+      path.run();
+      least = Math.min(least, threads.getThreadAllocatedBytes(thread) - before);
+    }
+    return least / units;
+  }
+
+  private void assertBudget(String name, long budget, long measured) {
+    assertTrue(name + " allocated " + measured + " bytes, over its budget of " + budget, measured <= budget);
+  }
+
+
+  public void testAllMapped() throws Exception {
+    long perRow = measure(ROWS, () -> new Query(dbi).from(MappedRecord.class).all());
+    assertBudget("Query.all() with a generated mapper, per row", ALL_MAPPED_PER_ROW, perRow);
+  }
+
+
+  public void testAllHandWritten() throws Exception {
+    long perRow = measure(ROWS, () -> new Query(dbi).from(Book.class).all());
+    assertBudget("Query.all() with setValues(), per row", ALL_HAND_WRITTEN_PER_ROW, perRow);
+  }
+
+
+  public void testForEachReusing() throws Exception {
+    MappedRecord reused = new MappedRecord();
+    long[] total = new long[1];
+    long perRow = measure(ROWS, () -> new Query(dbi).from(MappedRecord.class).forEachReusing(reused, r -> total[0] += r.count));
+    assertBudget("Query.forEachReusing(), per row", FOR_EACH_REUSING_PER_ROW, perRow);
+  }
+
+
+  public void testFind() throws Exception {
+    long perCall = measure(CALLS, () -> {
+      for(int i = 1; i <= CALLS; i++) {
+        dbi.find(MappedRecord.class, i);
+      }
+    });
+    assertBudget("DBInterface.find(), per call", FIND_PER_CALL, perCall);
+  }
+
+
+  public void testInsert() throws Exception {
+    ArrayList<MappedRecord> records = new ArrayList<>();
+    long perCall = measure(CALLS, () -> {
+      records.clear();
+      for(int i = 0; i < CALLS; i++) {
+        records.add(new MappedRecord("New", i));
+      }
+      dbi.transaction(db -> {
+        for(MappedRecord record : records) {
+          record.save(db);
+        }
+      });
+    });
+    // Includes making the record, which is a small part of it.
+    assertBudget("Record.save() inserting, per call", INSERT_PER_CALL, perCall);
+  }
+
+
+  public void testUpdate() throws Exception {
+    ArrayList<MappedRecord> records = new Query(dbi).from(MappedRecord.class).limit(CALLS).all();
+    long perCall = measure(CALLS, () -> dbi.transaction(db -> {
+      for(MappedRecord record : records) {
+        record.count++;
+        record.save(db);
+      }
+    }));
+    assertBudget("Record.save() updating, per call", UPDATE_PER_CALL, perCall);
+  }
+}
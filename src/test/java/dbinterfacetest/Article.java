@@ -0,0 +1,52 @@
+package dbinterfacetest;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import dbinterface.Record;
+
+public class Article extends Record {
+  public String title;
+  public String body;
+  public int views;
+  public static final String CREATE = "DROP TABLE IF EXISTS article; CREATE TABLE article (\n" +
+      "id integer primary key autoincrement,\n" +
+      "title varchar(255),\n" +
+      "body text,\n" +
+      "views integer)";
+  private static final String[] SEARCH_COLUMNS = new String[] {"title", "body"};
+
+  public Article() {
+    super();
+  }
+
+  public Article(String title, String body) {
+    super();
+    this.title = title;
+    this.body = body;
+  }
+
+  protected void setValues(ResultSet rs) throws SQLException {
+    title = rs.getString("title");
+    body = rs.getString("body");
+    views = rs.getInt("views");
+  }
+
+  protected void insertValues(HashMap<String, Object> map) {
+    map.put("title", title);
+    map.put("body", body);
+    map.put("views", views);
+  }
+
+  public void fastValues(Object[] container) {
+    container[0] = body;
+    container[1] = title;
+    container[2] = views;
+  }
+
+  @Override
+  protected String[] getSearchColumns() {
+    return SEARCH_COLUMNS;
+  }
+}
@@ -0,0 +1,145 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+
+import dbinterface.Association;
+import dbinterface.BelongsTo;
+import dbinterface.Column;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+import dbinterface.Record;
+
+public class AssociationTest extends TestCase {
+  private DBInterface dbi;
+
+  public static class Review extends Record {
+    @Column public String text;
+    @Column("author_id") public int authorId;
+
+    @Override
+    protected Association[] getAssociations() {
+      return new Association[] { new BelongsTo("author", Author.class, "author_id") };
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(Author.CREATE);
+    dbi.runSql(Book.CREATE);
+    Author[] authors = new Author[] { new Author("Pratchett"), new Author("Le Guin"), new Author("Nobody") };
+    for(Author author : authors) {
+      author.save(dbi);
+    }
+    for(int i = 0; i < 6; i++) {
+      new Book("Book " + i, authors[i % 2]).save(dbi);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testBelongsTo() throws Exception {
+    ArrayList<Book> books = new Query(dbi).in(Book.class).include("author").all();
+    assertEquals(6, books.size());
+    for(Book book : books) {
+      assertEquals(true, book.hasRelated("author"));
+      Author author = book.getRelated("author");
+      assertEquals(book.authorId, author.getID());
+    }
+    Author first = books.get(0).getRelated("author");
+    assertEquals("Pratchett", first.name);
+  }
+
+
+  public void testHasMany() throws Exception {
+    ArrayList<Author> authors = new Query(dbi).in(Author.class).include("books").all();
+    assertEquals(3, authors.size());
+    ArrayList<Book> books = authors.get(0).getRelated("books");
+    assertEquals(3, books.size());
+    assertEquals("Book 0", books.get(0).title);
+    assertEquals("Book 4", books.get(2).title);
+    ArrayList<Book> none = authors.get(2).getRelated("books");
+    assertEquals(0, none.size());
+  }
+
+
+  public void testNotIncluded() throws Exception {
+    Book book = new Query(dbi).in(Book.class).first();
+    assertEquals(false, book.hasRelated("author"));
+    assertEquals(null, book.getRelated("author"));
+    Author author = book.loadRelated(dbi, "author");
+    assertEquals("Pratchett", author.name);
+  }
+
+
+  public void testFindIncludes() throws Exception {
+    Author author = new Query(dbi).in(Author.class).include("books").find(2);
+    ArrayList<Book> books = author.getRelated("books");
+    assertEquals(3, books.size());
+  }
+
+
+  public void testMissingForeignRow() throws Exception {
+    Book orphan = new Book();
+    orphan.title = "Orphan";
+    orphan.authorId = 999;
+    orphan.save(dbi);
+    Book loaded = new Query(dbi).in(Book.class).where("title=?", "Orphan").include("author").first();
+    assertEquals(true, loaded.hasRelated("author"));
+    assertEquals(null, loaded.getRelated("author"));
+  }
+
+
+  public void testLargeInList() throws Exception {
+    Author author = new Query(dbi).in(Author.class).find(3);
+    dbi.disableCommit();
+    for(int i = 0; i < DBInterface.MAX_VARIABLES + 10; i++) {
+      new Book("Many " + i, author).save(dbi);
+    }
+    dbi.commit();
+    ArrayList<Book> books = new Query(dbi).in(Book.class).include("author").all();
+    for(Book book : books) {
+      assertNotNull(book.getRelated("author"));
+    }
+    author = new Query(dbi).in(Author.class).include("books").find(3);
+    ArrayList<Book> many = author.getRelated("books");
+    assertEquals(DBInterface.MAX_VARIABLES + 10, many.size());
+  }
+
+
+  public void testUnknownAssociation() throws Exception {
+    try {
+      new Query(dbi).in(Book.class).include("publisher").all();
+      fail("Loaded an association that doesn't exist");
+    } catch(IllegalArgumentException iae) {
+      // Expected
+    }
+  }
+
+
+  public void testBelongsToFromMappedRecord() throws Exception {
+    dbi.runSql("CREATE TABLE review (id integer primary key autoincrement, text varchar(255), author_id integer)");
+    Author author = new Query(dbi).in(Author.class).where("name = ?", "Le Guin").first();
+    Review review = new Review();
+    review.text = "Good";
+    review.authorId = author.getID();
+    review.save(dbi);
+
+    Review loaded = new Query(dbi).in(Review.class).include("author").first();
+    Author related = loaded.getRelated("author");
+    assertEquals("Le Guin", related.name);
+
+    Review partial = new Query(dbi).in(Review.class).select("id, text").include("author").first();
+    assertEquals(true, partial.hasRelated("author"));
+    assertNull(partial.getRelated("author"));
+  }
+}
@@ -0,0 +1,30 @@
+package dbinterfacetest;
+
+import dbinterface.Column;
+import dbinterface.LazyBlob;
+import dbinterface.Record;
+
+/**
+ * Stores its content as a BLOB that's only read when used.
+ */
+public class Attachment extends Record {
+  public static final String CREATE = "DROP TABLE IF EXISTS attachment; CREATE TABLE attachment (\n" +
+      "id integer primary key autoincrement,\n" +
+      "name varchar(255),\n" +
+      "thumbnail blob,\n" +
+      "content blob)";
+
+  @Column public String name;
+  @Column public byte[] thumbnail;
+  @Column public LazyBlob content;
+
+  public Attachment() {
+    super();
+  }
+
+  public Attachment(String name, LazyBlob content) {
+    super();
+    this.name = name;
+    this.content = content;
+  }
+}
@@ -0,0 +1,45 @@
+package dbinterfacetest;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import dbinterface.Association;
+import dbinterface.HasMany;
+import dbinterface.Record;
+
+public class Author extends Record {
+  public String name;
+  public static final String CREATE = "DROP TABLE IF EXISTS author; CREATE TABLE author (\n" +
+      "id integer primary key autoincrement,\n" +
+      "name varchar(255))";
+  private static final Association[] ASSOCIATIONS = new Association[] {
+      new HasMany("books", Book.class, "author_id")
+  };
+
+  public Author() {
+    super();
+  }
+
+  public Author(String name) {
+    super();
+    this.name = name;
+  }
+
+  protected void setValues(ResultSet rs) throws SQLException {
+    name = rs.getString("name");
+  }
+
+  protected void insertValues(HashMap<String, Object> map) {
+    map.put("name", name);
+  }
+
+  public void fastValues(Object[] container) {
+    container[0] = name;
+  }
+
+  @Override
+  protected Association[] getAssociations() {
+    return ASSOCIATIONS;
+  }
+}
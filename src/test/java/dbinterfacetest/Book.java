@@ -0,0 +1,51 @@
+package dbinterfacetest;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import dbinterface.Association;
+import dbinterface.BelongsTo;
+import dbinterface.Record;
+
+public class Book extends Record {
+  public String title;
+  public int authorId;
+  public static final String CREATE = "DROP TABLE IF EXISTS book; CREATE TABLE book (\n" +
+      "id integer primary key autoincrement,\n" +
+      "title varchar(255),\n" +
+      "author_id integer)";
+  private static final Association[] ASSOCIATIONS = new Association[] {
+      new BelongsTo("author", Author.class, "author_id")
+  };
+
+  public Book() {
+    super();
+  }
+
+  public Book(String title, Author author) {
+    super();
+    this.title = title;
+    this.authorId = author.getID();
+  }
+
+  protected void setValues(ResultSet rs) throws SQLException {
+    title = rs.getString("title");
+    authorId = rs.getInt("author_id");
+  }
+
+  protected void insertValues(HashMap<String, Object> map) {
+    map.put("title", title);
+    map.put("author_id", authorId);
+  }
+
+  public void fastValues(Object[] container) {
+    container[0] = authorId;
+    container[1] = title;
+  }
+
+  @Override
+  protected Association[] getAssociations() {
+    return ASSOCIATIONS;
+  }
+}
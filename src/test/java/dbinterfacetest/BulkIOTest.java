@@ -0,0 +1,158 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import dbinterface.BulkExporter;
+import dbinterface.BulkLoader;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+public class BulkIOTest extends TestCase {
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(TestRecord.CREATE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testLoadCsv() throws Exception {
+    String csv = "stringvar,intvar,boolvar\n"
+        + "plain,1,1\n"
+        + "\"with, comma\",2,0\r\n"
+        + "\"say \"\"hi\"\"\",3,1\n"
+        + "\"two\nlines\",4,0\n"
+        + ",5,1\n";
+    long rows = new BulkLoader(dbi, TestRecord.class).load(new StringReader(csv));
+    assertEquals(5, rows);
+    ArrayList<TestRecord> all = new Query(dbi).from(TestRecord.class).orderBy("intvar").all();
+    assertEquals("plain", all.get(0).stringVar);
+    assertEquals("with, comma", all.get(1).stringVar);
+    assertEquals("say \"hi\"", all.get(2).stringVar);
+    assertEquals("two\nlines", all.get(3).stringVar);
+    assertNull(all.get(4).stringVar);
+    assertEquals(4, all.get(3).intVar);
+    assertTrue(all.get(2).boolVar);
+  }
+
+
+  public void testLoadTsvWithColumns() throws Exception {
+    String tsv = "a\t10\nb\t20\n";
+    long rows = new BulkLoader(dbi, "testrecord").tsv().header(false)
+        .columns("stringvar", "intvar").load(new StringReader(tsv));
+    assertEquals(2, rows);
+    assertEquals(30, ((Number) new Query(dbi).from(TestRecord.class).sum("intvar")).intValue());
+  }
+
+
+  public void testChunksAndProgress() throws Exception {
+    StringBuilder csv = new StringBuilder("stringvar,intvar\n");
+    for(int i = 0; i < 2500; i++) {
+      csv.append("row").append(i).append(',').append(i).append('\n');
+    }
+    final ArrayList<Long> progress = new ArrayList<>();
+    long rows = new BulkLoader(dbi, TestRecord.class).chunkSize(1000)
+        .progress(loaded -> progress.add(loaded))
+        .load(new StringReader(csv.toString()));
+    assertEquals(2500, rows);
+    assertEquals(2500, new Query(dbi).from(TestRecord.class).count());
+    assertTrue(progress.size() >= 2);
+    assertTrue(progress.get(0) >= 1000);
+    assertEquals(2500L, (long) progress.get(progress.size() - 1));
+  }
+
+
+  public void testBadLineRollsBack() throws Exception {
+    String csv = "stringvar,nosuchcolumn\na,1\n";
+    try {
+      new BulkLoader(dbi, TestRecord.class).load(new StringReader(csv));
+      fail("Loaded into a missing column");
+    } catch(java.sql.SQLException sqe) {
+      // Expected
+    }
+    assertEquals(0, new Query(dbi).from(TestRecord.class).count());
+  }
+
+
+  public void testWrongFieldCountHasLineNumber() throws Exception {
+    String csv = "stringvar,intvar\n"
+        + "\"two\nlines\",1\n"
+        + "short\n";
+    try {
+      new BulkLoader(dbi, TestRecord.class).load(new StringReader(csv));
+      fail("Loaded a line without every field");
+    } catch(java.io.IOException ioe) {
+      assertEquals("Line 4 has 1 fields, expected 2", ioe.getMessage());
+    }
+    assertEquals(0, new Query(dbi).from(TestRecord.class).count());
+  }
+
+
+  public void testHeaderMustNameColumns() throws Exception {
+    String csv = "stringvar,\"intvar) VALUES (1, 2); --\"\na,1\n";
+    try {
+      new BulkLoader(dbi, TestRecord.class).load(new StringReader(csv));
+      fail("Loaded into a column that isn't in the table");
+    } catch(java.sql.SQLException sqe) {
+      assertTrue(sqe.getMessage(), sqe.getMessage().startsWith("Table testrecord has no column(s) intvar)"));
+    }
+  }
+
+
+  public void testExportRoundTrip() throws Exception {
+    String csv = "stringvar,intvar,boolvar\n"
+        + "\"with, comma\",1,1\n"
+        + "\"two\nlines\",2,0\n"
+        + ",3,1\n";
+    new BulkLoader(dbi, TestRecord.class).load(new StringReader(csv));
+    File file = File.createTempFile("export", ".csv");
+    try {
+      Query query = new Query(dbi).from(TestRecord.class).select("stringvar, intvar, boolvar").orderBy("intvar");
+      assertEquals(3, new BulkExporter(query).export(file.toPath()));
+      dbi.runSql("DELETE FROM testrecord");
+      assertEquals(3, new BulkLoader(dbi, TestRecord.class).load(file.toPath()));
+    } finally {
+      file.delete();
+    }
+    ArrayList<TestRecord> all = new Query(dbi).from(TestRecord.class).orderBy("intvar").all();
+    assertEquals("with, comma", all.get(0).stringVar);
+    assertEquals("two\nlines", all.get(1).stringVar);
+    assertNull(all.get(2).stringVar);
+  }
+
+
+  public void testExportTsv() throws Exception {
+    new BulkLoader(dbi, TestRecord.class).load(new StringReader("stringvar,intvar\na\tb,1\n"));
+    StringWriter out = new StringWriter();
+    Query query = new Query(dbi).from(TestRecord.class).select("stringvar, intvar");
+    new BulkExporter(query).tsv().export(out);
+    assertEquals("stringvar\tintvar\n\"a\tb\"\t1\n", out.toString());
+  }
+
+
+  public void testExportRejectsBlobs() throws Exception {
+    dbi.runSql("CREATE TABLE blobs (id integer primary key autoincrement, data blob)");
+    dbi.runSql("INSERT INTO blobs (data) VALUES ('text')");
+    dbi.runSql("INSERT INTO blobs (data) VALUES (X'00FF')");
+    try {
+      new BulkExporter(new Query(dbi).from("blobs").select("data").orderBy("id")).export(new StringWriter());
+      fail("Exported a BLOB as text");
+    } catch(java.sql.SQLException sqe) {
+      assertEquals("Can't export BLOB value of data in row 2", sqe.getMessage());
+    }
+  }
+}
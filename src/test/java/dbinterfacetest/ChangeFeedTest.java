@@ -0,0 +1,187 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import dbinterface.ChangeEvent;
+import dbinterface.DBInterface;
+
+public class ChangeFeedTest extends TestCase {
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+        })
+        .open();
+    dbi.changes().watch(Author.class).watch(Book.class);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.changes().close();
+    dbi.close();
+  }
+
+
+  public void testPublishesEachStatement() throws Exception {
+    Collector collector = new Collector(3, Long.MAX_VALUE);
+    dbi.changes().subscribe(collector);
+    Author author = new Author("Tolkien");
+    author.save(dbi);
+    author.name = "J.R.R. Tolkien";
+    author.save(dbi);
+    author.drop(dbi);
+    collector.await();
+
+    assertEquals(3, collector.batches.size());
+    assertEquals(ChangeEvent.Operation.INSERT, collector.batches.get(0).get(0).getOperation());
+    assertEquals(ChangeEvent.Operation.UPDATE, collector.batches.get(1).get(0).getOperation());
+    ChangeEvent deleted = collector.batches.get(2).get(0);
+    assertEquals(ChangeEvent.Operation.DELETE, deleted.getOperation());
+    assertEquals("author", deleted.getTable());
+    assertEquals(author.getID(), deleted.getRowid());
+  }
+
+
+  public void testTransactionIsOneBatch() throws Exception {
+    Collector collector = new Collector(1, Long.MAX_VALUE);
+    dbi.changes().subscribe(collector);
+    dbi.transaction(db -> {
+      Author author = new Author("Pratchett");
+      author.save(db);
+      new Book("Mort", author).save(db);
+      new Book("Eric", author).save(db);
+    });
+    collector.await();
+
+    assertEquals(1, collector.batches.size());
+    List<ChangeEvent> batch = collector.batches.get(0);
+    assertEquals(3, batch.size());
+    assertEquals("author", batch.get(0).getTable());
+    assertEquals("book", batch.get(1).getTable());
+  }
+
+
+  public void testRollbackIsNotPublished() throws Exception {
+    Collector collector = new Collector(1, Long.MAX_VALUE);
+    dbi.changes().subscribe(collector);
+    try {
+      dbi.transaction(db -> {
+        new Author("Nobody").save(db);
+        throw new SQLException("Changed my mind");
+      });
+      fail("Transaction should throw");
+    } catch(SQLException sqe) {
+      // Expected
+    }
+    new Author("Somebody").save(dbi);
+    collector.await();
+
+    assertEquals(1, collector.batches.size());
+    assertEquals(1, collector.batches.get(0).size());
+  }
+
+
+  public void testNothingBeforeCommit() throws Exception {
+    Collector collector = new Collector(1, Long.MAX_VALUE);
+    dbi.changes().subscribe(collector);
+    dbi.disableCommit();
+    new Author("Banks").save(dbi);
+    new Author("Le Guin").save(dbi);
+    assertFalse(collector.done.await(100, TimeUnit.MILLISECONDS));
+    dbi.commit();
+    collector.await();
+
+    assertEquals(2, collector.batches.get(0).size());
+  }
+
+
+  public void testSubscribeToTable() throws Exception {
+    Collector books = new Collector(1, Long.MAX_VALUE);
+    dbi.changes().subscribe("book", books);
+    dbi.transaction(db -> {
+      Author author = new Author("Herbert");
+      author.save(db);
+      new Book("Dune", author).save(db);
+    });
+    books.await();
+
+    assertEquals(1, books.batches.get(0).size());
+    assertEquals("book", books.batches.get(0).get(0).getTable());
+  }
+
+
+  public void testBackpressure() throws Exception {
+    Collector collector = new Collector(2, 1);
+    dbi.changes().subscribe(collector);
+    new Author("One").save(dbi);
+    new Author("Two").save(dbi);
+    assertFalse(collector.done.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(1, collector.batches.size());
+    collector.subscription.request(1);
+    collector.await();
+    assertEquals(2, collector.batches.size());
+  }
+
+
+  public void testWatchesAfterReopen() throws Exception {
+    Collector collector = new Collector(1, Long.MAX_VALUE);
+    dbi.changes().subscribe(collector);
+    dbi.open();
+    new Author("Again").save(dbi);
+    collector.await();
+    assertEquals(1, collector.batches.size());
+  }
+
+  /**
+   * Requests a number of batches up front and counts down as they arrive.
+   */
+  private static class Collector implements Flow.Subscriber<List<ChangeEvent>> {
+    final ArrayList<List<ChangeEvent>> batches = new ArrayList<>();
+    final CountDownLatch done;
+    final long initial;
+    Flow.Subscription subscription;
+
+    Collector(int expected, long initial) {
+      this.done = new CountDownLatch(expected);
+      this.initial = initial;
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(initial);
+    }
+
+    @Override
+    public synchronized void onNext(List<ChangeEvent> item) {
+      batches.add(item);
+      done.countDown();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+    }
+
+    @Override
+    public void onComplete() {
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.sql.ResultSet;
+import java.util.HashMap;
+
+import dbinterface.CompressedText;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+public class CompressedTextTest extends TestCase {
+  private DBInterface dbi;
+  private String json;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(Document.CREATE);
+    CompressedText.resetStats();
+    StringBuilder body = new StringBuilder("[");
+    for(int i = 0; i < 200; i++) {
+      body.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"status\":\"shipped\",\"note\":\"caf\u00e9\"}");
+    }
+    json = body.append("]").toString();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testRoundTripCompresses() throws Exception {
+    Document saved = new Document("orders", json);
+    saved.save(dbi);
+    ResultSet rs = dbi.rawQuery("SELECT length(body), typeof(body) FROM document", null);
+    int stored = rs.getInt(1);
+    assertEquals("blob", rs.getString(2));
+    rs.close();
+    assertTrue(stored < json.length() / 4);
+
+    Document loaded = new Query(dbi).from(Document.class).first();
+    assertFalse(loaded.body.isDecoded());
+    assertEquals(stored, loaded.body.getStoredLength());
+    assertEquals(json, loaded.body.getText());
+    assertTrue(loaded.body.isDecoded());
+  }
+
+
+  public void testShortTextIsStoredPlain() throws Exception {
+    new Document("short", "{}").save(dbi);
+    ResultSet rs = dbi.rawQuery("SELECT hex(body) FROM document", null);
+    assertEquals("007B7D", rs.getString(1));
+    rs.close();
+    assertEquals("{}", new Query(dbi).from(Document.class).<Document>first().body.getText());
+  }
+
+
+  public void testNullAndPlainTextColumns() throws Exception {
+    new Document("none", null).save(dbi);
+    HashMap<String, Object> values = new HashMap<>();
+    values.put("name", "legacy");
+    values.put("body", "stored before the column was compressed");
+    dbi.insert("document", values);
+
+    assertNull(new Query(dbi).from(Document.class).where("name = ?", "none").<Document>first().body);
+    Document legacy = new Query(dbi).from(Document.class).where("name = ?", "legacy").first();
+    assertEquals("stored before the column was compressed", legacy.body.getText());
+    legacy.save(dbi);
+    ResultSet rs = dbi.rawQuery("SELECT typeof(body) FROM document WHERE name = 'legacy'", null);
+    assertEquals("blob", rs.getString(1));
+    rs.close();
+  }
+
+
+  public void testUnchangedValueIsNotRecompressed() throws Exception {
+    new Document("orders", json).save(dbi);
+    Document loaded = new Query(dbi).from(Document.class).first();
+    loaded.name = "renamed";
+    loaded.save(dbi);
+    CompressedText.Stats stats = CompressedText.statsFor("document", "body");
+    assertEquals(1, stats.getValues());
+    assertEquals(0, stats.getDecompressions());
+    assertEquals(json, new Query(dbi).from(Document.class).<Document>first().body.getText());
+  }
+
+
+  public void testStats() throws Exception {
+    for(int i = 0; i < 3; i++) {
+      new Document("orders " + i, json).save(dbi);
+    }
+    for(Document document : new Query(dbi).from(Document.class).<Document>all()) {
+      document.body.getText();
+    }
+    CompressedText.Stats stats = CompressedText.getStats().get("document.body");
+    assertEquals(3, stats.getValues());
+    assertEquals(3L * json.getBytes("UTF-8").length, stats.getRawBytes());
+    assertTrue(stats.getRatio() > 4);
+    assertEquals(3, stats.getDecompressions());
+    assertTrue(stats.getCompressNanos() > 0);
+  }
+}
@@ -0,0 +1,202 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import dbinterface.ConcurrentHashRecord;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+public class ConcurrentHashRecordTest extends TestCase {
+  private DBInterface dbi;
+  private ConcurrentHashRecord hs;
+  private File file = null;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql("DROP TABLE IF EXISTS testhash; CREATE TABLE testhash (" +
+        "key varchar(255)," +
+        "value varchar(255));");
+    hs = new ConcurrentHashRecord("testhash");
+    hs.put("key1", "Secret value");
+    hs.put("key2", "VALUES");
+    hs.flush(dbi);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    hs.stopFlushing();
+    dbi.close();
+    if(file != null) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Move the test to a database in a file, which background flushing needs.
+   */
+  private void useFile() throws Exception {
+    dbi.close();
+    file = File.createTempFile("concurrenthash", ".db");
+    file.delete();
+    dbi = new DBInterface(file).open();
+    hs.createTable(dbi);
+  }
+
+  private void waitUntilSaved() throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while(!hs.isSaved() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+  }
+
+
+  public void testLoad() throws Exception {
+    ConcurrentHashRecord hs1 = new ConcurrentHashRecord("testhash");
+    hs1.load(dbi);
+    assertEquals("Secret value", hs1.get("key1"));
+    assertEquals("VALUES", hs1.get("key2"));
+    assertEquals(true, hs1.isSaved());
+  }
+
+
+  public void testPutBeforeLoadUpdatesExistingRow() throws Exception {
+    ConcurrentHashRecord hs1 = new ConcurrentHashRecord("testhash");
+    hs1.put("key1", "Put first");
+    hs1.load(dbi);
+    assertEquals("Put first", hs1.get("key1"));
+    hs1.flush(dbi);
+    assertEquals(1, new Query(dbi).from("testhash").where("key=?", "key1").count());
+    assertEquals(2, new Query(dbi).from("testhash").count());
+    ConcurrentHashRecord hs2 = new ConcurrentHashRecord("testhash");
+    hs2.load(dbi);
+    assertEquals("Put first", hs2.get("key1"));
+  }
+
+
+  public void testUpdate() throws Exception {
+    hs.put("key1", "Changed");
+    assertEquals(1, hs.getDirtyCount());
+    hs.flush(dbi);
+    assertEquals(0, hs.getDirtyCount());
+    assertEquals(2, new Query(dbi).from("testhash").count());
+    ConcurrentHashRecord hs1 = new ConcurrentHashRecord("testhash");
+    hs1.load(dbi);
+    assertEquals("Changed", hs1.get("key1"));
+  }
+
+
+  public void testRemove() throws Exception {
+    assertEquals(true, hs.remove("key1"));
+    assertEquals(false, hs.has("key1"));
+    assertEquals(false, hs.remove("key1"));
+    hs.flush(dbi);
+    ConcurrentHashRecord hs1 = new ConcurrentHashRecord("testhash");
+    hs1.load(dbi);
+    assertEquals(false, hs1.has("key1"));
+    assertEquals(true, hs1.has("key2"));
+  }
+
+
+  public void testRemoveUnsaved() throws Exception {
+    hs.put("new key", "never saved");
+    assertEquals(1, hs.getDirtyCount());
+    hs.remove("new key");
+    assertEquals(0, hs.getDirtyCount());
+    assertEquals(0, hs.flush(dbi));
+  }
+
+
+  public void testDirtyCountAndLag() throws Exception {
+    assertEquals(0, hs.getDirtyCount());
+    assertEquals(0, hs.getFlushLag());
+    hs.put("a", "1");
+    hs.put("a", "2");
+    hs.put("b", "1");
+    assertEquals(2, hs.getDirtyCount());
+    assertEquals(false, hs.isSaved());
+    Thread.sleep(5);
+    assertTrue(hs.getFlushLag() > 0);
+    assertEquals(2, hs.flush(dbi));
+    assertEquals(0, hs.getFlushLag());
+    assertEquals(true, hs.isSaved());
+  }
+
+
+  public void testConcurrentPuts() throws Exception {
+    ArrayList<Thread> threads = new ArrayList<>();
+    for(int t = 0; t < 4; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        for(int i = 0; i < 250; i++) {
+          hs.put("t" + thread + "-" + i, Integer.toString(i));
+        }
+      }));
+    }
+    for(Thread t : threads) t.start();
+    for(Thread t : threads) t.join();
+    assertEquals(1000, hs.getDirtyCount());
+    hs.flush(dbi);
+    assertEquals(0, hs.getDirtyCount());
+    assertEquals(1002, new Query(dbi).from("testhash").count());
+  }
+
+
+  public void testBackgroundFlush() throws Exception {
+    useFile();
+    hs.startFlushing(dbi, 10, TimeUnit.MILLISECONDS);
+    assertEquals(true, hs.isFlushing());
+    hs.put("background", "flushed");
+    waitUntilSaved();
+    hs.stopFlushing();
+    assertEquals(false, hs.isFlushing());
+    assertEquals(null, hs.getLastFlushError());
+    assertEquals(1, new Query(dbi).from("testhash").where("key=?", "background").count());
+  }
+
+
+  public void testBackgroundFlushDoesNotJoinAppTransaction() throws Exception {
+    useFile();
+    hs.startFlushing(dbi, 10, TimeUnit.MILLISECONDS);
+    try {
+      dbi.transaction(db -> {
+        new Query(db).from("testhash").insert(new HashMap<>(Collections.singletonMap("key", "rolled back")));
+        hs.put("background", "flushed");
+        try {
+          Thread.sleep(200);
+        } catch(InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+        throw new IllegalStateException("Roll back");
+      });
+      fail("Didn't roll back");
+    } catch(IllegalStateException ise) {
+      // Expected
+    }
+    waitUntilSaved();
+    hs.stopFlushing();
+    assertEquals(true, hs.isSaved());
+    assertEquals(1, new Query(dbi).from("testhash").where("key=?", "background").count());
+    assertEquals(0, new Query(dbi).from("testhash").where("key=?", "rolled back").count());
+  }
+
+
+  public void testBackgroundFlushNeedsAFile() throws Exception {
+    try {
+      hs.startFlushing(dbi, 10, TimeUnit.MILLISECONDS);
+      fail("in-memory database");
+    } catch(IllegalArgumentException iae) {
+      // Expected
+    }
+    assertEquals(false, hs.isFlushing());
+  }
+}
@@ -0,0 +1,155 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.sql.SQLException;
+
+import dbinterface.CounterCache;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+public class CounterCacheTest extends TestCase {
+  private static final String BY_TOLKIEN = "author_id = 1";
+  private DBInterface dbi;
+  private Author tolkien;
+  private Author pratchett;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+        })
+        .migration(2, db -> {
+          CounterCache.create(db, Book.class);
+          CounterCache.create(db, Book.class, BY_TOLKIEN);
+        })
+        .open();
+    tolkien = new Author("Tolkien");
+    tolkien.save(dbi);
+    pratchett = new Author("Pratchett");
+    pratchett.save(dbi);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+  private long counted(String predicate) throws SQLException {
+    return CounterCache.get(dbi, "book", predicate);
+  }
+
+
+  public void testCreateCountsExistingRows() throws Exception {
+    DBInterface other = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+          Author author = new Author("Someone");
+          author.save(db);
+          new Book("One", author).save(db);
+          new Book("Two", author).save(db);
+        })
+        .migration(2, db -> CounterCache.create(db, Book.class))
+        .open();
+    assertEquals(Long.valueOf(2), CounterCache.get(other, "book", ""));
+    assertNull(CounterCache.get(other, "book", "title = 'One'"));
+    other.close();
+  }
+
+
+  public void testInsertUpdateDelete() throws Exception {
+    Book hobbit = new Book("The Hobbit", pratchett);
+    hobbit.save(dbi);
+    new Book("Mort", pratchett).save(dbi);
+    assertEquals(2, counted(""));
+    assertEquals(0, counted(BY_TOLKIEN));
+
+    // Moves into the predicate, then out again.
+    hobbit.authorId = tolkien.getID();
+    hobbit.save(dbi);
+    assertEquals(1, counted(BY_TOLKIEN));
+    hobbit.title = "There and Back Again";
+    hobbit.save(dbi);
+    assertEquals(1, counted(BY_TOLKIEN));
+    hobbit.drop(dbi);
+    assertEquals(0, counted(BY_TOLKIEN));
+    assertEquals(1, counted(""));
+  }
+
+
+  public void testQueryCountUsesCounter() throws Exception {
+    new Book("Mort", pratchett).save(dbi);
+    // Change the count behind the triggers' back, so only the counter can give this answer.
+    dbi.runSql("UPDATE dbinterface_counts SET count = 42 WHERE predicate = ''");
+    assertEquals(42, new Query(dbi).from(Book.class).count());
+    assertEquals(42, new Query(dbi).from(Book.class).estimateCount());
+    // Anything else is counted for real.
+    assertEquals(1, new Query(dbi).from(Book.class).where("author_id = ?", pratchett.getID()).count());
+    assertEquals(1, new Query(dbi).from(Book.class).count("title"));
+    CounterCache.rebuild(dbi, Book.class, "");
+    assertEquals(1, new Query(dbi).from(Book.class).count());
+  }
+
+
+  public void testRollbackUndoesCount() throws Exception {
+    try {
+      dbi.transaction(db -> {
+        new Book("Mort", pratchett).save(db);
+        assertEquals(1, new Query(db).from(Book.class).count());
+        throw new SQLException("Undo");
+      });
+      fail("Transaction should have thrown");
+    } catch(SQLException e) {
+      // Expected
+    }
+    assertEquals(0, new Query(dbi).from(Book.class).count());
+  }
+
+
+  public void testDrop() throws Exception {
+    new Book("The Hobbit", tolkien).save(dbi);
+    CounterCache.drop(dbi, Book.class, BY_TOLKIEN);
+    assertNull(CounterCache.get(dbi, "book", BY_TOLKIEN));
+    new Book("The Silmarillion", tolkien).save(dbi);
+    assertEquals(2, new Query(dbi).from(Book.class).where(BY_TOLKIEN).count());
+    assertEquals(2, counted(""));
+  }
+
+
+  public void testEstimateCount() throws Exception {
+    dbi.runSql("CREATE INDEX book_author ON book (author_id)");
+    dbi.transaction(db -> {
+      for(int i = 0; i < 100; i++) {
+        new Book("Book " + i, i % 4 == 0 ? tolkien : pratchett).save(db);
+      }
+    });
+    Query byAuthor = new Query(dbi).from(Book.class).where("author_id = ?", pratchett.getID());
+    // Not analyzed yet, so counted.
+    assertEquals(75, byAuthor.estimateCount());
+    dbi.runSql("ANALYZE");
+    // Two authors, so an average of 50 books each.
+    assertEquals(50, byAuthor.estimateCount());
+    assertEquals(1, new Query(dbi).from(Book.class).whereID(3).estimateCount());
+    assertEquals(100, new Query(dbi).from(Book.class).where("title LIKE 'Book 1%'").estimateCount());
+  }
+
+
+  public void testEstimateWithPartialIndex() throws Exception {
+    dbi.runSql("CREATE INDEX book_author ON book (author_id)");
+    dbi.transaction(db -> {
+      for(int i = 0; i < 100; i++) {
+        new Book("Book " + i, i % 4 == 0 ? tolkien : pratchett).save(db);
+      }
+    });
+    dbi.runSql("CREATE INDEX book_title_tolkien ON book (title) WHERE author_id = " + tolkien.getID());
+    dbi.runSql("ANALYZE");
+    // The partial index only has Tolkien's books, so its count isn't the table's.
+    assertEquals(100, new Query(dbi).from(Book.class).where("title LIKE ?", "Book%").estimateCount());
+  }
+}
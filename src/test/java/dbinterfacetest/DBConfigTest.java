@@ -0,0 +1,126 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import dbinterface.DBConfig;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+public class DBConfigTest extends TestCase {
+  private File file;
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("dbconfig", ".db");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if(dbi != null) dbi.close();
+    file.delete();
+    new File(file.getPath() + "-wal").delete();
+    new File(file.getPath() + "-shm").delete();
+  }
+
+
+  public void testDefaults() throws Exception {
+    dbi = new DBInterface().open();
+    assertEquals(null, dbi.getConfig());
+    HashMap<String, String> settings = dbi.getSettings();
+    assertEquals("memory", settings.get("journal_mode"));
+    assertEquals("0", settings.get("query_only"));
+  }
+
+
+  public void testBalanced() throws Exception {
+    dbi = new DBInterface(file, DBConfig.balanced()).open();
+    HashMap<String, String> settings = dbi.getSettings();
+    assertEquals("4096", settings.get("page_size"));
+    assertEquals("wal", settings.get("journal_mode"));
+    assertEquals("1", settings.get("synchronous"));
+    assertEquals("-16384", settings.get("cache_size"));
+    assertEquals("2", settings.get("temp_store"));
+    assertEquals("5000", settings.get("busy_timeout"));
+  }
+
+
+  public void testDurable() throws Exception {
+    dbi = new DBInterface(file, DBConfig.durable()).open();
+    HashMap<String, String> settings = dbi.getSettings();
+    assertEquals("wal", settings.get("journal_mode"));
+    assertEquals("2", settings.get("synchronous"));
+  }
+
+
+  public void testBulkLoad() throws Exception {
+    dbi = new DBInterface(file).config(DBConfig.bulkLoad()).open();
+    HashMap<String, String> settings = dbi.getSettings();
+    assertEquals("memory", settings.get("journal_mode"));
+    assertEquals("0", settings.get("synchronous"));
+    dbi.runSql(TestRecord.CREATE);
+    TestRecord tr = new TestRecord();
+    tr.save(dbi);
+    assertEquals(1, new Query(dbi).from(TestRecord.class).count());
+  }
+
+
+  public void testReadOnlyAnalytics() throws Exception {
+    dbi = new DBInterface(file).open();
+    dbi.runSql(TestRecord.CREATE);
+    new TestRecord().save(dbi);
+    dbi.close();
+
+    dbi = new DBInterface(file, DBConfig.readOnlyAnalytics()).open();
+    assertEquals("1", dbi.getSettings().get("query_only"));
+    assertEquals(1, new Query(dbi).from(TestRecord.class).count());
+    try {
+      new TestRecord().save(dbi);
+      fail("Saved into a read only database");
+    } catch(SQLException sqe) {
+      // Expected
+    }
+  }
+
+
+  public void testReadOnlyWhereIn() throws Exception {
+    dbi = new DBInterface(file).open();
+    dbi.runSql(TestRecord.CREATE);
+    for(int i = 0; i < 300; i++) {
+      TestRecord tr = new TestRecord();
+      tr.intVar = i;
+      tr.save(dbi);
+    }
+    dbi.close();
+
+    dbi = new DBInterface(file, DBConfig.readOnlyAnalytics()).open();
+    assertEquals(3, new Query(dbi).from(TestRecord.class).whereIn("intvar", 1, 5, 9).count());
+    int[] values = new int[256];
+    for(int i = 0; i < values.length; i++) {
+      values[i] = i * 2;
+    }
+    assertEquals(150, new Query(dbi).from(TestRecord.class).whereIn("intvar", values).count());
+    try {
+      new Query(dbi).from(TestRecord.class).whereIn("intvar", new int[257]).count();
+      fail("Filled the list table on a query_only connection");
+    } catch(SQLException sqe) {
+      assertTrue(sqe.getMessage(), sqe.getMessage().contains("query_only"));
+    }
+  }
+
+
+  public void testCustom() throws Exception {
+    dbi = new DBInterface(new DBConfig().cacheSize(500).busyTimeout(250)).open();
+    HashMap<String, String> settings = dbi.getSettings();
+    assertEquals("500", settings.get("cache_size"));
+    assertEquals("250", settings.get("busy_timeout"));
+  }
+}
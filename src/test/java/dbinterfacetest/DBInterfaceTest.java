@@ -6,10 +6,12 @@ import org.junit.After;
 import org.junit.Before;
 
 import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import dbinterface.DBInterface;
 import dbinterface.Query;
+import dbinterface.Record;
 
 public class DBInterfaceTest extends TestCase {
 
@@ -118,4 +120,19 @@ public class DBInterfaceTest extends TestCase {
     ResultSet rs = dbi.rawQuery("select count(*) as count from testrecord where boolvar=?", new Object[]{true});
     assertEquals(5, rs.getInt("count"));
   }
-}
\ No newline at end of file
+
+
+  public void testDropAll() throws Exception {
+    dbi.runSql(Author.CREATE);
+    Author author = new Author("Dropped");
+    author.save(dbi);
+    ArrayList<Record> records = new ArrayList<>();
+    records.add(author);
+    records.add(new Query(dbi).in(TestRecord.class).find(2));
+    records.add(new Query(dbi).in(TestRecord.class).find(3));
+    records.add(new TestRecord());
+    assertEquals(3, dbi.dropAll(records));
+    assertEquals(8, new Query(dbi).from(TestRecord.class).count());
+    assertEquals(0, new Query(dbi).from(Author.class).count());
+  }
+}
@@ -0,0 +1,28 @@
+package dbinterfacetest;
+
+import dbinterface.Column;
+import dbinterface.CompressedText;
+import dbinterface.Record;
+
+/**
+ * Keeps a large JSON body compressed.
+ */
+public class Document extends Record {
+  public static final String CREATE = "DROP TABLE IF EXISTS document; CREATE TABLE document (\n" +
+      "id integer primary key autoincrement,\n" +
+      "name varchar(255),\n" +
+      "body blob)";
+
+  @Column public String name;
+  @Column public CompressedText body;
+
+  public Document() {
+    super();
+  }
+
+  public Document(String name, String body) {
+    super();
+    this.name = name;
+    this.body = CompressedText.of(body);
+  }
+}
@@ -0,0 +1,91 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+
+import dbinterface.DBInterface;
+import dbinterface.FullText;
+import dbinterface.Query;
+import dbinterface.SearchHit;
+
+public class FullTextTest extends TestCase {
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface()
+        .migration(1, db -> db.runSql(Article.CREATE))
+        .migration(2, db -> {
+          new Article("Existing row", "indexed by the rebuild").save(db);
+          FullText.create(db, Article.class);
+        })
+        .open();
+    new Article("Sqlite tuning", "Pragmas that make sqlite fast: journal mode, synchronous and cache size").save(dbi);
+    new Article("Java records", "Mapping rows to Java objects, mentions sqlite once").save(dbi);
+    new Article("Cooking", "Nothing about databases at all").save(dbi);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testMatchRanksBestFirst() throws Exception {
+    ArrayList<Article> found = new Query(dbi).from(Article.class).match("sqlite").all();
+    assertEquals(2, found.size());
+    assertEquals("Sqlite tuning", found.get(0).title);
+    assertEquals("Java records", found.get(1).title);
+    assertEquals(2, new Query(dbi).from(Article.class).match("sqlite").count());
+  }
+
+
+  public void testMatchColumn() throws Exception {
+    assertEquals(1, new Query(dbi).from(Article.class).match("title", "sqlite").all().size());
+    assertEquals(1, new Query(dbi).from(Article.class).match("rebuild").all().size());
+    assertEquals(1, new Query(dbi).from(Article.class).match("\"journal mode\"").all().size());
+    assertEquals(2, new Query(dbi).from(Article.class).match("java OR cooking").all().size());
+  }
+
+
+  public void testMatchWithWhere() throws Exception {
+    Article popular = new Query(dbi).from(Article.class).match("sqlite").orderBy("title").first();
+    assertEquals("Java records", popular.title);
+    popular.views = 10;
+    popular.save(dbi);
+    ArrayList<Article> found = new Query(dbi).from(Article.class).match("sqlite").where("views > ?", 5).all();
+    assertEquals(1, found.size());
+    assertEquals(popular.getID(), found.get(0).getID());
+  }
+
+
+  public void testTriggersKeepIndexInStep() throws Exception {
+    Article cooking = new Query(dbi).from(Article.class).match("cooking").first();
+    cooking.body = "Now about sqlite too";
+    cooking.save(dbi);
+    assertEquals(3, new Query(dbi).from(Article.class).match("sqlite").count());
+    assertEquals(0, new Query(dbi).from(Article.class).match("databases").count());
+    cooking.drop(dbi);
+    assertEquals(2, new Query(dbi).from(Article.class).match("sqlite").count());
+  }
+
+
+  public void testHits() throws Exception {
+    ArrayList<SearchHit<Article>> hits = new Query(dbi).from(Article.class).match("synchronous").hits();
+    assertEquals(1, hits.size());
+    assertEquals("Sqlite tuning", hits.get(0).getRecord().title);
+    assertTrue(hits.get(0).getRank() > 0);
+    assertTrue(hits.get(0).getSnippet().contains("<b>synchronous</b>"));
+  }
+
+
+  public void testDrop() throws Exception {
+    FullText.drop(dbi, Article.class);
+    new Article("After", "the index is gone").save(dbi);
+    assertEquals(5, new Query(dbi).from(Article.class).count());
+  }
+}
@@ -0,0 +1,205 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dbinterface.DBInterface;
+import dbinterface.IndexAdvisor;
+import dbinterface.Query;
+
+public class IndexAdvisorTest extends TestCase {
+  private DBInterface dbi;
+  private IndexAdvisor advisor;
+  private File file = null;
+
+  @Before
+  public void setUp() throws Exception {
+    open(new DBInterface());
+  }
+
+  private void open(DBInterface database) throws Exception {
+    dbi = database.open();
+    dbi.runSql(TestRecord.CREATE);
+    for(int i = 0; i < 200; i++) {
+      TestRecord tr = new TestRecord();
+      tr.intVar = i % 20;
+      tr.stringVar = "s" + i;
+      tr.save(dbi);
+    }
+    advisor = new IndexAdvisor();
+    dbi.advisor(advisor);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    advisor.stopAutoCreate();
+    dbi.close();
+    if(file != null) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Start again on a database in a file, which creating indexes in the background needs.
+   */
+  private void useFile() throws Exception {
+    dbi.close();
+    file = File.createTempFile("indexadvisor", ".db");
+    file.delete();
+    open(new DBInterface(file));
+  }
+
+  private String plan(String sql) throws Exception {
+    ResultSet rs = dbi.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+    StringBuilder plan = new StringBuilder();
+    while(rs.next()) {
+      plan.append(rs.getString("detail")).append('\n');
+    }
+    rs.close();
+    return plan.toString();
+  }
+
+
+  public void testRecommendsScannedColumns() throws Exception {
+    for(int i = 0; i < 5; i++) {
+      new Query(dbi).from(TestRecord.class).where("intvar = ?", i).orderBy("stringvar").all();
+      new Query(dbi).from(TestRecord.class).where("stringvar > ?", "s5").all();
+      new Query(dbi).from(TestRecord.class).find(i + 1);
+    }
+    List<IndexAdvisor.Recommendation> recommendations = advisor.recommendations(dbi);
+    assertEquals(2, recommendations.size());
+    boolean sawIntVar = false;
+    for(IndexAdvisor.Recommendation recommendation : recommendations) {
+      assertEquals("testrecord", recommendation.getTable());
+      assertEquals(5, recommendation.getScans());
+      if(recommendation.getColumns().get(0).equals("intvar")) {
+        sawIntVar = true;
+        // Equality column first, then the sort column
+        assertEquals("[intvar, stringvar]", recommendation.getColumns().toString());
+      }
+    }
+    assertTrue(sawIntVar);
+    assertTrue(recommendations.get(0).getEstimatedBenefitNanos() >= recommendations.get(1).getEstimatedBenefitNanos());
+  }
+
+
+  public void testLiteralsShareAShape() throws Exception {
+    advisor.maxShapes(2);
+    for(int i = 0; i < 10; i++) {
+      new Query(dbi).from(TestRecord.class).where("intvar = " + i).all();
+      new Query(dbi).from(TestRecord.class).where("stringvar = 's" + i + "'").all();
+    }
+    assertEquals(0, advisor.getOverflow());
+    new Query(dbi).from(TestRecord.class).where("boolvar = 1").all();
+    assertEquals(1, advisor.getOverflow());
+    List<IndexAdvisor.Recommendation> recommendations = advisor.recommendations(dbi);
+    assertEquals(2, recommendations.size());
+    for(IndexAdvisor.Recommendation recommendation : recommendations) {
+      assertEquals(10, recommendation.getScans());
+      assertEquals(200, recommendation.getRows());
+    }
+  }
+
+  public void testCreateIndexes() throws Exception {
+    for(int i = 0; i < 3; i++) {
+      new Query(dbi).from(TestRecord.class).where("intvar = ?", i).all();
+    }
+    assertTrue(plan("SELECT * FROM testrecord WHERE intvar = 1").contains("SCAN TABLE"));
+    List<IndexAdvisor.Recommendation> created = advisor.createIndexes(dbi, 5);
+    assertEquals(1, created.size());
+    assertTrue(plan("SELECT * FROM testrecord WHERE intvar = 1").contains(created.get(0).getIndexName()));
+    assertEquals(0, advisor.recommendations(dbi).size());
+  }
+
+
+  public void testNotEnoughExecutions() throws Exception {
+    new Query(dbi).from(TestRecord.class).where("intvar = ?", 1).all();
+    assertEquals(0, advisor.recommendations(dbi).size());
+    advisor.minExecutions(1);
+    assertEquals(1, advisor.recommendations(dbi).size());
+    advisor.reset();
+    assertEquals(0, advisor.recommendations(dbi).size());
+  }
+
+
+  public void testAutoCreateInWindow() throws Exception {
+    useFile();
+    for(int i = 0; i < 3; i++) {
+      new Query(dbi).from(TestRecord.class).where("boolvar = ?", 1).all();
+    }
+    LocalTime now = LocalTime.now();
+    advisor.startAutoCreate(dbi, now.minusHours(1), now.plusHours(1), 1, 10, TimeUnit.MILLISECONDS);
+    long deadline = System.currentTimeMillis() + 5000;
+    while(!advisor.recommendations(dbi).isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    System.out.println("DEBUG " + advisor.recommendations(dbi) + " " + advisor.getLastCreateError() + " " + plan("SELECT name FROM sqlite_master"));
+    advisor.stopAutoCreate();
+    assertNull(advisor.getLastCreateError());
+    assertTrue(plan("SELECT * FROM testrecord WHERE boolvar = 1").contains("USING INDEX"));
+  }
+
+
+  public void testAutoCreateOutsideAppTransaction() throws Exception {
+    useFile();
+    for(int i = 0; i < 3; i++) {
+      new Query(dbi).from(TestRecord.class).where("boolvar = ?", 1).all();
+    }
+    LocalTime now = LocalTime.now();
+    try {
+      dbi.transaction(db -> {
+        new TestRecord().save(db);
+        advisor.startAutoCreate(dbi, now.minusHours(1), now.plusHours(1), 1, 10, TimeUnit.MILLISECONDS);
+        try {
+          Thread.sleep(200);
+        } catch(InterruptedException ie) {
+          throw new RuntimeException(ie);
+        }
+        throw new IllegalStateException("Roll back");
+      });
+      fail("Didn't roll back");
+    } catch(IllegalStateException ise) {
+      // Expected
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while(!advisor.recommendations(dbi).isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    advisor.stopAutoCreate();
+    assertNull(advisor.getLastCreateError());
+    assertTrue(plan("SELECT * FROM testrecord WHERE boolvar = 1").contains("USING INDEX"));
+    assertEquals(200, new Query(dbi).from(TestRecord.class).count());
+  }
+
+
+  public void testAutoCreateOutsideWindow() throws Exception {
+    useFile();
+    for(int i = 0; i < 3; i++) {
+      new Query(dbi).from(TestRecord.class).where("boolvar = ?", 1).all();
+    }
+    LocalTime now = LocalTime.now();
+    advisor.startAutoCreate(dbi, now.plusHours(1), now.plusHours(2), 1, 10, TimeUnit.MILLISECONDS);
+    Thread.sleep(100);
+    advisor.stopAutoCreate();
+    assertEquals(1, advisor.recommendations(dbi).size());
+  }
+
+
+  public void testAutoCreateNeedsAFile() throws Exception {
+    LocalTime now = LocalTime.now();
+    try {
+      advisor.startAutoCreate(dbi, now.minusHours(1), now.plusHours(1), 1, 10, TimeUnit.MILLISECONDS);
+      fail("in-memory database");
+    } catch(IllegalArgumentException iae) {
+      // Expected
+    }
+  }
+}
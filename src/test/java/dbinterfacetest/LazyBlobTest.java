@@ -0,0 +1,145 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import dbinterface.DBInterface;
+import dbinterface.LazyBlob;
+import dbinterface.Query;
+
+public class LazyBlobTest extends TestCase {
+  private DBInterface dbi;
+  private byte[] payload;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(Attachment.CREATE);
+    payload = new byte[200 * 1024 + 17];
+    for(int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) (i * 31);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testSaveFromStreamAndReadInChunks() throws Exception {
+    Attachment saved = new Attachment("report.pdf", LazyBlob.of(new ByteArrayInputStream(payload)));
+    saved.save(dbi);
+
+    Attachment loaded = new Query(dbi).from(Attachment.class).find(saved.getID());
+    assertTrue(loaded.content.isStored());
+    assertEquals(payload.length, loaded.content.length());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(payload.length, loaded.content.chunkSize(4096).writeTo(out));
+    assertTrue(Arrays.equals(payload, out.toByteArray()));
+    assertTrue(Arrays.equals(payload, loaded.content.getBytes()));
+  }
+
+
+  public void testStreamReadsSmallPieces() throws Exception {
+    new Attachment("a", LazyBlob.of(payload)).save(dbi);
+    Attachment loaded = new Query(dbi).from(Attachment.class).first();
+    InputStream in = loaded.content.chunkSize(1000).openStream();
+    assertEquals(payload[0] & 0xff, in.read());
+    byte[] rest = in.readAllBytes();
+    in.close();
+    assertEquals(payload.length - 1, rest.length);
+    assertEquals(payload[payload.length - 1], rest[rest.length - 1]);
+  }
+
+
+  public void testNullAndBytes() throws Exception {
+    Attachment empty = new Attachment("empty", null);
+    empty.thumbnail = new byte[] {1, 0, 2};
+    empty.save(dbi);
+    Attachment loaded = new Query(dbi).from(Attachment.class).first();
+    assertTrue(Arrays.equals(new byte[] {1, 0, 2}, loaded.thumbnail));
+    assertEquals(-1, loaded.content.length());
+    assertNull(loaded.content.getBytes());
+    assertEquals(-1, loaded.content.openStream().read());
+  }
+
+
+  public void testResaveKeepsContent() throws Exception {
+    Attachment saved = new Attachment("first", LazyBlob.of(ByteBuffer.wrap(payload)));
+    saved.save(dbi);
+    Attachment loaded = new Query(dbi).from(Attachment.class).first();
+    loaded.name = "renamed";
+    loaded.save(dbi);
+    Attachment again = new Query(dbi).from(Attachment.class).first();
+    assertEquals("renamed", again.name);
+    assertTrue(Arrays.equals(payload, again.content.getBytes()));
+  }
+
+
+  public void testResaveLeavesStoredBlobOut() throws Exception {
+    dbi.runSql("CREATE TABLE content_writes (attachment integer)");
+    dbi.runSql("CREATE TRIGGER content_written AFTER UPDATE OF content ON attachment BEGIN "
+        + "INSERT INTO content_writes VALUES (new.id); END");
+    new Attachment("first", LazyBlob.of(payload)).save(dbi);
+    Attachment loaded = new Query(dbi).from(Attachment.class).first();
+    loaded.name = "renamed";
+    assertEquals(1, dbi.update(loaded));
+    assertEquals(0, new Query(dbi).from("content_writes").count());
+    Attachment renamed = new Query(dbi).from(Attachment.class).first();
+    assertEquals("renamed", renamed.name);
+
+    Attachment copy = new Attachment("copy", null);
+    copy.save(dbi);
+    copy.content = loaded.content;
+    copy.save(dbi);
+    assertEquals(1, new Query(dbi).from("content_writes").count());
+    assertTrue(Arrays.equals(payload, LazyBlob.at(dbi, "attachment", "content", copy.getID()).getBytes()));
+
+    loaded.content = LazyBlob.of(new byte[] {1, 2});
+    loaded.save(dbi);
+    assertEquals(2, new Query(dbi).from("content_writes").count());
+    Attachment replaced = new Query(dbi).from(Attachment.class).find(loaded.getID());
+    assertEquals(2, replaced.content.length());
+  }
+
+
+  public void testBindsStreamsInMaps() throws Exception {
+    HashMap<String, Object> values = new HashMap<>();
+    values.put("name", new StringReader("from a reader"));
+    values.put("content", new ByteArrayInputStream(payload));
+    values.put("thumbnail", ByteBuffer.wrap(new byte[] {9, 8, 7}, 1, 2));
+    int id = dbi.insert("attachment", values);
+    ResultSet rs = dbi.rawQuery("SELECT name, length(content), hex(thumbnail) FROM attachment WHERE id = ?", new Object[] {id});
+    assertEquals("from a reader", rs.getString(1));
+    assertEquals(payload.length, rs.getInt(2));
+    assertEquals("0807", rs.getString(3));
+    rs.close();
+    assertTrue(Arrays.equals(payload, LazyBlob.at(dbi, "attachment", "content", id).getBytes()));
+  }
+
+
+  public void testBatchInsertBindsBlobs() throws Exception {
+    Attachment[] items = new Attachment[3];
+    for(int i = 0; i < items.length; i++) {
+      items[i] = new Attachment("batch " + i, LazyBlob.of(new byte[] {(byte) i, 0}));
+      items[i].thumbnail = new byte[] {(byte) i};
+    }
+    dbi.batchInsert(items, items.length);
+    ResultSet rs = dbi.rawQuery("SELECT hex(content), hex(thumbnail) FROM attachment WHERE name = ?", new Object[] {"batch 2"});
+    assertEquals("0200", rs.getString(1));
+    assertEquals("02", rs.getString(2));
+    rs.close();
+  }
+}
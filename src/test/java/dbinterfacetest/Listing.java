@@ -0,0 +1,33 @@
+package dbinterfacetest;
+
+import dbinterface.Column;
+import dbinterface.Deferred;
+import dbinterface.Record;
+
+/**
+ * Has a long description and a photo that a list of listings doesn't need.
+ */
+public class Listing extends Record {
+  public static final String CREATE = "DROP TABLE IF EXISTS listing; CREATE TABLE listing (\n" +
+      "id integer primary key autoincrement,\n" +
+      "title varchar(255),\n" +
+      "price integer,\n" +
+      "description text,\n" +
+      "photo blob)";
+
+  @Column public String title;
+  @Column public int price;
+  @Column public Deferred<String> description;
+  @Column public Deferred<byte[]> photo;
+
+  public Listing() {
+    super();
+  }
+
+  public Listing(String title, int price, String description) {
+    super();
+    this.title = title;
+    this.price = price;
+    this.description = Deferred.of(description);
+  }
+}
@@ -0,0 +1,157 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import dbinterface.DBInterface;
+import dbinterface.LiveQuery;
+import dbinterface.Query;
+
+public class LiveQueryTest extends TestCase {
+  private DBInterface dbi;
+  private Author tolkien;
+  private Author pratchett;
+  private LiveQuery<Book> live;
+  private LinkedBlockingQueue<LiveQuery.Diff<Book>> diffs;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+        })
+        .open();
+    tolkien = new Author("Tolkien");
+    tolkien.save(dbi);
+    pratchett = new Author("Pratchett");
+    pratchett.save(dbi);
+    new Book("The Hobbit", tolkien).save(dbi);
+    new Book("Mort", pratchett).save(dbi);
+
+    live = new Query(dbi).from(Book.class).where("author_id = ?", tolkien.getID()).live(Book.class);
+    diffs = new LinkedBlockingQueue<>();
+    live.subscribe(new Flow.Subscriber<LiveQuery.Diff<Book>>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(LiveQuery.Diff<Book> item) {
+        diffs.add(item);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    live.close();
+    dbi.close();
+  }
+
+  private LiveQuery.Diff<Book> nextDiff() throws InterruptedException {
+    LiveQuery.Diff<Book> diff = diffs.poll(5, TimeUnit.SECONDS);
+    assertNotNull(diff);
+    return diff;
+  }
+
+
+  public void testInitialResults() throws Exception {
+    ArrayList<Book> books = live.getResults();
+    assertEquals(1, books.size());
+    assertEquals("The Hobbit", books.get(0).title);
+  }
+
+
+  public void testAddChangeRemove() throws Exception {
+    Book silmarillion = new Book("The Silmarillion", tolkien);
+    silmarillion.save(dbi);
+    LiveQuery.Diff<Book> diff = nextDiff();
+    assertEquals(1, diff.getAdded().size());
+    assertEquals("The Silmarillion", diff.getAdded().get(0).title);
+    assertEquals(2, live.size());
+
+    silmarillion.title = "Silmarillion";
+    silmarillion.save(dbi);
+    diff = nextDiff();
+    assertEquals(1, diff.getChanged().size());
+    assertEquals("Silmarillion", live.getResults().get(1).title);
+
+    silmarillion.drop(dbi);
+    diff = nextDiff();
+    assertEquals(1, diff.getRemoved().size());
+    assertEquals(1, live.size());
+  }
+
+
+  public void testRowsMovingInAndOut() throws Exception {
+    Book mort = new Query(dbi).from(Book.class).where("title = ?", "Mort").first();
+    mort.authorId = tolkien.getID();
+    mort.save(dbi);
+    assertEquals(1, nextDiff().getAdded().size());
+
+    mort.authorId = pratchett.getID();
+    mort.save(dbi);
+    LiveQuery.Diff<Book> diff = nextDiff();
+    assertEquals(1, diff.getRemoved().size());
+    assertEquals("Mort", diff.getRemoved().get(0).title);
+    assertEquals(1, live.size());
+  }
+
+
+  public void testIgnoresOtherRows() throws Exception {
+    new Book("Eric", pratchett).save(dbi);
+    new Book("The Two Towers", tolkien).save(dbi);
+    LiveQuery.Diff<Book> diff = nextDiff();
+    assertEquals("The Two Towers", diff.getAdded().get(0).title);
+    assertTrue(diffs.isEmpty());
+    assertEquals(2, live.getRefreshes());
+  }
+
+
+  public void testTransactionIsOneDiff() throws Exception {
+    dbi.transaction(db -> {
+      for(int i = 0; i < 5; i++) {
+        new Book("Unfinished Tales " + i, tolkien).save(db);
+      }
+    });
+    assertEquals(5, nextDiff().getAdded().size());
+    assertEquals(6, live.size());
+  }
+
+
+  public void testAppliedBeforeCommitReturns() throws Exception {
+    dbi.disableCommit();
+    new Book("The Fall of Gondolin", tolkien).save(dbi);
+    assertEquals(1, live.size());
+    dbi.commit();
+    assertEquals(2, live.size());
+    assertEquals(1, live.getRefreshes());
+    assertEquals(1, nextDiff().getAdded().size());
+  }
+
+  public void testRejectsOrderBy() throws Exception {
+    try {
+      new Query(dbi).from(Book.class).orderBy("title").live(Book.class);
+      fail("orderBy() can't be kept live");
+    } catch(UnsupportedOperationException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,581 @@
+package dbinterfacetest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import dbinterface.DBConfig;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+
+/**
+ * Replays a mix of reads and writes against a DBInterface from several threads, and reports
+ * throughput and latency percentiles for each kind of operation.
+ *
+ * Build the test classes with mvn test-compile, then run eg.
+ * java -cp target/classes:target/test-classes:sqlite-jdbc.jar dbinterfacetest.LoadDriver \
+ *     mix=read-heavy threads=4 rows=100000 recordBytes=512 seconds=30 file=true out=before.json
+ *
+ * Every setting is a key=value argument, see Workload. The results are printed and written as JSON to
+ * out, so runs against different versions of the library can be compared. With file=true each thread
+ * opens its own connection to the file, as separate processes would. In memory they share one and take
+ * turns, so latencies include the wait for it.
+ */
+public class LoadDriver {
+  public enum Op { GET, QUERY, INSERT, UPDATE, BATCH }
+
+  /**
+   * What to run. Weights are relative, they don't need to add up to 1.
+   */
+  public static class Workload {
+    private final double[] weights = new double[Op.values().length];
+    private String mix = "mixed";
+    private int threads = 4;
+    private int rows = 10000;
+    private int recordBytes = 256;
+    private int batchSize = 100;
+    private int kinds = 100;
+    private double seconds = 10;
+    private double warmupSeconds = 1;
+    private boolean file = false;
+    private DBConfig config = DBConfig.balanced();
+    private String label = "dbinterface";
+
+    public Workload() {
+      mix("mixed");
+    }
+
+    /**
+     * Use a preset mix of operations: read-heavy, mixed, write-heavy or bulk.
+     *
+     * @param name preset
+     * @return this (for convenience)
+     */
+    public Workload mix(String name) {
+      switch(name) {
+        case "read-heavy":
+          weights(0.6, 0.35, 0.02, 0.03, 0);
+          break;
+        case "mixed":
+          weights(0.4, 0.2, 0.2, 0.19, 0.01);
+          break;
+        case "write-heavy":
+          weights(0.1, 0.05, 0.45, 0.35, 0.05);
+          break;
+        case "bulk":
+          weights(0.05, 0.05, 0, 0, 0.9);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown mix " + name + ", use read-heavy, mixed, write-heavy or bulk");
+      }
+      mix = name;
+      return this;
+    }
+
+    /**
+     * @return this (for convenience)
+     */
+    public Workload weights(double get, double query, double insert, double update, double batch) {
+      weights[Op.GET.ordinal()] = get;
+      weights[Op.QUERY.ordinal()] = query;
+      weights[Op.INSERT.ordinal()] = insert;
+      weights[Op.UPDATE.ordinal()] = update;
+      weights[Op.BATCH.ordinal()] = batch;
+      mix = "custom";
+      return this;
+    }
+
+    public Workload weight(Op op, double weight) {
+      weights[op.ordinal()] = weight;
+      mix = "custom";
+      return this;
+    }
+
+    public Workload threads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param rows Rows in the table before the run starts
+     * @return this (for convenience)
+     */
+    public Workload rows(int rows) {
+      this.rows = rows;
+      return this;
+    }
+
+    /**
+     * @param bytes Length of each row's body
+     * @return this (for convenience)
+     */
+    public Workload recordBytes(int bytes) {
+      this.recordBytes = bytes;
+      return this;
+    }
+
+    /**
+     * @param size Rows per batchInsert()
+     * @return this (for convenience)
+     */
+    public Workload batchSize(int size) {
+      this.batchSize = size;
+      return this;
+    }
+
+    /**
+     * @param seconds How long to measure for, after the warmup
+     * @return this (for convenience)
+     */
+    public Workload seconds(double seconds) {
+      this.seconds = seconds;
+      return this;
+    }
+
+    public Workload warmupSeconds(double seconds) {
+      this.warmupSeconds = seconds;
+      return this;
+    }
+
+    /**
+     * @param file true for a temporary database file, false for in memory
+     * @return this (for convenience)
+     */
+    public Workload file(boolean file) {
+      this.file = file;
+      return this;
+    }
+
+    public Workload config(DBConfig config) {
+      this.config = config;
+      return this;
+    }
+
+    /**
+     * @param label Name for the run in the results, eg. the library version
+     * @return this (for convenience)
+     */
+    public Workload label(String label) {
+      this.label = label;
+      return this;
+    }
+
+    /**
+     * Set one setting from a key=value argument.
+     *
+     * @param arg eg. "threads=8"
+     * @return this (for convenience)
+     */
+    public Workload parse(String arg) {
+      int split = arg.indexOf('=');
+      if(split < 0) {
+        throw new IllegalArgumentException("Expected key=value, got " + arg);
+      }
+      String key = arg.substring(0, split);
+      String value = arg.substring(split + 1);
+      switch(key) {
+        case "mix": return mix(value);
+        case "threads": return threads(Integer.parseInt(value));
+        case "rows": return rows(Integer.parseInt(value));
+        case "recordBytes": return recordBytes(Integer.parseInt(value));
+        case "batchSize": return batchSize(Integer.parseInt(value));
+        case "seconds": return seconds(Double.parseDouble(value));
+        case "warmupSeconds": return warmupSeconds(Double.parseDouble(value));
+        case "file": return file(Boolean.parseBoolean(value));
+        case "label": return label(value);
+        case "config":
+          switch(value) {
+            case "durable": return config(DBConfig.durable());
+            case "balanced": return config(DBConfig.balanced());
+            case "bulk-load": return config(DBConfig.bulkLoad());
+            case "none": return config(null);
+            default: throw new IllegalArgumentException("Unknown config " + value);
+          }
+        default:
+          for(Op op : Op.values()) {
+            if(op.name().equalsIgnoreCase(key)) {
+              return weight(op, Double.parseDouble(value));
+            }
+          }
+          throw new IllegalArgumentException("Unknown setting " + key);
+      }
+    }
+
+    LinkedHashMap<String, Object> describe() {
+      LinkedHashMap<String, Object> settings = new LinkedHashMap<>();
+      settings.put("mix", mix);
+      for(Op op : Op.values()) {
+        settings.put(op.name().toLowerCase(), weights[op.ordinal()]);
+      }
+      settings.put("threads", threads);
+      settings.put("rows", rows);
+      settings.put("recordBytes", recordBytes);
+      settings.put("batchSize", batchSize);
+      settings.put("seconds", seconds);
+      settings.put("warmupSeconds", warmupSeconds);
+      settings.put("file", file);
+      settings.put("config", config == null ? "none" : config.getName());
+      return settings;
+    }
+  }
+
+  /**
+   * Latencies of one kind of operation, on one thread.
+   */
+  private static class Samples {
+    long[] nanos = new long[1024];
+    int count = 0;
+    long errors = 0;
+
+    void add(long elapsed) {
+      if(count == nanos.length) {
+        nanos = Arrays.copyOf(nanos, count * 2);
+      }
+      nanos[count++] = elapsed;
+    }
+  }
+
+  /**
+   * What a run measured.
+   */
+  public static class Result {
+    private final LinkedHashMap<String, Object> values;
+
+    Result(LinkedHashMap<String, Object> values) {
+      this.values = values;
+    }
+
+    /**
+     * @return Operations per second, over every kind
+     */
+    public double getThroughput() {
+      return (Double) values.get("throughput");
+    }
+
+    /**
+     * @param op Kind of operation
+     * @return count, errors, throughput, p50_us, p99_us, p999_us and max_us
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getOp(Op op) {
+      return (Map<String, Object>) ((Map<String, Object>) values.get("ops")).get(op.name().toLowerCase());
+    }
+
+    public String toJson() {
+      StringBuilder json = new StringBuilder();
+      appendJson(json, values, "");
+      return json.append("\n").toString();
+    }
+
+    public void write(File out) throws IOException {
+      Writer writer = new FileWriter(out);
+      try {
+        writer.write(toJson());
+      } finally {
+        writer.close();
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "%s: %.0f ops/s over %.1fs%n",
+          values.get("label"), getThroughput(), values.get("seconds")));
+      for(Op op : Op.values()) {
+        Map<String, Object> stats = getOp(op);
+        if(stats != null) {
+          text.append(String.format(Locale.ROOT, "  %-6s %8d ops %8.0f/s  p50 %8.1fus  p99 %8.1fus  p999 %8.1fus  max %8.1fus  %d errors%n",
+              op.name().toLowerCase(), stats.get("count"), stats.get("throughput"), stats.get("p50_us"),
+              stats.get("p99_us"), stats.get("p999_us"), stats.get("max_us"), stats.get("errors")));
+        }
+      }
+      return text.toString();
+    }
+  }
+
+  private final Workload workload;
+  private final String body;
+
+  public LoadDriver(Workload workload) {
+    this.workload = workload;
+    char[] chars = new char[workload.recordBytes];
+    for(int i = 0; i < chars.length; i++) {
+      chars[i] = (char) ('a' + i % 26);
+    }
+    this.body = new String(chars);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Workload workload = new Workload();
+    String out = "load-result.json";
+    for(String arg : args) {
+      if(arg.startsWith("out=")) {
+        out = arg.substring(4);
+      } else {
+        workload.parse(arg);
+      }
+    }
+    Result result = new LoadDriver(workload).run();
+    System.out.print(result);
+    result.write(new File(out));
+    System.out.println("Wrote " + out);
+  }
+
+  /**
+   * Fill the table, run the workload for its warmup and then its measured time.
+   *
+   * @return what was measured
+   * @throws Exception
+   */
+  public Result run() throws Exception {
+    File file = null;
+    if(workload.file) {
+      file = File.createTempFile("load", ".db");
+      file.delete();
+    }
+    ArrayList<DBInterface> databases = new ArrayList<>();
+    try {
+      DBInterface first = open(file).migration(1, db -> db.runSql(Payload.CREATE)).open();
+      databases.add(first);
+      fill(first);
+      for(int i = 1; i < workload.threads; i++) {
+        databases.add(file == null ? first : open(file).open());
+      }
+      return measure(databases);
+    } finally {
+      for(DBInterface database : databases) {
+        database.close();
+      }
+      if(file != null) {
+        file.delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+      }
+    }
+  }
+
+  private DBInterface open(File file) {
+    DBInterface database = file == null ? new DBInterface() : new DBInterface(file);
+    return workload.config == null ? database : database.config(workload.config);
+  }
+
+  private void fill(DBInterface database) throws SQLException {
+    database.transaction(db -> {
+      Payload[] batch = new Payload[500];
+      for(int start = 0; start < workload.rows; start += batch.length) {
+        int length = Math.min(batch.length, workload.rows - start);
+        for(int i = 0; i < length; i++) {
+          batch[i] = new Payload((start + i) % workload.kinds, body);
+        }
+        db.batchInsert(batch, length);
+      }
+    });
+  }
+
+  private Result measure(List<DBInterface> databases) throws Exception {
+    double total = 0;
+    for(double weight : workload.weights) {
+      total += weight;
+    }
+    double[] cumulative = new double[workload.weights.length];
+    double sum = 0;
+    for(int i = 0; i < cumulative.length; i++) {
+      sum += workload.weights[i] / total;
+      cumulative[i] = sum;
+    }
+
+    long warmupEnd = System.nanoTime() + (long) (workload.warmupSeconds * 1e9);
+    long end = warmupEnd + (long) (workload.seconds * 1e9);
+    Samples[][] samples = new Samples[workload.threads][];
+    Exception[] failures = new Exception[workload.threads];
+    CountDownLatch done = new CountDownLatch(workload.threads);
+    for(int t = 0; t < workload.threads; t++) {
+      int thread = t;
+      DBInterface database = databases.get(t);
+      samples[t] = new Samples[Op.values().length];
+      for(int o = 0; o < samples[t].length; o++) {
+        samples[t][o] = new Samples();
+      }
+      Thread worker = new Thread(() -> {
+        try {
+          drive(database, cumulative, samples[thread], warmupEnd, end);
+        } catch(Exception e) {
+          failures[thread] = e;
+        } finally {
+          done.countDown();
+        }
+      }, "LoadDriver-" + t);
+      worker.start();
+    }
+    done.await();
+    for(Exception failure : failures) {
+      if(failure != null) {
+        throw failure;
+      }
+    }
+    return summarize(databases.get(0), samples);
+  }
+
+  private void drive(DBInterface database, double[] cumulative, Samples[] samples, long warmupEnd, long end) throws Exception {
+    // A connection can only run one statement at a time, so threads sharing one take turns.
+    boolean shared = !workload.file && workload.threads > 1;
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Payload[] batch = new Payload[workload.batchSize];
+    long now = System.nanoTime();
+    while(now < end) {
+      double pick = random.nextDouble();
+      int o = 0;
+      while(o < cumulative.length - 1 && pick >= cumulative[o]) {
+        o++;
+      }
+      Op op = Op.values()[o];
+      long start = System.nanoTime();
+      boolean failed = false;
+      try {
+        if(shared) {
+          synchronized(database) {
+            run(database, op, random, batch);
+          }
+        } else {
+          run(database, op, random, batch);
+        }
+      } catch(SQLException sqe) {
+        // Eg. SQLITE_BUSY from another connection, count it and carry on.
+        failed = true;
+      }
+      now = System.nanoTime();
+      if(start >= warmupEnd) {
+        if(failed) {
+          samples[o].errors++;
+        } else {
+          samples[o].add(now - start);
+        }
+      }
+    }
+  }
+
+  private void run(DBInterface database, Op op, ThreadLocalRandom random, Payload[] batch) throws SQLException {
+    int id = 1 + random.nextInt(Math.max(1, workload.rows));
+    switch(op) {
+      case GET:
+        new Query(database).from(Payload.class).whereID(id).first();
+        break;
+      case QUERY:
+        new Query(database).from(Payload.class).where("kind = ?", random.nextInt(workload.kinds)).limit(20).all();
+        break;
+      case INSERT:
+        new Payload(random.nextInt(workload.kinds), body).save(database);
+        break;
+      case UPDATE:
+        Payload found = new Query(database).from(Payload.class).whereID(id).first();
+        if(found != null) {
+          found.kind = random.nextInt(workload.kinds);
+          found.save(database);
+        }
+        break;
+      case BATCH:
+        for(int i = 0; i < batch.length; i++) {
+          batch[i] = new Payload(random.nextInt(workload.kinds), body);
+        }
+        database.batchInsert(batch, batch.length);
+        break;
+    }
+  }
+
+  private Result summarize(DBInterface database, Samples[][] samples) throws SQLException {
+    LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+    values.put("label", workload.label);
+    values.put("timestamp", Instant.now().toString());
+    values.put("java", System.getProperty("java.version"));
+    ResultSet rs = database.rawQuery("SELECT sqlite_version()", null);
+    values.put("sqlite", rs.getString(1));
+    rs.close();
+    values.put("workload", workload.describe());
+    values.put("seconds", workload.seconds);
+
+    LinkedHashMap<String, Object> ops = new LinkedHashMap<>();
+    long count = 0;
+    long errors = 0;
+    for(Op op : Op.values()) {
+      if(workload.weights[op.ordinal()] <= 0) {
+        continue;
+      }
+      int length = 0;
+      long opErrors = 0;
+      for(Samples[] thread : samples) {
+        length += thread[op.ordinal()].count;
+        opErrors += thread[op.ordinal()].errors;
+      }
+      long[] nanos = new long[length];
+      int at = 0;
+      for(Samples[] thread : samples) {
+        System.arraycopy(thread[op.ordinal()].nanos, 0, nanos, at, thread[op.ordinal()].count);
+        at += thread[op.ordinal()].count;
+      }
+      Arrays.sort(nanos);
+      LinkedHashMap<String, Object> stats = new LinkedHashMap<>();
+      stats.put("count", (long) length);
+      stats.put("errors", opErrors);
+      stats.put("throughput", length / workload.seconds);
+      stats.put("p50_us", percentile(nanos, 0.5));
+      stats.put("p99_us", percentile(nanos, 0.99));
+      stats.put("p999_us", percentile(nanos, 0.999));
+      stats.put("max_us", length == 0 ? 0.0 : nanos[length - 1] / 1e3);
+      ops.put(op.name().toLowerCase(), stats);
+      count += length;
+      errors += opErrors;
+    }
+    values.put("operations", count);
+    values.put("errors", errors);
+    values.put("throughput", count / workload.seconds);
+    values.put("ops", ops);
+    return new Result(values);
+  }
+
+  /**
+   * @return The latency at or below which a fraction of the sorted samples fall, in microseconds
+   */
+  static double percentile(long[] sorted, double fraction) {
+    if(sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e3;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void appendJson(StringBuilder json, Object value, String indent) {
+    if(value instanceof Map) {
+      json.append("{");
+      String inner = indent + "  ";
+      boolean first = true;
+      for(Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        json.append(first ? "\n" : ",\n").append(inner);
+        appendJson(json, entry.getKey(), inner);
+        json.append(": ");
+        appendJson(json, entry.getValue(), inner);
+        first = false;
+      }
+      json.append("\n").append(indent).append("}");
+    } else if(value instanceof Double) {
+      json.append(String.format(Locale.ROOT, "%.3f", (Double) value));
+    } else if(value instanceof Number || value instanceof Boolean) {
+      json.append(value);
+    } else if(value == null) {
+      json.append("null");
+    } else {
+      json.append('"').append(value.toString().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+    }
+  }
+}
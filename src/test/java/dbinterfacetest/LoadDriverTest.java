@@ -0,0 +1,60 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class LoadDriverTest extends TestCase {
+
+  public void testPercentile() throws Exception {
+    long[] sorted = new long[1000];
+    for(int i = 0; i < sorted.length; i++) {
+      sorted[i] = (i + 1) * 1000L;
+    }
+    assertEquals(500.0, LoadDriver.percentile(sorted, 0.5));
+    assertEquals(990.0, LoadDriver.percentile(sorted, 0.99));
+    assertEquals(999.0, LoadDriver.percentile(sorted, 0.999));
+    assertEquals(0.0, LoadDriver.percentile(new long[0], 0.5));
+  }
+
+
+  public void testRunsMixInMemory() throws Exception {
+    LoadDriver.Result result = new LoadDriver(new LoadDriver.Workload()
+        .mix("mixed").threads(2).rows(200).seconds(0.3).warmupSeconds(0)).run();
+    assertTrue(result.getThroughput() > 0);
+    assertTrue((Long) result.getOp(LoadDriver.Op.GET).get("count") > 0);
+    assertEquals(0L, result.getOp(LoadDriver.Op.INSERT).get("errors"));
+  }
+
+
+  public void testWritesJsonForFileRun() throws Exception {
+    LoadDriver.Workload workload = new LoadDriver.Workload()
+        .parse("mix=write-heavy").parse("threads=2").parse("rows=100").parse("file=true")
+        .parse("batch=0").parse("seconds=0.3").parse("warmupSeconds=0").parse("label=test");
+    LoadDriver.Result result = new LoadDriver(workload).run();
+    assertNull(result.getOp(LoadDriver.Op.BATCH));
+
+    File out = File.createTempFile("load", ".json");
+    try {
+      result.write(out);
+      String json = new String(Files.readAllBytes(out.toPath()), "UTF-8");
+      assertTrue(json.contains("\"label\": \"test\""));
+      assertTrue(json.contains("\"mix\": \"custom\""));
+      assertTrue(json.contains("\"p999_us\": "));
+      assertTrue(json.trim().endsWith("}"));
+    } finally {
+      out.delete();
+    }
+  }
+
+
+  public void testRejectsUnknownSetting() throws Exception {
+    try {
+      new LoadDriver.Workload().parse("speed=fast");
+      fail("speed isn't a setting");
+    } catch(IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import dbinterface.DBConfig;
+import dbinterface.DBInterface;
+import dbinterface.Maintenance;
+
+public class MaintenanceTest extends TestCase {
+  private File file;
+  private DBInterface dbi;
+  private Author author;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("maintenance", ".db");
+    file.delete();
+    dbi = new DBInterface(file, DBConfig.balanced().autoVacuum(DBConfig.AutoVacuum.INCREMENTAL))
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+        })
+        .open();
+    author = new Author("Prolific");
+    author.save(dbi);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+    file.delete();
+    new File(file.getPath() + "-wal").delete();
+    new File(file.getPath() + "-shm").delete();
+  }
+
+  private void addBooks(int count) throws Exception {
+    StringBuilder title = new StringBuilder();
+    while(title.length() < 500) {
+      title.append("A very long title ");
+    }
+    dbi.transaction(db -> {
+      for(int i = 0; i < count; i++) {
+        new Book(title.toString() + i, author).save(db);
+      }
+    });
+  }
+
+
+  public void testVacuumsFreePages() throws Exception {
+    assertEquals("2", dbi.getSettings().get("auto_vacuum"));
+    addBooks(2000);
+    dbi.runSql("DELETE FROM book");
+    Maintenance.Report report = new Maintenance(dbi).slice(10, TimeUnit.SECONDS).runPass();
+    assertTrue(report.getFreePagesBefore() > 100);
+    assertEquals(0, report.getFreePagesAfter());
+    assertTrue(report.isFinished());
+  }
+
+
+  public void testAnalyzesStaleTables() throws Exception {
+    Maintenance maintenance = new Maintenance(dbi).slice(10, TimeUnit.SECONDS);
+    addBooks(100);
+    assertTrue(maintenance.runPass().getAnalyzed().contains("book"));
+    assertFalse(maintenance.runPass().getAnalyzed().contains("book"));
+    addBooks(5);
+    assertFalse(maintenance.runPass().getAnalyzed().contains("book"));
+    addBooks(20);
+    assertTrue(maintenance.runPass().getAnalyzed().contains("book"));
+  }
+
+
+  public void testCheckpointsWal() throws Exception {
+    addBooks(200);
+    Maintenance.Report report = new Maintenance(dbi).slice(10, TimeUnit.SECONDS).runPass();
+    assertTrue(report.getWalBytesBefore() > 0);
+    assertEquals("PASSIVE", report.getCheckpoint());
+
+    addBooks(200);
+    report = new Maintenance(dbi).slice(10, TimeUnit.SECONDS).truncateAbove(1).runPass();
+    assertEquals("TRUNCATE", report.getCheckpoint());
+    assertEquals(0, report.getWalBytesAfter());
+  }
+
+
+  public void testStopsWhenSliceIsUsed() throws Exception {
+    addBooks(2000);
+    dbi.runSql("DELETE FROM book");
+    Maintenance.Report report = new Maintenance(dbi).slice(0, TimeUnit.SECONDS).runPass();
+    assertFalse(report.isFinished());
+    assertEquals(report.getFreePagesBefore(), report.getFreePagesAfter());
+    assertNull(report.getCheckpoint());
+  }
+
+
+  public void testStopsWhenDatabaseIsLocked() throws Exception {
+    addBooks(2000);
+    dbi.runSql("DELETE FROM book");
+    Maintenance maintenance = new Maintenance(dbi).slice(10, TimeUnit.SECONDS);
+    dbi.disableCommit();
+    new Author("Uncommitted").save(dbi);
+    Maintenance.Report report = maintenance.runPass();
+    assertFalse(report.isFinished());
+    assertEquals(report.getFreePagesBefore(), report.getFreePagesAfter());
+    dbi.commit();
+    report = maintenance.runPass();
+    assertTrue(report.isFinished());
+    assertEquals(0, report.getFreePagesAfter());
+  }
+
+
+  public void testNeedsAFile() throws Exception {
+    DBInterface memory = new DBInterface().open();
+    try {
+      new Maintenance(memory);
+      fail("in-memory database");
+    } catch(IllegalArgumentException e) {
+      // Expected
+    } finally {
+      memory.close();
+    }
+  }
+
+
+  public void testRunsWhenIdle() throws Exception {
+    Maintenance maintenance = new Maintenance(dbi).idleFor(0, TimeUnit.SECONDS);
+    maintenance.start(10, TimeUnit.MILLISECONDS);
+    try {
+      for(int i = 0; i < 500 && maintenance.getPasses() == 0; i++) {
+        Thread.sleep(10);
+      }
+    } finally {
+      maintenance.stop();
+    }
+    assertNull(maintenance.getLastError());
+    assertTrue(maintenance.getPasses() > 0);
+    assertNotNull(maintenance.getLastReport());
+  }
+}
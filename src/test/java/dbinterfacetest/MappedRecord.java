@@ -0,0 +1,33 @@
+package dbinterfacetest;
+
+import dbinterface.Column;
+import dbinterface.Record;
+
+/**
+ * Uses a generated MappedRecordMapper instead of hand written setValues/insertValues/fastValues.
+ */
+public class MappedRecord extends Record {
+  public static final String CREATE = "DROP TABLE IF EXISTS mappedrecord; CREATE TABLE mappedrecord (\n" +
+      "id integer primary key autoincrement,\n" +
+      "name varchar(255),\n" +
+      "count integer,\n" +
+      "is_active boolean,\n" +
+      "score double,\n" +
+      "big integer)";
+
+  @Column public String name;
+  @Column public int count;
+  @Column("is_active") public boolean active;
+  @Column public double score;
+  @Column public Long big;
+
+  public MappedRecord() {
+    super();
+  }
+
+  public MappedRecord(String name, int count) {
+    super();
+    this.name = name;
+    this.count = count;
+  }
+}
@@ -0,0 +1,153 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import dbinterface.DBInterface;
+import dbinterface.Migrations;
+import dbinterface.Query;
+
+public class MigrationsTest extends TestCase {
+  private File file;
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("migrations", ".db");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if(dbi != null) dbi.close();
+    file.delete();
+  }
+
+  private DBInterface withMigrations(DBInterface database) {
+    return database
+        .migration(1, db -> db.runSql(TestRecord.CREATE))
+        .migration(2, db -> db.runSql("CREATE INDEX testrecord_intvar ON testrecord (intvar)"));
+  }
+
+  private int totalChanges() throws SQLException {
+    ResultSet rs = dbi.rawQuery("SELECT total_changes()", new Object[]{});
+    int changes = rs.getInt(1);
+    rs.close();
+    return changes;
+  }
+
+
+  public void testFreshDatabase() throws Exception {
+    dbi = withMigrations(new DBInterface(file)).open();
+    assertEquals(2, dbi.getVersion());
+    assertEquals(2, dbi.getMigrations().getApplied());
+    assertEquals(0, new Query(dbi).from(TestRecord.class).count());
+    assertEquals(2, Migrations.readVersion(dbi));
+    assertTrue(dbi.getOpenNanos() > 0);
+  }
+
+
+  public void testCurrentDatabaseIsNotWritten() throws Exception {
+    dbi = withMigrations(new DBInterface(file)).open();
+    dbi.close();
+    dbi = withMigrations(new DBInterface(file)).open();
+    assertEquals(0, dbi.getMigrations().getApplied());
+    assertEquals(2, dbi.getVersion());
+    assertEquals(0, totalChanges());
+  }
+
+
+  public void testOnlyNewStepsRun() throws Exception {
+    dbi = new DBInterface(file).migration(1, db -> db.runSql(TestRecord.CREATE)).open();
+    new TestRecord().save(dbi);
+    dbi.close();
+    dbi = withMigrations(new DBInterface(file))
+        .migration(3, db -> db.runSql("UPDATE testrecord SET intvar = 42"))
+        .open();
+    assertEquals(2, dbi.getMigrations().getApplied());
+    assertEquals(3, dbi.getVersion());
+    TestRecord tr = new Query(dbi).from(TestRecord.class).first();
+    assertEquals(42, tr.intVar);
+  }
+
+
+  public void testFailedStepRollsBack() throws Exception {
+    DBInterface failing = new DBInterface(file)
+        .migration(1, db -> db.runSql(TestRecord.CREATE))
+        .migration(2, db -> {
+          db.runSql("CREATE TABLE half_done (id integer)");
+          db.runSql("THIS IS NOT SQL");
+        });
+    try {
+      failing.open();
+      fail("Broken migration didn't throw");
+    } catch(SQLException sqe) {
+      // Expected
+    }
+    assertEquals(1, Migrations.readVersion(failing));
+    ResultSet rs = failing.rawQuery("SELECT count(*) FROM sqlite_master WHERE name = ?", new Object[]{"half_done"});
+    assertEquals(0, rs.getInt(1));
+    rs.close();
+    failing.close();
+  }
+
+
+  public void testLockedDatabaseIsNotMissingMetaTable() throws Exception {
+    dbi = withMigrations(new DBInterface(file)).open();
+    dbi.rawQuery("PRAGMA busy_timeout = 0", null).close();
+    try(Connection other = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath())) {
+      other.createStatement().execute("BEGIN EXCLUSIVE");
+      try {
+        Migrations.readVersion(dbi);
+        fail("The database is locked, which doesn't mean the meta table is missing");
+      } catch(SQLException e) {
+        // Expected
+      }
+      other.createStatement().execute("ROLLBACK");
+    }
+    assertEquals(2, Migrations.readVersion(dbi));
+  }
+
+
+  public void testBadVersions() throws Exception {
+    dbi = new DBInterface();
+    try {
+      dbi.migration(0, db -> {});
+      fail("Registered version 0");
+    } catch(IllegalArgumentException iae) {
+      // Expected
+    }
+    dbi.migration(1, db -> {});
+    try {
+      dbi.migration(1, db -> {});
+      fail("Registered version 1 twice");
+    } catch(IllegalArgumentException iae) {
+      // Expected
+    }
+  }
+
+
+  public void testTransaction() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(TestRecord.CREATE);
+    try {
+      dbi.transaction(db -> {
+        new TestRecord().save(db);
+        throw new SQLException("Give up");
+      });
+    } catch(SQLException sqe) {
+      assertEquals("Give up", sqe.getMessage());
+    }
+    assertEquals(0, new Query(dbi).from(TestRecord.class).count());
+    dbi.transaction(db -> new TestRecord().save(db));
+    assertEquals(1, new Query(dbi).from(TestRecord.class).count());
+  }
+}
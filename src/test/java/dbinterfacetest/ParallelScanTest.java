@@ -0,0 +1,108 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import dbinterface.DBInterface;
+import dbinterface.ParallelScan;
+import dbinterface.Query;
+
+public class ParallelScanTest extends TestCase {
+  private File file;
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("parallelscan", ".db");
+    dbi = new DBInterface(file).open();
+    dbi.runSql(TestRecord.CREATE);
+    for(int batch = 0; batch < 2; batch++) {
+      TestRecord[] records = new TestRecord[500];
+      for(int i = 0; i < records.length; i++) {
+        records[i] = new TestRecord();
+        records[i].intVar = batch * 500 + i;
+        records[i].stringVar = i % 2 == 0 ? "even" : "odd";
+      }
+      dbi.batchInsert(records, records.length);
+    }
+    // Leave a gap in the rowids
+    dbi.runSql("DELETE FROM testrecord WHERE intvar BETWEEN 100 AND 299");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+    file.delete();
+  }
+
+
+  public void testAllInRowidOrder() throws Exception {
+    ArrayList<TestRecord> all = new ParallelScan(new Query(dbi).from(TestRecord.class))
+        .parallelism(4).ranges(7).all(TestRecord.class);
+    assertEquals(800, all.size());
+    for(int i = 1; i < all.size(); i++) {
+      assertTrue(all.get(i).getID() > all.get(i - 1).getID());
+    }
+    assertEquals(new Query(dbi).from(TestRecord.class).all().size(), all.size());
+  }
+
+
+  public void testWhereIn() throws Exception {
+    Query query = new Query(dbi).from(TestRecord.class).whereIn("intvar", 5, 50, 150, 500, 950);
+    assertEquals(4, new ParallelScan(query).parallelism(2).all(TestRecord.class).size());
+  }
+
+
+  public void testWhere() throws Exception {
+    Query query = new Query(dbi).from(TestRecord.class).where("stringvar = ?", "odd");
+    assertEquals(400, new ParallelScan(query).parallelism(3).all(TestRecord.class).size());
+    assertEquals(400, new ParallelScan(query).stream(TestRecord.class).filter(tr -> tr.intVar % 2 == 1).count());
+  }
+
+
+  public void testReduce() throws Exception {
+    long[] sum = new ParallelScan(new Query(dbi).from(TestRecord.class).select("intvar")).parallelism(4)
+        .reduce(() -> new long[1], (acc, row) -> acc[0] += row.getLong(1), (a, b) -> {
+          a[0] += b[0];
+          return a;
+        });
+    assertEquals(((Number) new Query(dbi).from(TestRecord.class).sum("intvar")).longValue(), sum[0]);
+  }
+
+
+  public void testEmptyTable() throws Exception {
+    dbi.runSql("DELETE FROM testrecord");
+    assertEquals(0, new ParallelScan(new Query(dbi).from(TestRecord.class)).all(TestRecord.class).size());
+  }
+
+
+  public void testErrors() throws Exception {
+    try {
+      new ParallelScan(new Query(dbi).from(TestRecord.class).where("nosuchcolumn = 1")).all(TestRecord.class);
+      fail("Bad where didn't throw");
+    } catch(SQLException sqe) {
+      // Expected
+    }
+    try {
+      new ParallelScan(new Query(dbi).from(TestRecord.class).orderBy("intvar")).all(TestRecord.class);
+      fail("Split an ordered query");
+    } catch(UnsupportedOperationException uoe) {
+      // Expected
+    }
+    DBInterface memory = new DBInterface().open();
+    memory.runSql(TestRecord.CREATE);
+    try {
+      new ParallelScan(new Query(memory).from(TestRecord.class)).all(TestRecord.class);
+      fail("Scanned an in-memory database");
+    } catch(IllegalStateException ise) {
+      // Expected
+    }
+    memory.close();
+  }
+}
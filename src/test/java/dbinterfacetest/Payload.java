@@ -0,0 +1,28 @@
+package dbinterfacetest;
+
+import dbinterface.Column;
+import dbinterface.Record;
+
+/**
+ * A row of configurable size for LoadDriver.
+ */
+public class Payload extends Record {
+  public static final String CREATE = "DROP TABLE IF EXISTS payload; CREATE TABLE payload (\n" +
+      "id integer primary key autoincrement,\n" +
+      "kind integer,\n" +
+      "body text);\n" +
+      "CREATE INDEX payload_kind ON payload (kind)";
+
+  @Column public int kind;
+  @Column public String body;
+
+  public Payload() {
+    super();
+  }
+
+  public Payload(int kind, String body) {
+    super();
+    this.kind = kind;
+    this.body = body;
+  }
+}
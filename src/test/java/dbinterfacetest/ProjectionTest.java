@@ -0,0 +1,159 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import dbinterface.DBInterface;
+import dbinterface.Deferred;
+import dbinterface.Query;
+
+public class ProjectionTest extends TestCase {
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(MappedRecord.CREATE);
+          db.runSql(Listing.CREATE);
+        })
+        .open();
+    dbi.transaction(db -> {
+      for(int i = 0; i < 5; i++) {
+        new MappedRecord("Record " + i, i).save(db);
+        new Listing("Listing " + i, i * 100, "Description of listing " + i).save(db);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testSelectReadsOnlySelectedColumns() throws Exception {
+    ArrayList<MappedRecord> records = new Query(dbi).from(MappedRecord.class).select("id, name").orderBy("id").all();
+    assertEquals(5, records.size());
+    MappedRecord last = records.get(4);
+    assertEquals("Record 4", last.name);
+    assertEquals(0, last.count);
+    assertTrue(last.isLoaded("name"));
+    assertFalse(last.isLoaded("count"));
+
+    MappedRecord full = new Query(dbi).from(MappedRecord.class).find(last.getID());
+    assertTrue(full.isLoaded("count"));
+  }
+
+
+  public void testSavingPartialRecordKeepsOtherColumns() throws Exception {
+    MappedRecord partial = new Query(dbi).from(MappedRecord.class).select("id, name AS NAME")
+        .where("name = ?", "Record 3").first();
+    partial.name = "Renamed";
+    partial.save(dbi);
+
+    MappedRecord reloaded = dbi.find(MappedRecord.class, partial.getID());
+    assertEquals("Renamed", reloaded.name);
+    assertEquals(3, reloaded.count);
+  }
+
+
+  public void testChangingUnselectedColumnCantBeSaved() throws Exception {
+    Listing partial = new Query(dbi).from(Listing.class).select("id, title")
+        .where("title = ?", "Listing 1").first();
+    partial.price = 99;
+    try {
+      partial.save(dbi);
+      fail("price wasn't loaded");
+    } catch(IllegalStateException e) {
+      // Expected
+    }
+    assertEquals(100, dbi.find(Listing.class, partial.getID()).price);
+  }
+
+
+  public void testPartialRecordWithoutIdCantBeInserted() throws Exception {
+    MappedRecord partial = new Query(dbi).from(MappedRecord.class).select("name").first();
+    assertFalse(partial.isSaved());
+    try {
+      partial.save(dbi);
+      fail("count wasn't loaded");
+    } catch(IllegalStateException e) {
+      // Expected
+    }
+  }
+
+
+  public void testDeferredColumnsReadTogetherOnFirstGet() throws Exception {
+    ArrayList<Listing> listings = new Query(dbi).from(Listing.class).orderBy("id").all();
+    assertEquals("Listing 2", listings.get(2).title);
+    for(Listing listing : listings) {
+      assertFalse(listing.description.isLoaded());
+      assertFalse(listing.isLoaded("description"));
+    }
+
+    assertEquals("Description of listing 2", listings.get(2).description.get());
+    for(Listing listing : listings) {
+      assertTrue(listing.description.isLoaded());
+      assertTrue(listing.isLoaded("description"));
+      assertFalse(listing.isLoaded("photo"));
+    }
+    assertEquals("Description of listing 4", listings.get(4).description.get());
+    assertNull(listings.get(4).photo.get());
+  }
+
+
+  public void testSelectingDeferredColumnReadsItNow() throws Exception {
+    Listing listing = new Query(dbi).from(Listing.class).select("id, title, description")
+        .where("title = ?", "Listing 1").first();
+    assertTrue(listing.description.isLoaded());
+    assertEquals("Description of listing 1", listing.description.get());
+    assertFalse(listing.isLoaded("price"));
+  }
+
+
+  public void testSavingFoundRecordKeepsDeferredColumns() throws Exception {
+    Listing listing = new Query(dbi).from(Listing.class).where("title = ?", "Listing 1").first();
+    listing.price = 150;
+    listing.photo = Deferred.of(new byte[] {1, 2, 3});
+    listing.save(dbi);
+
+    Listing found = dbi.find(Listing.class, listing.getID());
+    assertEquals(150, found.price);
+    assertFalse(found.description.isLoaded());
+    assertEquals("Description of listing 1", found.description.get());
+    assertTrue(Arrays.equals(new byte[] {1, 2, 3}, found.photo.get()));
+  }
+
+
+  public void testDeferredColumnNeedsTheId() throws Exception {
+    try {
+      new Query(dbi).from(Listing.class).select("title, price").first();
+      fail("description can't be read without the id");
+    } catch(IllegalStateException e) {
+      // Expected
+    }
+    Listing listing = new Query(dbi).from(Listing.class).select("title, description, photo")
+        .where("title = ?", "Listing 1").first();
+    assertEquals("Description of listing 1", listing.description.get());
+  }
+
+
+  public void testForEachReusingDefersEachRow() throws Exception {
+    ArrayList<String> descriptions = new ArrayList<>();
+    new Query(dbi).from(Listing.class).where("price >= ?", "300").orderBy("id")
+        .forEachReusing(new Listing(), listing -> {
+          try {
+            descriptions.add(listing.description.get());
+          } catch(Exception e) {
+            throw new RuntimeException(e);
+          }
+        });
+    assertEquals(Arrays.asList("Description of listing 3", "Description of listing 4"), descriptions);
+  }
+}
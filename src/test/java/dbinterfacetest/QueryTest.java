@@ -8,6 +8,7 @@ import org.junit.Before;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import dbinterface.DBInterface;
@@ -269,4 +270,91 @@ public class QueryTest extends TestCase {
     insertRecords();
     assertEquals(9, new Query(dbi).from(TestRecord.class).max("intvar"));
   }
+
+  public void testDropAll() throws Exception {
+    assertEquals(3, new Query(dbi).from(TestRecord.class).dropAll(1, 5, 9, 42));
+    assertEquals(7, new Query(dbi).from(TestRecord.class).count());
+    assertEquals(null, new Query(dbi).in(TestRecord.class).find(5));
+    assertEquals(0, new Query(dbi).from(TestRecord.class).dropAll());
+  }
+
+  public void testDropAllChunks() throws Exception {
+    new Query(dbi).from(TestRecord.class).drop();
+    dbi.disableCommit();
+    for(int i = 0; i < DBInterface.MAX_VARIABLES * 2 + 5; i++) {
+      new TestRecord().save(dbi);
+    }
+    dbi.commit();
+    ArrayList<TestRecord> all = new Query(dbi).in(TestRecord.class).all();
+    int[] ids = new int[all.size()];
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = all.get(i).getID();
+    }
+    assertEquals(ids.length, new Query(dbi).from(TestRecord.class).dropAll(ids));
+    assertEquals(0, new Query(dbi).from(TestRecord.class).count());
+  }
+
+  public void testForEachReusing() throws Exception {
+    TestRecord reused = new TestRecord();
+    ArrayList<Object> seen = new ArrayList<>();
+    int[] total = new int[1];
+    int rows = new Query(dbi).from(TestRecord.class).where("boolvar = 1").orderBy("intvar")
+        .forEachReusing(reused, r -> {
+          seen.add(r);
+          total[0] += r.intVar;
+        });
+    assertEquals(5, rows);
+    assertEquals(0 + 2 + 4 + 6 + 8, total[0]);
+    for(Object r : seen) {
+      assertSame(reused, r);
+    }
+    assertEquals(8, reused.intVar);
+    assertEquals(0, new Query(dbi).from(TestRecord.class).where("intvar > 100").forEachReusing(reused, r -> fail()));
+  }
+
+  public void testWhereIn() throws Exception {
+    assertEquals(3, new Query(dbi).from(TestRecord.class).whereIn("intvar", 1, 4, 7, 42).all().size());
+    assertEquals(0, new Query(dbi).from(TestRecord.class).whereIn("intvar", new int[0]).count());
+    assertEquals(7, new Query(dbi).from(TestRecord.class)
+        .whereIn("stringvar", Arrays.asList(vals[0], vals[2])).count());
+    TestRecord first = new Query(dbi).from(TestRecord.class)
+        .where("boolvar = 1").whereIn("intvar", 3L, 4L, 5L).orderBy("intvar DESC").first();
+    assertEquals(4, first.intVar);
+    // Short lists are bound as ?s, without the list table
+    ResultSet rs = dbi.rawQuery("SELECT count(*) FROM sqlite_temp_master WHERE name = 'dbinterface_in'", null);
+    assertEquals(0, rs.getInt(1));
+    rs.close();
+  }
+
+  public void testWhereInLongList() throws Exception {
+    int[] values = new int[DBInterface.MAX_VARIABLES * 3];
+    for(int i = 0; i < values.length; i++) {
+      values[i] = i * 3;
+    }
+    assertEquals(4, new Query(dbi).from(TestRecord.class).whereIn("intvar", values).count());
+    ResultSet rs = dbi.rawQuery("SELECT count(*) FROM temp.dbinterface_in", null);
+    assertEquals(0, rs.getInt(1));
+    rs.close();
+  }
+
+  public void testWhereInBuckets() throws Exception {
+    for(int size : new int[] {1, 8, 9, 64, 65, 256, 257}) {
+      int[] values = new int[size];
+      for(int i = 0; i < size; i++) {
+        values[i] = size - i;
+      }
+      assertEquals(Math.min(size, 9), new Query(dbi).from(TestRecord.class).whereIn("intvar", values).count());
+    }
+    assertEquals(2, new Query(dbi).from(TestRecord.class).where("stringvar != '?'")
+        .whereIn("intvar", 1, 2).whereIn("stringvar", Arrays.asList(vals)).count());
+  }
+
+  public void testWhereInUpdateAndDrop() throws Exception {
+    HashMap<String, Object> values = new HashMap<>();
+    values.put("stringvar", "changed");
+    assertEquals(2, new Query(dbi).from(TestRecord.class).whereIn("intvar", 2, 8).update(values));
+    assertEquals(2, new Query(dbi).from(TestRecord.class).where("stringvar = ?", "changed").count());
+    assertEquals(2, new Query(dbi).from(TestRecord.class).whereIn("stringvar", Arrays.asList("changed")).drop());
+    assertEquals(8, new Query(dbi).from(TestRecord.class).count());
+  }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import dbinterface.Column;
+import dbinterface.DBInterface;
+import dbinterface.Query;
+import dbinterface.RecordMapper;
+
+public class RecordMapperTest extends TestCase {
+  private DBInterface dbi;
+
+  public static class RankedRecord extends MappedRecord {
+    @Column public int rank;
+  }
+
+  public static class PlainSubRecord extends MappedRecord {
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(MappedRecord.CREATE);
+    for(int i = 0; i < 10; i++) {
+      MappedRecord mr = new MappedRecord("Name " + i, i);
+      mr.active = (i % 2) == 0;
+      mr.score = i / 2.0;
+      mr.big = i == 0 ? null : 10000000000L + i;
+      mr.save(dbi);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testGenerated() throws Exception {
+    RecordMapper<MappedRecord> mapper = RecordMapper.of(MappedRecord.class);
+    assertNotNull(mapper);
+    assertEquals(MappedRecordMapper.class, mapper.getClass());
+    assertEquals("big,count,is_active,name,score", String.join(",", mapper.getColumns()));
+    assertSame(mapper, RecordMapper.of(MappedRecord.class));
+  }
+
+
+  public void testInheritedColumns() throws Exception {
+    assertEquals("big,count,is_active,name,rank,score", String.join(",", RecordMapper.of(RankedRecord.class).getColumns()));
+    dbi.runSql(MappedRecord.CREATE.replace("mappedrecord", "rankedrecord").replace("big integer)", "big integer, rank integer)"));
+    RankedRecord ranked = new RankedRecord();
+    ranked.name = "Ranked";
+    ranked.count = 7;
+    ranked.rank = 2;
+    ranked.save(dbi);
+    RankedRecord found = dbi.find(RankedRecord.class, ranked.getID());
+    assertEquals("Ranked", found.name);
+    assertEquals(7, found.count);
+    assertEquals(2, found.rank);
+  }
+
+
+  public void testSubclassWithoutColumnsUsesSuperclassMapper() throws Exception {
+    assertEquals(MappedRecordMapper.class, RecordMapper.of(PlainSubRecord.class).getClass());
+    dbi.runSql(MappedRecord.CREATE.replace("mappedrecord", "plainsubrecord"));
+    PlainSubRecord plain = new PlainSubRecord();
+    plain.name = "Plain";
+    plain.save(dbi);
+    assertEquals("Plain", new Query(dbi).from(PlainSubRecord.class).<PlainSubRecord>first().name);
+  }
+
+
+  public void testNoMapper() throws Exception {
+    assertNull(RecordMapper.of(TestRecord.class));
+  }
+
+
+  public void testSaveAndFind() throws Exception {
+    MappedRecord mr = new Query(dbi).in(MappedRecord.class).find(4);
+    assertEquals("Name 3", mr.name);
+    assertEquals(3, mr.count);
+    assertEquals(false, mr.active);
+    assertEquals(1.5, mr.score);
+    assertEquals(Long.valueOf(10000000003L), mr.big);
+  }
+
+
+  public void testNulls() throws Exception {
+    MappedRecord mr = new Query(dbi).in(MappedRecord.class).first();
+    assertEquals(null, mr.big);
+    mr.name = null;
+    mr.save(dbi);
+    MappedRecord reloaded = new Query(dbi).in(MappedRecord.class).find(mr.getID());
+    assertEquals(null, reloaded.name);
+    assertEquals(null, reloaded.big);
+  }
+
+
+  public void testUpdate() throws Exception {
+    MappedRecord mr = new Query(dbi).in(MappedRecord.class).find(2);
+    mr.name = "Changed";
+    mr.big = 5L;
+    mr.save(dbi);
+    assertEquals(10, new Query(dbi).from(MappedRecord.class).count());
+    MappedRecord reloaded = new Query(dbi).in(MappedRecord.class).find(2);
+    assertEquals("Changed", reloaded.name);
+    assertEquals(Long.valueOf(5), reloaded.big);
+    assertEquals(1, reloaded.count);
+  }
+
+
+  public void testAll() throws Exception {
+    ArrayList<MappedRecord> all = new Query(dbi).in(MappedRecord.class).where("is_active = ?", 1).all();
+    assertEquals(5, all.size());
+    for(MappedRecord mr : all) {
+      assertEquals(true, mr.active);
+      assertEquals(0, mr.count % 2);
+    }
+  }
+
+
+  public void testFromCursor() throws Exception {
+    ResultSet rs = new Query(dbi).from(MappedRecord.class).whereID(6).firstCursor();
+    MappedRecord mr = new MappedRecord();
+    mr.setFromCursor(rs, true);
+    assertEquals(6, mr.getID());
+    assertEquals("Name 5", mr.name);
+  }
+
+
+  public void testGetValues() throws Exception {
+    MappedRecord mr = new MappedRecord("Values", 7);
+    HashMap<String, Object> vals = mr.getValues();
+    assertEquals("Values", vals.get("name"));
+    assertEquals(7, vals.get("count"));
+    assertEquals(false, vals.get("is_active"));
+    assertEquals(6, vals.size());
+  }
+
+
+  public void testBatchInsert() throws Exception {
+    MappedRecord[] batch = new MappedRecord[5];
+    for(int i = 0; i < batch.length; i++) {
+      batch[i] = new MappedRecord("Batch " + i, 100 + i);
+      batch[i].big = 1L;
+    }
+    dbi.batchInsert(batch, batch.length);
+    MappedRecord last = new Query(dbi).in(MappedRecord.class).orderBy("id DESC").first();
+    assertEquals("Batch 4", last.name);
+    assertEquals(104, last.count);
+    assertEquals(Long.valueOf(1), last.big);
+  }
+}
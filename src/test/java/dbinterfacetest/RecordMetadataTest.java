@@ -0,0 +1,173 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import dbinterface.DBInterface;
+import dbinterface.Query;
+import dbinterface.Record;
+import dbinterface.RecordMetadata;
+
+public class RecordMetadataTest extends TestCase {
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface().open();
+    dbi.runSql(TestRecord.CREATE);
+    dbi.runSql(MappedRecord.CREATE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+
+  public void testCached() throws Exception {
+    assertSame(RecordMetadata.of(TestRecord.class), RecordMetadata.of(TestRecord.class));
+  }
+
+
+  public void testHandWritten() throws Exception {
+    RecordMetadata meta = RecordMetadata.of(TestRecord.class);
+    assertEquals("testrecord", meta.getTableName());
+    assertNull(meta.getMapper());
+    assertNull(meta.getColumns());
+    assertNull(meta.getInsertSql());
+    assertNull(meta.getUpdateSql());
+    assertEquals("DELETE FROM testrecord WHERE id = ?", meta.getDeleteSql());
+    assertEquals("SELECT * FROM testrecord WHERE id = ?", meta.getFindSql());
+  }
+
+
+  public void testMapped() throws Exception {
+    RecordMetadata meta = RecordMetadata.of(MappedRecord.class);
+    assertNotNull(meta.getMapper());
+    assertEquals("id, big, count, is_active, name, score", meta.getSelectColumns());
+    assertEquals("SELECT id, big, count, is_active, name, score FROM mappedrecord WHERE id = ?", meta.getFindSql());
+  }
+
+
+  public void testSaveFindDrop() throws Exception {
+    TestRecord tr = new TestRecord();
+    tr.stringVar = "Saved";
+    tr.intVar = 3;
+    tr.save(dbi);
+    tr.intVar = 4;
+    tr.save(dbi);
+    TestRecord found = new Query(dbi).in(TestRecord.class).find(tr.getID());
+    assertEquals("Saved", found.stringVar);
+    assertEquals(4, found.intVar);
+    assertEquals(1, found.drop(dbi));
+    assertNull(new Query(dbi).in(TestRecord.class).find(tr.getID()));
+  }
+
+
+  public void testNullValues() throws Exception {
+    TestRecord tr = new TestRecord();
+    tr.stringVar = "Not null";
+    tr.save(dbi);
+    tr.stringVar = null;
+    tr.save(dbi);
+    ResultSet rs = dbi.rawQuery("SELECT stringvar FROM testrecord WHERE id = ?", new Object[]{tr.getID()});
+    assertNull(rs.getString(1));
+    rs.close();
+  }
+
+
+  public void testMissingColumn() throws Exception {
+    dbi.runSql("CREATE TABLE wrongcolumns (id integer primary key autoincrement, name varchar(255))");
+    try {
+      new WrongColumns().save(dbi);
+      fail("Saved into a table without the column");
+    } catch(SQLException sqe) {
+      assertTrue(sqe.getMessage().contains("missing_column"));
+    }
+  }
+
+
+  public void testHandWrittenKeysComeFromEachSave() throws Exception {
+    dbi.runSql(Tagged.CREATE);
+    Tagged tagged = new Tagged();
+    tagged.name = "First";
+    tagged.tag = "important";
+    tagged.save(dbi);
+    Tagged untagged = new Tagged();
+    untagged.name = "Second";
+    untagged.save(dbi);
+
+    assertEquals("important", tagOf(tagged));
+    assertEquals("none", tagOf(untagged));
+    untagged.tag = "later";
+    untagged.save(dbi);
+    assertEquals("later", tagOf(untagged));
+  }
+
+
+  private String tagOf(Tagged record) throws SQLException {
+    Tagged found = new Query(dbi).in(Tagged.class).find(record.getID());
+    return found.tag;
+  }
+
+
+  public void testVerifiedPerConnection() throws Exception {
+    new MappedRecord("Checked", 1).save(dbi);
+    DBInterface other = new DBInterface().open();
+    try {
+      other.runSql("CREATE TABLE mappedrecord (id integer primary key autoincrement, name varchar(255),"
+          + " count integer, is_active integer, big integer)");
+      new MappedRecord("Unchecked", 2).save(other);
+      fail("Saved into a table without the column");
+    } catch(SQLException sqe) {
+      assertTrue(sqe.getMessage(), sqe.getMessage().contains("has no column(s) score for"));
+    } finally {
+      other.close();
+    }
+  }
+
+
+  public static class Tagged extends Record {
+    public static final String CREATE = "CREATE TABLE tagged (id integer primary key autoincrement,"
+        + " name varchar(255), tag varchar(255) DEFAULT 'none')";
+    public String name;
+    public String tag;
+
+    protected void setValues(ResultSet rs) throws SQLException {
+      name = rs.getString("name");
+      tag = rs.getString("tag");
+    }
+
+    protected void insertValues(HashMap<String, Object> map) {
+      map.put("name", name);
+      if(tag != null) {
+        map.put("tag", tag);
+      }
+    }
+  }
+
+
+  public static class WrongColumns extends Record {
+    public String name;
+
+    protected void setValues(ResultSet rs) throws SQLException {
+      name = rs.getString("name");
+    }
+
+    protected void insertValues(HashMap<String, Object> map) {
+      map.put("name", name);
+      map.put("missing_column", 1);
+    }
+
+    public void fastValues(Object[] container) {
+      container[0] = 1;
+      container[1] = name;
+    }
+  }
+}
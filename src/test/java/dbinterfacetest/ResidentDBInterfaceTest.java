@@ -0,0 +1,203 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import dbinterface.DBInterface;
+import dbinterface.Query;
+import dbinterface.ResidentDBInterface;
+
+public class ResidentDBInterfaceTest extends TestCase {
+  private File file;
+  private ResidentDBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("resident", ".db");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if(dbi != null) dbi.close();
+    file.delete();
+  }
+
+  private int listTables() throws SQLException {
+    ResultSet rs = dbi.rawQuery("SELECT count(*) FROM sqlite_temp_master WHERE name = 'dbinterface_in'", null);
+    int count = rs.getInt(1);
+    rs.close();
+    return count;
+  }
+
+  private int countInFile() throws SQLException {
+    DBInterface disk = new DBInterface(file).open();
+    int count = new Query(disk).from(TestRecord.class).count();
+    disk.close();
+    return count;
+  }
+
+
+  public void testLoadsAndCloseWritesBack() throws Exception {
+    DBInterface disk = new DBInterface(file).open();
+    disk.runSql(TestRecord.CREATE);
+    new TestRecord().save(disk);
+    disk.close();
+
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    assertEquals(1, new Query(dbi).from(TestRecord.class).count());
+    assertFalse(dbi.isDirty());
+    new TestRecord().save(dbi);
+    assertTrue(dbi.isDirty());
+    assertEquals(1, countInFile());
+    dbi.close();
+    assertNull(dbi.getLastCheckpointError());
+    assertEquals(2, countInFile());
+  }
+
+
+  public void testCheckpoint() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    assertFalse(file.exists());
+    dbi.runSql(TestRecord.CREATE);
+    assertTrue(dbi.isDirty());
+    assertTrue(dbi.checkpoint());
+    assertTrue(file.exists());
+    assertFalse(dbi.isDirty());
+    assertFalse(dbi.checkpoint());
+    assertEquals(1, dbi.getCheckpoints());
+    assertTrue(dbi.getLastCheckpointNanos() > 0);
+
+    new TestRecord().save(dbi);
+    assertTrue(dbi.checkpoint());
+    assertEquals(1, countInFile());
+    assertTrue(dbi.checkpoint(true));
+    assertEquals(3, dbi.getCheckpoints());
+    assertEquals(1, file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName())).length);
+  }
+
+
+  public void testNoCheckpointInTransaction() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    dbi.runSql(TestRecord.CREATE);
+    dbi.checkpoint();
+    dbi.disableCommit();
+    new TestRecord().save(dbi);
+    try {
+      dbi.checkpoint();
+      fail("Checkpointed an open transaction");
+    } catch(SQLException sqe) {
+      // Expected
+    }
+    dbi.commit();
+    assertTrue(dbi.checkpoint());
+    assertEquals(1, countInFile());
+  }
+
+
+  public void testCheckpointWaitsForTransaction() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    dbi.runSql(TestRecord.CREATE);
+    dbi.checkpoint();
+    SQLException[] error = new SQLException[1];
+    Thread checkpointer = new Thread(() -> {
+      try {
+        dbi.checkpoint();
+      } catch(SQLException sqe) {
+        error[0] = sqe;
+      }
+    });
+    dbi.transaction(db -> {
+      new TestRecord().save(db);
+      checkpointer.start();
+      try {
+        Thread.sleep(100);
+      } catch(InterruptedException ie) {
+        throw new RuntimeException(ie);
+      }
+      new TestRecord().save(db);
+    });
+    checkpointer.join();
+    assertNull(error[0]);
+    assertEquals(2, countInFile());
+  }
+
+
+  public void testWhereInIsNotAChange() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    dbi.runSql(TestRecord.CREATE);
+    new TestRecord().save(dbi);
+    assertTrue(dbi.checkpoint());
+    assertEquals(0, listTables());
+    int[] ids = new int[300];
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = i + 1;
+    }
+    assertEquals(1, new Query(dbi).from(TestRecord.class).whereIn("id", ids).all().size());
+    assertEquals(1, listTables());
+    assertFalse(dbi.isDirty());
+    assertFalse(dbi.checkpoint());
+    assertEquals(1, dbi.getCheckpoints());
+  }
+
+  public void testCloseRollsBackOpenTransaction() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    dbi.runSql(TestRecord.CREATE);
+    dbi.disableCommit();
+    new TestRecord().save(dbi);
+    dbi.close();
+    assertNotNull(dbi.getLastCheckpointError());
+    assertEquals(0, countInFile());
+  }
+
+
+  public void testRejectsQuoteInPath() throws Exception {
+    try {
+      new ResidentDBInterface(new File(file.getParentFile(), "say\"hi.db"));
+      fail("Accepted a path that can't be quoted");
+    } catch(IllegalArgumentException iae) {
+      // Expected
+    }
+  }
+
+  public void testBackgroundCheckpoints() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.open();
+    dbi.runSql(TestRecord.CREATE);
+    new TestRecord().save(dbi);
+    dbi.startCheckpointing(10, TimeUnit.MILLISECONDS);
+    assertTrue(dbi.isCheckpointing());
+    long deadline = System.currentTimeMillis() + 5000;
+    while(dbi.getCheckpoints() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    dbi.stopCheckpointing();
+    assertFalse(dbi.isCheckpointing());
+    assertEquals(1, countInFile());
+  }
+
+
+  public void testMigrationsRunInMemory() throws Exception {
+    dbi = new ResidentDBInterface(file);
+    dbi.migration(1, db -> db.runSql(TestRecord.CREATE)).open();
+    dbi.close();
+    dbi = new ResidentDBInterface(file);
+    dbi.migration(1, db -> db.runSql(TestRecord.CREATE)).open();
+    assertEquals(0, dbi.getMigrations().getApplied());
+    assertEquals(1, dbi.getVersion());
+    assertFalse(dbi.isDirty());
+  }
+}
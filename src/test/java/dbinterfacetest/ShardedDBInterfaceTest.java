@@ -0,0 +1,202 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import dbinterface.DBInterface;
+import dbinterface.Query;
+import dbinterface.ShardedDBInterface;
+
+public class ShardedDBInterfaceTest extends TestCase {
+  private File[] files;
+  private ShardedDBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    files = new File[3];
+    for(int i = 0; i < files.length; i++) {
+      files[i] = File.createTempFile("shard" + i, ".db");
+      files[i].delete();
+    }
+    dbi = open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+    for(File file : files) {
+      file.delete();
+    }
+  }
+
+  private ShardedDBInterface open() throws Exception {
+    ShardedDBInterface sharded = new ShardedDBInterface(files);
+    sharded.migration(1, db -> db.runSql(TestRecord.CREATE));
+    sharded.open();
+    return sharded;
+  }
+
+  private TestRecord save(String string, int number) throws Exception {
+    TestRecord tr = new TestRecord();
+    tr.stringVar = string;
+    tr.intVar = number;
+    tr.save(dbi);
+    return tr;
+  }
+
+  private int countIn(int shard) throws Exception {
+    return new Query(dbi.getShard(shard)).from(TestRecord.class).count();
+  }
+
+
+  public void testSaveFindDrop() throws Exception {
+    ArrayList<Integer> ids = new ArrayList<>();
+    for(int i = 0; i < 9; i++) {
+      int id = save("r" + i, i).getID();
+      assertFalse(ids.contains(id));
+      ids.add(id);
+    }
+    for(int shard = 0; shard < 3; shard++) {
+      assertEquals(3, countIn(shard));
+    }
+    TestRecord found = new Query(dbi).from(TestRecord.class).find(ids.get(4));
+    assertEquals("r4", found.stringVar);
+    assertEquals(1, new Query(dbi.getShard(dbi.shardFor(found.getID()))).from(TestRecord.class)
+        .where("id = ?", found.getID()).count());
+
+    found.intVar = 40;
+    found.save(dbi);
+    TestRecord reloaded = new Query(dbi).from(TestRecord.class).find(found.getID());
+    assertEquals(40, reloaded.intVar);
+    assertEquals(1, reloaded.drop(dbi));
+    assertNull(new Query(dbi).from(TestRecord.class).find(found.getID()));
+  }
+
+
+  public void testIdsStayUniqueAfterReopen() throws Exception {
+    int first = save("a", 1).getID();
+    dbi.close();
+    dbi = open();
+    int second = save("b", 2).getID();
+    assertTrue(second > first);
+    assertEquals(2, new Query(dbi).from(TestRecord.class).count());
+  }
+
+
+  public void testShardKey() throws Exception {
+    dbi.shardBy(TestRecord.class, tr -> tr.stringVar);
+    for(int i = 0; i < 6; i++) {
+      save("same", i);
+    }
+    int shard = dbi.shardFor(new Query(dbi).from(TestRecord.class).first().getID());
+    assertEquals(6, countIn(shard));
+  }
+
+
+  public void testScatterGather() throws Exception {
+    for(int i = 0; i < 20; i++) {
+      save("r" + (i % 4), i);
+    }
+    assertEquals(20, new Query(dbi).from(TestRecord.class).count());
+    assertEquals(190, ((Number) new Query(dbi).from(TestRecord.class).sum("intvar")).intValue());
+    assertEquals(19, ((Number) new Query(dbi).from(TestRecord.class).max("intvar")).intValue());
+    assertEquals(0, ((Number) new Query(dbi).from(TestRecord.class).min("intvar")).intValue());
+    assertEquals(5, new Query(dbi).from(TestRecord.class).where("stringvar = ?", "r1").count());
+
+    ArrayList<TestRecord> top = new Query(dbi).from(TestRecord.class).orderBy("intvar DESC").limit(5).all();
+    assertEquals(5, top.size());
+    for(int i = 0; i < 5; i++) {
+      assertEquals(19 - i, top.get(i).intVar);
+    }
+
+    ArrayList<TestRecord> sorted = new Query(dbi).from(TestRecord.class).orderBy("stringvar, intvar DESC").all();
+    assertEquals(20, sorted.size());
+    assertEquals("r0", sorted.get(0).stringVar);
+    assertEquals(16, sorted.get(0).intVar);
+    assertEquals("r3", sorted.get(19).stringVar);
+    assertEquals(3, sorted.get(19).intVar);
+
+    TestRecord lowest = new Query(dbi).from(TestRecord.class).orderBy("intvar").first();
+    assertEquals(0, lowest.intVar);
+  }
+
+
+  public void testBulkWrites() throws Exception {
+    TestRecord[] records = new TestRecord[30];
+    for(int i = 0; i < records.length; i++) {
+      records[i] = new TestRecord();
+      records[i].intVar = i;
+    }
+    dbi.batchInsert(records, records.length);
+    assertEquals(30, new Query(dbi).from(TestRecord.class).count());
+    ArrayList<TestRecord> all = new Query(dbi).from(TestRecord.class).all();
+    assertEquals(10, dbi.dropAll(all.subList(0, 10)));
+    assertEquals(5, new Query(dbi).from(TestRecord.class).where("intvar < ?", 100).limit(5).all().size());
+    assertEquals(20, new Query(dbi).from(TestRecord.class).drop());
+    assertEquals(0, new Query(dbi).from(TestRecord.class).count());
+  }
+
+
+  public void testForEachReusingLimit() throws Exception {
+    for(int i = 0; i < 20; i++) {
+      save("r" + i, i);
+    }
+    ArrayList<Integer> seen = new ArrayList<>();
+    int rows = new Query(dbi).from(TestRecord.class).limit(8).forEachReusing(new TestRecord(), tr -> seen.add(tr.intVar));
+    assertEquals(8, rows);
+    assertEquals(8, seen.size());
+    assertEquals(20, new Query(dbi).from(TestRecord.class).forEachReusing(new TestRecord(), tr -> { }));
+  }
+
+  public void testFailedCommitRollsBackTheRest() throws Exception {
+    dbi.runSql("PRAGMA foreign_keys = ON");
+    dbi.runSql("CREATE TABLE parent (id integer primary key)");
+    dbi.runSql("CREATE TABLE child (id integer primary key,"
+        + " parent_id integer REFERENCES parent(id) DEFERRABLE INITIALLY DEFERRED)");
+    try {
+      dbi.transaction(db -> {
+        dbi.getShard(0).runSql("INSERT INTO parent (id) VALUES (1)");
+        dbi.getShard(1).runSql("INSERT INTO child (parent_id) VALUES (7)");
+        dbi.getShard(2).runSql("INSERT INTO parent (id) VALUES (3)");
+      });
+      fail("Committed a missing parent");
+    } catch(SQLException sqe) {
+      assertTrue(sqe.getMessage(), sqe.getMessage().contains("constraint"));
+    }
+    assertEquals(1, new Query(dbi.getShard(0)).from("parent").count());
+    assertEquals(0, new Query(dbi.getShard(1)).from("child").count());
+    assertEquals(0, new Query(dbi.getShard(2)).from("parent").count());
+
+    // Each shard is back in autocommit, so this is seen by another connection straight away
+    dbi.getShard(1).runSql("INSERT INTO parent (id) VALUES (5)");
+    DBInterface other = new DBInterface(files[1]).open();
+    try {
+      assertEquals(1, new Query(other).from("parent").count());
+    } finally {
+      other.close();
+    }
+  }
+
+
+  public void testUnmergeable() throws Exception {
+    save("a", 1);
+    try {
+      new Query(dbi).from(TestRecord.class).scalar("avg(intvar)");
+      fail("Merged avg across shards");
+    } catch(UnsupportedOperationException uoe) {
+      // Expected
+    }
+    try {
+      new Query(dbi).from(TestRecord.class).orderBy("length(stringvar)").all();
+      fail("Merged on an expression");
+    } catch(UnsupportedOperationException uoe) {
+      // Expected
+    }
+  }
+}
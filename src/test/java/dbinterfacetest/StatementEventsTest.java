@@ -0,0 +1,132 @@
+package dbinterfacetest;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import dbinterface.DBInterface;
+import dbinterface.Query;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class StatementEventsTest extends TestCase {
+  private DBInterface dbi;
+
+  @Before
+  public void setUp() throws Exception {
+    dbi = new DBInterface()
+        .migration(1, db -> {
+          db.runSql(Author.CREATE);
+          db.runSql(Book.CREATE);
+        })
+        .open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dbi.close();
+  }
+
+  private interface Work {
+    void run() throws Exception;
+  }
+
+  /**
+   * Run work with every DBInterface event recorded, however fast.
+   */
+  private List<RecordedEvent> record(Work work) throws Exception {
+    Path file = Files.createTempFile("statements", ".jfr");
+    try(Recording recording = new Recording()) {
+      for(String name : new String[] {"Prepare", "Execute", "Fetch", "Commit"}) {
+        recording.enable("dbinterface." + name).withThreshold(Duration.ZERO);
+      }
+      recording.start();
+      work.run();
+      recording.stop();
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+    ArrayList<RecordedEvent> found = new ArrayList<>();
+    for(RecordedEvent event : events) {
+      if(event.getEventType().getName().equals("dbinterface." + name)) {
+        found.add(event);
+      }
+    }
+    return found;
+  }
+
+
+  public void testExecuteHasSqlBindsAndRows() throws Exception {
+    Author author = new Author("Events");
+    author.save(dbi);
+    List<RecordedEvent> events = record(() -> {
+      new Book("One", author).save(dbi);
+      new Book("Two", author).save(dbi);
+      HashMap<String, Object> values = new HashMap<>();
+      values.put("title", "Renamed");
+      dbi.update("book", values, "author_id = ?", new Object[] {author.getID()});
+    });
+    List<RecordedEvent> executes = named(events, "Execute");
+    RecordedEvent insert = null;
+    RecordedEvent update = null;
+    for(RecordedEvent event : executes) {
+      String sql = event.getString("sql");
+      if(sql.startsWith("INSERT INTO book")) {
+        insert = event;
+      } else if(sql.startsWith("UPDATE book")) {
+        update = event;
+      }
+    }
+    assertNotNull(insert);
+    assertEquals(1L, insert.getLong("rows"));
+    assertTrue(insert.getInt("binds") > 0);
+    assertNotNull(update);
+    assertEquals(2L, update.getLong("rows"));
+    assertEquals(2, update.getInt("binds"));
+    assertFalse(named(events, "Prepare").isEmpty());
+  }
+
+
+  public void testFetchCountsRows() throws Exception {
+    Author author = new Author("Events");
+    author.save(dbi);
+    dbi.transaction(db -> {
+      for(int i = 0; i < 5; i++) {
+        new Book("Book " + i, author).save(db);
+      }
+    });
+    List<RecordedEvent> events = record(() -> {
+      new Query(dbi).from(Book.class).all();
+      new Query(dbi).from(Book.class).where("title = ?", "Book 3").first();
+    });
+    List<RecordedEvent> fetches = named(events, "Fetch");
+    assertEquals(2, fetches.size());
+    assertEquals("book", fetches.get(0).getString("table"));
+    assertEquals(Book.class.getName(), fetches.get(0).getString("recordClass"));
+    assertEquals(5L, fetches.get(0).getLong("rows"));
+    assertEquals(1L, fetches.get(1).getLong("rows"));
+    for(RecordedEvent event : named(events, "Execute")) {
+      assertEquals(-1L, event.getLong("rows"));
+    }
+  }
+
+
+  public void testCommit() throws Exception {
+    List<RecordedEvent> events = record(() -> dbi.transaction(db -> new Author("Committed").save(db)));
+    assertEquals(1, named(events, "Commit").size());
+  }
+}